@@ -0,0 +1,128 @@
+package com.hit.bench;
+
+import com.hit.search.TrigramBloomFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory against false positive rate of the per-document trigram Bloom filters, to tune
+ * {@code -Ditalk.bloomBitsPerTrigram}.
+ * <p>
+ * The setup of each configuration prints the average filter size per document and two rates,
+ * measured over patterns that do not occur in the documents:
+ * <ul>
+ *   <li> the Bloom false positive rate: the share of documents lacking one of the pattern's
+ *        trigrams that the filter still lets through </li>
+ *   <li> the pass rate: the share of documents lacking the pattern that still have to be verified
+ *        with the string matching algorithm (it includes documents having all the trigrams) </li>
+ * </ul>
+ * The benchmark itself measures the cost of checking a pattern against every filter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BloomFilterBenchmark {
+    private static final String[] WORDS = {
+            "milk", "first", "cereal", "or", "the", "code", "only", "works", "at", "3", "am", "anyone",
+            "else", "i", "took", "a", "nap", "and", "woke", "up", "debate", "program", "refuses", "to", "run"
+    };
+    private static final int DOCUMENTS = 1000;
+    private static final int PATTERNS = 200;
+
+    @Param({"4", "6", "8", "10", "12", "16"})
+    public int bitsPerTrigram;
+
+    @Param({"280", "2000"})
+    public int textLength;
+
+    private final List<TrigramBloomFilter> filters = new ArrayList<>();
+    private final List<long[]> patterns = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<String> texts = new ArrayList<>();
+        long bytes = 0;
+        for (int i = 0; i < DOCUMENTS; i++) {
+            StringBuilder builder = new StringBuilder(textLength + 16);
+            while (builder.length() < textLength)
+                builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            String text = builder.substring(0, textLength);
+            texts.add(text);
+            TrigramBloomFilter filter = TrigramBloomFilter.of(text, bitsPerTrigram);
+            filters.add(filter);
+            bytes += filter.sizeInBytes();
+        }
+
+        // Absent patterns: pairs of words that never follow each other, and random letters
+        List<String> patternTexts = new ArrayList<>();
+        while (patternTexts.size() < PATTERNS) {
+            String pattern = random.nextBoolean()
+                    ? WORDS[random.nextInt(WORDS.length)] + "-" + WORDS[random.nextInt(WORDS.length)]
+                    : randomLetters(random, 4 + random.nextInt(4));
+            patternTexts.add(pattern);
+            patterns.add(TrigramBloomFilter.patternTrigrams(pattern));
+        }
+
+        long lackingTrigram = 0;
+        long bloomFalsePositives = 0;
+        long lackingPattern = 0;
+        long passed = 0;
+        for (int d = 0; d < DOCUMENTS; d++) {
+            Set<String> documentTrigrams = trigrams(texts.get(d));
+            for (int p = 0; p < PATTERNS; p++) {
+                String pattern = patternTexts.get(p);
+                if (texts.get(d).contains(pattern))
+                    continue;
+                boolean mightContain = filters.get(d).mightContainAll(patterns.get(p));
+                lackingPattern++;
+                if (mightContain)
+                    passed++;
+                if (!documentTrigrams.containsAll(trigrams(pattern))) {
+                    lackingTrigram++;
+                    if (mightContain)
+                        bloomFalsePositives++;
+                }
+            }
+        }
+        System.out.printf("%nbitsPerTrigram=%d textLength=%d: %.1f bytes/document, "
+                        + "Bloom false positive rate %.3f%%, pass rate %.3f%%%n",
+                bitsPerTrigram, textLength, (double) bytes / DOCUMENTS,
+                100.0 * bloomFalsePositives / Math.max(1, lackingTrigram), 100.0 * passed / Math.max(1, lackingPattern));
+    }
+
+    @Benchmark
+    public int checkAllDocuments() {
+        int passed = 0;
+        for (TrigramBloomFilter filter : filters) {
+            for (long[] pattern : patterns) {
+                if (filter.mightContainAll(pattern))
+                    passed++;
+            }
+        }
+        return passed;
+    }
+
+    private static String randomLetters(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+
+    private static Set<String> trigrams(String text) {
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++)
+            trigrams.add(text.substring(i, i + 3));
+        return trigrams;
+    }
+}
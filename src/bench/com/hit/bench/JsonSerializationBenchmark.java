@@ -0,0 +1,92 @@
+package com.hit.bench;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.hit.dm.Post;
+import com.hit.dm.SearchResult;
+import com.hit.json.Json;
+import com.hit.server.Request;
+import com.hit.server.Response;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hand-written type adapters of {@link Json#GSON} against Gson's reflection, on what the server
+ * serializes the most: a request, a search response, the list of all the posts, and the posts file
+ * read when a data access object loads its data.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonSerializationBenchmark {
+    private static final int POSTS = 200;
+    private static final Type POST_FILE_TYPE = new TypeToken<HashMap<Long, Post>>() {
+    }.getType();
+
+    @Param({"reflection", "adapters"})
+    public String serializer;
+
+    private Gson gson;
+    private Request request;
+    private String requestJson;
+    private Response searchResponse;
+    private Response allPostsResponse;
+    private String postFileJson;
+
+    @Setup
+    public void setUp() {
+        gson = serializer.equals("adapters") ? Json.GSON : new Gson();
+
+        HashMap<Long, Post> posts = new HashMap<>();
+        SearchResult<Post> searchResult = new SearchResult<>("milk first");
+        for (long id = 1; id <= POSTS; id++) {
+            Post post = new Post(id, "Post " + id, "user" + (id % 10),
+                    (id % 10 == 0 ? "milk first, then cereal. " : "cereal first. ").repeat(10), id);
+            posts.put(id, post);
+            if (id % 10 == 0)
+                searchResult.addMatch(post, new int[]{0});
+        }
+        searchResult.setPlan("INDEX_LOOKUP");
+
+        request = new Request("comment/create", new HashMap<>(Map.of(
+                "postId", 7, "userName", "user7", "content", "cereal first, obviously.")));
+        request.setKeepAlive(true);
+        requestJson = gson.toJson(request);
+        searchResponse = new Response(200, Map.of("result", searchResult));
+        allPostsResponse = new Response(200, Map.of("result", List.copyOf(posts.values())));
+        postFileJson = gson.toJson(posts, POST_FILE_TYPE);
+    }
+
+    @Benchmark
+    public Request deserializeRequest() {
+        return gson.fromJson(requestJson, Request.class);
+    }
+
+    @Benchmark
+    public String serializeRequest() {
+        return gson.toJson(request);
+    }
+
+    @Benchmark
+    public String serializeSearchResponse() {
+        return gson.toJson(searchResponse, Response.class);
+    }
+
+    @Benchmark
+    public String serializeAllPosts() {
+        return gson.toJson(allPostsResponse, Response.class);
+    }
+
+    @Benchmark
+    public HashMap<Long, Post> deserializePostFile() {
+        return gson.fromJson(postFileJson, POST_FILE_TYPE);
+    }
+}
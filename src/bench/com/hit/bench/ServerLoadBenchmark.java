@@ -0,0 +1,209 @@
+package com.hit.bench;
+
+import com.google.gson.Gson;
+import com.hit.controller.ControllerFactory;
+import com.hit.dao.PostDaoImpl;
+import com.hit.dm.Post;
+import com.hit.json.Json;
+import com.hit.server.NioServer;
+import com.hit.server.Request;
+import com.hit.server.Server;
+import com.hit.server.ServerConfig;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Closed-loop load test of the blocking {@link Server} with each {@link ServerConfig.ExecutorType}
+ * and of the {@link NioServer} with a platform and a virtual worker pool:
+ * a number of concurrent clients connect, send a search and wait for the answer, again and again.
+ * The search is selective, so the measure is dominated by the handling of the connections.
+ * Prints the throughput, the p50 and p99 latencies and the number of rejected (503) and failed requests.
+ * This is not a JMH benchmark; run it with:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbench.main=com.hit.bench.ServerLoadBenchmark -Dbench.args="512 10"
+ * </pre>
+ * The arguments are the number of clients (default 256), the seconds per server (default 10),
+ * {@code keep-alive} to send all the requests of a client on one kept-alive connection instead of
+ * {@code close} for a new connection per request (the default), and a number of idle connections
+ * to open before the load starts and hold during it (default 0).
+ */
+public class ServerLoadBenchmark {
+    private static final Gson GSON = Json.GSON;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        boolean keepAlive = args.length > 2 && args[2].equals("keep-alive");
+        int idleConnections = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+        Path dataDirectory = Files.createTempDirectory("italk-load");
+        PostDaoImpl postDao = new PostDaoImpl(dataDirectory.resolve("post.json").toString());
+        for (long id = 1; id <= 500; id++)
+            postDao.save(new Post(id, "Post " + id, "user" + (id % 10),
+                    (id % 50 == 0 ? "milk first, then cereal. " : "cereal first. ").repeat(20), id));
+        Request searchRequest = new Request("post/search-contents", Map.of("searchPattern", "milk first"));
+        searchRequest.setKeepAlive(keepAlive);
+        String request = GSON.toJson(searchRequest);
+
+        PrintStream out = System.out;
+        System.out.printf("%d clients, %d s per server, %s, %d idle connections%n", clients, seconds,
+                keepAlive ? "kept-alive connections" : "one connection per request", idleConnections);
+        System.out.printf("%-30s %12s %10s %10s %10s %10s%n",
+                "server", "requests/s", "p50 ms", "p99 ms", "rejected", "failed");
+
+        List<Target> targets = new ArrayList<>();
+        for (ServerConfig.ExecutorType executorType : ServerConfig.ExecutorType.values()) {
+            ServerConfig config = newConfig(executorType);
+            Server server = new Server(config, new ControllerFactory(dataDirectory.toString()));
+            targets.add(new Target("BLOCKING/" + executorType, server, server::getPort, server::stop));
+        }
+        for (ServerConfig.ExecutorType executorType : List.of(ServerConfig.ExecutorType.PLATFORM_POOL,
+                ServerConfig.ExecutorType.VIRTUAL)) {
+            NioServer server = new NioServer(newConfig(executorType), new ControllerFactory(dataDirectory.toString()));
+            targets.add(new Target("NIO/" + executorType, server, server::getPort, server::stop));
+        }
+
+        for (Target target : targets) {
+            Thread serverThread = new Thread(target.server());
+            // The server logs every connection, keep the report readable
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            serverThread.start();
+            List<Connection> idle = new ArrayList<>();
+            try {
+                for (int i = 0; i < idleConnections; i++)
+                    idle.add(new Connection(target.port().getAsInt()));
+            } catch (IOException e) {
+                System.err.println("Could only open " + idle.size() + " idle connections: " + e);
+            }
+            run(target.port().getAsInt(), request, keepAlive, clients, Math.max(1, seconds / 5)); // warm-up
+            Result result = run(target.port().getAsInt(), request, keepAlive, clients, seconds);
+            idle.forEach(Connection::close);
+            target.stop().run();
+            serverThread.join();
+            System.setOut(out);
+            System.out.printf("%-30s %12.0f %10.2f %10.2f %10d %10d%n", target.name(),
+                    result.requests / (double) seconds, result.percentile(0.50), result.percentile(0.99),
+                    result.rejected, result.failed);
+        }
+    }
+
+    private record Target(String name, Runnable server, IntSupplier port, Runnable stop) {
+    }
+
+    private static ServerConfig newConfig(ServerConfig.ExecutorType executorType) {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setExecutorType(executorType);
+        // Every simulated client connects from localhost, the per-client limits would throttle them all
+        config.setClientRequestsPerSecond(0);
+        config.setClientExpensiveCostPerSecond(0);
+        return config;
+    }
+
+    private record Result(long requests, long[] latencies, long rejected, long failed) {
+        double percentile(double p) {
+            if (latencies.length == 0)
+                return Double.NaN;
+            return latencies[(int) Math.min(latencies.length - 1, Math.floor(p * latencies.length))] / 1e6;
+        }
+    }
+
+    private static Result run(int port, String request, boolean keepAlive, int clients, int seconds)
+            throws InterruptedException {
+        ConcurrentLinkedQueue<long[]> latencies = new ConcurrentLinkedQueue<>();
+        LongAdder rejected = new LongAdder();
+        LongAdder failed = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        // Virtual threads for the clients, so that the load generator itself is not the limit
+        try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                clientThreads.execute(() -> {
+                    long[] own = new long[1024];
+                    int size = 0;
+                    Connection connection = null;
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try {
+                            if (connection == null)
+                                connection = new Connection(port);
+                            String answer = connection.send(request);
+                            if (!keepAlive || answer == null) {
+                                connection.close();
+                                connection = null;
+                            }
+                            if (answer == null) {
+                                failed.increment();
+                                continue;
+                            }
+                            if (answer.contains("\"status\":503")) {
+                                rejected.increment();
+                                continue;
+                            }
+                            if (size == own.length)
+                                own = Arrays.copyOf(own, size * 2);
+                            own[size++] = System.nanoTime() - start;
+                        } catch (IOException e) {
+                            failed.increment();
+                            if (connection != null) {
+                                connection.close();
+                                connection = null;
+                            }
+                        }
+                    }
+                    if (connection != null)
+                        connection.close();
+                    latencies.add(Arrays.copyOf(own, size));
+                });
+            }
+        }
+
+        long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        return new Result(all.length, all, rejected.sum(), failed.sum());
+    }
+
+    private static class Connection {
+        private final Socket socket;
+        private final OutputStream output;
+        private final BufferedReader reader;
+
+        Connection(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setSoTimeout(30_000);
+            output = socket.getOutputStream();
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        String send(String request) throws IOException {
+            output.write((request + "\n").getBytes(StandardCharsets.UTF_8));
+            output.flush();
+            return reader.readLine();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing to do, the connection is dropped
+            }
+        }
+    }
+}
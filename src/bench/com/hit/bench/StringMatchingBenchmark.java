@@ -0,0 +1,60 @@
+package com.hit.bench;
+
+import com.hit.algorithm.IAlgoStringMatching;
+import com.hit.algorithm.KMPStringMatchingImpl;
+import com.hit.algorithm.SimdStringMatchingImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares KMP with the first/last-character filtering scanner (vectorized and scalar)
+ * on forum-sized texts: a comment, a post and a long thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class StringMatchingBenchmark {
+    private static final String[] WORDS = {
+            "milk", "first", "cereal", "or", "the", "code", "only", "works", "at", "3", "am", "anyone",
+            "else", "i", "took", "a", "nap", "and", "woke", "up", "debate", "program", "refuses", "to", "run"
+    };
+
+    @Param({"280", "2000", "64000"})
+    public int textLength;
+
+    @Param({"short", "long"})
+    public String patternKind;
+
+    @Param({"kmp", "simd-vector", "simd-scalar"})
+    public String algorithm;
+
+    private String text;
+    private String pattern;
+    private IAlgoStringMatching stringMatching;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder(textLength + 16);
+        while (builder.length() < textLength)
+            builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        text = builder.substring(0, textLength);
+
+        pattern = patternKind.equals("short") ? "milk" : "the cereal-to-milk ratio stays perfect";
+        stringMatching = switch (algorithm) {
+            case "kmp" -> new KMPStringMatchingImpl();
+            case "simd-vector" -> new SimdStringMatchingImpl(true);
+            default -> new SimdStringMatchingImpl(false);
+        };
+    }
+
+    @Benchmark
+    public int[] search() {
+        return stringMatching.search(text, pattern);
+    }
+}
@@ -0,0 +1,154 @@
+package com.hit.bench;
+
+import com.google.gson.Gson;
+import com.hit.client.BinaryClient;
+import com.hit.controller.ControllerFactory;
+import com.hit.dao.PostDaoImpl;
+import com.hit.dm.Post;
+import com.hit.json.Json;
+import com.hit.server.BinaryCodec;
+import com.hit.server.NioServer;
+import com.hit.server.Request;
+import com.hit.server.Response;
+import com.hit.server.ServerConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The binary protocol of the {@link BinaryCodec} against the JSON one, for a single post, a search
+ * result and the list of all the posts.
+ * <p>
+ * The codec benchmarks measure what the server spends on a request besides handling it: decoding the
+ * request and encoding the response. The round trip benchmarks send the request to a {@link NioServer}
+ * on one kept-alive connection and wait for the decoded response. The setup prints the size of the
+ * request and of the response in both protocols.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WireProtocolBenchmark {
+    private static final int POSTS = 200;
+
+    @Param({"post/get", "post/search-contents", "post/get-all"})
+    public String action;
+
+    private final Gson gson = Json.GSON;
+    private PrintStream out;
+    private NioServer server;
+    private Thread serverThread;
+    private BinaryClient binaryClient;
+    private Socket jsonSocket;
+    private OutputStream jsonOutput;
+    private BufferedReader jsonReader;
+
+    private Request request;
+    private Response response;
+    private String jsonRequest;
+    private byte[] binaryRequest;
+
+    @Setup
+    public void setUp() throws Exception {
+        Path dataDirectory = Files.createTempDirectory("italk-wire");
+        PostDaoImpl postDao = new PostDaoImpl(dataDirectory.resolve("post.json").toString());
+        for (long id = 1; id <= POSTS; id++)
+            postDao.save(new Post(id, "Post " + id, "user" + (id % 10),
+                    (id % 10 == 0 ? "milk first, then cereal. " : "cereal first. ").repeat(10), id));
+
+        Map<String, Object> body = new HashMap<>();
+        switch (action) {
+            case "post/get" -> body.put("postId", 7);
+            case "post/search-contents" -> body.put("searchPattern", "milk first");
+            default -> {
+            }
+        }
+        request = new Request(action, body);
+        request.setKeepAlive(true);
+        jsonRequest = gson.toJson(request);
+        byte[] binaryFrame = BinaryCodec.encodeRequest(request);
+        binaryRequest = Arrays.copyOfRange(binaryFrame, BinaryCodec.FRAME_HEADER_BYTES, binaryFrame.length);
+
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        // One connection per protocol serves the whole run, including the benchmarks that leave it idle
+        config.setIdleTimeoutMillis((int) TimeUnit.HOURS.toMillis(1));
+        // The benchmark loops on the same requests, as fast as the per-client limits would refuse
+        config.setClientRequestsPerSecond(0);
+        config.setClientExpensiveCostPerSecond(0);
+        server = new NioServer(config, new ControllerFactory(dataDirectory.toString()));
+        // The server logs every request, keep the report readable
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        serverThread = new Thread(server);
+        serverThread.start();
+
+        binaryClient = new BinaryClient("localhost", server.getPort());
+        jsonSocket = new Socket("localhost", server.getPort());
+        jsonSocket.setTcpNoDelay(true);
+        jsonOutput = jsonSocket.getOutputStream();
+        jsonReader = new BufferedReader(new InputStreamReader(jsonSocket.getInputStream(), StandardCharsets.UTF_8));
+
+        // The response as the server builds it, for the codec benchmarks
+        response = binaryClient.send(request);
+        int jsonResponseBytes = gson.toJson(response).getBytes(StandardCharsets.UTF_8).length + 1;
+        int binaryResponseBytes = BinaryCodec.encodeResponse(response).length;
+        out.printf("%n%s: request %d JSON bytes, %d binary bytes; response %d JSON bytes, %d binary bytes%n",
+                action, jsonRequest.length() + 1, binaryFrame.length, jsonResponseBytes, binaryResponseBytes);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        binaryClient.close();
+        jsonSocket.close();
+        server.stop();
+        serverThread.join();
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public Request jsonDecodeRequest() {
+        return gson.fromJson(jsonRequest, Request.class);
+    }
+
+    @Benchmark
+    public Request binaryDecodeRequest() {
+        return BinaryCodec.decodeRequest(binaryRequest);
+    }
+
+    @Benchmark
+    public String jsonEncodeResponse() {
+        return gson.toJson(response);
+    }
+
+    @Benchmark
+    public byte[] binaryEncodeResponse() {
+        return BinaryCodec.encodeResponse(response);
+    }
+
+    @Benchmark
+    public Response jsonRoundTrip() throws IOException {
+        jsonOutput.write((gson.toJson(request) + "\n").getBytes(StandardCharsets.UTF_8));
+        jsonOutput.flush();
+        return gson.fromJson(jsonReader.readLine(), Response.class);
+    }
+
+    @Benchmark
+    public Response binaryRoundTrip() throws IOException {
+        return binaryClient.send(request);
+    }
+}
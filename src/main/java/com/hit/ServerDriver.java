@@ -1,10 +1,19 @@
 package com.hit;
 
+import com.hit.server.IServer;
+import com.hit.server.NioServer;
 import com.hit.server.Server;
+import com.hit.server.ServerConfig;
 
 public class ServerDriver {
     public static void main(String[] args) {
-        Server server = new Server(34567);
+        // Port 34567, blocking sockets and a bounded platform thread pool, unless set with -Ditalk.server.* properties
+        ServerConfig config = ServerConfig.fromSystemProperties();
+        IServer server = config.getServerType() == ServerConfig.ServerType.NIO
+                ? new NioServer(config) : new Server(config);
+        // On Ctrl+C or SIGTERM, complete the requests being handled so no data file write is cut short
+        Runtime.getRuntime().addShutdownHook(new Thread(
+                () -> server.shutdown(config.getShutdownTimeoutMillis()), "italk-shutdown-hook"));
         new Thread(server).start();
     }
 }
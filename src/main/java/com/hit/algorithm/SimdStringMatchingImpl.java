@@ -0,0 +1,101 @@
+package com.hit.algorithm;
+
+/**
+ * A substring scanner that filters candidate positions by comparing the first and the last
+ * character of the pattern against a whole block of text positions at once, and only verifies
+ * the remaining characters at the positions where both compare equal.
+ * <p>
+ * The block comparison uses the incubating Vector API ({@code jdk.incubator.vector}) when
+ * the module is present (run with {@code --add-modules jdk.incubator.vector}); otherwise the
+ * same filter runs one position at a time, so the class is always safe to use.
+ * Like {@link KMPStringMatchingImpl}, every (possibly overlapping) occurrence is reported.
+ */
+public class SimdStringMatchingImpl implements IAlgoStringMatching {
+    private static final boolean VECTOR_API_AVAILABLE = isVectorApiAvailable();
+
+    private final boolean vectorized;
+
+    /**
+     * Creates a scanner that uses the Vector API when it is available.
+     */
+    public SimdStringMatchingImpl() {
+        this(VECTOR_API_AVAILABLE);
+    }
+
+    /**
+     * @param vectorized whether to use the Vector API; ignored (scalar) when the module is not available
+     */
+    public SimdStringMatchingImpl(boolean vectorized) {
+        this.vectorized = vectorized && VECTOR_API_AVAILABLE;
+    }
+
+    public boolean isVectorized() {
+        return vectorized;
+    }
+
+    public static boolean isVectorApiAvailable() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return false;
+        try {
+            return VectorScanKernel.blockLength() > 1;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    @Override
+    public int[] search(String text, String pattern) {
+        if (text == null || pattern == null || pattern.isEmpty() || pattern.length() > text.length())
+            return new int[0];
+
+        char[] textChars = text.toCharArray();
+        char[] patternChars = pattern.toCharArray();
+        MatchCollector collector = new MatchCollector();
+
+        int scalarStart = 0;
+        if (vectorized)
+            scalarStart = VectorScanKernel.scan(textChars, patternChars, collector);
+        scalarScan(textChars, patternChars, scalarStart, collector);
+
+        return collector.toArray();
+    }
+
+    private static void scalarScan(char[] text, char[] pattern, int from, MatchCollector collector) {
+        int m = pattern.length;
+        char first = pattern[0];
+        char last = pattern[m - 1];
+        for (int i = from; i <= text.length - m; i++) {
+            if (text[i] == first && text[i + m - 1] == last && matchesAt(text, pattern, i))
+                collector.add(i);
+        }
+    }
+
+    /**
+     * Verifies the characters between the first and the last one.
+     */
+    static boolean matchesAt(char[] text, char[] pattern, int position) {
+        for (int j = 1; j < pattern.length - 1; j++) {
+            if (text[position + j] != pattern[j])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * A growable int array, so that hits are not boxed.
+     */
+    static class MatchCollector {
+        private int[] positions = new int[8];
+        private int size;
+
+        void add(int position) {
+            if (size == positions.length)
+                positions = java.util.Arrays.copyOf(positions, size * 2);
+            positions[size++] = position;
+        }
+
+        int[] toArray() {
+            return java.util.Arrays.copyOf(positions, size);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.hit.algorithm;
+
+/**
+ * Creates string matching algorithms by name, so the engine can be chosen at runtime
+ * (for example with {@code -Ditalk.stringMatching=simd}).
+ */
+public final class StringMatchingAlgorithms {
+    public static final String PROPERTY = "italk.stringMatching";
+
+    private StringMatchingAlgorithms() {
+    }
+
+    /**
+     * @param name one of "kmp", "trie" or "simd" (case-insensitive)
+     * @return a new instance of the named algorithm
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static IAlgoStringMatching create(String name) {
+        return switch (name.toLowerCase()) {
+            case "kmp" -> new KMPStringMatchingImpl();
+            case "trie" -> new TrieStringMatchingImpl();
+            case "simd" -> new SimdStringMatchingImpl();
+            default -> throw new IllegalArgumentException("Unknown string matching algorithm: " + name);
+        };
+    }
+
+    /**
+     * Creates the algorithm named by the {@value #PROPERTY} system property, KMP by default.
+     */
+    public static IAlgoStringMatching fromSystemProperty() {
+        return create(System.getProperty(PROPERTY, "kmp"));
+    }
+}
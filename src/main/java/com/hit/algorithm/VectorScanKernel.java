@@ -0,0 +1,53 @@
+package com.hit.algorithm;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The Vector API part of {@link SimdStringMatchingImpl}.
+ * It is kept in its own class so that it is only loaded when the incubator module is present.
+ */
+class VectorScanKernel {
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+
+    private VectorScanKernel() {
+    }
+
+    static int blockLength() {
+        return SPECIES.length();
+    }
+
+    /**
+     * Scans the text block by block and reports every verified match.
+     *
+     * @return the first position that was not scanned; the caller finishes the tail with scalar code
+     */
+    static int scan(char[] text, char[] pattern, SimdStringMatchingImpl.MatchCollector collector) {
+        int m = pattern.length;
+        int blockLength = SPECIES.length();
+        short first = (short) pattern[0];
+        short last = (short) pattern[m - 1];
+
+        int i = 0;
+        // Both loads (at i and at i + m - 1) must stay inside the text.
+        for (; i + blockLength + m - 1 <= text.length; i += blockLength) {
+            VectorMask<Short> firstEq = ShortVector.fromCharArray(SPECIES, text, i)
+                    .compare(VectorOperators.EQ, first);
+            if (!firstEq.anyTrue())
+                continue;
+
+            VectorMask<Short> candidates = firstEq.and(ShortVector.fromCharArray(SPECIES, text, i + m - 1)
+                    .compare(VectorOperators.EQ, last));
+            long bits = candidates.toLong();
+            while (bits != 0) {
+                int position = i + Long.numberOfTrailingZeros(bits);
+                if (SimdStringMatchingImpl.matchesAt(text, pattern, position))
+                    collector.add(position);
+                bits &= bits - 1;
+            }
+        }
+        return i;
+    }
+}
@@ -0,0 +1,103 @@
+package com.hit.client;
+
+import com.hit.json.Json;
+import com.hit.server.BinaryCodec;
+import com.hit.server.Request;
+import com.hit.server.Response;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * The BinaryClient class sends requests over the binary protocol of the {@link BinaryCodec},
+ * on a single connection kept open until the client is closed.
+ * <p>
+ * The results come back as the model classes: a "post/get" result is a {@link com.hit.dm.Post},
+ * a search result a {@link com.hit.dm.SearchResult} of posts or comments. Requests are sent one at
+ * a time, each waiting for its response; a client may be shared by threads, which take turns.
+ */
+public class BinaryClient implements AutoCloseable {
+    private final Socket socket;
+    private final DataInputStream input;
+    private final OutputStream output;
+
+    /**
+     * Opens a connection and selects the binary protocol.
+     *
+     * @param host the server host
+     * @param port the server port
+     * @throws IOException if the server cannot be reached
+     */
+    public BinaryClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        output = new BufferedOutputStream(socket.getOutputStream());
+        output.write(BinaryCodec.MAGIC);
+    }
+
+    /**
+     * Sends a request and waits for its response.
+     *
+     * @param action the action, e.g. "post/get"
+     * @param body   the parameters of the action
+     * @return the response of the server
+     * @throws IOException              if the connection fails or is closed by the server
+     * @throws IllegalArgumentException if the action has no binary code or the request is too large
+     */
+    public Response send(String action, Map<String, Object> body) throws IOException {
+        return send(new Request(action, body));
+    }
+
+    /**
+     * Sends a request and waits for its response.
+     *
+     * @param request the request to send
+     * @return the response of the server
+     * @throws IOException              if the connection fails or is closed by the server
+     * @throws IllegalArgumentException if the action has no binary code or the request is too large
+     */
+    public synchronized Response send(Request request) throws IOException {
+        output.write(BinaryCodec.encodeRequest(request));
+        output.flush();
+        return readResponse();
+    }
+
+    private Response readResponse() throws IOException {
+        input.mark(1);
+        int first = input.read();
+        if (first < 0)
+            throw new EOFException("Connection closed by the server");
+        if (first == '{') {
+            // A server too busy to read the connection answers in JSON and closes it
+            return Json.GSON.fromJson((char) first + readLine(), Response.class);
+        }
+        input.reset();
+
+        int length = input.readInt();
+        if (length < 0)
+            throw new IOException("Invalid frame length: " + length);
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+        try {
+            return BinaryCodec.decodeResponse(payload);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed response", e);
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) >= 0 && b != '\n')
+            line.write(b);
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
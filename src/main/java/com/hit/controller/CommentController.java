@@ -1,12 +1,20 @@
 package com.hit.controller;
 
 import com.hit.dm.Comment;
+import com.hit.dm.CompactSearchResult;
+import com.hit.dm.QueryResult;
 import com.hit.dm.SearchResult;
+import com.hit.dm.SyncResult;
+import com.hit.search.IMatchSink;
+import com.hit.search.SearchPlanLog;
+import com.hit.search.SearchSummary;
+import com.hit.search.SnippetExtractor;
 import com.hit.service.CommentService;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 /**
  * The CommentController exposes API endpoints for operations on Comments.
@@ -14,6 +22,7 @@ import java.util.Map;
  */
 public class CommentController {
     private final CommentService commentService;
+    private final SnippetExtractor<Comment> snippetExtractor = new SnippetExtractor<>(Comment::getId, Comment::getPostId, _ -> null);
 
     public CommentController(CommentService commentService) {
         this.commentService = commentService;
@@ -33,7 +42,7 @@ public class CommentController {
      * @throws IOException if an I/O error occurs during saving
      */
     public void createComment(Map<String, Object> requestBody) throws IOException {
-        long postId = getLongFromBody(requestBody, "postId");
+        long postId = RequestParams.getLong(requestBody, "postId");
         String userName = (String) requestBody.get("userName");
         String content = (String) requestBody.get("content");
         commentService.createComment(postId, userName, content);
@@ -54,7 +63,7 @@ public class CommentController {
      * @throws IOException if an I/O error occurs during the operation
      */
     public boolean editComment(Map<String, Object> requestBody) throws IOException {
-        long commentId = getLongFromBody(requestBody, "commentId");
+        long commentId = RequestParams.getLong(requestBody, "commentId");
         String userName = (String) requestBody.get("userName");
         String content = (String) requestBody.get("content");
         return commentService.editComment(commentId, userName, content);
@@ -74,7 +83,7 @@ public class CommentController {
      * @throws IOException if an I/O error occurs during deletion
      */
     public boolean removeComment(Map<String, Object> requestBody) throws IOException {
-        long commentId = getLongFromBody(requestBody, "commentId");
+        long commentId = RequestParams.getLong(requestBody, "commentId");
         String userName = (String) requestBody.get("userName");
         return commentService.removeComment(commentId, userName);
     }
@@ -92,7 +101,7 @@ public class CommentController {
      * @throws IOException if an I/O error occurs.
      */
     public Comment getCommentById(Map<String, Object> requestBody) throws IOException {
-        long commentId = getLongFromBody(requestBody, "commentId");
+        long commentId = RequestParams.getLong(requestBody, "commentId");
         return commentService.getCommentById(commentId);
     }
 
@@ -106,6 +115,26 @@ public class CommentController {
         return commentService.getAllComments();
     }
 
+    /**
+     * <h5> Retrieves the comments changed since the last sync. </h5>
+     * The client sends the version of its previous sync and gets the comments created or edited since,
+     * the IDs of those removed, and the version to send next time. Without a version, or with one too
+     * old for the retained history, the result is full: all the comments.
+     *
+     * @param requestBody a map containing the sync details:<br>
+     *                    <ul>
+     *                      <li> "sinceVersion": optional, the version of the previous sync (Long) </li>
+     *                      <li> "postId": optional, only the comments of this post (Long) </li>
+     *                    </ul>
+     * @return the changed comments, or all of them
+     * @throws IOException if an I/O error occurs.
+     */
+    public SyncResult<Comment> syncComments(Map<String, Object> requestBody) throws IOException {
+        Long sinceVersion = RequestParams.getOptionalLong(requestBody, "sinceVersion");
+        Long postId = RequestParams.getOptionalLong(requestBody, "postId");
+        return commentService.syncComments(sinceVersion, postId);
+    }
+
     /**
      * <h5> Searches the contents of comments for a given search pattern. </h5>
      * This method retrieves the search pattern from the request body and
@@ -114,26 +143,132 @@ public class CommentController {
      * @param requestBody a map containing the search details:<br>
      *                    <ul>
      *                      <li> "searchPattern": the pattern to search for in comment contents (String) </li>
+     *                      <li> "userName": optional, only comments of this author (String) </li>
+     *                      <li> "fromTimestamp": optional, only comments created at or after this time, in epoch millis (Long) </li>
+     *                      <li> "toTimestamp": optional, only comments created at or before this time, in epoch millis (Long) </li>
      *                    </ul>
      * @return a `SearchResult` containing comments whose contents match the search pattern
      * @throws IOException if an I/O error occurs during the search
      */
     public SearchResult<Comment> searchContents(Map<String, Object> requestBody) throws IOException {
         String searchPattern = (String) requestBody.get("searchPattern");
-        return commentService.stringMatchingSearchContents(searchPattern);
+        return commentService.stringMatchingSearchContents(searchPattern, RequestParams.getSearchFilter(requestBody));
+    }
+
+    /**
+     * <h5> Searches comments by content and hands every match to a sink as soon as it is found. </h5>
+     * This method retrieves the search pattern, the optional filter and the result limit
+     * from the request body and delegates the streamed search to the `commentService`.
+     *
+     * @param requestBody a map containing the search details:
+     *                    <ul>
+     *                      <li> "searchPattern": the pattern to search for (String) </li>
+     *                      <li> "userName", "fromTimestamp", "toTimestamp": optional filter, as for a regular search </li>
+     *                      <li> "maxResults": optional, the search stops after this many comments, at least 1 (Integer) </li>
+     *                    </ul>
+     * @param sink        receives the matching comments; returning false stops the search
+     * @return the `SearchSummary` of the search
+     */
+    public SearchSummary streamSearchContents(Map<String, Object> requestBody, IMatchSink<Comment> sink) {
+        String searchPattern = (String) requestBody.get("searchPattern");
+        return commentService.streamSearchContents(searchPattern, RequestParams.getSearchFilter(requestBody),
+                RequestParams.getInt(requestBody, "maxResults", Integer.MAX_VALUE), sink);
+    }
+
+    /**
+     * <h5> Searches comments by content and returns a `CompactSearchResult`. </h5>
+     * The result holds the ids of the matching comments and the match offsets in primitive arrays,
+     * without the comments themselves, which keeps large results small in memory and on the wire.
+     *
+     * @param requestBody a map containing the search details:
+     *                    <ul>
+     *                      <li> "searchPattern": the pattern to search for (String) </li>
+     *                      <li> "userName", "fromTimestamp", "toTimestamp": optional filter, as for a regular search </li>
+     *                    </ul>
+     * @return a `CompactSearchResult` of the matching comments
+     */
+    public CompactSearchResult compactSearchContents(Map<String, Object> requestBody) {
+        String searchPattern = (String) requestBody.get("searchPattern");
+        return commentService.compactSearchContents(searchPattern, RequestParams.getSearchFilter(requestBody));
+    }
+
+    /**
+     * <h5> Searches comments with a boolean and phrase query. </h5>
+     * The query combines words and quoted phrases with AND, OR, NOT and parentheses; adjacent
+     * clauses are AND-ed. Words and phrases are looked for in the content, and a {@code user:}
+     * prefix restricts a clause to one author, for example {@code "great answer" AND NOT user:bob}.
+     *
+     * @param requestBody a map containing the search details:<br>
+     *                    <ul>
+     *                      <li> "query": the query (String) </li>
+     *                      <li> "userName", "fromTimestamp", "toTimestamp": optional filter, as for a regular search </li>
+     *                    </ul>
+     * @return a `QueryResult` containing the matching comments, with the matched spans of each field
+     * @throws IllegalArgumentException if the query is malformed
+     */
+    public QueryResult<Comment> querySearch(Map<String, Object> requestBody) {
+        String query = (String) requestBody.get("query");
+        return commentService.querySearch(query, RequestParams.getSearchFilter(requestBody));
+    }
+
+    /**
+     * <h5> Typo-tolerant search of comment contents. </h5>
+     * This method retrieves the search pattern and the allowed edit distance from the request body
+     * and delegates the search operation to the `commentService`.
+     *
+     * @param requestBody a map containing the search details:<br>
+     *                    <ul>
+     *                      <li> "searchPattern": the words to search for in comment contents (String) </li>
+     *                      <li> "userName": optional, only comments of this author (String) </li>
+     *                      <li> "fromTimestamp": optional, only comments created at or after this time, in epoch millis (Long) </li>
+     *                      <li> "toTimestamp": optional, only comments created at or before this time, in epoch millis (Long) </li>
+     *                      <li> "maxDistance": optional, the number of allowed edits per word, 1 or 2 (Integer) </li>
+     *                    </ul>
+     * @return a `SearchResult` containing comments whose contents match the search pattern, with the matched spans
+     */
+    public SearchResult<Comment> fuzzySearchContents(Map<String, Object> requestBody) {
+        String searchPattern = (String) requestBody.get("searchPattern");
+        return commentService.fuzzySearchContents(searchPattern, RequestParams.getMaxDistance(requestBody),
+                RequestParams.getSearchFilter(requestBody));
+    }
+
+    /**
+     * <h5> Retrieves the recently executed search plans. </h5>
+     * Every substring search of comments records the strategy the planner chose and its measured
+     * latency; this returns the most recent executions and the totals per strategy.
+     *
+     * @return a map with the "recent" executions and the "totals" per strategy
+     */
+    public Map<String, Object> getSearchPlans() {
+        SearchPlanLog planLog = commentService.getSearchPlanLog();
+        return Map.of("recent", planLog.getRecent(), "totals", planLog.getTotals());
     }
 
-    private long getLongFromBody(Map<String, Object> body, String paramName) {
-        Object paramObj = body.get(paramName);
-        long paramLong;
-        if (paramObj instanceof Number) {
-            paramLong = ((Number) paramObj).longValue();
-        } else if (paramObj instanceof String) {
-            paramLong = Long.parseLong((String) paramObj);
-        } else {
-            throw new IllegalArgumentException("Invalid type for " + paramName + ": " + paramObj);
-        }
-
-        return paramLong;
+    /**
+     * <h5> Applies the snippet mode to a search result, when the request asks for it. </h5>
+     * In snippet mode each match is reduced to the id and the post id of the comment and fixed-width
+     * context windows around its first hits, so the response size no longer depends on the
+     * length of the matching comments.
+     *
+     * @param requestBody   a map containing the snippet options:
+     *                      <ul>
+     *                        <li> "snippets": optional, true to enable the snippet mode (Boolean) </li>
+     *                        <li> "contextChars": optional, characters kept around each hit, default 40 (Integer) </li>
+     *                        <li> "maxHits": optional, number of hits per comment that get a window, default 3 (Integer) </li>
+     *                        <li> "maxResults": optional, maximal number of comments returned (Integer) </li>
+     *                      </ul>
+     * @param searchResult  the result of the search
+     * @param textExtractor returns the searched text of a comment
+     * @return the `SearchResult` itself, or a `SnippetSearchResult` in snippet mode
+     */
+    public Object applySnippetMode(Map<String, Object> requestBody, SearchResult<Comment> searchResult,
+            Function<Comment, String> textExtractor) {
+        if (!RequestParams.getBoolean(requestBody, "snippets"))
+            return searchResult;
+
+        return snippetExtractor.extract(searchResult, textExtractor,
+                RequestParams.getInt(requestBody, "contextChars", 40),
+                RequestParams.getInt(requestBody, "maxHits", 3),
+                RequestParams.getInt(requestBody, "maxResults", Integer.MAX_VALUE));
     }
 }
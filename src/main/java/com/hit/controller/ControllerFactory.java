@@ -1,32 +1,69 @@
 package com.hit.controller;
 
+import com.hit.algorithm.StringMatchingAlgorithms;
 import com.hit.dao.CommentDaoImpl;
+import com.hit.dao.FileIoStats;
 import com.hit.dao.PostDaoImpl;
 import com.hit.dao.UserDaoImpl;
+import com.hit.service.ChangeFeed;
 import com.hit.service.CommentService;
 import com.hit.service.PostService;
+import com.hit.service.SearchService;
 import com.hit.service.UserService;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
 
 public class ControllerFactory {
     private final HashMap<String, Object> Controllers = new HashMap<>();
+    private final ChangeFeed changeFeed;
+    private final Map<String, FileIoStats> daoIoStats;
 
     public ControllerFactory() throws IOException {
-        UserDaoImpl userDao = new UserDaoImpl("src/main/resources/user.json");
-        CommentDaoImpl commentDao = new CommentDaoImpl("src/main/resources/comment.json");
-        PostDaoImpl postDao = new PostDaoImpl("src/main/resources/post.json");
+        this("src/main/resources");
+    }
+
+    /**
+     * @param dataDirectory the directory of the user, comment and post data files
+     */
+    public ControllerFactory(String dataDirectory) throws IOException {
+        UserDaoImpl userDao = new UserDaoImpl(dataDirectory + "/user.json");
+        CommentDaoImpl commentDao = new CommentDaoImpl(dataDirectory + "/comment.json");
+        PostDaoImpl postDao = new PostDaoImpl(dataDirectory + "/post.json");
         UserService userService = new UserService(userDao);
-        CommentService commentService = new CommentService(commentDao, userDao);
-        PostService postService = new PostService(postDao, commentDao, userDao);
+        // The string matching engine is chosen with -Ditalk.stringMatching=kmp|trie|simd (KMP by default).
+        CommentService commentService = new CommentService(commentDao, userDao,
+                StringMatchingAlgorithms.fromSystemProperty());
+        PostService postService = new PostService(postDao, commentDao, userDao,
+                StringMatchingAlgorithms.fromSystemProperty());
+        SearchService searchService = new SearchService(postService.getSearchIndex(),
+                commentService.getSearchIndex(), StringMatchingAlgorithms.fromSystemProperty());
+        changeFeed = new ChangeFeed(postDao, commentDao);
+        daoIoStats = Map.of("user", userDao.getIoStats(), "comment", commentDao.getIoStats(),
+                "post", postDao.getIoStats());
 
         Controllers.put("user", new UserController(userService));
         Controllers.put("comment", new CommentController(commentService));
         Controllers.put("post", new PostController(postService));
+        Controllers.put("search", new SearchController(searchService));
     }
 
     public Object getController(String controllerName) {
         return Controllers.get(controllerName);
     }
+
+    /**
+     * Returns the changes made to the posts and comments through the controllers.
+     */
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * Returns the read and write counters of the data files, by entity: "user", "comment" and "post".
+     */
+    public Map<String, FileIoStats> getDaoIoStats() {
+        return daoIoStats;
+    }
 }
@@ -1,13 +1,21 @@
 package com.hit.controller;
 
 import com.hit.dm.Comment;
+import com.hit.dm.CompactSearchResult;
 import com.hit.dm.Post;
+import com.hit.dm.QueryResult;
 import com.hit.dm.SearchResult;
+import com.hit.dm.SyncResult;
+import com.hit.search.IMatchSink;
+import com.hit.search.SearchPlanLog;
+import com.hit.search.SearchSummary;
+import com.hit.search.SnippetExtractor;
 import com.hit.service.PostService;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 /**
  * The PostController exposes API endpoints for operations on Posts.
@@ -15,6 +23,7 @@ import java.util.Map;
  */
 public class PostController {
     private final PostService postService;
+    private final SnippetExtractor<Post> snippetExtractor = new SnippetExtractor<>(Post::getId, _ -> null, Post::getTitle);
 
     public PostController(PostService postService) {
         this.postService = postService;
@@ -56,7 +65,7 @@ public class PostController {
      * @throws IOException if an I/O error occurs during the operation
      */
     public boolean editPost(Map<String, Object> requestBody) throws IOException {
-        long postId = getLongFromBody(requestBody, "postId");
+        long postId = RequestParams.getLong(requestBody, "postId");
         String title = (String) requestBody.get("title");
         String userName = (String) requestBody.get("userName");
         String content = (String) requestBody.get("content");
@@ -77,7 +86,7 @@ public class PostController {
      * @throws IOException if an I/O error occurs during deletion
      */
     public boolean removePost(Map<String, Object> requestBody) throws IOException {
-        long postId = getLongFromBody(requestBody, "postId");
+        long postId = RequestParams.getLong(requestBody, "postId");
         String userName = (String) requestBody.get("userName");
         return postService.removePost(postId, userName);
     }
@@ -95,7 +104,7 @@ public class PostController {
      * @throws IOException if an I/O error occurs during retrieval
      */
     public Post getPostById(Map<String, Object> requestBody) throws IOException {
-        long postId = getLongFromBody(requestBody, "postId");
+        long postId = RequestParams.getLong(requestBody, "postId");
         return postService.getPostById(postId);
     }
 
@@ -109,6 +118,23 @@ public class PostController {
         return postService.getAllPosts();
     }
 
+    /**
+     * <h5> Retrieves the posts changed since the last sync. </h5>
+     * The client sends the version of its previous sync and gets the posts created or edited since,
+     * the IDs of those removed, and the version to send next time. Without a version, or with one too
+     * old for the retained history, the result is full: all the posts.
+     *
+     * @param requestBody a map containing the sync details:
+     *                    <ul>
+     *                      <li> "sinceVersion": optional, the version of the previous sync (Long) </li>
+     *                    </ul>
+     * @return the changed posts, or all of them
+     * @throws IOException if an I/O error occurs during retrieval
+     */
+    public SyncResult<Post> syncPosts(Map<String, Object> requestBody) throws IOException {
+        return postService.syncPosts(RequestParams.getOptionalLong(requestBody, "sinceVersion"));
+    }
+
     /**
      * <h5> Retrieves all comments associated with a given post. </h5>
      * This method extracts the `postId` from the provided request body map
@@ -122,7 +148,7 @@ public class PostController {
      * @throws IOException if an I/O error occurs during retrieval
      */
     public List<Comment> getPostComments(Map<String, Object> requestBody) throws IOException {
-        long postId = getLongFromBody(requestBody, "postId");
+        long postId = RequestParams.getLong(requestBody, "postId");
         return postService.getPostComments(postId);
     }
 
@@ -134,13 +160,16 @@ public class PostController {
      * @param requestBody a map containing the search details:
      *                    <ul>
      *                      <li> "searchPattern": the pattern to search for in post titles (String) </li>
+     *                      <li> "userName": optional, only posts of this author (String) </li>
+     *                      <li> "fromTimestamp": optional, only posts created at or after this time, in epoch millis (Long) </li>
+     *                      <li> "toTimestamp": optional, only posts created at or before this time, in epoch millis (Long) </li>
      *                    </ul>
      * @return a `SearchResult` containing posts whose titles match the search pattern
      * @throws IOException if an I/O error occurs during the search
      */
     public SearchResult<Post> searchTitles(Map<String, Object> requestBody) throws IOException {
         String searchPattern = (String) requestBody.get("searchPattern");
-        return postService.stringMatchingSearchTitles(searchPattern);
+        return postService.stringMatchingSearchTitles(searchPattern, RequestParams.getSearchFilter(requestBody));
     }
 
     /**
@@ -151,26 +180,191 @@ public class PostController {
      * @param requestBody a map containing the search details:
      *                    <ul>
      *                      <li> "searchPattern": the pattern to search for in post contents (String) </li>
+     *                      <li> "userName": optional, only posts of this author (String) </li>
+     *                      <li> "fromTimestamp": optional, only posts created at or after this time, in epoch millis (Long) </li>
+     *                      <li> "toTimestamp": optional, only posts created at or before this time, in epoch millis (Long) </li>
      *                    </ul>
      * @return a `SearchResult` containing posts whose contents match the search pattern
      * @throws IOException if an I/O error occurs during the search
      */
     public SearchResult<Post> searchContents(Map<String, Object> requestBody) throws IOException {
         String searchPattern = (String) requestBody.get("searchPattern");
-        return postService.stringMatchingSearchContents(searchPattern);
+        return postService.stringMatchingSearchContents(searchPattern, RequestParams.getSearchFilter(requestBody));
+    }
+
+    /**
+     * <h5> Searches posts by title and hands every match to a sink as soon as it is found. </h5>
+     * This method retrieves the search pattern, the optional filter and the result limit
+     * from the request body and delegates the streamed search to the `postService`.
+     *
+     * @param requestBody a map containing the search details:
+     *                    <ul>
+     *                      <li> "searchPattern": the pattern to search for (String) </li>
+     *                      <li> "userName", "fromTimestamp", "toTimestamp": optional filter, as for a regular search </li>
+     *                      <li> "maxResults": optional, the search stops after this many posts, at least 1 (Integer) </li>
+     *                    </ul>
+     * @param sink        receives the matching posts; returning false stops the search
+     * @return the `SearchSummary` of the search
+     */
+    public SearchSummary streamSearchTitles(Map<String, Object> requestBody, IMatchSink<Post> sink) {
+        String searchPattern = (String) requestBody.get("searchPattern");
+        return postService.streamSearchTitles(searchPattern, RequestParams.getSearchFilter(requestBody),
+                RequestParams.getInt(requestBody, "maxResults", Integer.MAX_VALUE), sink);
     }
 
-    private long getLongFromBody(Map<String, Object> body, String paramName) {
-        Object paramObj = body.get(paramName);
-        long paramLong;
-        if (paramObj instanceof Number) {
-            paramLong = ((Number) paramObj).longValue();
-        } else if (paramObj instanceof String) {
-            paramLong = Long.parseLong((String) paramObj);
-        } else {
-            throw new IllegalArgumentException("Invalid type for " + paramName + ": " + paramObj);
-        }
+    /**
+     * <h5> Searches posts by content and hands every match to a sink as soon as it is found. </h5>
+     * This method retrieves the search pattern, the optional filter and the result limit
+     * from the request body and delegates the streamed search to the `postService`.
+     *
+     * @param requestBody a map containing the search details:
+     *                    <ul>
+     *                      <li> "searchPattern": the pattern to search for (String) </li>
+     *                      <li> "userName", "fromTimestamp", "toTimestamp": optional filter, as for a regular search </li>
+     *                      <li> "maxResults": optional, the search stops after this many posts, at least 1 (Integer) </li>
+     *                    </ul>
+     * @param sink        receives the matching posts; returning false stops the search
+     * @return the `SearchSummary` of the search
+     */
+    public SearchSummary streamSearchContents(Map<String, Object> requestBody, IMatchSink<Post> sink) {
+        String searchPattern = (String) requestBody.get("searchPattern");
+        return postService.streamSearchContents(searchPattern, RequestParams.getSearchFilter(requestBody),
+                RequestParams.getInt(requestBody, "maxResults", Integer.MAX_VALUE), sink);
+    }
+
+    /**
+     * <h5> Searches posts by title and returns a `CompactSearchResult`. </h5>
+     * The result holds the ids of the matching posts and the match offsets in primitive arrays,
+     * without the posts themselves, which keeps large results small in memory and on the wire.
+     *
+     * @param requestBody a map containing the search details:
+     *                    <ul>
+     *                      <li> "searchPattern": the pattern to search for (String) </li>
+     *                      <li> "userName", "fromTimestamp", "toTimestamp": optional filter, as for a regular search </li>
+     *                    </ul>
+     * @return a `CompactSearchResult` of the matching posts
+     */
+    public CompactSearchResult compactSearchTitles(Map<String, Object> requestBody) {
+        String searchPattern = (String) requestBody.get("searchPattern");
+        return postService.compactSearchTitles(searchPattern, RequestParams.getSearchFilter(requestBody));
+    }
+
+    /**
+     * <h5> Searches posts by content and returns a `CompactSearchResult`. </h5>
+     * The result holds the ids of the matching posts and the match offsets in primitive arrays,
+     * without the posts themselves, which keeps large results small in memory and on the wire.
+     *
+     * @param requestBody a map containing the search details:
+     *                    <ul>
+     *                      <li> "searchPattern": the pattern to search for (String) </li>
+     *                      <li> "userName", "fromTimestamp", "toTimestamp": optional filter, as for a regular search </li>
+     *                    </ul>
+     * @return a `CompactSearchResult` of the matching posts
+     */
+    public CompactSearchResult compactSearchContents(Map<String, Object> requestBody) {
+        String searchPattern = (String) requestBody.get("searchPattern");
+        return postService.compactSearchContents(searchPattern, RequestParams.getSearchFilter(requestBody));
+    }
+
+    /**
+     * <h5> Searches posts with a boolean and phrase query. </h5>
+     * The query combines words and quoted phrases with AND, OR, NOT and parentheses; adjacent
+     * clauses are AND-ed. Without a prefix, words and phrases are looked for in the title and the
+     * content; a {@code title:} or {@code content:} prefix restricts a clause to one field, and
+     * {@code user:} to one author, for example {@code title:"fresh milk" OR (cereal AND NOT user:bob)}.
+     *
+     * @param requestBody a map containing the search details:<br>
+     *                    <ul>
+     *                      <li> "query": the query (String) </li>
+     *                      <li> "userName", "fromTimestamp", "toTimestamp": optional filter, as for a regular search </li>
+     *                    </ul>
+     * @return a `QueryResult` containing the matching posts, with the matched spans of each field
+     * @throws IllegalArgumentException if the query is malformed
+     */
+    public QueryResult<Post> querySearch(Map<String, Object> requestBody) {
+        String query = (String) requestBody.get("query");
+        return postService.querySearch(query, RequestParams.getSearchFilter(requestBody));
+    }
+
+    /**
+     * <h5> Typo-tolerant search of post titles. </h5>
+     * This method retrieves the search pattern and the allowed edit distance from the request body
+     * and delegates the search operation to the `postService`.
+     *
+     * @param requestBody a map containing the search details:
+     *                    <ul>
+     *                      <li> "searchPattern": the words to search for in post titles (String) </li>
+     *                      <li> "userName": optional, only posts of this author (String) </li>
+     *                      <li> "fromTimestamp": optional, only posts created at or after this time, in epoch millis (Long) </li>
+     *                      <li> "toTimestamp": optional, only posts created at or before this time, in epoch millis (Long) </li>
+     *                      <li> "maxDistance": optional, the number of allowed edits per word, 1 or 2 (Integer) </li>
+     *                    </ul>
+     * @return a `SearchResult` containing posts whose titles match the search pattern, with the matched spans
+     */
+    public SearchResult<Post> fuzzySearchTitles(Map<String, Object> requestBody) {
+        String searchPattern = (String) requestBody.get("searchPattern");
+        return postService.fuzzySearchTitles(searchPattern, RequestParams.getMaxDistance(requestBody),
+                RequestParams.getSearchFilter(requestBody));
+    }
+
+    /**
+     * <h5> Typo-tolerant search of post contents. </h5>
+     * This method retrieves the search pattern and the allowed edit distance from the request body
+     * and delegates the search operation to the `postService`.
+     *
+     * @param requestBody a map containing the search details:
+     *                    <ul>
+     *                      <li> "searchPattern": the words to search for in post contents (String) </li>
+     *                      <li> "userName": optional, only posts of this author (String) </li>
+     *                      <li> "fromTimestamp": optional, only posts created at or after this time, in epoch millis (Long) </li>
+     *                      <li> "toTimestamp": optional, only posts created at or before this time, in epoch millis (Long) </li>
+     *                      <li> "maxDistance": optional, the number of allowed edits per word, 1 or 2 (Integer) </li>
+     *                    </ul>
+     * @return a `SearchResult` containing posts whose contents match the search pattern, with the matched spans
+     */
+    public SearchResult<Post> fuzzySearchContents(Map<String, Object> requestBody) {
+        String searchPattern = (String) requestBody.get("searchPattern");
+        return postService.fuzzySearchContents(searchPattern, RequestParams.getMaxDistance(requestBody),
+                RequestParams.getSearchFilter(requestBody));
+    }
+
+    /**
+     * <h5> Retrieves the recently executed search plans. </h5>
+     * Every substring search of posts records the strategy the planner chose and its measured
+     * latency; this returns the most recent executions and the totals per strategy.
+     *
+     * @return a map with the "recent" executions and the "totals" per strategy
+     */
+    public Map<String, Object> getSearchPlans() {
+        SearchPlanLog planLog = postService.getSearchPlanLog();
+        return Map.of("recent", planLog.getRecent(), "totals", planLog.getTotals());
+    }
+
+    /**
+     * <h5> Applies the snippet mode to a search result, when the request asks for it. </h5>
+     * In snippet mode each match is reduced to the id, the title of the post and fixed-width
+     * context windows around its first hits, so the response size no longer depends on the
+     * length of the matching posts.
+     *
+     * @param requestBody   a map containing the snippet options:
+     *                      <ul>
+     *                        <li> "snippets": optional, true to enable the snippet mode (Boolean) </li>
+     *                        <li> "contextChars": optional, characters kept around each hit, default 40 (Integer) </li>
+     *                        <li> "maxHits": optional, number of hits per post that get a window, default 3 (Integer) </li>
+     *                        <li> "maxResults": optional, maximal number of posts returned (Integer) </li>
+     *                      </ul>
+     * @param searchResult  the result of the search
+     * @param textExtractor returns the searched text of a post
+     * @return the `SearchResult` itself, or a `SnippetSearchResult` in snippet mode
+     */
+    public Object applySnippetMode(Map<String, Object> requestBody, SearchResult<Post> searchResult,
+            Function<Post, String> textExtractor) {
+        if (!RequestParams.getBoolean(requestBody, "snippets"))
+            return searchResult;
 
-        return paramLong;
+        return snippetExtractor.extract(searchResult, textExtractor,
+                RequestParams.getInt(requestBody, "contextChars", 40),
+                RequestParams.getInt(requestBody, "maxHits", 3),
+                RequestParams.getInt(requestBody, "maxResults", Integer.MAX_VALUE));
     }
 }
@@ -0,0 +1,103 @@
+package com.hit.controller;
+
+import com.hit.search.SearchFilter;
+
+import java.util.Map;
+
+/**
+ * The RequestParams class reads typed parameters from a request body, shared by the controllers.
+ * Numbers may be sent as JSON numbers, which arrive as doubles, as integers of the binary protocol
+ * or as strings. A parameter of the wrong type is reported with an IllegalArgumentException,
+ * which the client receives as a 400 response.
+ */
+public final class RequestParams {
+    private RequestParams() {
+    }
+
+    /**
+     * Returns a required integer parameter, e.g. an ID.
+     *
+     * @throws IllegalArgumentException if the parameter is missing or not a number
+     */
+    public static long getLong(Map<String, Object> body, String paramName) {
+        Object paramObj = body.get(paramName);
+        if (paramObj instanceof Number number) {
+            return number.longValue();
+        } else if (paramObj instanceof String string) {
+            return Long.parseLong(string);
+        } else {
+            throw new IllegalArgumentException("Invalid type for " + paramName + ": " + paramObj);
+        }
+    }
+
+    /**
+     * Returns an optional integer parameter, or null when it is missing.
+     *
+     * @throws IllegalArgumentException if the parameter is not a number
+     */
+    public static Long getOptionalLong(Map<String, Object> body, String paramName) {
+        return body.get(paramName) != null ? getLong(body, paramName) : null;
+    }
+
+    /**
+     * Returns an optional integer parameter, or the default value when it is missing.
+     *
+     * @throws IllegalArgumentException if the parameter is not a number
+     */
+    public static int getInt(Map<String, Object> body, String paramName, int defaultValue) {
+        Object paramObj = body.get(paramName);
+        if (paramObj == null) {
+            return defaultValue;
+        } else if (paramObj instanceof Number number) {
+            return number.intValue();
+        } else if (paramObj instanceof String string) {
+            return Integer.parseInt(string);
+        } else {
+            throw new IllegalArgumentException("Invalid type for " + paramName + ": " + paramObj);
+        }
+    }
+
+    /**
+     * Returns an optional flag, false when it is missing.
+     *
+     * @throws IllegalArgumentException if the parameter is not a boolean
+     */
+    public static boolean getBoolean(Map<String, Object> body, String paramName) {
+        Object paramObj = body.get(paramName);
+        if (paramObj == null) {
+            return false;
+        } else if (paramObj instanceof Boolean flag) {
+            return flag;
+        } else if (paramObj instanceof String string) {
+            return Boolean.parseBoolean(string);
+        } else {
+            throw new IllegalArgumentException("Invalid type for " + paramName + ": " + paramObj);
+        }
+    }
+
+    /**
+     * Returns the optional search filter: "userName", "fromTimestamp" and "toTimestamp".
+     *
+     * @throws IllegalArgumentException if the user name is not a string or a timestamp not a number
+     */
+    public static SearchFilter getSearchFilter(Map<String, Object> body) {
+        Object userName = body.get("userName");
+        if (userName != null && !(userName instanceof String)) {
+            throw new IllegalArgumentException("Invalid type for userName: " + userName);
+        }
+        return new SearchFilter((String) userName, getOptionalLong(body, "fromTimestamp"), getOptionalLong(body, "toTimestamp"));
+    }
+
+    /**
+     * Returns the number of allowed edits per word of a fuzzy search, 1 by default.
+     *
+     * @throws IllegalArgumentException if it is not 1 or 2
+     */
+    public static int getMaxDistance(Map<String, Object> body) {
+        int maxDistance = getInt(body, "maxDistance", 1);
+        if (maxDistance < 1 || maxDistance > 2) {
+            throw new IllegalArgumentException("maxDistance must be 1 or 2: " + maxDistance);
+        }
+        return maxDistance;
+    }
+}
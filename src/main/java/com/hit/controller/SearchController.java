@@ -0,0 +1,37 @@
+package com.hit.controller;
+
+import com.hit.dm.UnifiedSearchResult;
+import com.hit.service.SearchService;
+
+import java.util.Map;
+
+/**
+ * The SearchController exposes API endpoints for searches spanning several entity types.
+ * It acts as a façade between the networking layer and the business logic in SearchService.
+ */
+public class SearchController {
+    private final SearchService searchService;
+
+    public SearchController(SearchService searchService) {
+        this.searchService = searchService;
+    }
+
+    /**
+     * <h5> Searches post titles, post contents and comments together. </h5>
+     * This method retrieves the search pattern and the optional filter from the request body
+     * and delegates the search operation to the `searchService`.
+     *
+     * @param requestBody a map containing the search details:<br>
+     *                    <ul>
+     *                      <li> "searchPattern": the pattern to search for (String) </li>
+     *                      <li> "userName": optional, only posts and comments of this author (String) </li>
+     *                      <li> "fromTimestamp": optional, only posts and comments created at or after this time, in epoch millis (Long) </li>
+     *                      <li> "toTimestamp": optional, only posts and comments created at or before this time, in epoch millis (Long) </li>
+     *                    </ul>
+     * @return a `UnifiedSearchResult` with the hits grouped by post
+     */
+    public UnifiedSearchResult searchAll(Map<String, Object> requestBody) {
+        String searchPattern = (String) requestBody.get("searchPattern");
+        return searchService.searchAll(searchPattern, RequestParams.getSearchFilter(requestBody));
+    }
+}
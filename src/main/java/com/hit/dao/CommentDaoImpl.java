@@ -6,9 +6,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class CommentDaoImpl implements IDao<Long, Comment> {
     private final JsonFileManager<Long, Comment> jsonFileManager;
+    private final List<IDaoListener<Comment>> listeners = new CopyOnWriteArrayList<>();
 
     public CommentDaoImpl(String pathFile) {
         jsonFileManager = new JsonFileManager<>(pathFile, Long.class, Comment.class);
@@ -20,6 +22,8 @@ public class CommentDaoImpl implements IDao<Long, Comment> {
         if (comments != null && comments.containsKey(commentEntity.getId())) {
             comments.remove(commentEntity.getId());
             jsonFileManager.setFileData(comments);
+            for (IDaoListener<Comment> listener : listeners)
+                listener.onDeleted(commentEntity);
         }
     }
 
@@ -38,8 +42,10 @@ public class CommentDaoImpl implements IDao<Long, Comment> {
         if (comments == null)
             comments = new HashMap<Long, Comment>();
 
-        comments.put(comment.getId(), comment);
+        boolean created = comments.put(comment.getId(), comment) == null;
         jsonFileManager.setFileData(comments);
+        for (IDaoListener<Comment> listener : listeners)
+            listener.onSaved(comment, created);
     }
 
     @Override
@@ -50,4 +56,19 @@ public class CommentDaoImpl implements IDao<Long, Comment> {
 
         return new ArrayList<>(comments.values());
     }
+
+    public void addListener(IDaoListener<Comment> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(IDaoListener<Comment> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the read and write counters of the comment data file.
+     */
+    public FileIoStats getIoStats() {
+        return jsonFileManager.getIoStats();
+    }
 }
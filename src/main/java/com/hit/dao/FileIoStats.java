@@ -0,0 +1,66 @@
+package com.hit.dao;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The FileIoStats class counts the reads and writes of the data file of a DAO: how many, how long
+ * they took and how many bytes they moved. A read or write is timed from the opening of the file
+ * to the end of the JSON conversion, which makes most of its cost.
+ * The counters can be read while they are updated.
+ */
+public class FileIoStats {
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder readBytes = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder writeBytes = new LongAdder();
+
+    void recordRead(long nanos, long bytes) {
+        reads.increment();
+        readNanos.add(nanos);
+        readBytes.add(bytes);
+    }
+
+    void recordWrite(long nanos, long bytes) {
+        writes.increment();
+        writeNanos.add(nanos);
+        writeBytes.add(bytes);
+    }
+
+    public long getReads() {
+        return reads.sum();
+    }
+
+    public long getReadNanos() {
+        return readNanos.sum();
+    }
+
+    public long getReadBytes() {
+        return readBytes.sum();
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getWriteNanos() {
+        return writeNanos.sum();
+    }
+
+    public long getWriteBytes() {
+        return writeBytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "FileIoStats{" +
+                "reads=" + getReads() +
+                ", readNanos=" + getReadNanos() +
+                ", readBytes=" + getReadBytes() +
+                ", writes=" + getWrites() +
+                ", writeNanos=" + getWriteNanos() +
+                ", writeBytes=" + getWriteBytes() +
+                '}';
+    }
+}
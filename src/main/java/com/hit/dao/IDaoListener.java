@@ -0,0 +1,14 @@
+package com.hit.dao;
+
+/**
+ * Callback interface for components that need to follow the changes made through a DAO
+ * (for example in-memory search indexes).
+ * Listeners are invoked synchronously, after the data file was written successfully.
+ *
+ * @param <T> the entity type handled by the DAO
+ */
+public interface IDaoListener<T> {
+    void onSaved(T entity, boolean created);
+
+    void onDeleted(T entity);
+}
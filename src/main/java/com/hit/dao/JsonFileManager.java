@@ -1,26 +1,56 @@
 package com.hit.dao;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+import com.hit.json.Json;
 
 import java.io.*;
 import java.lang.reflect.Type;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 
 class JsonFileManager<ID extends java.io.Serializable, T> {
     private final String pathFile;
-    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final Gson gson = Json.GSON;
     private final Type typeToken;
+    private final FileIoStats ioStats = new FileIoStats();
 
     public JsonFileManager(String pathFile, Class<ID> idClass, Class<T> typeClass) {
         this.pathFile = pathFile;
         this.typeToken = TypeToken.getParameterized(HashMap.class, idClass, typeClass).getType();
     }
 
+    /**
+     * Replaces the data of the file. The data is written to a temporary file which then replaces the
+     * file in one step, so the file is never left half-written, even if the process is killed.
+     */
     public void setFileData(HashMap<ID, T> data) throws IOException {
-        try (Writer writer = new FileWriter(pathFile)) {
-            gson.toJson(data, writer);
+        long start = System.nanoTime();
+        Path target = Path.of(pathFile).toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (FileOutputStream output = new FileOutputStream(temp.toFile());
+                 Writer writer = new BufferedWriter(new OutputStreamWriter(output))) {
+                // The data files stay pretty-printed, the shared Gson writes compact JSON
+                JsonWriter jsonWriter = gson.newJsonWriter(writer);
+                jsonWriter.setIndent("  ");
+                gson.toJson(data, typeToken, jsonWriter);
+                jsonWriter.flush();
+                output.getFD().sync();
+            }
+            long bytes = Files.size(temp);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            ioStats.recordWrite(System.nanoTime() - start, bytes);
+        } finally {
+            Files.deleteIfExists(temp);
         }
     }
 
@@ -32,11 +62,18 @@ class JsonFileManager<ID extends java.io.Serializable, T> {
             setFileData(new HashMap<>());
         }
 
+        long start = System.nanoTime();
         try (Reader reader = new FileReader(file)) {
-            return gson.fromJson(reader, typeToken);
+            HashMap<ID, T> data = gson.fromJson(reader, typeToken);
+            ioStats.recordRead(System.nanoTime() - start, file.length());
+            return data;
         }
     }
 
+    public FileIoStats getIoStats() {
+        return ioStats;
+    }
+
     private boolean checkData(String pathFile) throws IOException {
         File file = new File(pathFile);
         return file.createNewFile() || file.length() == 0;
@@ -6,9 +6,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class PostDaoImpl implements IDao<Long, Post> {
     private final JsonFileManager<Long, Post> jsonFileManager;
+    private final List<IDaoListener<Post>> listeners = new CopyOnWriteArrayList<>();
 
     public PostDaoImpl(String pathFile) {
         jsonFileManager = new JsonFileManager<>(pathFile, Long.class, Post.class);
@@ -20,6 +22,8 @@ public class PostDaoImpl implements IDao<Long, Post> {
         if (posts != null && posts.containsKey(postEntity.getId())) {
             posts.remove(postEntity.getId());
             jsonFileManager.setFileData(posts);
+            for (IDaoListener<Post> listener : listeners)
+                listener.onDeleted(postEntity);
         }
     }
 
@@ -38,8 +42,10 @@ public class PostDaoImpl implements IDao<Long, Post> {
         if (posts == null)
             posts = new HashMap<Long, Post>();
 
-        posts.put(post.getId(), post);
+        boolean created = posts.put(post.getId(), post) == null;
         jsonFileManager.setFileData(posts);
+        for (IDaoListener<Post> listener : listeners)
+            listener.onSaved(post, created);
     }
 
     @Override
@@ -50,4 +56,19 @@ public class PostDaoImpl implements IDao<Long, Post> {
 
         return new ArrayList<>(posts.values());
     }
+
+    public void addListener(IDaoListener<Post> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(IDaoListener<Post> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the read and write counters of the post data file.
+     */
+    public FileIoStats getIoStats() {
+        return jsonFileManager.getIoStats();
+    }
 }
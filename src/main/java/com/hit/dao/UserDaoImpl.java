@@ -53,4 +53,11 @@ public class UserDaoImpl implements IDao<String, User> {
 
         return new ArrayList<>(users.values());
     }
+
+    /**
+     * Returns the read and write counters of the user data file.
+     */
+    public FileIoStats getIoStats() {
+        return jsonFileManager.getIoStats();
+    }
 }
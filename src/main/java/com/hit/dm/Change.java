@@ -0,0 +1,26 @@
+package com.hit.dm;
+
+/**
+ * A change made to a post or a comment, as pushed to the clients that subscribed to the changes.
+ *
+ * @param entity "post" or "comment"
+ * @param kind   what happened to the entity
+ * @param postId the ID of the post, or of the post of the comment
+ * @param item   the {@link Post} or {@link Comment} as saved, or as it was when removed
+ */
+public record Change(String entity, Kind kind, long postId, Object item) {
+
+    public enum Kind {
+        CREATED,
+        EDITED,
+        REMOVED
+    }
+
+    public static Change ofPost(Kind kind, Post post) {
+        return new Change("post", kind, post.getId(), post);
+    }
+
+    public static Change ofComment(Kind kind, Comment comment) {
+        return new Change("comment", kind, comment.getPostId(), comment);
+    }
+}
@@ -0,0 +1,227 @@
+package com.hit.dm;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A search result kept in flat primitive arrays instead of one `MatchResult` per entity:
+ * the ids of the matching entities, the number of matches of each one, and the offsets of
+ * all the matches one entity after the other. The entities themselves are not included.
+ * <p>
+ * On the wire, ids and offsets are delta-encoded: the first id is sent as is and every
+ * following id as the difference to the previous one, and the same is done with the offsets
+ * of each entity. Since ids and offsets are ascending, the numbers sent stay small:
+ * <pre>
+ * {"pattern":"milk","plan":"FULL_SCAN","ids":[3,1,4],"counts":[2,1,1],"offsets":[10,25,0,7]}
+ * </pre>
+ * stands for entity 3 with matches at 10 and 35, entity 4 at 0 and entity 8 at 7.
+ */
+@JsonAdapter(CompactSearchResult.Adapter.class)
+public class CompactSearchResult implements Serializable {
+    private String pattern; // The pattern that was searched for
+    private String plan; // The search strategy that produced the result
+    private long[] ids = new long[16];
+    private int[] counts = new int[16];
+    private int[] offsets = new int[64];
+    private int entityCount;
+    private int matchCount;
+
+    public CompactSearchResult(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public String getPlan() {
+        return plan;
+    }
+
+    public void setPlan(String plan) {
+        this.plan = plan;
+    }
+
+    /**
+     * Appends the matches of an entity. Entities must be added in ascending id order
+     * and the offsets of each of them must be ascending.
+     */
+    public void addMatch(long id, int[] matchIndexes) {
+        if (entityCount == ids.length) {
+            ids = Arrays.copyOf(ids, entityCount * 2);
+            counts = Arrays.copyOf(counts, entityCount * 2);
+        }
+        if (matchCount + matchIndexes.length > offsets.length)
+            offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, matchCount + matchIndexes.length));
+
+        ids[entityCount] = id;
+        counts[entityCount++] = matchIndexes.length;
+        System.arraycopy(matchIndexes, 0, offsets, matchCount, matchIndexes.length);
+        matchCount += matchIndexes.length;
+    }
+
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    public long getId(int entity) {
+        return ids[entity];
+    }
+
+    /**
+     * Returns the match offsets of the entity at the given position.
+     */
+    public int[] getIndexes(int entity) {
+        int start = 0;
+        for (int i = 0; i < entity; i++)
+            start += counts[i];
+        return Arrays.copyOfRange(offsets, start, start + counts[entity]);
+    }
+
+    public boolean hasMatches() {
+        return entityCount > 0;
+    }
+
+    public int countMatches() {
+        return matchCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactSearchResult{" +
+                "pattern='" + pattern + '\'' +
+                ", plan='" + plan + '\'' +
+                ", ids=" + Arrays.toString(Arrays.copyOf(ids, entityCount)) +
+                ", matches=" + matchCount +
+                '}';
+    }
+
+    /**
+     * Writes and reads the delta-encoded form, without reflection.
+     */
+    public static class Adapter extends TypeAdapter<CompactSearchResult> {
+        @Override
+        public void write(JsonWriter out, CompactSearchResult result) throws IOException {
+            if (result == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("pattern").value(result.pattern);
+            out.name("plan").value(result.plan);
+
+            out.name("ids").beginArray();
+            long previousId = 0;
+            for (int i = 0; i < result.entityCount; i++) {
+                out.value(result.ids[i] - previousId);
+                previousId = result.ids[i];
+            }
+            out.endArray();
+
+            out.name("counts").beginArray();
+            for (int i = 0; i < result.entityCount; i++)
+                out.value(result.counts[i]);
+            out.endArray();
+
+            out.name("offsets").beginArray();
+            int position = 0;
+            for (int i = 0; i < result.entityCount; i++) {
+                int previousOffset = 0;
+                for (int j = 0; j < result.counts[i]; j++) {
+                    out.value(result.offsets[position] - previousOffset);
+                    previousOffset = result.offsets[position++];
+                }
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public CompactSearchResult read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            CompactSearchResult result = new CompactSearchResult(null);
+            long[] ids = new long[0];
+            int[] counts = new int[0];
+            int[] offsets = new int[0];
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "pattern" -> result.pattern = nextNullableString(in);
+                    case "plan" -> result.plan = nextNullableString(in);
+                    case "ids" -> ids = readLongs(in);
+                    case "counts" -> counts = readInts(in);
+                    case "offsets" -> offsets = readInts(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+
+            if (ids.length != counts.length)
+                throw new IOException("Mismatched ids and counts in compact search result");
+            long id = 0;
+            int position = 0;
+            for (int i = 0; i < ids.length; i++) {
+                id += ids[i];
+                if (counts[i] < 0 || position + counts[i] > offsets.length)
+                    throw new IOException("Mismatched counts and offsets in compact search result");
+                int[] indexes = new int[counts[i]];
+                int offset = 0;
+                for (int j = 0; j < indexes.length; j++) {
+                    offset += offsets[position++];
+                    indexes[j] = offset;
+                }
+                result.addMatch(id, indexes);
+            }
+            return result;
+        }
+
+        private static String nextNullableString(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return in.nextString();
+        }
+
+        private static long[] readLongs(JsonReader in) throws IOException {
+            long[] values = new long[16];
+            int size = 0;
+            in.beginArray();
+            while (in.hasNext()) {
+                if (size == values.length)
+                    values = Arrays.copyOf(values, size * 2);
+                values[size++] = in.nextLong();
+            }
+            in.endArray();
+            return Arrays.copyOf(values, size);
+        }
+
+        private static int[] readInts(JsonReader in) throws IOException {
+            int[] values = new int[16];
+            int size = 0;
+            in.beginArray();
+            while (in.hasNext()) {
+                if (size == values.length)
+                    values = Arrays.copyOf(values, size * 2);
+                values[size++] = in.nextInt();
+            }
+            in.endArray();
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -5,12 +5,18 @@ import java.io.Serializable;
 public class MatchResult<T> implements Serializable {
     private T item;
     private int[] indexes;
+    private int[] lengths; // Length of each match, only set when it may differ from the pattern length
 
     public MatchResult(T item, int[] indexes) {
         this.item = item;
         this.indexes = indexes;
     }
 
+    public MatchResult(T item, int[] indexes, int[] lengths) {
+        this(item, indexes);
+        this.lengths = lengths;
+    }
+
     public T getItem() {
         return item;
     }
@@ -27,11 +33,20 @@ public class MatchResult<T> implements Serializable {
         this.indexes = indexes;
     }
 
+    public int[] getLengths() {
+        return lengths;
+    }
+
+    public void setLengths(int[] lengths) {
+        this.lengths = lengths;
+    }
+
     @Override
     public String toString() {
         return "MatchResult{" +
                 "item=" + item +
                 ", indexes=" + java.util.Arrays.toString(indexes) +
+                (lengths != null ? ", lengths=" + java.util.Arrays.toString(lengths) : "") +
                 '}';
     }
 }
@@ -0,0 +1,72 @@
+package com.hit.dm;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The hits of a cross-entity search that belong to one post:
+ * in its title, in its content and in its comments.
+ */
+public class PostSearchGroup implements Serializable {
+    private Post post;
+    private int[] titleIndexes;
+    private int[] contentIndexes;
+    private final List<MatchResult<Comment>> comments;
+
+    public PostSearchGroup(Post post) {
+        this.post = post;
+        this.titleIndexes = new int[0];
+        this.contentIndexes = new int[0];
+        this.comments = new ArrayList<>();
+    }
+
+    public Post getPost() {
+        return post;
+    }
+
+    public void setPost(Post post) {
+        this.post = post;
+    }
+
+    public int[] getTitleIndexes() {
+        return titleIndexes;
+    }
+
+    public void setTitleIndexes(int[] titleIndexes) {
+        this.titleIndexes = titleIndexes;
+    }
+
+    public int[] getContentIndexes() {
+        return contentIndexes;
+    }
+
+    public void setContentIndexes(int[] contentIndexes) {
+        this.contentIndexes = contentIndexes;
+    }
+
+    public List<MatchResult<Comment>> getComments() {
+        return comments;
+    }
+
+    public void addComment(Comment comment, int[] indexes) {
+        comments.add(new MatchResult<>(comment, indexes));
+    }
+
+    public int countMatches() {
+        int matchesNumber = titleIndexes.length + contentIndexes.length;
+        for (MatchResult<Comment> comment : comments)
+            matchesNumber += comment.getIndexes().length;
+        return matchesNumber;
+    }
+
+    @Override
+    public String toString() {
+        return "PostSearchGroup{" +
+                "post=" + post +
+                ", titleIndexes=" + java.util.Arrays.toString(titleIndexes) +
+                ", contentIndexes=" + java.util.Arrays.toString(contentIndexes) +
+                ", comments=" + comments +
+                '}';
+    }
+}
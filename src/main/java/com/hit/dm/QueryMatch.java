@@ -0,0 +1,50 @@
+package com.hit.dm;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An entity matching a query, with the offsets and lengths of the matched terms
+ * and phrases in each of its fields.
+ */
+public class QueryMatch<T> implements Serializable {
+    private T item;
+    private final Map<String, int[]> indexes;
+    private final Map<String, int[]> lengths;
+
+    public QueryMatch(T item) {
+        this.item = item;
+        this.indexes = new LinkedHashMap<>();
+        this.lengths = new LinkedHashMap<>();
+    }
+
+    public T getItem() {
+        return item;
+    }
+
+    public void setItem(T item) {
+        this.item = item;
+    }
+
+    public Map<String, int[]> getIndexes() {
+        return indexes;
+    }
+
+    public Map<String, int[]> getLengths() {
+        return lengths;
+    }
+
+    public void addField(String field, int[] fieldIndexes, int[] fieldLengths) {
+        indexes.put(field, fieldIndexes);
+        lengths.put(field, fieldLengths);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryMatch{" +
+                "item=" + item +
+                ", indexes=" + indexes.keySet() +
+                '}';
+    }
+}
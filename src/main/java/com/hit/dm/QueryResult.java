@@ -0,0 +1,54 @@
+package com.hit.dm;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class QueryResult<T> implements Serializable {
+    private final List<QueryMatch<T>> matches;
+    private String query; // The query as it was sent
+    private String parsedQuery; // The query as it was understood, fully parenthesized
+
+    public QueryResult(String query, String parsedQuery) {
+        this.matches = new ArrayList<>();
+        this.query = query;
+        this.parsedQuery = parsedQuery;
+    }
+
+    public List<QueryMatch<T>> getMatches() {
+        return matches;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public String getParsedQuery() {
+        return parsedQuery;
+    }
+
+    public void setParsedQuery(String parsedQuery) {
+        this.parsedQuery = parsedQuery;
+    }
+
+    public void addMatch(QueryMatch<T> match) {
+        matches.add(match);
+    }
+
+    public boolean hasMatches() {
+        return !matches.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryResult{" +
+                "matches=" + matches +
+                ", query='" + query + '\'' +
+                ", parsedQuery='" + parsedQuery + '\'' +
+                '}';
+    }
+}
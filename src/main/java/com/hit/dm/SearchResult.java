@@ -7,6 +7,7 @@ import java.util.List;
 public class SearchResult<T> implements Serializable {
     private final List<MatchResult<T>> matches;
     private String pattern; // The pattern that was searched for
+    private String plan; // The search strategy that produced the result, when it was planned
 
     public SearchResult(String pattern) {
         this.matches = new ArrayList<>();
@@ -25,10 +26,22 @@ public class SearchResult<T> implements Serializable {
         this.pattern = pattern;
     }
 
+    public String getPlan() {
+        return plan;
+    }
+
+    public void setPlan(String plan) {
+        this.plan = plan;
+    }
+
     public void addMatch(T matchObject, int[] matchIndexes) {
         matches.add(new MatchResult<>(matchObject, matchIndexes));
     }
 
+    public void addMatch(T matchObject, int[] matchIndexes, int[] matchLengths) {
+        matches.add(new MatchResult<>(matchObject, matchIndexes, matchLengths));
+    }
+
     public boolean hasMatches() {
         return matches != null && !matches.isEmpty();
     }
@@ -48,6 +61,7 @@ public class SearchResult<T> implements Serializable {
         return "SearchResult{" +
                 "matches=" + matches +
                 ", pattern='" + pattern + '\'' +
+                ", plan='" + plan + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,63 @@
+package com.hit.dm;
+
+import java.io.Serializable;
+
+/**
+ * A fixed-width window of text around one or more search hits.
+ * The highlights are relative to the beginning of the window.
+ */
+public class Snippet implements Serializable {
+    private int start; // Offset of the window in the original text
+    private String text;
+    private int[] highlightOffsets;
+    private int[] highlightLengths;
+
+    public Snippet(int start, String text, int[] highlightOffsets, int[] highlightLengths) {
+        this.start = start;
+        this.text = text;
+        this.highlightOffsets = highlightOffsets;
+        this.highlightLengths = highlightLengths;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public void setStart(int start) {
+        this.start = start;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public int[] getHighlightOffsets() {
+        return highlightOffsets;
+    }
+
+    public void setHighlightOffsets(int[] highlightOffsets) {
+        this.highlightOffsets = highlightOffsets;
+    }
+
+    public int[] getHighlightLengths() {
+        return highlightLengths;
+    }
+
+    public void setHighlightLengths(int[] highlightLengths) {
+        this.highlightLengths = highlightLengths;
+    }
+
+    @Override
+    public String toString() {
+        return "Snippet{" +
+                "start=" + start +
+                ", text='" + text + '\'' +
+                ", highlightOffsets=" + java.util.Arrays.toString(highlightOffsets) +
+                ", highlightLengths=" + java.util.Arrays.toString(highlightLengths) +
+                '}';
+    }
+}
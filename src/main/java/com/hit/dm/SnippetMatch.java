@@ -0,0 +1,75 @@
+package com.hit.dm;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A search hit in snippet mode: the id and title of the matching entity
+ * and context windows around its first hits, instead of the whole entity.
+ */
+public class SnippetMatch implements Serializable {
+    private long id;
+    private Long postId; // Set for comments, the post they belong to
+    private String title;
+    private int hitCount; // Total number of hits, including the ones without a snippet
+    private List<Snippet> snippets;
+
+    public SnippetMatch(long id, Long postId, String title, int hitCount, List<Snippet> snippets) {
+        this.id = id;
+        this.postId = postId;
+        this.title = title;
+        this.hitCount = hitCount;
+        this.snippets = snippets;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public Long getPostId() {
+        return postId;
+    }
+
+    public void setPostId(Long postId) {
+        this.postId = postId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public void setHitCount(int hitCount) {
+        this.hitCount = hitCount;
+    }
+
+    public List<Snippet> getSnippets() {
+        return snippets;
+    }
+
+    public void setSnippets(List<Snippet> snippets) {
+        this.snippets = snippets;
+    }
+
+    @Override
+    public String toString() {
+        return "SnippetMatch{" +
+                "id=" + id +
+                ", postId=" + postId +
+                ", title='" + title + '\'' +
+                ", hitCount=" + hitCount +
+                ", snippets=" + snippets +
+                '}';
+    }
+}
@@ -0,0 +1,63 @@
+package com.hit.dm;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of a search in snippet mode. Its size only depends on the snippet options,
+ * not on the length of the matching posts or comments.
+ */
+public class SnippetSearchResult implements Serializable {
+    private final List<SnippetMatch> matches;
+    private String pattern;
+    private String plan;
+    private int totalMatches; // Number of matching entities, including the ones left out by maxResults
+
+    public SnippetSearchResult(String pattern) {
+        this.matches = new ArrayList<>();
+        setPattern(pattern);
+    }
+
+    public List<SnippetMatch> getMatches() {
+        return matches;
+    }
+
+    public void addMatch(SnippetMatch match) {
+        matches.add(match);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public String getPlan() {
+        return plan;
+    }
+
+    public void setPlan(String plan) {
+        this.plan = plan;
+    }
+
+    public int getTotalMatches() {
+        return totalMatches;
+    }
+
+    public void setTotalMatches(int totalMatches) {
+        this.totalMatches = totalMatches;
+    }
+
+    @Override
+    public String toString() {
+        return "SnippetSearchResult{" +
+                "matches=" + matches +
+                ", pattern='" + pattern + '\'' +
+                ", plan='" + plan + '\'' +
+                ", totalMatches=" + totalMatches +
+                '}';
+    }
+}
@@ -0,0 +1,51 @@
+package com.hit.dm;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The answer to a sync request: what changed in a store since the version the client last saw.
+ * A full result holds every entity instead, for a client whose version is too old for the
+ * retained history; it replaces the client's copy.
+ *
+ * @param <T> the entity type
+ */
+public class SyncResult<T> implements Serializable {
+    private final long version; // The version to send with the next sync request
+    private final boolean full;
+    private final List<T> items; // The entities created or edited since, in their current state
+    private final List<Long> removed; // The IDs of the entities removed since
+
+    public SyncResult(long version, boolean full, List<T> items, List<Long> removed) {
+        this.version = version;
+        this.full = full;
+        this.items = items;
+        this.removed = removed;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public List<Long> getRemoved() {
+        return removed;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncResult{" +
+                "version=" + version +
+                ", full=" + full +
+                ", items=" + items.size() +
+                ", removed=" + removed.size() +
+                '}';
+    }
+}
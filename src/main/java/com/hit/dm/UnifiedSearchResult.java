@@ -0,0 +1,53 @@
+package com.hit.dm;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of a search of post titles, post contents and comments together, grouped by post.
+ */
+public class UnifiedSearchResult implements Serializable {
+    private final List<PostSearchGroup> groups;
+    private String pattern;
+
+    public UnifiedSearchResult(String pattern) {
+        this.groups = new ArrayList<>();
+        setPattern(pattern);
+    }
+
+    public List<PostSearchGroup> getGroups() {
+        return groups;
+    }
+
+    public void addGroup(PostSearchGroup group) {
+        groups.add(group);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public boolean hasMatches() {
+        return !groups.isEmpty();
+    }
+
+    public int countMatches() {
+        int matchesNumber = 0;
+        for (PostSearchGroup group : groups)
+            matchesNumber += group.countMatches();
+        return matchesNumber;
+    }
+
+    @Override
+    public String toString() {
+        return "UnifiedSearchResult{" +
+                "groups=" + groups +
+                ", pattern='" + pattern + '\'' +
+                '}';
+    }
+}
@@ -29,6 +29,17 @@ public class User implements Serializable {
         this(username, password, Role.USER);
     }
 
+    /**
+     * Creates a user whose password is already hashed, e.g. read back from the data file.
+     */
+    public static User withPasswordHash(String username, String passwordHash, Role role) {
+        User user = new User();
+        user.setUsername(username);
+        user.password = passwordHash;
+        user.setRole(role);
+        return user;
+    }
+
     public String getUsername() {
         return username;
     }
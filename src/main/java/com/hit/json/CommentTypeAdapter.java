@@ -0,0 +1,44 @@
+package com.hit.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.hit.dm.Comment;
+
+import java.io.IOException;
+
+/**
+ * Writes and reads a {@link Comment} without reflection.
+ */
+final class CommentTypeAdapter extends TypeAdapter<Comment> {
+    @Override
+    public void write(JsonWriter out, Comment comment) throws IOException {
+        out.beginObject();
+        out.name("id").value(comment.getId());
+        out.name("postId").value(comment.getPostId());
+        out.name("userName").value(comment.getUserName());
+        out.name("content").value(comment.getContent());
+        out.name("timestamp").value(comment.getTimestamp());
+        out.name("isEdited").value(comment.getEdited());
+        out.endObject();
+    }
+
+    @Override
+    public Comment read(JsonReader in) throws IOException {
+        Comment comment = new Comment();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id" -> comment.setId(in.nextLong());
+                case "postId" -> comment.setPostId(in.nextLong());
+                case "userName" -> comment.setUserName(JsonValues.readString(in));
+                case "content" -> comment.setContent(JsonValues.readString(in));
+                case "timestamp" -> comment.setTimestamp(in.nextLong());
+                case "isEdited" -> comment.setEdited(JsonValues.readBoolean(in));
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return comment;
+    }
+}
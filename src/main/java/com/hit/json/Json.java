@@ -0,0 +1,33 @@
+package com.hit.json;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.hit.dm.Comment;
+import com.hit.dm.Post;
+import com.hit.dm.User;
+
+/**
+ * The Json class holds the Gson instance shared by the server, the client and the data files.
+ * <p>
+ * The classes written and read the most, the posts, comments, users, search results, requests and
+ * responses, have hand-written type adapters instead of Gson's reflection, which reads every field
+ * through reflection and looks up the adapter of its runtime type. The adapters write the same JSON
+ * as reflection did: the fields in declaration order and no null fields. The other classes are still
+ * serialized through reflection.
+ * <p>
+ * A Gson instance is thread-safe and caches the adapters it creates, so it is built once.
+ */
+public final class Json {
+    public static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Post.class, new PostTypeAdapter().nullSafe())
+            .registerTypeAdapter(Comment.class, new CommentTypeAdapter().nullSafe())
+            .registerTypeAdapter(User.class, new UserTypeAdapter().nullSafe())
+            .registerTypeAdapterFactory(new MatchResultTypeAdapterFactory())
+            .registerTypeAdapterFactory(new SearchResultTypeAdapterFactory())
+            .registerTypeAdapterFactory(new RequestTypeAdapterFactory())
+            .registerTypeAdapterFactory(new ResponseTypeAdapterFactory())
+            .create();
+
+    private Json() {
+    }
+}
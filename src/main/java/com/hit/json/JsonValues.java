@@ -0,0 +1,51 @@
+package com.hit.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Reads the values of the fields as leniently as Gson's own adapters do.
+ */
+final class JsonValues {
+    private JsonValues() {
+    }
+
+    static String readString(JsonReader in) throws IOException {
+        return switch (in.peek()) {
+            case NULL -> {
+                in.nextNull();
+                yield null;
+            }
+            case BOOLEAN -> Boolean.toString(in.nextBoolean());
+            default -> in.nextString();
+        };
+    }
+
+    static Boolean readBoolean(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return token == JsonToken.STRING ? Boolean.parseBoolean(in.nextString()) : in.nextBoolean();
+    }
+
+    static int[] readIntArray(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        int[] values = new int[8];
+        int size = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            if (size == values.length)
+                values = java.util.Arrays.copyOf(values, size * 2);
+            values[size++] = in.nextInt();
+        }
+        in.endArray();
+        return java.util.Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,94 @@
+package com.hit.json;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.hit.dm.MatchResult;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+/**
+ * Creates the adapters of the {@link MatchResult} types without reflection.
+ * An item is written with the adapter of its runtime type, as Gson does for a field of a type
+ * variable, and read with the adapter of the item type, an Object when the type is raw.
+ */
+final class MatchResultTypeAdapterFactory implements TypeAdapterFactory {
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        if (type.getRawType() != MatchResult.class)
+            return null;
+        TypeAdapter<Object> itemAdapter = (TypeAdapter<Object>) gson.getAdapter(TypeToken.get(itemType(type.getType())));
+        return (TypeAdapter<T>) new MatchResultTypeAdapter(gson, itemAdapter).nullSafe();
+    }
+
+    /**
+     * Returns the type argument of a generic type, Object when it is raw or a type variable.
+     */
+    static Type itemType(Type type) {
+        if (type instanceof ParameterizedType parameterizedType) {
+            Type itemType = parameterizedType.getActualTypeArguments()[0];
+            if (itemType instanceof Class<?> || itemType instanceof ParameterizedType)
+                return itemType;
+        }
+        return Object.class;
+    }
+
+    private static final class MatchResultTypeAdapter extends TypeAdapter<MatchResult<Object>> {
+        private final Gson gson;
+        private final TypeAdapter<Object> itemAdapter;
+
+        MatchResultTypeAdapter(Gson gson, TypeAdapter<Object> itemAdapter) {
+            this.gson = gson;
+            this.itemAdapter = itemAdapter;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void write(JsonWriter out, MatchResult<Object> matchResult) throws IOException {
+            out.beginObject();
+            Object item = matchResult.getItem();
+            if (item != null) {
+                out.name("item");
+                ((TypeAdapter<Object>) gson.getAdapter(item.getClass())).write(out, item);
+            }
+            writeIntArray(out.name("indexes"), matchResult.getIndexes());
+            writeIntArray(out.name("lengths"), matchResult.getLengths());
+            out.endObject();
+        }
+
+        @Override
+        public MatchResult<Object> read(JsonReader in) throws IOException {
+            Object item = null;
+            int[] indexes = null;
+            int[] lengths = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "item" -> item = itemAdapter.read(in);
+                    case "indexes" -> indexes = JsonValues.readIntArray(in);
+                    case "lengths" -> lengths = JsonValues.readIntArray(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new MatchResult<>(item, indexes, lengths);
+        }
+
+        private static void writeIntArray(JsonWriter out, int[] values) throws IOException {
+            if (values == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginArray();
+            for (int value : values)
+                out.value(value);
+            out.endArray();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.hit.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.hit.dm.Post;
+
+import java.io.IOException;
+
+/**
+ * Writes and reads a {@link Post} without reflection.
+ */
+final class PostTypeAdapter extends TypeAdapter<Post> {
+    @Override
+    public void write(JsonWriter out, Post post) throws IOException {
+        out.beginObject();
+        out.name("id").value(post.getId());
+        out.name("userName").value(post.getUserName());
+        out.name("title").value(post.getTitle());
+        out.name("content").value(post.getContent());
+        out.name("timestamp").value(post.getTimestamp());
+        out.name("isEdited").value(post.getEdited());
+        out.endObject();
+    }
+
+    @Override
+    public Post read(JsonReader in) throws IOException {
+        Post post = new Post();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id" -> post.setId(in.nextLong());
+                case "userName" -> post.setUserName(JsonValues.readString(in));
+                case "title" -> post.setTitle(JsonValues.readString(in));
+                case "content" -> post.setContent(JsonValues.readString(in));
+                case "timestamp" -> post.setTimestamp(in.nextLong());
+                case "isEdited" -> post.setEdited(JsonValues.readBoolean(in));
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return post;
+    }
+}
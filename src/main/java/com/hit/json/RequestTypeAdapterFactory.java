@@ -0,0 +1,67 @@
+package com.hit.json;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.hit.server.Request;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Creates the adapter of {@link Request} without reflection.
+ * The body is read as Gson reads a {@code Map<String, Object>}: numbers are doubles.
+ */
+final class RequestTypeAdapterFactory implements TypeAdapterFactory {
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        if (type.getRawType() != Request.class)
+            return null;
+        return (TypeAdapter<T>) new RequestTypeAdapter(gson.getAdapter(new TypeToken<Map<String, Object>>() {
+        })).nullSafe();
+    }
+
+    private static final class RequestTypeAdapter extends TypeAdapter<Request> {
+        private final TypeAdapter<Map<String, Object>> bodyAdapter;
+
+        RequestTypeAdapter(TypeAdapter<Map<String, Object>> bodyAdapter) {
+            this.bodyAdapter = bodyAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, Request request) throws IOException {
+            out.beginObject();
+            out.name("action").value(request.getAction());
+            out.name("body");
+            bodyAdapter.write(out, request.getBody());
+            out.name("keepAlive").value(request.isKeepAlive());
+            out.name("compression").value(request.getCompression());
+            out.endObject();
+        }
+
+        @Override
+        public Request read(JsonReader in) throws IOException {
+            Request request = new Request(null, null);
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "action" -> request.setAction(JsonValues.readString(in));
+                    case "body" -> request.setBody(bodyAdapter.read(in));
+                    case "keepAlive" -> {
+                        Boolean keepAlive = JsonValues.readBoolean(in);
+                        request.setKeepAlive(keepAlive != null && keepAlive);
+                    }
+                    case "compression" -> request.setCompression(JsonValues.readString(in));
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return request;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.hit.json;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.hit.server.Response;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Creates the adapter of {@link Response} without reflection.
+ * The values of the body are written with the adapters of their runtime types.
+ */
+final class ResponseTypeAdapterFactory implements TypeAdapterFactory {
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        if (type.getRawType() != Response.class)
+            return null;
+        return (TypeAdapter<T>) new ResponseTypeAdapter(gson.getAdapter(new TypeToken<Map<String, Object>>() {
+        })).nullSafe();
+    }
+
+    private static final class ResponseTypeAdapter extends TypeAdapter<Response> {
+        private final TypeAdapter<Map<String, Object>> bodyAdapter;
+
+        ResponseTypeAdapter(TypeAdapter<Map<String, Object>> bodyAdapter) {
+            this.bodyAdapter = bodyAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, Response response) throws IOException {
+            out.beginObject();
+            out.name("status").value(response.getStatus());
+            out.name("body");
+            bodyAdapter.write(out, response.getBody());
+            out.endObject();
+        }
+
+        @Override
+        public Response read(JsonReader in) throws IOException {
+            Response response = new Response(0, null);
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "status" -> response.setStatus(in.nextInt());
+                    case "body" -> response.setBody(bodyAdapter.read(in));
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return response;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.hit.json;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.hit.dm.MatchResult;
+import com.hit.dm.SearchResult;
+
+import java.io.IOException;
+
+/**
+ * Creates the adapters of the {@link SearchResult} types without reflection.
+ */
+final class SearchResultTypeAdapterFactory implements TypeAdapterFactory {
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        if (type.getRawType() != SearchResult.class)
+            return null;
+        TypeAdapter<MatchResult<Object>> matchAdapter = (TypeAdapter<MatchResult<Object>>) gson.getAdapter(
+                TypeToken.getParameterized(MatchResult.class, MatchResultTypeAdapterFactory.itemType(type.getType())));
+        return (TypeAdapter<T>) new SearchResultTypeAdapter(matchAdapter).nullSafe();
+    }
+
+    private static final class SearchResultTypeAdapter extends TypeAdapter<SearchResult<Object>> {
+        private final TypeAdapter<MatchResult<Object>> matchAdapter;
+
+        SearchResultTypeAdapter(TypeAdapter<MatchResult<Object>> matchAdapter) {
+            this.matchAdapter = matchAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, SearchResult<Object> searchResult) throws IOException {
+            out.beginObject();
+            out.name("matches").beginArray();
+            for (MatchResult<Object> match : searchResult.getMatches())
+                matchAdapter.write(out, match);
+            out.endArray();
+            out.name("pattern").value(searchResult.getPattern());
+            out.name("plan").value(searchResult.getPlan());
+            out.endObject();
+        }
+
+        @Override
+        public SearchResult<Object> read(JsonReader in) throws IOException {
+            SearchResult<Object> searchResult = new SearchResult<>(null);
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "matches" -> {
+                        if (in.peek() == JsonToken.NULL) {
+                            in.nextNull();
+                            continue;
+                        }
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            MatchResult<Object> match = matchAdapter.read(in);
+                            if (match != null)
+                                searchResult.addMatch(match.getItem(), match.getIndexes(), match.getLengths());
+                        }
+                        in.endArray();
+                    }
+                    case "pattern" -> searchResult.setPattern(JsonValues.readString(in));
+                    case "plan" -> searchResult.setPlan(JsonValues.readString(in));
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return searchResult;
+        }
+    }
+}
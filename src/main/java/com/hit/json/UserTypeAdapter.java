@@ -0,0 +1,49 @@
+package com.hit.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.hit.dm.User;
+
+import java.io.IOException;
+
+/**
+ * Writes and reads a {@link User} without reflection.
+ * The password is the stored hash, it is read back as it is and not hashed again.
+ */
+final class UserTypeAdapter extends TypeAdapter<User> {
+    @Override
+    public void write(JsonWriter out, User user) throws IOException {
+        out.beginObject();
+        out.name("username").value(user.getUsername());
+        out.name("password").value(user.getPassword());
+        out.name("role").value(user.getRole() != null ? user.getRole().name() : null);
+        out.endObject();
+    }
+
+    @Override
+    public User read(JsonReader in) throws IOException {
+        String username = null;
+        String passwordHash = null;
+        User.Role role = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "username" -> username = JsonValues.readString(in);
+                case "password" -> passwordHash = JsonValues.readString(in);
+                case "role" -> role = readRole(JsonValues.readString(in));
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return User.withPasswordHash(username, passwordHash, role);
+    }
+
+    // An unknown role is read as null, as Gson reads unknown enum constants
+    private static User.Role readRole(String name) {
+        for (User.Role role : User.Role.values())
+            if (role.name().equals(name))
+                return role;
+        return null;
+    }
+}
@@ -0,0 +1,87 @@
+package com.hit.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Burkhard-Keller tree over a set of terms.
+ * Every child edge is labeled with the edit distance between the child and its parent,
+ * so a query with tolerance k only has to descend into edges labeled [d - k, d + k]
+ * (triangle inequality), instead of comparing the query against every term.
+ * <p>
+ * BK-trees do not support removal; terms stay in the tree and callers are expected
+ * to ignore terms that no longer have postings.
+ */
+public class BKTree {
+    private static class Node {
+        private final String term;
+        private final Map<Integer, Node> children = new HashMap<>();
+
+        private Node(String term) {
+            this.term = term;
+        }
+    }
+
+    private Node root;
+    private int size;
+
+    public void add(String term) {
+        if (root == null) {
+            root = new Node(term);
+            size++;
+            return;
+        }
+
+        Node node = root;
+        while (true) {
+            int distance = Levenshtein.distance(term, node.term);
+            if (distance == 0)
+                return; // Already in the tree.
+
+            Node child = node.children.get(distance);
+            if (child == null) {
+                node.children.put(distance, new Node(term));
+                size++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Finds all terms within the given edit distance of the query.
+     *
+     * @param query       the term to look up
+     * @param maxDistance the maximal edit distance (inclusive)
+     * @return the matching terms, in no particular order
+     */
+    public List<String> search(String query, int maxDistance) {
+        List<String> result = new ArrayList<>();
+        if (root == null)
+            return result;
+
+        Deque<Node> toVisit = new ArrayDeque<>();
+        toVisit.push(root);
+        while (!toVisit.isEmpty()) {
+            Node node = toVisit.pop();
+            int distance = Levenshtein.distance(query, node.term);
+            if (distance <= maxDistance)
+                result.add(node.term);
+
+            for (Map.Entry<Integer, Node> child : node.children.entrySet()) {
+                int edge = child.getKey();
+                if (edge >= distance - maxDistance && edge <= distance + maxDistance)
+                    toVisit.push(child.getValue());
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+}
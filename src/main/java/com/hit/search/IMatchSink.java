@@ -0,0 +1,16 @@
+package com.hit.search;
+
+/**
+ * Receives the matches of a search one by one, as they are found.
+ *
+ * @param <T> the matched entity type
+ */
+@FunctionalInterface
+public interface IMatchSink<T> {
+    /**
+     * @param item    the matching entity
+     * @param indexes the offsets of the matches in the searched field
+     * @return true to continue the search, false to stop it
+     */
+    boolean accept(T item, int[] indexes);
+}
@@ -0,0 +1,110 @@
+package com.hit.search;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Set operations on posting lists: sorted arrays of distinct document ids.
+ * <p>
+ * Intersections and differences gallop through the longer list: from the current position,
+ * the list is probed at distances 1, 2, 4, ... until the probed id is not smaller than the
+ * looked-up id, then the last interval is binary searched. Intersecting a list of n ids with
+ * a list of m ids (n &lt;= m) costs O(n log(m / n)) instead of the O(n + m) of a merge, which
+ * matters when a rare term is combined with a common one.
+ */
+public final class PostingLists {
+    public static final long[] EMPTY = new long[0];
+
+    private PostingLists() {
+    }
+
+    public static long[] of(Collection<Long> sortedIds) {
+        long[] ids = new long[sortedIds.size()];
+        int i = 0;
+        for (long id : sortedIds)
+            ids[i++] = id;
+        return ids;
+    }
+
+    public static long[] intersect(long[] a, long[] b) {
+        if (a.length > b.length) {
+            long[] tmp = a;
+            a = b;
+            b = tmp;
+        }
+        long[] result = new long[a.length];
+        int size = 0;
+        int from = 0;
+        for (long id : a) {
+            from = gallop(b, from, id);
+            if (from == b.length)
+                break;
+            if (b[from] == id)
+                result[size++] = id;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Returns the ids of {@code a} that are not in {@code b}.
+     */
+    public static long[] difference(long[] a, long[] b) {
+        long[] result = new long[a.length];
+        int size = 0;
+        int from = 0;
+        for (long id : a) {
+            from = gallop(b, from, id);
+            if (from == b.length || b[from] != id)
+                result[size++] = id;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    public static long[] union(long[] a, long[] b) {
+        long[] result = new long[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                result[size++] = a[i++];
+            } else if (a[i] > b[j]) {
+                result[size++] = b[j++];
+            } else {
+                result[size++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length)
+            result[size++] = a[i++];
+        while (j < b.length)
+            result[size++] = b[j++];
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Returns the position of the first id not smaller than {@code id}, searching from {@code from},
+     * or the length of the list if there is none.
+     */
+    static int gallop(long[] ids, int from, long id) {
+        if (from >= ids.length || ids[from] >= id)
+            return from;
+
+        // ids[from] < id: find a bound with ids[from + bound] >= id
+        int bound = 1;
+        while (from + bound < ids.length && ids[from + bound] < id)
+            bound <<= 1;
+
+        int low = from + (bound >> 1) + 1;
+        int high = Math.min(from + bound, ids.length);
+        // The answer is in [low, high]
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ids[middle] < id)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,61 @@
+package com.hit.search;
+
+import java.util.List;
+
+/**
+ * A parsed search query, see {@link QueryParser}.
+ * A null field means the default fields of the searched entity.
+ */
+public sealed interface Query {
+
+    /**
+     * Documents having the term in the field.
+     */
+    record Term(String field, String term) implements Query {
+        @Override
+        public String toString() {
+            return (field != null ? field + ":" : "") + term;
+        }
+    }
+
+    /**
+     * Documents having the terms in the field, one right after the other.
+     */
+    record Phrase(String field, List<String> terms) implements Query {
+        @Override
+        public String toString() {
+            return (field != null ? field + ":" : "") + '"' + String.join(" ", terms) + '"';
+        }
+    }
+
+    /**
+     * Documents written by the user.
+     */
+    record User(String userName) implements Query {
+        @Override
+        public String toString() {
+            return "user:" + userName;
+        }
+    }
+
+    record And(List<Query> clauses) implements Query {
+        @Override
+        public String toString() {
+            return "(" + String.join(" AND ", clauses.stream().map(Query::toString).toList()) + ")";
+        }
+    }
+
+    record Or(List<Query> clauses) implements Query {
+        @Override
+        public String toString() {
+            return "(" + String.join(" OR ", clauses.stream().map(Query::toString).toList()) + ")";
+        }
+    }
+
+    record Not(Query clause) implements Query {
+        @Override
+        public String toString() {
+            return "NOT " + clause;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.hit.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parses the forum search query language:
+ * <pre>
+ * query   := or
+ * or      := and ("OR" and)*
+ * and     := unary (["AND"] unary)*      adjacent clauses are AND-ed
+ * unary   := "NOT" unary | primary
+ * primary := "(" or ")" | [field ":"] (word | "quoted phrase" | "(" or ")")
+ * </pre>
+ * The operators are only recognized in upper case. A field prefix is only recognized for the
+ * given field names and for {@code user:}, which matches the author; any other {@code name:}
+ * is searched as text. Words are split into terms like indexed text, so a word such as
+ * {@code e-mail} is searched as the phrase {@code "e mail"}.
+ */
+public final class QueryParser {
+    public static final int MAX_QUERY_LENGTH = 1024;
+    public static final int MAX_CLAUSES = 64;
+    public static final String USER_FIELD = "user";
+
+    private final Set<String> fields;
+    private final List<String> tokens;
+    private int position;
+    private int clauses;
+
+    private QueryParser(Set<String> fields, List<String> tokens) {
+        this.fields = fields;
+        this.tokens = tokens;
+    }
+
+    /**
+     * @param query  the query text
+     * @param fields the names of the fields that can be used as prefixes
+     * @return the parsed query
+     * @throws IllegalArgumentException if the query is empty, too long or malformed
+     */
+    public static Query parse(String query, Set<String> fields) {
+        if (query == null || query.isBlank())
+            throw new IllegalArgumentException("Empty query");
+        if (query.length() > MAX_QUERY_LENGTH)
+            throw new IllegalArgumentException("Query longer than " + MAX_QUERY_LENGTH + " characters");
+
+        QueryParser parser = new QueryParser(fields, lex(query));
+        Query parsed = parser.parseOr(null);
+        if (parser.position < parser.tokens.size())
+            throw new IllegalArgumentException("Unexpected '" + parser.tokens.get(parser.position) + "' in query");
+        return parsed;
+    }
+
+    private Query parseOr(String field) {
+        List<Query> alternatives = new ArrayList<>();
+        alternatives.add(parseAnd(field));
+        while (accept("OR"))
+            alternatives.add(parseAnd(field));
+        return alternatives.size() == 1 ? alternatives.getFirst() : new Query.Or(alternatives);
+    }
+
+    private Query parseAnd(String field) {
+        List<Query> conjuncts = new ArrayList<>();
+        conjuncts.add(parseUnary(field));
+        while (position < tokens.size() && !peek("OR") && !peek(")")) {
+            accept("AND");
+            conjuncts.add(parseUnary(field));
+        }
+        return conjuncts.size() == 1 ? conjuncts.getFirst() : new Query.And(conjuncts);
+    }
+
+    private Query parseUnary(String field) {
+        if (accept("NOT"))
+            return new Query.Not(parseUnary(field));
+        return parsePrimary(field);
+    }
+
+    private Query parsePrimary(String field) {
+        if (position >= tokens.size())
+            throw new IllegalArgumentException("Unexpected end of query");
+        if (++clauses > MAX_CLAUSES)
+            throw new IllegalArgumentException("Query with more than " + MAX_CLAUSES + " clauses");
+
+        String token = tokens.get(position++);
+        if (token.equals("(")) {
+            Query group = parseOr(field);
+            if (!accept(")"))
+                throw new IllegalArgumentException("Missing ')' in query");
+            return group;
+        }
+        if (token.equals(")") || token.equals("AND") || token.equals("OR"))
+            throw new IllegalArgumentException("Unexpected '" + token + "' in query");
+
+        int colon = token.indexOf(':');
+        if (colon > 0 && !token.startsWith("\"")) {
+            String prefix = token.substring(0, colon).toLowerCase();
+            if (prefix.equals(USER_FIELD) || fields.contains(prefix)) {
+                String rest = token.substring(colon + 1);
+                if (rest.isEmpty()) {
+                    // The value is the next token: a phrase or a group
+                    if (position >= tokens.size() || tokens.get(position).equals(")"))
+                        throw new IllegalArgumentException("Missing value after '" + token + "' in query");
+                    rest = tokens.get(position++);
+                    if (rest.equals("(")) {
+                        if (prefix.equals(USER_FIELD))
+                            throw new IllegalArgumentException("user: takes a single user name");
+                        position--;
+                        clauses--;
+                        return parsePrimary(prefix);
+                    }
+                }
+                if (prefix.equals(USER_FIELD))
+                    return new Query.User(unquote(rest));
+                return text(prefix, rest);
+            }
+        }
+        return text(field, token);
+    }
+
+    private static Query text(String field, String token) {
+        List<String> terms = new ArrayList<>();
+        for (TermIndex.Token term : TermIndex.tokenize(unquote(token)))
+            terms.add(term.term());
+        if (terms.isEmpty())
+            throw new IllegalArgumentException("No letters or digits in '" + token + "'");
+        if (terms.size() == 1)
+            return new Query.Term(field, terms.getFirst());
+        return new Query.Phrase(field, terms);
+    }
+
+    private static String unquote(String token) {
+        if (token.length() >= 2 && token.startsWith("\"") && token.endsWith("\""))
+            return token.substring(1, token.length() - 1);
+        return token;
+    }
+
+    private boolean peek(String token) {
+        return position < tokens.size() && tokens.get(position).equals(token);
+    }
+
+    private boolean accept(String token) {
+        if (!peek(token))
+            return false;
+        position++;
+        return true;
+    }
+
+    /**
+     * Splits the query into parentheses, quoted phrases (kept with their quotes)
+     * and words; a field prefix stays attached to the following phrase.
+     */
+    private static List<String> lex(String query) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else {
+                int start = i;
+                while (i < query.length() && !Character.isWhitespace(query.charAt(i))
+                        && query.charAt(i) != '(' && query.charAt(i) != ')') {
+                    if (query.charAt(i) == '"') {
+                        int end = query.indexOf('"', i + 1);
+                        if (end < 0)
+                            throw new IllegalArgumentException("Unterminated phrase in query");
+                        i = end;
+                    }
+                    i++;
+                }
+                tokens.add(query.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+}
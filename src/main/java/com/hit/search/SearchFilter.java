@@ -0,0 +1,26 @@
+package com.hit.search;
+
+/**
+ * Restricts a search to the documents of one author and/or to a time range.
+ * Every part is optional (null); the time bounds are inclusive epoch milliseconds.
+ *
+ * @param userName      the author of the documents
+ * @param fromTimestamp the earliest creation time
+ * @param toTimestamp   the latest creation time
+ */
+public record SearchFilter(String userName, Long fromTimestamp, Long toTimestamp) {
+    public static final SearchFilter NONE = new SearchFilter(null, null, null);
+
+    public boolean isEmpty() {
+        return userName == null && fromTimestamp == null && toTimestamp == null;
+    }
+
+    public boolean hasTimeRange() {
+        return fromTimestamp != null || toTimestamp != null;
+    }
+
+    public boolean acceptsTimestamp(long timestamp) {
+        return (fromTimestamp == null || timestamp >= fromTimestamp)
+                && (toTimestamp == null || timestamp <= toTimestamp);
+    }
+}
@@ -0,0 +1,700 @@
+package com.hit.search;
+
+import com.hit.algorithm.IAlgoStringMatching;
+import com.hit.algorithm.SimdStringMatchingImpl;
+import com.hit.dao.IDaoListener;
+import com.hit.dm.QueryMatch;
+import com.hit.dm.QueryResult;
+import com.hit.dm.SearchResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * The SearchIndex class keeps an in-memory copy of the entities of one DAO together with
+ * a {@link TermIndex}, a {@link TrigramIndex} and the lower-cased text of each of their
+ * searchable text fields, and indexes of their authors and creation times used to narrow
+ * searches with a {@link SearchFilter}. With {@link #BLOOM_BITS_PROPERTY} set, each text gets
+ * a {@link TrigramBloomFilter} in place of the trigram index, for a fraction of its memory.
+ * It registers itself as a DAO listener, so every save or delete made through the DAO
+ * is reflected in the index, and searches never have to re-read the data file.
+ * Substring searches are planned by a {@link SearchPlanner} and recorded in a {@link SearchPlanLog};
+ * boolean and phrase queries are evaluated on the posting lists of the term indexes.
+ *
+ * @param <T> the indexed entity type
+ */
+public class SearchIndex<T> implements IDaoListener<T> {
+    private static final int PLAN_LOG_CAPACITY = 256;
+    /**
+     * The system property that indexes the text fields with per-document trigram Bloom filters of
+     * that many bits per distinct trigram instead of a {@link TrigramIndex}; 0 keeps the trigram index.
+     * The {@link SearchPlanner} documents when the filters pay off.
+     */
+    public static final String BLOOM_BITS_PROPERTY = "italk.bloomBitsPerTrigram";
+    public static final int DEFAULT_BLOOM_BITS_PER_TRIGRAM = 0;
+
+    /**
+     * The indexes of one text field.
+     */
+    private class FieldIndex {
+        private final Function<T, String> extractor;
+        private final TermIndex terms = new TermIndex();
+        // Null when the field is indexed with Bloom filters instead
+        private final TrigramIndex trigrams = bloomBitsPerTrigram > 0 ? null : new TrigramIndex();
+        private final Map<Long, String> normalizedTexts = new HashMap<>();
+        private final Map<Long, TrigramBloomFilter> bloomFilters = new HashMap<>();
+        private long corpusChars;
+
+        private FieldIndex(Function<T, String> extractor) {
+            this.extractor = extractor;
+        }
+
+        private void add(long id, T entity) {
+            remove(id);
+            String text = extractor.apply(entity);
+            String normalized = text == null ? "" : text.toLowerCase();
+            normalizedTexts.put(id, normalized);
+            corpusChars += normalized.length();
+            terms.add(id, text);
+            if (trigrams != null)
+                trigrams.add(id, normalized);
+            else
+                bloomFilters.put(id, TrigramBloomFilter.of(normalized, bloomBitsPerTrigram));
+        }
+
+        private void remove(long id) {
+            String normalized = normalizedTexts.remove(id);
+            if (normalized == null)
+                return;
+            corpusChars -= normalized.length();
+            terms.remove(id);
+            if (trigrams != null)
+                trigrams.remove(id);
+            bloomFilters.remove(id);
+        }
+    }
+
+    private final ToLongFunction<T> idExtractor;
+    private final Function<T, String> userNameExtractor;
+    private final ToLongFunction<T> timestampExtractor;
+    private final TreeMap<Long, T> documents = new TreeMap<>();
+    private final Map<String, TreeSet<Long>> userNameIndex = new HashMap<>();
+    private final TreeMap<Long, TreeSet<Long>> timestampIndex = new TreeMap<>();
+    private final Map<Long, String> documentUserNames = new HashMap<>();
+    private final Map<Long, Long> documentTimestamps = new HashMap<>();
+    private final Map<String, FieldIndex> fieldIndexes = new HashMap<>();
+    private final SearchPlanner planner = new SearchPlanner();
+    private final SearchPlanLog planLog = new SearchPlanLog(PLAN_LOG_CAPACITY);
+    private final IAlgoStringMatching simdStringMatching = new SimdStringMatchingImpl();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int bloomBitsPerTrigram = Integer.getInteger(BLOOM_BITS_PROPERTY, DEFAULT_BLOOM_BITS_PER_TRIGRAM);
+
+    /**
+     * @param idExtractor        returns the unique id of an entity
+     * @param userNameExtractor  returns the author of an entity
+     * @param timestampExtractor returns the creation time of an entity
+     * @param fields             the searchable fields, by name, and how to read each of them from an entity
+     */
+    public SearchIndex(ToLongFunction<T> idExtractor, Function<T, String> userNameExtractor,
+            ToLongFunction<T> timestampExtractor, Map<String, Function<T, String>> fields) {
+        this.idExtractor = idExtractor;
+        this.userNameExtractor = userNameExtractor;
+        this.timestampExtractor = timestampExtractor;
+        for (Map.Entry<String, Function<T, String>> field : fields.entrySet())
+            fieldIndexes.put(field.getKey(), new FieldIndex(field.getValue()));
+    }
+
+    /**
+     * Replaces the content of the index with the given entities.
+     */
+    public void rebuild(Collection<T> entities) {
+        lock.writeLock().lock();
+        try {
+            for (Long id : new ArrayList<>(documents.keySet()))
+                removeDocument(id);
+            for (T entity : entities)
+                addDocument(entity);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onSaved(T entity, boolean created) {
+        lock.writeLock().lock();
+        try {
+            addDocument(entity);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onDeleted(T entity) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(idExtractor.applyAsLong(entity));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public SearchPlanLog getPlanLog() {
+        return planLog;
+    }
+
+    /**
+     * <h5> Case-insensitive substring search of a field. </h5>
+     * The {@link SearchPlanner} picks the cheapest way to find the candidate documents
+     * (term dictionary, trigram postings or a full scan), then every candidate is verified
+     * with the string matching algorithm. The executed plan is recorded in the plan log and
+     * returned in the `SearchResult`.
+     *
+     * @param field          the name of the field to search
+     * @param pattern        the text to look for
+     * @param stringMatching the algorithm used to verify candidates and to scan
+     * @return a `SearchResult` of the matching entities, ordered by id, with the match offsets
+     */
+    public SearchResult<T> search(String field, String pattern, IAlgoStringMatching stringMatching) {
+        return search(field, pattern, stringMatching, SearchFilter.NONE);
+    }
+
+    /**
+     * <h5> Case-insensitive substring search of a field, restricted by a filter. </h5>
+     * The author and time range indexes narrow the documents first; the planner then only
+     * considers (and the string matching algorithm only runs on) the remaining documents.
+     *
+     * @param field          the name of the field to search
+     * @param pattern        the text to look for
+     * @param stringMatching the algorithm used to verify candidates and to scan
+     * @param filter         the author and time range restrictions
+     * @return a `SearchResult` of the matching entities, ordered by id, with the match offsets
+     */
+    public SearchResult<T> search(String field, String pattern, IAlgoStringMatching stringMatching,
+            SearchFilter filter) {
+        return searchFields(List.of(field), pattern, stringMatching, filter).get(field);
+    }
+
+    /**
+     * <h5> Searches several fields at once. </h5>
+     * The pattern is normalized and the filter resolved once, and all the fields are planned
+     * while holding the read lock, so every result comes from the same snapshot of the index.
+     *
+     * @param fields         the names of the fields to search
+     * @param pattern        the text to look for
+     * @param stringMatching the algorithm used to verify candidates and to scan
+     * @param filter         the author and time range restrictions
+     * @return the `SearchResult` of each field, by field name
+     */
+    public Map<String, SearchResult<T>> searchFields(List<String> fields, String pattern,
+            IAlgoStringMatching stringMatching, SearchFilter filter) {
+        String normalizedPattern = pattern.toLowerCase();
+        List<Scan> scans = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            Set<Long> filtered = filteredDocuments(filter);
+            for (String field : fields)
+                scans.add(prepareScan(field, normalizedPattern, stringMatching, filtered));
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Map<String, SearchResult<T>> results = new LinkedHashMap<>();
+        for (Scan scan : scans) {
+            SearchResult<T> searchResult = new SearchResult<>(pattern);
+            searchResult.setPlan(scan.plan.strategy().name());
+            runScan(scan, Integer.MAX_VALUE, (item, indexes) -> {
+                searchResult.addMatch(item, indexes);
+                return true;
+            });
+            results.put(scan.field, searchResult);
+        }
+        return results;
+    }
+
+    /**
+     * <h5> Substring search of a field that hands every match to a sink as soon as it is found. </h5>
+     * Only the planning and a snapshot of the candidates are done under the read lock, so a slow
+     * sink (for example a client socket) does not hold back writers.
+     *
+     * @param field          the name of the field to search
+     * @param pattern        the text to look for
+     * @param stringMatching the algorithm used to verify candidates and to scan
+     * @param filter         the author and time range restrictions
+     * @param maxResults     the search stops after this many matching entities, at least 1
+     * @param sink           receives the matches, in id order; returning false stops the search
+     * @return the summary of the search
+     * @throws IllegalArgumentException if maxResults is not positive
+     */
+    public SearchSummary streamSearch(String field, String pattern, IAlgoStringMatching stringMatching,
+            SearchFilter filter, int maxResults, IMatchSink<T> sink) {
+        if (maxResults < 1)
+            throw new IllegalArgumentException("maxResults must be positive");
+        String normalizedPattern = pattern.toLowerCase();
+        Scan scan;
+
+        lock.readLock().lock();
+        try {
+            scan = prepareScan(field, normalizedPattern, stringMatching, filteredDocuments(filter));
+        } finally {
+            lock.readLock().unlock();
+        }
+        return runScan(scan, maxResults, sink).withPattern(pattern);
+    }
+
+    /**
+     * Returns the indexed entity with the given id, or null.
+     */
+    public T getDocument(long id) {
+        lock.readLock().lock();
+        try {
+            return documents.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A planned search of one field: the candidates and their texts, copied from the index.
+     */
+    private class Scan {
+        private final String field;
+        private final String normalizedPattern;
+        private final SearchPlan plan;
+        private final IAlgoStringMatching matcher;
+        private final List<T> candidates = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+        private final long start = System.nanoTime();
+
+        private Scan(String field, String normalizedPattern, SearchPlan plan, IAlgoStringMatching matcher) {
+            this.field = field;
+            this.normalizedPattern = normalizedPattern;
+            this.plan = plan;
+            this.matcher = matcher;
+        }
+    }
+
+    /**
+     * Plans the search of one field and takes a snapshot of its candidates.
+     * Must be called with the read lock held.
+     *
+     * @param filtered the documents accepted by the filter, or null for all of them
+     */
+    private Scan prepareScan(String field, String normalizedPattern, IAlgoStringMatching stringMatching,
+            Set<Long> filtered) {
+        FieldIndex fieldIndex = getFieldIndex(field);
+
+        int documentCount = documents.size();
+        long corpusChars = fieldIndex.corpusChars;
+        if (filtered != null) {
+            documentCount = filtered.size();
+            corpusChars = 0;
+            for (Long id : filtered)
+                corpusChars += fieldIndex.normalizedTexts.get(id).length();
+        }
+        SearchPlan plan = planner.plan(normalizedPattern, documentCount, corpusChars,
+                fieldIndex.terms.dictionaryChars(), fieldIndex.trigrams, bloomBitsPerTrigram);
+
+        Set<Long> candidates = switch (plan.strategy()) {
+            case INDEX_LOOKUP -> fieldIndex.terms.documentsWithTermContaining(normalizedPattern);
+            case TRIGRAM_PREFILTER -> fieldIndex.trigrams.candidates(normalizedPattern);
+            case BLOOM_PREFILTER, SIMD_SCAN, FULL_SCAN -> filtered != null ? filtered : documents.keySet();
+        };
+        if (filtered != null && candidates != filtered)
+            candidates.retainAll(filtered);
+        IAlgoStringMatching matcher = plan.strategy() == SearchStrategy.SIMD_SCAN
+                ? simdStringMatching : stringMatching;
+
+        long[] patternTrigrams = plan.strategy() == SearchStrategy.BLOOM_PREFILTER
+                ? TrigramBloomFilter.patternTrigrams(normalizedPattern) : null;
+
+        Scan scan = new Scan(field, normalizedPattern, plan, matcher);
+        for (Long id : candidates) {
+            if (patternTrigrams != null && !fieldIndex.bloomFilters.get(id).mightContainAll(patternTrigrams))
+                continue;
+            scan.candidates.add(documents.get(id));
+            scan.texts.add(fieldIndex.normalizedTexts.get(id));
+        }
+        return scan;
+    }
+
+    /**
+     * Verifies the candidates of a scan, without holding the lock, and records the plan.
+     */
+    private SearchSummary runScan(Scan scan, int maxResults, IMatchSink<T> sink) {
+        int matches = 0;
+        int verified = 0;
+        boolean truncated = false;
+        for (int i = 0; i < scan.candidates.size(); i++) {
+            if (matches == maxResults) {
+                truncated = true;
+                break;
+            }
+            verified++;
+            int[] indexes = scan.matcher.search(scan.texts.get(i), scan.normalizedPattern);
+            if (indexes.length > 0) {
+                matches++;
+                if (!sink.accept(scan.candidates.get(i), indexes)) {
+                    truncated = true;
+                    break;
+                }
+            }
+        }
+
+        planLog.record(new SearchPlanLog.Entry(scan.field, scan.plan, verified, matches,
+                System.nanoTime() - scan.start));
+        return new SearchSummary(null, scan.plan.strategy().name(), matches, truncated);
+    }
+
+    /**
+     * <h5> Typo-tolerant search of a field. </h5>
+     * Every term of the pattern is looked up in the term dictionary of the field, allowing up to
+     * {@code maxDistance} edits. A document matches when each term of the pattern matched at
+     * least one of its terms. The returned matches carry the offsets and lengths of the matched terms.
+     * <p>
+     * The allowed distance is also capped by the length of each pattern term (no edits for one or two
+     * characters, one edit up to five characters), so that short terms do not match almost everything.
+     *
+     * @param field       the name of the field to search
+     * @param pattern     the text to look for
+     * @param maxDistance the maximal edit distance per term
+     * @return a `SearchResult` of the matching entities, ordered by id
+     */
+    public SearchResult<T> fuzzySearch(String field, String pattern, int maxDistance) {
+        return fuzzySearch(field, pattern, maxDistance, SearchFilter.NONE);
+    }
+
+    /**
+     * Typo-tolerant search of a field, restricted by a filter.
+     *
+     * @see #fuzzySearch(String, String, int)
+     */
+    public SearchResult<T> fuzzySearch(String field, String pattern, int maxDistance, SearchFilter filter) {
+        SearchResult<T> searchResult = new SearchResult<>(pattern);
+        List<TermIndex.Token> queryTokens = TermIndex.tokenize(pattern);
+        if (queryTokens.isEmpty())
+            return searchResult;
+
+        lock.readLock().lock();
+        try {
+            TermIndex termIndex = getFieldIndex(field).terms;
+            Set<Long> candidates = filteredDocuments(filter);
+            Map<Long, TreeMap<Integer, Integer>> spans = new HashMap<>(); // id -> offset -> length
+
+            for (TermIndex.Token queryToken : queryTokens) {
+                int distance = Math.min(maxDistance, allowedEdits(queryToken.term()));
+                Set<Long> tokenDocuments = new TreeSet<>();
+                for (String term : termIndex.similarTerms(queryToken.term(), distance)) {
+                    for (Map.Entry<Long, int[]> posting : termIndex.getPostings(term).entrySet()) {
+                        if (candidates != null && !candidates.contains(posting.getKey()))
+                            continue;
+                        tokenDocuments.add(posting.getKey());
+                        TreeMap<Integer, Integer> documentSpans =
+                                spans.computeIfAbsent(posting.getKey(), _ -> new TreeMap<>());
+                        for (int offset : posting.getValue())
+                            documentSpans.put(offset, term.length());
+                    }
+                }
+                candidates = tokenDocuments;
+                if (candidates.isEmpty())
+                    return searchResult;
+            }
+
+            for (Long id : candidates) {
+                TreeMap<Integer, Integer> documentSpans = spans.get(id);
+                int[] offsets = new int[documentSpans.size()];
+                int[] lengths = new int[documentSpans.size()];
+                int i = 0;
+                for (Map.Entry<Integer, Integer> span : documentSpans.entrySet()) {
+                    offsets[i] = span.getKey();
+                    lengths[i++] = span.getValue();
+                }
+                searchResult.addMatch(documents.get(id), offsets, lengths);
+            }
+            return searchResult;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * <h5> Boolean and phrase search, see {@link QueryParser} for the query language. </h5>
+     * The query is evaluated on the posting lists of the term indexes only: terms and phrases are
+     * looked up, AND-ed clauses are intersected from the shortest list up with galloping
+     * {@link PostingLists} operations, NOT-ed clauses are subtracted and OR-ed clauses merged.
+     * Phrases are confirmed with the term offsets of the documents having all their terms.
+     * No document text is scanned.
+     *
+     * @param query         the query text
+     * @param defaultFields the fields searched by terms and phrases without a field prefix
+     * @param filter        the author and time range restrictions
+     * @return a `QueryResult` of the matching entities, ordered by id, with the offsets and lengths
+     * of the terms and phrases they matched, by field
+     * @throws IllegalArgumentException if the query is malformed or names an unknown field
+     */
+    public QueryResult<T> query(String query, List<String> defaultFields, SearchFilter filter) {
+        Query parsed = QueryParser.parse(query, fieldIndexes.keySet());
+        QueryResult<T> queryResult = new QueryResult<>(query, parsed.toString());
+        for (String field : defaultFields)
+            getFieldIndex(field);
+
+        lock.readLock().lock();
+        try {
+            long[] ids = evaluate(parsed, defaultFields);
+            Set<Long> filtered = filteredDocuments(filter);
+            if (filtered != null)
+                ids = PostingLists.intersect(ids, PostingLists.of(filtered));
+
+            List<Query> highlighted = new ArrayList<>();
+            collectPositiveClauses(parsed, highlighted);
+            for (long id : ids)
+                queryResult.addMatch(highlight(id, highlighted, defaultFields));
+            return queryResult;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the sorted ids of the documents matching the query. Must be called with the read lock held.
+     */
+    private long[] evaluate(Query query, List<String> defaultFields) {
+        return switch (query) {
+            case Query.Term term -> {
+                long[] ids = PostingLists.EMPTY;
+                for (String field : term.field() != null ? List.of(term.field()) : defaultFields)
+                    ids = PostingLists.union(ids, getFieldIndex(field).terms.documentIds(term.term()));
+                yield ids;
+            }
+            case Query.Phrase phrase -> {
+                long[] ids = PostingLists.EMPTY;
+                for (String field : phrase.field() != null ? List.of(phrase.field()) : defaultFields)
+                    ids = PostingLists.union(ids, phraseDocuments(getFieldIndex(field), phrase.terms()));
+                yield ids;
+            }
+            case Query.User user -> PostingLists.of(userNameIndex.getOrDefault(user.userName(), new TreeSet<>()));
+            case Query.Or or -> {
+                long[] ids = PostingLists.EMPTY;
+                for (Query clause : or.clauses())
+                    ids = PostingLists.union(ids, evaluate(clause, defaultFields));
+                yield ids;
+            }
+            case Query.And and -> {
+                List<long[]> included = new ArrayList<>();
+                List<Query> excluded = new ArrayList<>();
+                for (Query clause : and.clauses()) {
+                    if (clause instanceof Query.Not not)
+                        excluded.add(not.clause());
+                    else
+                        included.add(evaluate(clause, defaultFields));
+                }
+                // Shortest lists first: every intersection is at most as long as its shortest input
+                included.sort((a, b) -> Integer.compare(a.length, b.length));
+                long[] ids = included.isEmpty() ? PostingLists.of(documents.keySet()) : included.getFirst();
+                for (int i = 1; i < included.size() && ids.length > 0; i++)
+                    ids = PostingLists.intersect(ids, included.get(i));
+                for (int i = 0; i < excluded.size() && ids.length > 0; i++)
+                    ids = PostingLists.difference(ids, evaluate(excluded.get(i), defaultFields));
+                yield ids;
+            }
+            case Query.Not not -> PostingLists.difference(PostingLists.of(documents.keySet()),
+                    evaluate(not.clause(), defaultFields));
+        };
+    }
+
+    private long[] phraseDocuments(FieldIndex fieldIndex, List<String> terms) {
+        List<long[]> termIds = new ArrayList<>();
+        for (String term : terms)
+            termIds.add(fieldIndex.terms.documentIds(term));
+        termIds.sort((a, b) -> Integer.compare(a.length, b.length));
+        long[] ids = termIds.getFirst();
+        for (int i = 1; i < termIds.size() && ids.length > 0; i++)
+            ids = PostingLists.intersect(ids, termIds.get(i));
+
+        long[] phraseIds = new long[ids.length];
+        int size = 0;
+        for (long id : ids) {
+            if (!phraseSpans(fieldIndex, id, terms).isEmpty())
+                phraseIds[size++] = id;
+        }
+        return Arrays.copyOf(phraseIds, size);
+    }
+
+    /**
+     * Returns the start and end offsets of the occurrences of the phrase in a document field.
+     * Each term of the phrase must be the term that directly follows the previous one.
+     */
+    private List<int[]> phraseSpans(FieldIndex fieldIndex, long id, List<String> terms) {
+        List<int[]> spans = new ArrayList<>();
+        int[] firstOffsets = fieldIndex.terms.getPostings(terms.getFirst()).get(id);
+        if (firstOffsets == null)
+            return spans;
+        String text = fieldIndex.extractor.apply(documents.get(id));
+
+        for (int start : firstOffsets) {
+            int end = start + terms.getFirst().length();
+            for (int i = 1; i < terms.size() && end >= 0; i++) {
+                int next = end;
+                while (next < text.length() && !Character.isLetterOrDigit(text.charAt(next)))
+                    next++;
+                int[] offsets = fieldIndex.terms.getPostings(terms.get(i)).get(id);
+                end = offsets != null && Arrays.binarySearch(offsets, next) >= 0
+                        ? next + terms.get(i).length() : -1;
+            }
+            if (end >= 0)
+                spans.add(new int[]{start, end});
+        }
+        return spans;
+    }
+
+    /**
+     * Collects the terms, phrases and authors that a matching document must or may have, that is
+     * the clauses that are not under a NOT.
+     */
+    private static void collectPositiveClauses(Query query, List<Query> clauses) {
+        switch (query) {
+            case Query.And and -> and.clauses().forEach(clause -> collectPositiveClauses(clause, clauses));
+            case Query.Or or -> or.clauses().forEach(clause -> collectPositiveClauses(clause, clauses));
+            case Query.Not _ -> {
+            }
+            default -> clauses.add(query);
+        }
+    }
+
+    private QueryMatch<T> highlight(long id, List<Query> clauses, List<String> defaultFields) {
+        Map<String, TreeMap<Integer, Integer>> spans = new LinkedHashMap<>(); // field -> offset -> length
+        for (Query clause : clauses) {
+            switch (clause) {
+                case Query.Term term -> {
+                    for (String field : term.field() != null ? List.of(term.field()) : defaultFields) {
+                        int[] offsets = getFieldIndex(field).terms.getPostings(term.term()).get(id);
+                        if (offsets == null)
+                            continue;
+                        TreeMap<Integer, Integer> fieldSpans = spans.computeIfAbsent(field, _ -> new TreeMap<>());
+                        for (int offset : offsets)
+                            fieldSpans.merge(offset, term.term().length(), Math::max);
+                    }
+                }
+                case Query.Phrase phrase -> {
+                    for (String field : phrase.field() != null ? List.of(phrase.field()) : defaultFields) {
+                        for (int[] span : phraseSpans(getFieldIndex(field), id, phrase.terms()))
+                            spans.computeIfAbsent(field, _ -> new TreeMap<>())
+                                    .merge(span[0], span[1] - span[0], Math::max);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        QueryMatch<T> match = new QueryMatch<>(documents.get(id));
+        for (Map.Entry<String, TreeMap<Integer, Integer>> field : spans.entrySet()) {
+            int[] offsets = new int[field.getValue().size()];
+            int[] lengths = new int[field.getValue().size()];
+            int i = 0;
+            for (Map.Entry<Integer, Integer> span : field.getValue().entrySet()) {
+                offsets[i] = span.getKey();
+                lengths[i++] = span.getValue();
+            }
+            match.addField(field.getKey(), offsets, lengths);
+        }
+        return match;
+    }
+
+    /**
+     * Returns the documents accepted by the filter, or null when the filter accepts everything.
+     */
+    private Set<Long> filteredDocuments(SearchFilter filter) {
+        if (filter == null || filter.isEmpty())
+            return null;
+
+        TreeSet<Long> result = new TreeSet<>();
+        if (filter.userName() != null) {
+            // Usually the smaller set: check the time range of each of the author's documents.
+            for (Long id : userNameIndex.getOrDefault(filter.userName(), new TreeSet<>())) {
+                if (filter.acceptsTimestamp(documentTimestamps.get(id)))
+                    result.add(id);
+            }
+            return result;
+        }
+
+        long from = filter.fromTimestamp() != null ? filter.fromTimestamp() : Long.MIN_VALUE;
+        long to = filter.toTimestamp() != null ? filter.toTimestamp() : Long.MAX_VALUE;
+        if (from > to)
+            return result;
+        for (TreeSet<Long> ids : timestampIndex.subMap(from, true, to, true).values())
+            result.addAll(ids);
+        return result;
+    }
+
+    private static int allowedEdits(String term) {
+        if (term.length() <= 2)
+            return 0;
+        if (term.length() <= 5)
+            return 1;
+        return 2;
+    }
+
+    private FieldIndex getFieldIndex(String field) {
+        FieldIndex fieldIndex = fieldIndexes.get(field);
+        if (fieldIndex == null)
+            throw new IllegalArgumentException("Unknown search field: " + field);
+        return fieldIndex;
+    }
+
+    private void addDocument(T entity) {
+        long id = idExtractor.applyAsLong(entity);
+        removeDocument(id);
+        documents.put(id, entity);
+        for (FieldIndex fieldIndex : fieldIndexes.values())
+            fieldIndex.add(id, entity);
+
+        String userName = userNameExtractor.apply(entity);
+        long timestamp = timestampExtractor.applyAsLong(entity);
+        documentUserNames.put(id, userName);
+        documentTimestamps.put(id, timestamp);
+        userNameIndex.computeIfAbsent(userName, _ -> new TreeSet<>()).add(id);
+        timestampIndex.computeIfAbsent(timestamp, _ -> new TreeSet<>()).add(id);
+    }
+
+    private void removeDocument(long id) {
+        if (documents.remove(id) == null)
+            return;
+        for (FieldIndex fieldIndex : fieldIndexes.values())
+            fieldIndex.remove(id);
+
+        String userName = documentUserNames.remove(id);
+        TreeSet<Long> userDocuments = userNameIndex.get(userName);
+        userDocuments.remove(id);
+        if (userDocuments.isEmpty())
+            userNameIndex.remove(userName);
+
+        long timestamp = documentTimestamps.remove(id);
+        TreeSet<Long> timestampDocuments = timestampIndex.get(timestamp);
+        timestampDocuments.remove(id);
+        if (timestampDocuments.isEmpty())
+            timestampIndex.remove(timestamp);
+    }
+}
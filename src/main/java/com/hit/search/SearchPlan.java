@@ -0,0 +1,15 @@
+package com.hit.search;
+
+/**
+ * The strategy the {@link SearchPlanner} chose for one search, and the figures it was based on.
+ *
+ * @param strategy            the chosen strategy
+ * @param patternLength       the length of the searched pattern
+ * @param documents           the number of documents in the searched field
+ * @param corpusChars         the total number of characters in the searched field
+ * @param estimatedCandidates the estimated number of documents to verify
+ * @param estimatedCost       the estimated cost of the strategy, in scanned characters
+ */
+public record SearchPlan(SearchStrategy strategy, int patternLength, int documents, long corpusChars,
+                         int estimatedCandidates, double estimatedCost) {
+}
@@ -0,0 +1,65 @@
+package com.hit.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the plans that ran, with their measured latency, so the choices of the
+ * {@link SearchPlanner} can be checked against reality.
+ * Keeps the most recent executions and running totals per strategy.
+ */
+public class SearchPlanLog {
+    /**
+     * One executed search.
+     *
+     * @param field        the searched field
+     * @param plan         the plan that ran
+     * @param candidates   the number of documents that were verified
+     * @param matches      the number of matching documents
+     * @param elapsedNanos the measured execution time
+     */
+    public record Entry(String field, SearchPlan plan, int candidates, int matches, long elapsedNanos) {
+    }
+
+    /**
+     * Running totals of one strategy.
+     */
+    public record StrategyStats(long executions, long totalNanos, long maxNanos) {
+        public double averageMicros() {
+            return executions == 0 ? 0 : totalNanos / 1000.0 / executions;
+        }
+    }
+
+    private final int capacity;
+    private final Deque<Entry> recent = new ArrayDeque<>();
+    private final Map<SearchStrategy, StrategyStats> totals = new EnumMap<>(SearchStrategy.class);
+
+    public SearchPlanLog(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public synchronized void record(Entry entry) {
+        if (recent.size() == capacity)
+            recent.removeFirst();
+        recent.addLast(entry);
+
+        StrategyStats stats = totals.getOrDefault(entry.plan().strategy(), new StrategyStats(0, 0, 0));
+        totals.put(entry.plan().strategy(), new StrategyStats(stats.executions() + 1,
+                stats.totalNanos() + entry.elapsedNanos(), Math.max(stats.maxNanos(), entry.elapsedNanos())));
+    }
+
+    /**
+     * @return the most recent executions, oldest first
+     */
+    public synchronized List<Entry> getRecent() {
+        return new ArrayList<>(recent);
+    }
+
+    public synchronized Map<SearchStrategy, StrategyStats> getTotals() {
+        return new EnumMap<>(totals);
+    }
+}
@@ -0,0 +1,120 @@
+package com.hit.search;
+
+import com.hit.algorithm.SimdStringMatchingImpl;
+
+/**
+ * Chooses the cheapest {@link SearchStrategy} for a substring search, from the pattern,
+ * the size of the searched field and the indexes available for it.
+ * <p>
+ * Costs are estimated in "scanned characters": a full scan costs the size of the corpus,
+ * index based strategies cost their lookups plus the verification of the estimated candidates.
+ * <p>
+ * A field indexed with {@link TrigramBloomFilter}s instead of a {@link TrigramIndex} has no posting
+ * lists to count its candidates, so the planner assumes that each trigram of the pattern occurs in
+ * half of the documents, independently of the others. The Bloom filters then pay off for patterns
+ * of several trigrams over documents much longer than the pattern: a six character pattern checks
+ * four trigrams per document and leaves about one document in sixteen to verify. Patterns of one
+ * or two trigrams, which most documents have, are cheaper to scan, and patterns shorter than three
+ * characters cannot use the filters at all.
+ */
+public class SearchPlanner {
+    // Relative cost of a vectorized scan compared to a scalar one (it also copies the text).
+    private static final double SIMD_SCAN_FACTOR = 0.35;
+    // Relative cost of one trigram posting lookup, in scanned characters.
+    private static final double TRIGRAM_LOOKUP_COST = 16;
+    // Relative cost of checking one trigram in the Bloom filter of a document, in scanned characters.
+    private static final double BLOOM_PROBE_COST = 2;
+    // The share of documents assumed to contain each trigram of a pattern, without posting lists to count them.
+    private static final double BLOOM_TRIGRAM_SHARE = 0.5;
+    private static final double LN_2 = Math.log(2);
+    // Below this size a scan is cheap enough that the vector setup is not worth it.
+    private static final long SIMD_MIN_CORPUS_CHARS = 4096;
+
+    private final boolean simdAvailable;
+
+    public SearchPlanner() {
+        this(SimdStringMatchingImpl.isVectorApiAvailable());
+    }
+
+    public SearchPlanner(boolean simdAvailable) {
+        this.simdAvailable = simdAvailable;
+    }
+
+    /**
+     * @param normalizedPattern the lower-cased pattern
+     * @param documents         the number of documents in the field
+     * @param corpusChars       the total number of characters in the field
+     * @param dictionaryChars   the total length of the distinct terms of the field, or -1 without a term index
+     * @param trigramIndex      the trigram index of the field, or null when there is none
+     * @param bloomBitsPerTrigram the size of the Bloom filters of the field's documents, or 0 when there are none
+     * @return the plan to execute
+     */
+    public SearchPlan plan(String normalizedPattern, int documents, long corpusChars, long dictionaryChars,
+            TrigramIndex trigramIndex, int bloomBitsPerTrigram) {
+        int patternLength = normalizedPattern.length();
+        double averageDocumentChars = documents == 0 ? 0 : (double) corpusChars / documents;
+
+        SearchStrategy best = SearchStrategy.FULL_SCAN;
+        double bestCost = corpusChars;
+        int bestCandidates = documents;
+
+        if (simdAvailable && corpusChars >= SIMD_MIN_CORPUS_CHARS && corpusChars * SIMD_SCAN_FACTOR < bestCost) {
+            best = SearchStrategy.SIMD_SCAN;
+            bestCost = corpusChars * SIMD_SCAN_FACTOR;
+        }
+
+        int trigramEstimate = documents;
+        if (trigramIndex != null && patternLength >= 3) {
+            trigramEstimate = Math.min(documents, trigramIndex.estimateCandidates(normalizedPattern));
+            double cost = (patternLength - 2) * TRIGRAM_LOOKUP_COST + trigramEstimate * averageDocumentChars;
+            if (cost < bestCost) {
+                best = SearchStrategy.TRIGRAM_PREFILTER;
+                bestCost = cost;
+                bestCandidates = trigramEstimate;
+            }
+        }
+
+        if (bloomBitsPerTrigram > 0 && patternLength >= 3) {
+            // A document lacking the pattern still passes at the false positive rate of its filter.
+            int trigrams = patternLength - 2;
+            double falsePositiveRate = Math.exp(-bloomBitsPerTrigram * LN_2 * LN_2);
+            double passing = Math.max(Math.pow(BLOOM_TRIGRAM_SHARE, trigrams), falsePositiveRate);
+            int estimate = (int) Math.ceil(documents * passing);
+            double cost = documents * trigrams * BLOOM_PROBE_COST + estimate * averageDocumentChars;
+            if (cost < bestCost) {
+                best = SearchStrategy.BLOOM_PREFILTER;
+                bestCost = cost;
+                bestCandidates = estimate;
+            }
+        }
+
+        if (dictionaryChars >= 0 && isSingleTerm(normalizedPattern)) {
+            // Without a trigram estimate, assume half of the documents contain a matching term.
+            int estimate = patternLength >= 3 && trigramIndex != null ? trigramEstimate : documents / 2;
+            double cost = dictionaryChars + estimate * averageDocumentChars;
+            if (cost < bestCost) {
+                best = SearchStrategy.INDEX_LOOKUP;
+                bestCost = cost;
+                bestCandidates = estimate;
+            }
+        }
+
+        return new SearchPlan(best, patternLength, documents, corpusChars, bestCandidates, bestCost);
+    }
+
+    /**
+     * Whether every occurrence of the pattern lies inside one dictionary term.
+     * Restricted to ASCII letters and digits, where lower-casing a string and lower-casing
+     * its characters one by one agree.
+     */
+    static boolean isSingleTerm(String normalizedPattern) {
+        if (normalizedPattern.isEmpty())
+            return false;
+        for (int i = 0; i < normalizedPattern.length(); i++) {
+            char c = normalizedPattern.charAt(i);
+            if (c >= 128 || !Character.isLetterOrDigit(c))
+                return false;
+        }
+        return true;
+    }
+}
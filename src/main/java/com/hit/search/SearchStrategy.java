@@ -0,0 +1,31 @@
+package com.hit.search;
+
+/**
+ * The ways a substring search of an indexed field can be executed.
+ */
+public enum SearchStrategy {
+    /**
+     * Scan the term dictionary for terms containing the pattern, then verify only their documents.
+     * Only possible when the pattern is made of letters and digits (it cannot span terms).
+     */
+    INDEX_LOOKUP,
+    /**
+     * Intersect the trigram postings of the pattern, then verify only the remaining documents.
+     * Only possible for patterns of three or more characters.
+     */
+    TRIGRAM_PREFILTER,
+    /**
+     * Check the trigram Bloom filter of every document, then verify only the documents that pass.
+     * Only possible for patterns of three or more characters, on fields indexed with Bloom filters
+     * instead of a trigram index (see {@link SearchIndex#BLOOM_BITS_PROPERTY}).
+     */
+    BLOOM_PREFILTER,
+    /**
+     * Scan every document with {@link com.hit.algorithm.SimdStringMatchingImpl}.
+     */
+    SIMD_SCAN,
+    /**
+     * Scan every document with the configured string matching algorithm (KMP by default).
+     */
+    FULL_SCAN
+}
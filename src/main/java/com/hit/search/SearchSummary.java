@@ -0,0 +1,15 @@
+package com.hit.search;
+
+/**
+ * What is left of a streamed search once its matches were handed out.
+ *
+ * @param pattern   the searched pattern
+ * @param plan      the strategy that ran
+ * @param matches   the number of matching entities handed out
+ * @param truncated whether the search stopped before verifying every candidate
+ */
+public record SearchSummary(String pattern, String plan, int matches, boolean truncated) {
+    public SearchSummary withPattern(String pattern) {
+        return new SearchSummary(pattern, plan, matches, truncated);
+    }
+}
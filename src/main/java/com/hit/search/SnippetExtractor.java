@@ -0,0 +1,115 @@
+package com.hit.search;
+
+import com.hit.dm.MatchResult;
+import com.hit.dm.SearchResult;
+import com.hit.dm.Snippet;
+import com.hit.dm.SnippetMatch;
+import com.hit.dm.SnippetSearchResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Turns a {@link SearchResult} into a {@link SnippetSearchResult}: for each matching entity
+ * only its id, its title and fixed-width windows of text around its first hits are kept.
+ * Hits that fall inside the window of a previous hit are highlighted in that window.
+ */
+public class SnippetExtractor<T> {
+    public static final int MAX_CONTEXT_CHARS = 200;
+    public static final int MAX_HITS = 20;
+    private static final int MAX_TITLE_CHARS = 200;
+
+    private final Function<T, Long> idExtractor;
+    private final Function<T, Long> postIdExtractor;
+    private final Function<T, String> titleExtractor;
+
+    /**
+     * @param idExtractor     returns the id of an entity
+     * @param postIdExtractor returns the id of the post an entity belongs to, or null
+     * @param titleExtractor  returns the title shown for an entity, or null
+     */
+    public SnippetExtractor(Function<T, Long> idExtractor, Function<T, Long> postIdExtractor,
+            Function<T, String> titleExtractor) {
+        this.idExtractor = idExtractor;
+        this.postIdExtractor = postIdExtractor;
+        this.titleExtractor = titleExtractor;
+    }
+
+    /**
+     * @param searchResult  the full search result
+     * @param textExtractor returns the searched text of an entity (the one the match indexes refer to)
+     * @param contextChars  the number of characters kept on each side of a hit
+     * @param maxHits       the number of hits per entity that get a window
+     * @param maxResults    the maximal number of entities to return
+     * @return the bounded snippet result
+     */
+    public SnippetSearchResult extract(SearchResult<T> searchResult, Function<T, String> textExtractor,
+            int contextChars, int maxHits, int maxResults) {
+        if (contextChars < 0 || contextChars > MAX_CONTEXT_CHARS)
+            throw new IllegalArgumentException("contextChars must be between 0 and " + MAX_CONTEXT_CHARS);
+        if (maxHits < 1 || maxHits > MAX_HITS)
+            throw new IllegalArgumentException("maxHits must be between 1 and " + MAX_HITS);
+        if (maxResults < 1)
+            throw new IllegalArgumentException("maxResults must be positive");
+
+        SnippetSearchResult snippetResult = new SnippetSearchResult(searchResult.getPattern());
+        snippetResult.setPlan(searchResult.getPlan());
+        snippetResult.setTotalMatches(searchResult.getMatches().size());
+        int patternLength = searchResult.getPattern() == null ? 0 : searchResult.getPattern().length();
+
+        for (MatchResult<T> match : searchResult.getMatches()) {
+            if (snippetResult.getMatches().size() == maxResults)
+                break;
+
+            T item = match.getItem();
+            String text = textExtractor.apply(item);
+            List<Snippet> snippets = snippets(text == null ? "" : text, match, patternLength, contextChars, maxHits);
+            snippetResult.addMatch(new SnippetMatch(idExtractor.apply(item), postIdExtractor.apply(item),
+                    truncate(titleExtractor.apply(item)), match.getIndexes().length, snippets));
+        }
+        return snippetResult;
+    }
+
+    private static List<Snippet> snippets(String text, MatchResult<?> match, int patternLength,
+            int contextChars, int maxHits) {
+        List<Snippet> snippets = new ArrayList<>();
+        int[] indexes = match.getIndexes();
+        int[] lengths = match.getLengths();
+        int hits = Math.min(indexes.length, maxHits);
+
+        int i = 0;
+        while (i < hits) {
+            int hitLength = lengths != null ? lengths[i] : patternLength;
+            int start = Math.max(0, indexes[i] - contextChars);
+            int end = Math.min(text.length(), indexes[i] + hitLength + contextChars);
+            start = Math.min(start, end);
+
+            // Highlight every following hit that fits entirely in this window.
+            int last = i;
+            while (last + 1 < hits) {
+                int nextLength = lengths != null ? lengths[last + 1] : patternLength;
+                if (indexes[last + 1] + nextLength > end)
+                    break;
+                last++;
+            }
+
+            int count = last - i + 1;
+            int[] highlightOffsets = new int[count];
+            int[] highlightLengths = new int[count];
+            for (int j = 0; j < count; j++) {
+                highlightOffsets[j] = indexes[i + j] - start;
+                highlightLengths[j] = lengths != null ? lengths[i + j] : patternLength;
+            }
+            snippets.add(new Snippet(start, text.substring(start, end), highlightOffsets, highlightLengths));
+            i = last + 1;
+        }
+        return snippets;
+    }
+
+    private static String truncate(String title) {
+        if (title == null || title.length() <= MAX_TITLE_CHARS)
+            return title;
+        return title.substring(0, MAX_TITLE_CHARS);
+    }
+}
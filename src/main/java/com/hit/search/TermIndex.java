@@ -0,0 +1,158 @@
+package com.hit.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An inverted index of the terms of one text field.
+ * A term is a maximal run of letters or digits, lower-cased; for every term the index keeps
+ * the documents it appears in and the character offsets of each occurrence.
+ * The distinct terms are also kept in a {@link BKTree}, which is the term dictionary used
+ * for typo-tolerant lookups.
+ * <p>
+ * This class is not thread-safe; {@link SearchIndex} guards it.
+ */
+public class TermIndex {
+    private final Map<String, TreeMap<Long, int[]>> postings = new HashMap<>();
+    private final Map<Long, Set<String>> documentTerms = new HashMap<>();
+    private final Map<String, long[]> documentIdCache = new HashMap<>(); // term -> sorted document ids
+    private final BKTree dictionary = new BKTree();
+    private long dictionaryChars;
+
+    public void add(long documentId, String text) {
+        remove(documentId);
+
+        Map<String, List<Integer>> occurrences = new HashMap<>();
+        for (Token token : tokenize(text))
+            occurrences.computeIfAbsent(token.term(), _ -> new ArrayList<>()).add(token.offset());
+
+        for (Map.Entry<String, List<Integer>> entry : occurrences.entrySet()) {
+            int[] offsets = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            TreeMap<Long, int[]> termPostings = postings.get(entry.getKey());
+            if (termPostings == null) {
+                termPostings = new TreeMap<>();
+                postings.put(entry.getKey(), termPostings);
+                dictionaryChars += entry.getKey().length();
+            }
+            termPostings.put(documentId, offsets);
+            documentIdCache.remove(entry.getKey());
+            dictionary.add(entry.getKey());
+        }
+        documentTerms.put(documentId, occurrences.keySet());
+    }
+
+    public void remove(long documentId) {
+        Set<String> terms = documentTerms.remove(documentId);
+        if (terms == null)
+            return;
+
+        for (String term : terms) {
+            TreeMap<Long, int[]> termPostings = postings.get(term);
+            termPostings.remove(documentId);
+            documentIdCache.remove(term);
+            if (termPostings.isEmpty()) {
+                postings.remove(term);
+                dictionaryChars -= term.length();
+            }
+        }
+    }
+
+    /**
+     * Returns the documents containing the term, mapped to the offsets of its occurrences.
+     */
+    public TreeMap<Long, int[]> getPostings(String term) {
+        TreeMap<Long, int[]> termPostings = postings.get(term);
+        return termPostings != null ? termPostings : new TreeMap<>();
+    }
+
+    /**
+     * Returns the documents containing the term as a sorted posting list.
+     * The list is built on first use and kept until a document with the term changes;
+     * callers must not modify it.
+     */
+    public long[] documentIds(String term) {
+        long[] ids = documentIdCache.get(term);
+        if (ids == null) {
+            TreeMap<Long, int[]> termPostings = postings.get(term);
+            if (termPostings == null)
+                return PostingLists.EMPTY;
+            ids = PostingLists.of(termPostings.keySet());
+            documentIdCache.put(term, ids);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the indexed terms within {@code maxDistance} edits of the given term.
+     */
+    public List<String> similarTerms(String term, int maxDistance) {
+        List<String> terms = new ArrayList<>();
+        for (String candidate : dictionary.search(term, maxDistance)) {
+            // The BK-tree keeps terms of removed documents, skip those.
+            if (postings.containsKey(candidate))
+                terms.add(candidate);
+        }
+        return terms;
+    }
+
+    /**
+     * Returns the documents having a term that contains the given text, in ascending id order.
+     * This scans the term dictionary, which is usually much smaller than the documents themselves.
+     */
+    public TreeSet<Long> documentsWithTermContaining(String text) {
+        TreeSet<Long> documents = new TreeSet<>();
+        for (Map.Entry<String, TreeMap<Long, int[]>> entry : postings.entrySet()) {
+            if (entry.getKey().contains(text))
+                documents.addAll(entry.getValue().keySet());
+        }
+        return documents;
+    }
+
+    public int termCount() {
+        return postings.size();
+    }
+
+    /**
+     * Returns the total length of the distinct terms, the cost of scanning the dictionary.
+     */
+    public long dictionaryChars() {
+        return dictionaryChars;
+    }
+
+    public record Token(String term, int offset) {
+    }
+
+    /**
+     * Splits text into lower-cased terms. Characters are lower-cased one by one,
+     * so the offsets of the tokens are valid offsets in the original text.
+     */
+    public static List<Token> tokenize(String text) {
+        List<Token> tokens = new ArrayList<>();
+        if (text == null)
+            return tokens;
+
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(new Token(lowerCase(text, start, i), start));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static String lowerCase(String text, int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++)
+            chars[i - start] = Character.toLowerCase(text.charAt(i));
+        return new String(chars);
+    }
+}
@@ -0,0 +1,98 @@
+package com.hit.search;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A Bloom filter of the character trigrams of one document field.
+ * A search pattern can only occur in the text if all of its trigrams do, so a filter that lacks
+ * one of them proves the text cannot contain the pattern and the string matching algorithm does
+ * not have to run on it. A filter never rejects a text that contains the pattern; each trigram the
+ * text lacks is wrongly let through with a probability that depends on the bits per trigram:
+ * about 15% with 4 bits, 2% with 8, 0.8% with 10 and 0.05% with 16. Patterns usually lack several
+ * trigrams, so the rate of texts let through is much lower (see the BloomFilterBenchmark).
+ * <p>
+ * The filter is immutable; an edited text gets a new filter.
+ */
+public final class TrigramBloomFilter {
+    private static final double LN_2 = Math.log(2);
+
+    private final long[] bits;
+    private final int bitCount;
+    private final int hashes;
+
+    private TrigramBloomFilter(int bitCount, int hashes) {
+        this.bits = new long[(bitCount + 63) >>> 6];
+        this.bitCount = bitCount;
+        this.hashes = hashes;
+    }
+
+    /**
+     * @param normalizedText the lower-cased text
+     * @param bitsPerTrigram the size of the filter, in bits per distinct trigram of the text
+     */
+    public static TrigramBloomFilter of(String normalizedText, int bitsPerTrigram) {
+        if (bitsPerTrigram < 1)
+            throw new IllegalArgumentException("bitsPerTrigram must be positive: " + bitsPerTrigram);
+
+        Set<Long> trigrams = TrigramIndex.trigrams(normalizedText);
+        int bitCount = Math.max(64, trigrams.size() * bitsPerTrigram);
+        // The number of hash functions that minimizes the false positive rate for this size
+        int hashes = Math.max(1, (int) Math.round(bitsPerTrigram * LN_2));
+        TrigramBloomFilter filter = new TrigramBloomFilter(bitCount, hashes);
+        for (long trigram : trigrams)
+            filter.add(trigram);
+        return filter;
+    }
+
+    /**
+     * Returns the trigrams of a pattern, in the form expected by {@link #mightContainAll(long[])}.
+     */
+    public static long[] patternTrigrams(String normalizedPattern) {
+        return PostingLists.of(new TreeSet<>(TrigramIndex.trigrams(normalizedPattern)));
+    }
+
+    /**
+     * Returns false if the text certainly lacks one of the trigrams. A pattern shorter than
+     * three characters has no trigrams and is never rejected.
+     */
+    public boolean mightContainAll(long[] trigrams) {
+        for (long trigram : trigrams) {
+            long hash = mix(trigram);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < hashes; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bitCount);
+                if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    public int sizeInBytes() {
+        return bits.length * Long.BYTES;
+    }
+
+    private void add(long trigram) {
+        long hash = mix(trigram);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * The finalizer of MurmurHash3, spreads the packed characters over all 64 bits.
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb53fe1a85ec3L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,96 @@
+package com.hit.search;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An index of the character trigrams of one (already lower-cased) text field.
+ * Any document containing a pattern of three or more characters must contain every trigram
+ * of the pattern, so intersecting their postings gives a superset of the matching documents,
+ * which then only has to be verified by a string matching algorithm.
+ * <p>
+ * This class is not thread-safe; {@link SearchIndex} guards it.
+ */
+public class TrigramIndex {
+    private final Map<Long, TreeSet<Long>> postings = new HashMap<>();
+    private final Map<Long, Set<Long>> documentTrigrams = new HashMap<>();
+
+    public void add(long documentId, String normalizedText) {
+        remove(documentId);
+        Set<Long> trigrams = trigrams(normalizedText);
+        for (long trigram : trigrams)
+            postings.computeIfAbsent(trigram, _ -> new TreeSet<>()).add(documentId);
+        documentTrigrams.put(documentId, trigrams);
+    }
+
+    public void remove(long documentId) {
+        Set<Long> trigrams = documentTrigrams.remove(documentId);
+        if (trigrams == null)
+            return;
+
+        for (long trigram : trigrams) {
+            TreeSet<Long> trigramPostings = postings.get(trigram);
+            trigramPostings.remove(documentId);
+            if (trigramPostings.isEmpty())
+                postings.remove(trigram);
+        }
+    }
+
+    /**
+     * Returns the size of the shortest posting list among the trigrams of the pattern,
+     * an upper bound of the number of candidates, without intersecting anything.
+     */
+    public int estimateCandidates(String normalizedPattern) {
+        int estimate = Integer.MAX_VALUE;
+        for (long trigram : trigrams(normalizedPattern)) {
+            TreeSet<Long> trigramPostings = postings.get(trigram);
+            estimate = Math.min(estimate, trigramPostings == null ? 0 : trigramPostings.size());
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the documents that contain every trigram of the pattern, in ascending id order.
+     * The pattern must be at least three characters long.
+     */
+    public TreeSet<Long> candidates(String normalizedPattern) {
+        List<TreeSet<Long>> lists = new ArrayList<>();
+        for (long trigram : trigrams(normalizedPattern)) {
+            TreeSet<Long> trigramPostings = postings.get(trigram);
+            if (trigramPostings == null)
+                return new TreeSet<>();
+            lists.add(trigramPostings);
+        }
+        if (lists.isEmpty())
+            throw new IllegalArgumentException("Pattern is shorter than a trigram: " + normalizedPattern);
+
+        // Walk the shortest list and probe the others.
+        lists.sort(Comparator.comparingInt(TreeSet::size));
+        TreeSet<Long> result = new TreeSet<>();
+        for (Long documentId : lists.getFirst()) {
+            boolean inAll = true;
+            for (int i = 1; i < lists.size() && inAll; i++)
+                inAll = lists.get(i).contains(documentId);
+            if (inAll)
+                result.add(documentId);
+        }
+        return result;
+    }
+
+    static Set<Long> trigrams(String text) {
+        Set<Long> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++)
+            trigrams.add(trigram(text.charAt(i), text.charAt(i + 1), text.charAt(i + 2)));
+        return trigrams;
+    }
+
+    static long trigram(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+}
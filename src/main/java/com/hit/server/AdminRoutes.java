@@ -0,0 +1,58 @@
+package com.hit.server;
+
+import com.hit.controller.ControllerFactory;
+import com.hit.controller.UserController;
+import com.hit.dm.User;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The AdminRoutes class registers the actions administering the server itself, which the
+ * {@link RouteRegistry} of the controllers does not know. They are only allowed to admins:
+ * the body holds the "userName" and "password" of an admin user.
+ */
+public final class AdminRoutes {
+    private AdminRoutes() {
+    }
+
+    /**
+     * Registers the admin actions of a server:
+     * <ul>
+     *   <li> "admin/shutdown": shuts the server down gracefully, see {@link IServer#shutdown(long)};
+     *        the response is sent before the connections are drained </li>
+     *   <li> "admin/metrics": answers with the {@link ServerMetrics#snapshot()} of the server </li>
+     * </ul>
+     */
+    public static void register(RequestDispatcher dispatcher, ControllerFactory controllerFactory, IServer server,
+                                ServerConfig config) {
+        UserController userController = (UserController) controllerFactory.getController("user");
+        dispatcher.addRoute(new Route("admin/shutdown", "admin", false, RouteRegistry.DEFAULT_COST,
+                (body, writer) -> {
+                    if (!isAdmin(userController, body))
+                        return new Response(403, Map.of("error", "Only an admin can shut the server down."));
+                    // The shutdown waits for this request to complete, it cannot run on its thread
+                    Thread.ofPlatform().name("italk-shutdown")
+                            .start(() -> server.shutdown(config.getShutdownTimeoutMillis()));
+                    return new Response(200, Map.of("result", "Shutting down"));
+                }));
+        dispatcher.addRoute(new Route("admin/metrics", "admin", true, RouteRegistry.DEFAULT_COST,
+                (body, writer) -> {
+                    if (!isAdmin(userController, body))
+                        return new Response(403, Map.of("error", "Only an admin can read the metrics."));
+                    return new Response(200, Map.of("result", dispatcher.getMetrics().snapshot()));
+                }));
+    }
+
+    /**
+     * Returns true if the credentials of the body are those of an admin.
+     *
+     * @throws IllegalArgumentException if the body has no credentials
+     */
+    private static boolean isAdmin(UserController userController, Map<String, Object> body) throws IOException {
+        if (!(body.get("userName") instanceof String) || !(body.get("password") instanceof String))
+            throw new IllegalArgumentException("Missing credentials");
+        User user = userController.getUser(body);
+        return user != null && user.getRole() == User.Role.ADMIN;
+    }
+}
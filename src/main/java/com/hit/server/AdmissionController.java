@@ -0,0 +1,210 @@
+package com.hit.server;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The AdmissionController class decides at the server edge whether a request is handled, so that
+ * one client looping on expensive requests cannot saturate the server.
+ * <p>
+ * A request is admitted in two steps:
+ * <ol>
+ *   <li> {@link #admit(InetAddress)}, before the request is read: the server handles at most
+ *        {@link ServerConfig#getMaxInFlightRequests()} requests at a time, beyond which it answers
+ *        503, and every client address has a token bucket of
+ *        {@link ServerConfig#getClientRequestsPerSecond()}, beyond which it answers 429. A rejected
+ *        request is skipped without parsing its body. </li>
+ *   <li> {@link #admitAction(InetAddress, Request)}, once the action is known: the expensive routes,
+ *        those of a {@link Route#cost()} above {@link RouteRegistry#DEFAULT_COST} such as the searches
+ *        and the get-all actions, take their cost from a second, tighter bucket of
+ *        {@link ServerConfig#getClientExpensiveCostPerSecond()}. A batch takes the tokens of all its
+ *        requests. </li>
+ * </ol>
+ * The buckets hold two seconds of their rate, the burst allowed after an idle period. A 429
+ * response tells in {@code "retryAfterMillis"} when the request would be admitted.
+ * A limit of 0 turns it off.
+ */
+public class AdmissionController {
+    private static final int BURST_SECONDS = 2;
+    // Beyond this number of clients, the clients whose buckets are full are forgotten
+    private static final int MAX_IDLE_CLIENTS = 10_000;
+
+    private final RequestDispatcher dispatcher;
+    private final int requestsPerSecond;
+    private final int expensiveCostPerSecond;
+    private final Semaphore inFlight;
+    private final Map<InetAddress, ClientBudget> clients = new ConcurrentHashMap<>();
+    private final LongAdder rejectedBusy = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder rejectedExpensive = new LongAdder();
+
+    /**
+     * The buckets of one client address.
+     */
+    private class ClientBudget {
+        private final TokenBucket requests;
+        private final TokenBucket expensive;
+
+        private ClientBudget(long now) {
+            requests = requestsPerSecond > 0
+                    ? new TokenBucket(requestsPerSecond, BURST_SECONDS * requestsPerSecond, now) : null;
+            expensive = expensiveCostPerSecond > 0
+                    ? new TokenBucket(expensiveCostPerSecond, BURST_SECONDS * expensiveCostPerSecond, now) : null;
+        }
+
+        private boolean isFull(long now) {
+            return (requests == null || requests.isFull(now)) && (expensive == null || expensive.isFull(now));
+        }
+    }
+
+    /**
+     * @param config     the limits
+     * @param dispatcher the dispatcher whose routes tell the cost of the actions
+     */
+    public AdmissionController(ServerConfig config, RequestDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        this.requestsPerSecond = config.getClientRequestsPerSecond();
+        this.expensiveCostPerSecond = config.getClientExpensiveCostPerSecond();
+        this.inFlight = config.getMaxInFlightRequests() > 0 ? new Semaphore(config.getMaxInFlightRequests()) : null;
+    }
+
+    /**
+     * Returns a controller admitting every request.
+     */
+    public static AdmissionController unlimited(RequestDispatcher dispatcher) {
+        ServerConfig config = new ServerConfig();
+        config.setClientRequestsPerSecond(0);
+        config.setClientExpensiveCostPerSecond(0);
+        config.setMaxInFlightRequests(0);
+        return new AdmissionController(config, dispatcher);
+    }
+
+    /**
+     * Admits a request of a client before it is read.
+     * When it is admitted, {@link #release()} must be called once it has been handled.
+     *
+     * @return null if the request is admitted, otherwise the response rejecting it
+     */
+    public Response admit(InetAddress client) {
+        if (inFlight != null && !inFlight.tryAcquire()) {
+            rejectedBusy.increment();
+            return new Response(503, Map.of("error", "Server busy, try again later."));
+        }
+        if (requestsPerSecond == 0)
+            return null;
+        long waitNanos = getBudget(client).requests.tryTake(1, System.nanoTime());
+        if (waitNanos == 0)
+            return null;
+        release();
+        rejectedRequests.increment();
+        return tooManyRequests(waitNanos);
+    }
+
+    /**
+     * Admits an admitted request once its action is known, according to its cost.
+     *
+     * @return null if the request is admitted, otherwise the response rejecting it
+     */
+    public Response admitAction(InetAddress client, Request request) {
+        if (requestsPerSecond == 0 && expensiveCostPerSecond == 0)
+            return null;
+        int requests = 0; // Besides the request itself, already admitted
+        int expensiveCost = 0;
+        if (RequestDispatcher.BATCH_ACTION.equals(request.getAction())
+                && request.getBody() != null && request.getBody().get("requests") instanceof List<?> batch) {
+            for (Object batched : batch) {
+                requests++;
+                if (batched instanceof Map<?, ?> batchedRequest && batchedRequest.get("action") instanceof String action)
+                    expensiveCost += getExpensiveCost(action);
+            }
+        } else {
+            expensiveCost = getExpensiveCost(request.getAction());
+        }
+
+        long now = System.nanoTime();
+        ClientBudget budget = getBudget(client);
+        if (requests > 0 && budget.requests != null) {
+            long waitNanos = budget.requests.tryTake(requests, now);
+            if (waitNanos > 0) {
+                rejectedRequests.increment();
+                return tooManyRequests(waitNanos);
+            }
+        }
+        if (expensiveCost > 0 && budget.expensive != null) {
+            long waitNanos = budget.expensive.tryTake(expensiveCost, now);
+            if (waitNanos > 0) {
+                rejectedExpensive.increment();
+                return tooManyRequests(waitNanos);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ends an admitted request.
+     */
+    public void release() {
+        if (inFlight != null)
+            inFlight.release();
+    }
+
+    private int getExpensiveCost(String action) {
+        Route route = dispatcher.getRoute(action);
+        return route != null && route.cost() > RouteRegistry.DEFAULT_COST ? route.cost() : 0;
+    }
+
+    private ClientBudget getBudget(InetAddress client) {
+        ClientBudget budget = clients.get(client);
+        if (budget != null)
+            return budget;
+        long now = System.nanoTime();
+        if (clients.size() >= MAX_IDLE_CLIENTS)
+            clients.values().removeIf(idle -> idle.isFull(now));
+        return clients.computeIfAbsent(client, _ -> new ClientBudget(now));
+    }
+
+    private static Response tooManyRequests(long waitNanos) {
+        return new Response(429, Map.of("error", "Too many requests, try again later.",
+                "retryAfterMillis", Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos))));
+    }
+
+    /**
+     * All the rejected requests.
+     */
+    public long getRejected() {
+        return getRejectedBusy() + getRejectedRequests() + getRejectedExpensive();
+    }
+
+    public long getRejectedBusy() {
+        return rejectedBusy.sum();
+    }
+
+    /**
+     * The requests rejected by the request bucket of their client.
+     */
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    /**
+     * The requests rejected by the expensive route bucket of their client.
+     */
+    public long getRejectedExpensive() {
+        return rejectedExpensive.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Admission{" +
+                "rejectedBusy=" + getRejectedBusy() +
+                ", rejectedRequests=" + getRejectedRequests() +
+                ", rejectedExpensive=" + getRejectedExpensive() +
+                ", clients=" + clients.size() +
+                '}';
+    }
+}
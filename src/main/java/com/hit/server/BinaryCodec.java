@@ -0,0 +1,501 @@
+package com.hit.server;
+
+import com.google.gson.Gson;
+import com.hit.dm.Comment;
+import com.hit.dm.MatchResult;
+import com.hit.dm.Post;
+import com.hit.dm.SearchResult;
+import com.hit.dm.User;
+import com.hit.json.Json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The BinaryCodec class encodes the requests and responses of the binary protocol, an alternative to
+ * newline-delimited JSON for clients sending many small requests, where parsing the JSON body and
+ * serializing the response by reflection cost more than the request itself.
+ * <p>
+ * A client selects the protocol by sending {@link #MAGIC} as the first byte of the connection, which
+ * can never start a JSON request. Every message is then a frame: a 4-byte big-endian length followed by
+ * the payload, limited to {@link #MAX_FRAME_BYTES} for requests. A request payload holds the action code,
+ * its index in {@link #ACTIONS}, then the body; a response payload holds the status then the body.
+ * A binary connection stays open until the client closes it or stays idle for the idle timeout,
+ * whatever the keepAlive flag.
+ * <p>
+ * Bodies are maps of tagged values. Integers are zig-zag varints, strings are length-prefixed UTF-8 and
+ * {@link Post}, {@link Comment}, {@link User} and {@link SearchResult} have fixed field layouts, so none
+ * of them is reflected on. The other results, such as snippet or query results, are embedded as JSON.
+ * The password hash of a {@link User} is not sent.
+ */
+public final class BinaryCodec {
+    public static final int MAGIC = 0xB1;
+    public static final int FRAME_HEADER_BYTES = 4;
+    public static final int MAX_FRAME_BYTES = NioServer.MAX_REQUEST_BYTES - FRAME_HEADER_BYTES;
+
+    /**
+     * The actions by code. New actions are appended, so the codes of the existing ones never change.
+     */
+    public static final List<String> ACTIONS = List.of(
+            "user/create", "user/edit", "user/remove", "user/authenticate", "user/get",
+            "post/create", "post/edit", "post/remove", "post/get", "post/get-all", "post/get-comments",
+            "post/search-titles", "post/search-contents", "post/fuzzy-search-titles",
+            "post/fuzzy-search-contents", "post/query", "post/search-plans",
+            "comment/create", "comment/edit", "comment/remove", "comment/get", "comment/get-all",
+            "comment/search-contents", "comment/fuzzy-search-contents", "comment/query", "comment/search-plans",
+            "search/all", RequestDispatcher.BATCH_ACTION, "admin/shutdown", SubscriptionHub.ACTION,
+            "post/sync", "comment/sync", "admin/metrics");
+
+    private static final Map<String, Integer> ACTION_CODES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < ACTIONS.size(); i++)
+            ACTION_CODES.put(ACTIONS.get(i), i);
+    }
+
+    // Value tags
+    private static final int NULL = 0;
+    private static final int FALSE = 1;
+    private static final int TRUE = 2;
+    private static final int LONG = 3;
+    private static final int DOUBLE = 4;
+    private static final int STRING = 5;
+    private static final int LIST = 6;
+    private static final int MAP = 7;
+    private static final int INT_ARRAY = 8;
+    private static final int POST = 9;
+    private static final int COMMENT = 10;
+    private static final int USER = 11;
+    private static final int SEARCH_RESULT = 12;
+    private static final int RESPONSE = 13;
+    private static final int JSON = 14;
+
+    private static final Gson gson = Json.GSON;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * Encodes a request into a frame, length prefix included.
+     *
+     * @throws IllegalArgumentException if the action has no code or the request exceeds {@link #MAX_FRAME_BYTES}
+     */
+    public static byte[] encodeRequest(Request request) {
+        Integer code = ACTION_CODES.get(request.getAction());
+        if (code == null)
+            throw new IllegalArgumentException("No binary code for action: " + request.getAction());
+        Output output = new Output();
+        output.writeVarLong(code);
+        writeMap(output, request.getBody());
+        byte[] frame = output.toFrame();
+        if (frame.length - FRAME_HEADER_BYTES > MAX_FRAME_BYTES)
+            throw new IllegalArgumentException("Request too large: " + frame.length + " bytes");
+        return frame;
+    }
+
+    /**
+     * Decodes the payload of a request frame.
+     *
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public static Request decodeRequest(byte[] payload) {
+        Input input = new Input(payload);
+        long code = input.readVarLong();
+        if (code < 0 || code >= ACTIONS.size())
+            throw new IllegalArgumentException("Unknown action code: " + code);
+        Map<String, Object> body = readMap(input);
+        input.requireEnd();
+        // The binary protocol keeps its connections open.
+        Request request = new Request(ACTIONS.get((int) code), body != null ? body : new HashMap<>());
+        request.setKeepAlive(true);
+        return request;
+    }
+
+    /**
+     * Encodes a response into a frame, length prefix included.
+     */
+    public static byte[] encodeResponse(Response response) {
+        Output output = new Output();
+        writeResponse(output, response);
+        return output.toFrame();
+    }
+
+    /**
+     * Decodes the payload of a response frame.
+     *
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public static Response decodeResponse(byte[] payload) {
+        Input input = new Input(payload);
+        Response response = readResponse(input);
+        input.requireEnd();
+        return response;
+    }
+
+    private static void writeResponse(Output output, Response response) {
+        output.writeVarLong(response.getStatus());
+        writeMap(output, response.getBody());
+    }
+
+    private static Response readResponse(Input input) {
+        int status = (int) input.readVarLong();
+        return new Response(status, readMap(input));
+    }
+
+    private static void writeMap(Output output, Map<?, ?> map) {
+        if (map == null) {
+            output.writeVarLong(0);
+            return;
+        }
+        output.writeVarLong(map.size() + 1L);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            output.writeString(String.valueOf(entry.getKey()));
+            writeValue(output, entry.getValue());
+        }
+    }
+
+    private static Map<String, Object> readMap(Input input) {
+        int size = input.readCount();
+        if (size-- == 0)
+            return null;
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++)
+            map.put(input.readString(), readValue(input));
+        return map;
+    }
+
+    private static void writeValue(Output output, Object value) {
+        switch (value) {
+            case null -> output.writeByte(NULL);
+            case Boolean b -> output.writeByte(b ? TRUE : FALSE);
+            case Double d -> writeDouble(output, d);
+            case Float f -> writeDouble(output, f);
+            case Number n -> {
+                output.writeByte(LONG);
+                output.writeZigZag(n.longValue());
+            }
+            case String s -> {
+                output.writeByte(STRING);
+                output.writeString(s);
+            }
+            case Enum<?> e -> {
+                output.writeByte(STRING);
+                output.writeString(e.name());
+            }
+            case int[] ints -> {
+                output.writeByte(INT_ARRAY);
+                output.writeIntArray(ints);
+            }
+            case Post post -> {
+                output.writeByte(POST);
+                output.writeZigZag(post.getId());
+                output.writeString(post.getUserName());
+                output.writeString(post.getTitle());
+                output.writeString(post.getContent());
+                output.writeZigZag(post.getTimestamp());
+                output.writeNullableBoolean(post.getEdited());
+            }
+            case Comment comment -> {
+                output.writeByte(COMMENT);
+                output.writeZigZag(comment.getId());
+                output.writeZigZag(comment.getPostId());
+                output.writeString(comment.getUserName());
+                output.writeString(comment.getContent());
+                output.writeZigZag(comment.getTimestamp());
+                output.writeNullableBoolean(comment.getEdited());
+            }
+            case User user -> {
+                output.writeByte(USER);
+                output.writeString(user.getUsername());
+                output.writeVarLong(user.getRole() != null ? user.getRole().ordinal() + 1 : 0);
+            }
+            case SearchResult<?> searchResult -> {
+                output.writeByte(SEARCH_RESULT);
+                output.writeString(searchResult.getPattern());
+                output.writeString(searchResult.getPlan());
+                output.writeVarLong(searchResult.getMatches().size());
+                for (MatchResult<?> match : searchResult.getMatches()) {
+                    writeValue(output, match.getItem());
+                    output.writeIntArray(match.getIndexes());
+                    output.writeIntArray(match.getLengths());
+                }
+            }
+            case Response response -> {
+                output.writeByte(RESPONSE);
+                writeResponse(output, response);
+            }
+            case Collection<?> collection -> {
+                output.writeByte(LIST);
+                output.writeVarLong(collection.size());
+                for (Object element : collection)
+                    writeValue(output, element);
+            }
+            case Map<?, ?> map -> {
+                output.writeByte(MAP);
+                writeMap(output, map);
+            }
+            default -> {
+                output.writeByte(JSON);
+                output.writeString(gson.toJson(value));
+            }
+        }
+    }
+
+    private static void writeDouble(Output output, double value) {
+        output.writeByte(DOUBLE);
+        output.writeLong(Double.doubleToRawLongBits(value));
+    }
+
+    private static Object readValue(Input input) {
+        int tag = input.readByte();
+        return switch (tag) {
+            case NULL -> null;
+            case FALSE -> false;
+            case TRUE -> true;
+            case LONG -> input.readZigZag();
+            case DOUBLE -> Double.longBitsToDouble(input.readLong());
+            case STRING -> input.readString();
+            case INT_ARRAY -> input.readIntArray();
+            case POST -> {
+                Post post = new Post();
+                post.setId(input.readZigZag());
+                post.setUserName(input.readString());
+                post.setTitle(input.readString());
+                post.setContent(input.readString());
+                post.setTimestamp(input.readZigZag());
+                post.setEdited(input.readNullableBoolean());
+                yield post;
+            }
+            case COMMENT -> {
+                Comment comment = new Comment();
+                comment.setId(input.readZigZag());
+                comment.setPostId(input.readZigZag());
+                comment.setUserName(input.readString());
+                comment.setContent(input.readString());
+                comment.setTimestamp(input.readZigZag());
+                comment.setEdited(input.readNullableBoolean());
+                yield comment;
+            }
+            case USER -> {
+                User user = new User();
+                user.setUsername(input.readString());
+                long role = input.readVarLong();
+                if (role < 0 || role > User.Role.values().length)
+                    throw new IllegalArgumentException("Unknown role: " + role);
+                user.setRole(role > 0 ? User.Role.values()[(int) role - 1] : null);
+                yield user;
+            }
+            case SEARCH_RESULT -> {
+                SearchResult<Object> searchResult = new SearchResult<>(input.readString());
+                searchResult.setPlan(input.readString());
+                int matches = input.readCount();
+                for (int i = 0; i < matches; i++) {
+                    Object item = readValue(input);
+                    int[] indexes = input.readIntArray();
+                    int[] lengths = input.readIntArray();
+                    if (lengths != null)
+                        searchResult.addMatch(item, indexes, lengths);
+                    else
+                        searchResult.addMatch(item, indexes);
+                }
+                yield searchResult;
+            }
+            case RESPONSE -> readResponse(input);
+            case LIST -> {
+                int size = input.readCount();
+                List<Object> list = new ArrayList<>(Math.min(size, input.remaining()));
+                for (int i = 0; i < size; i++)
+                    list.add(readValue(input));
+                yield list;
+            }
+            case MAP -> readMap(input);
+            case JSON -> gson.fromJson(input.readString(), Object.class);
+            default -> throw new IllegalArgumentException("Unknown value tag: " + tag);
+        };
+    }
+
+    /**
+     * A growing byte buffer, starting with room for the frame length.
+     */
+    private static class Output {
+        private byte[] bytes = new byte[256];
+        private int size = FRAME_HEADER_BYTES;
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+
+        private void writeByte(int value) {
+            ensure(1);
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8)
+                bytes[size++] = (byte) (value >>> shift);
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Writes the UTF-8 length plus one, zero standing for null, then the bytes.
+         */
+        private void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1L);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        /**
+         * Writes the length plus one, zero standing for null, then the differences between
+         * consecutive values, small for the sorted match indexes.
+         */
+        private void writeIntArray(int[] values) {
+            if (values == null) {
+                writeVarLong(0);
+                return;
+            }
+            writeVarLong(values.length + 1L);
+            long previous = 0;
+            for (int value : values) {
+                writeZigZag(value - previous);
+                previous = value;
+            }
+        }
+
+        private void writeNullableBoolean(Boolean value) {
+            writeByte(value == null ? NULL : value ? TRUE : FALSE);
+        }
+
+        private byte[] toFrame() {
+            int length = size - FRAME_HEADER_BYTES;
+            bytes[0] = (byte) (length >>> 24);
+            bytes[1] = (byte) (length >>> 16);
+            bytes[2] = (byte) (length >>> 8);
+            bytes[3] = (byte) length;
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /**
+     * Reads a payload, failing with an IllegalArgumentException when it is truncated or malformed.
+     */
+    private static class Input {
+        private final byte[] bytes;
+        private int position;
+
+        private Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private int remaining() {
+            return bytes.length - position;
+        }
+
+        private void require(int count) {
+            if (count < 0 || count > remaining())
+                throw new IllegalArgumentException("Truncated payload");
+        }
+
+        private void requireEnd() {
+            if (remaining() != 0)
+                throw new IllegalArgumentException("Unexpected bytes after the payload");
+        }
+
+        private int readByte() {
+            require(1);
+            return bytes[position++] & 0xFF;
+        }
+
+        private long readLong() {
+            require(8);
+            long value = 0;
+            for (int i = 0; i < 8; i++)
+                value = (value << 8) | (bytes[position++] & 0xFF);
+            return value;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        private long readZigZag() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Reads a count, which cannot exceed the bytes left since every element takes at least one byte.
+         */
+        private int readCount() {
+            long count = readVarLong();
+            if (count < 0 || count > remaining() + 1L)
+                throw new IllegalArgumentException("Invalid count: " + count);
+            return (int) count;
+        }
+
+        private String readString() {
+            int length = readCount();
+            if (length-- == 0)
+                return null;
+            require(length);
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private int[] readIntArray() {
+            int length = readCount();
+            if (length-- == 0)
+                return null;
+            int[] values = new int[length];
+            long previous = 0;
+            for (int i = 0; i < length; i++) {
+                previous += readZigZag();
+                values[i] = (int) previous;
+            }
+            return values;
+        }
+
+        private Boolean readNullableBoolean() {
+            return switch (readByte()) {
+                case NULL -> null;
+                case FALSE -> false;
+                case TRUE -> true;
+                default -> throw new IllegalArgumentException("Invalid boolean");
+            };
+        }
+    }
+}
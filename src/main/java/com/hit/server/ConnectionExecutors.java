@@ -0,0 +1,34 @@
+package com.hit.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the executor that runs the {@link HandleRequest} of every accepted connection,
+ * according to the {@link ServerConfig.ExecutorType}.
+ */
+public final class ConnectionExecutors {
+    private ConnectionExecutors() {
+    }
+
+    /**
+     * @return the executor; a {@code PLATFORM_POOL} executor throws
+     * {@link java.util.concurrent.RejectedExecutionException} when its queue is full, and the
+     * {@link Server} applies the configured {@link ServerConfig.RejectionPolicy}
+     */
+    public static ExecutorService create(ServerConfig config) {
+        return switch (config.getExecutorType()) {
+            case PLATFORM_POOL -> new ThreadPoolExecutor(config.getPoolSize(), config.getPoolSize(),
+                    0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(config.getQueueCapacity()),
+                    Thread.ofPlatform().name("italk-worker-", 0).factory(),
+                    new ThreadPoolExecutor.AbortPolicy());
+            case VIRTUAL -> Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("italk-virtual-", 0).factory());
+            case THREAD_PER_CONNECTION -> Executors.newThreadPerTaskExecutor(
+                    Thread.ofPlatform().name("italk-connection-", 0).factory());
+        };
+    }
+}
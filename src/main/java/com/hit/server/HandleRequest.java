@@ -1,210 +1,193 @@
 package com.hit.server;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.Strictness;
 import com.google.gson.stream.JsonReader;
-import com.hit.controller.*;
-import com.hit.dm.Comment;
-import com.hit.dm.Post;
-import com.hit.dm.SearchResult;
-import com.hit.dm.User;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import com.hit.controller.ControllerFactory;
+import com.hit.json.Json;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.List;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The HandleRequest class is responsible for handling a single client connection.
- * It reads a JSON request from the socket using Gson directly from the Reader,
- * dispatches the request to the appropriate controller (using ControllerFactory),
- * and writes a JSON-formatted Response back to the client.
+ * It reads JSON requests from the socket using Gson directly from the Reader,
+ * hands each of them to the RequestDispatcher, and writes the JSON-formatted Response
+ * back to the client.
+ * <p>
+ * By default the connection is closed after the first response, as one-shot clients expect.
+ * A request sent with {@code "keepAlive": true} keeps the connection open: the next request
+ * is read from the same socket, until a request without keepAlive, the end of the stream, or
+ * no request for the idle timeout. The responses of a connection may be compressed, see
+ * {@link ResponseCompressor}.
+ * <p>
+ * A client may pipeline kept-alive requests, sending them without waiting for their responses:
+ * they are read from the socket buffer one after the other and answered in order.
+ * <p>
+ * Every request is first admitted by the {@link AdmissionController}; a rejected request is
+ * skipped without parsing its body and answered 429 or 503. The connection stays open if the
+ * previous request kept it alive, and is closed otherwise.
+ * <p>
+ * A request that is not valid JSON is answered 400 and the connection is closed, since the next
+ * request cannot be found after it; a request that fails once read is answered 500.
+ * <p>
+ * When the server shuts down, {@link #drain()} lets the request being handled complete; the requests
+ * the client has already sent after it are answered 503.
+ * <p>
+ * A client that takes longer than the read timeout to send a request, or sends one larger than
+ * the size limit, is answered 408 or 413 and the connection is closed; see {@link TimedInputStream}.
+ * A client that stops reading its responses is closed by the server after the write timeout,
+ * see {@link #closeIfStalled(long)}.
+ * <p>
+ * A {@value SubscriptionHub#ACTION} request gives the connection over to the subscription: its
+ * thread pushes the change records to the client until it goes away, see {@link SubscriptionHub}.
+ * <p>
+ * A connection starting with {@link BinaryCodec#MAGIC} speaks the binary protocol instead:
+ * length-prefixed frames encoded by the {@link BinaryCodec}.
  */
 public class HandleRequest implements Runnable {
+    public static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 30_000;
+    static final Response SHUTTING_DOWN = new Response(503, Map.of("error", "Server is shutting down."));
+    private static final Response TOO_LARGE = new Response(413, Map.of("error", "Request too large."));
+    private static final Response TIMED_OUT = new Response(408, Map.of("error", "Request timed out."));
+    private static final Response MALFORMED = new Response(400, Map.of("error", "Malformed request."));
+    private static final Response INTERNAL_ERROR = new Response(500, Map.of("error", "Internal server error."));
+
     private final Socket clientSocket;
-    private final ControllerFactory controllerFactory;
-    private final Gson gson = new Gson();
+    private final RequestDispatcher dispatcher;
+    private final ServerConfig config;
+    private final ResponseCompressor compressor;
+    private final AdmissionController admission;
+    private final SubscriptionHub subscriptions;
+    private final Gson gson = Json.GSON;
+    private ResponseCompressor.Method compression; // The compression the client asked for, if any
+    private boolean binary;
+    private boolean keptAlive; // True if the last request kept the connection alive
+    private TimedInputStream input;
+    private volatile TimedOutputStream output;
+    // Guards busy and draining, so an idle connection can be told from one handling a request
+    private final Object lock = new Object();
+    private boolean busy;
+    private boolean draining;
 
     public HandleRequest(Socket clientSocket, ControllerFactory controllerFactory) {
+        this(clientSocket, new RequestDispatcher(controllerFactory), new ServerConfig(),
+                new ResponseCompressor(ResponseCompressor.DEFAULT_THRESHOLD_BYTES), null, null);
+    }
+
+    /**
+     * @param clientSocket  the client connection
+     * @param dispatcher    handles the requests
+     * @param config        the timeouts and the request size limit
+     * @param compressor    compresses the responses of the connections that ask for it
+     * @param admission     admits the requests of the client, null to admit them all
+     * @param subscriptions the change subscriptions, null if the connection cannot subscribe
+     */
+    public HandleRequest(Socket clientSocket, RequestDispatcher dispatcher, ServerConfig config,
+                         ResponseCompressor compressor, AdmissionController admission,
+                         SubscriptionHub subscriptions) {
         this.clientSocket = clientSocket;
-        this.controllerFactory = controllerFactory;
+        this.dispatcher = dispatcher;
+        this.config = config;
+        this.compressor = compressor;
+        this.admission = admission != null ? admission : AdmissionController.unlimited(dispatcher);
+        this.subscriptions = subscriptions;
     }
 
-    @Override
-    public void run() {
-        try (
-                JsonReader reader = new JsonReader(new InputStreamReader(clientSocket.getInputStream()));
-                PrintWriter writer = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream()), true)
-        ) {
-            // Directly deserialize the JSON request from the Reader into a Request object.
-            Request request = gson.fromJson(reader, Request.class);
-            System.out.println("Received request");
+    /**
+     * Ends the connection once the request being handled, if any, is answered; an idle connection
+     * stops waiting for its next request at once. A request arriving meanwhile is answered 503.
+     */
+    public void drain() {
+        synchronized (lock) {
+            draining = true;
+            if (!busy) {
+                try {
+                    clientSocket.shutdownInput();
+                } catch (IOException e) {
+                    // Not connected yet or already closed
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the connection at once, even during a request.
+     */
+    public void close() {
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Retrieve action and body from the request.
-            String action = request.getAction(); // e.g., "user/create" or "post/edit"
-            Map<String, Object> body = request.getBody();
+    /**
+     * Closes the connection if a response has been blocked for longer than the write timeout,
+     * because the client does not read it.
+     *
+     * @param now the current {@link System#nanoTime()}
+     */
+    public void closeIfStalled(long now) {
+        TimedOutputStream output = this.output;
+        if (output != null && output.isStalled(now, TimeUnit.MILLISECONDS.toNanos(config.getWriteTimeoutMillis()))) {
+            System.out.println("Write timeout, closing the connection of " + clientSocket.getInetAddress());
+            close();
+        }
+    }
 
-            // Prepare a Response variable to hold our reply.
-            Response response;
+    // Returns false if the connection is draining: the request must not be handled
+    private boolean beginRequest() {
+        synchronized (lock) {
+            if (draining)
+                return false;
+            busy = true;
+            return true;
+        }
+    }
 
-            // Determine which controller should handle the request.
-            // We expect the action to be in the format "controllerName/actionName".
-            String[] parts = action.split("/");
-            if (parts.length < 2) {
-                response = new Response(400, Map.of("error", "Invalid action format."));
+    // Returns false if the connection is draining: it must be closed
+    private boolean endRequest() {
+        synchronized (lock) {
+            busy = false;
+            return !draining;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            input = new TimedInputStream(clientSocket, config);
+            output = new TimedOutputStream(clientSocket.getOutputStream());
+            // The first byte tells the binary protocol from JSON.
+            BufferedInputStream bufferedInput = new BufferedInputStream(input);
+            bufferedInput.mark(1);
+            binary = bufferedInput.read() == BinaryCodec.MAGIC;
+            if (binary) {
+                handleBinaryRequests(bufferedInput);
             } else {
-                String controllerName = parts[0].toLowerCase(); // e.g., "user"
-                String methodAction = parts[1].toLowerCase();   // e.g., "create"
-
-                // Retrieve the proper controller from the factory.
-                Object controller = controllerFactory.getController(controllerName);
-
-                // Dispatch the request based on the controller name and action.
-                switch (controllerName) {
-                    case "user": {
-                        // Cast to UserController.
-                        UserController userController = (UserController) controller;
-                        try {
-                            switch (methodAction) {
-                                case "create" -> {
-                                    boolean result = userController.createUser(body);
-                                    response = new Response(200, Map.of("result", result));
-                                }
-                                case "edit" -> {
-                                    boolean result = userController.editUser(body);
-                                    response = new Response(200, Map.of("result", result));
-                                }
-                                case "remove" -> {
-                                    boolean result = userController.removeUser(body);
-                                    response = new Response(200, Map.of("result", result));
-                                }
-                                case "authenticate" -> {
-                                    boolean result = userController.authenticate(body);
-                                    response = new Response(200, Map.of("result", result));
-                                }
-                                case "get" -> {
-                                    User userResult = userController.getUser(body);
-                                    if (userResult == null) {
-                                        response = new Response(404, Map.of("error", "User Not Found"));
-                                    } else {
-                                        response = new Response(200, Map.of("result", userResult));
-                                    }
-                                }
-                                default -> response = new Response(400, Map.of(
-                                        "error", "Unknown action for user controller."));
-                            }
-                        } catch (IllegalArgumentException e) {
-                            response = new Response(400, Map.of(
-                                    "error", "Invalid request message for user."));
-                        }
-                        break;
-                    }
-                    case "post": {
-                        // Cast to PostController.
-                        PostController postController = (PostController) controller;
-                        try {
-                            switch (methodAction) {
-                                case "create" -> {
-                                    postController.createPost(body);
-                                    response = new Response(200, Map.of("result", "Post created successfully"));
-                                }
-                                case "edit" -> {
-                                    boolean result = postController.editPost(body);
-                                    response = new Response(200, Map.of("result", result));
-                                }
-                                case "remove" -> {
-                                    boolean result = postController.removePost(body);
-                                    response = new Response(200, Map.of("result", result));
-                                }
-                                case "get" -> {
-                                    Post postResult = postController.getPostById(body);
-                                    if (postResult == null) {
-                                        response = new Response(404, Map.of("error", "Post Not Found"));
-                                    } else {
-                                        response = new Response(200, Map.of("result", postResult));
-                                    }
-                                }
-                                case "get-all" -> {
-                                    List<Post> posts = postController.getAllPosts();
-                                    response = new Response(200, Map.of("result", posts));
-                                }
-                                case "get-comments" -> {
-                                    List<Comment> comments = postController.getPostComments(body);
-                                    response = new Response(200, Map.of("result", comments));
-                                }
-                                case "search-titles" -> {
-                                    SearchResult<Post> searchResult = postController.searchTitles(body);
-                                    response = new Response(200, Map.of("result", searchResult));
-                                }
-                                case "search-contents" -> {
-                                    SearchResult<Post> searchResult = postController.searchContents(body);
-                                    response = new Response(200, Map.of("result", searchResult));
-                                }
-                                default -> response = new Response(
-                                        400, Map.of("error", "Unknown action for post controller."));
-                            }
-                        } catch (IllegalArgumentException e) {
-                            response = new Response(400, Map.of(
-                                    "error", "Invalid request message for post."));
-                        }
-                        break;
-                    }
-                    case "comment": {
-                        // Cast to CommentController.
-                        CommentController commentController = (CommentController) controller;
-                        try {
-                            switch (methodAction) {
-                                case "create" -> {
-                                    commentController.createComment(body);
-                                    response = new Response(200, Map.of("result", "Comment created successfully"));
-                                }
-                                case "edit" -> {
-                                    boolean result = commentController.editComment(body);
-                                    response = new Response(200, Map.of("result", result));
-                                }
-                                case "remove" -> {
-                                    boolean result = commentController.removeComment(body);
-                                    response = new Response(200, Map.of("result", result));
-                                }
-                                case "get" -> {
-                                    Comment commentResult = commentController.getCommentById(body);
-                                    if (commentResult == null) {
-                                        response = new Response(404, Map.of("error", "Comment Not Found"));
-                                    } else {
-                                        response = new Response(200, Map.of("result", commentResult));
-                                    }
-                                }
-                                case "get-all" -> {
-                                    List<Comment> comments = commentController.getAllComments();
-                                    response = new Response(200, Map.of("result", comments));
-                                }
-                                case "search-contents" -> {
-                                    SearchResult<Comment> searchResult = commentController.searchContents(body);
-                                    response = new Response(200, Map.of("result", searchResult));
-                                }
-                                default -> response = new Response(
-                                        400, Map.of("error", "Unknown action for comment controller."));
-                            }
-                        } catch (IllegalArgumentException e) {
-                            response = new Response(400, Map.of(
-                                    "error", "Invalid request message for comment."));
-                        }
-                        break;
-                    }
-                    default:
-                        response = new Response(
-                                400, Map.of("error", "Unknown controller: " + controllerName));
-                }
+                bufferedInput.reset();
+                handleJsonRequests(bufferedInput);
             }
-            // Write the response back to the client as a JSON string.
-            writer.println(gson.toJson(response));
+        } catch (TimedInputStream.RequestTooLargeException | TimedInputStream.RequestTimeoutException e) {
+            writeError(e);
+        } catch (SocketTimeoutException | EOFException e) {
+            // The client stayed idle or went away: just close the connection.
+        } catch (IOException e) {
+            // The connection was closed by the server shutdown, or broken
+            if (!clientSocket.isClosed())
+                e.printStackTrace();
         } catch (Exception e) {
             e.printStackTrace();
-            try (PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true)) {
-                Response errorResponse = new Response(500, Map.of("error", "Internal server error."));
-                writer.println(gson.toJson(errorResponse));
-            } catch (IOException ioException) {
-                ioException.printStackTrace();
-            }
+            writeError(new Response(500, Map.of("error", "Internal server error.")));
         } finally {
             try {
                 clientSocket.close();
@@ -214,17 +197,240 @@ public class HandleRequest implements Runnable {
         }
     }
 
-    private long getLongFromBody(Map<String, Object> body, String paramName) {
-        Object paramObj = body.get(paramName);
-        long paramLong;
-        if (paramObj instanceof Number) {
-            paramLong = ((Number) paramObj).longValue();
-        } else if (paramObj instanceof String) {
-            paramLong = Long.parseLong((String) paramObj);
+    private void handleJsonRequests(InputStream inputStream) throws IOException {
+        try (
+                JsonReader reader = new JsonReader(new InputStreamReader(inputStream));
+                PrintWriter writer = new PrintWriter(new OutputStreamWriter(output), true)
+        ) {
+            // Requests follow each other on a kept-alive connection.
+            reader.setStrictness(Strictness.LENIENT);
+
+            boolean keepAlive = true;
+            while (keepAlive && !isEndOfStream(reader, writer)) {
+                if (!beginRequest()) {
+                    // Received while the server shuts down: answered without being parsed
+                    input.beginRequest();
+                    try {
+                        reader.skipValue();
+                    } finally {
+                        input.endRequest();
+                    }
+                    writeResponse(writer, SHUTTING_DOWN);
+                    continue;
+                }
+                input.beginRequest();
+                try {
+                    keepAlive = handleJsonRequest(reader, writer);
+                } catch (TimedInputStream.RequestTooLargeException | TimedInputStream.RequestTimeoutException e) {
+                    // The rest of the request is not read: answer before the writer closes the socket
+                    writeError(e);
+                    return;
+                } catch (JsonParseException | MalformedJsonException e) {
+                    // The next request cannot be found after a malformed one: answer it and close
+                    writeResponse(writer, MALFORMED);
+                    return;
+                } catch (RuntimeException e) {
+                    // The request was read whole, so the next one can follow
+                    e.printStackTrace();
+                    writeResponse(writer, INTERNAL_ERROR);
+                    keepAlive = keptAlive;
+                } finally {
+                    input.endRequest();
+                    if (!endRequest())
+                        input.drain();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true once the client has closed its side of the connection. Input that cannot start
+     * a request is answered 400, and ends the connection too.
+     */
+    private boolean isEndOfStream(JsonReader reader, PrintWriter writer) throws IOException {
+        try {
+            return reader.peek() == JsonToken.END_DOCUMENT;
+        } catch (MalformedJsonException e) {
+            writeResponse(writer, MALFORMED);
+            return true;
+        }
+    }
+
+    /**
+     * Reads and answers one JSON request.
+     *
+     * @return true if the connection is kept alive
+     */
+    private boolean handleJsonRequest(JsonReader reader, PrintWriter writer) throws IOException {
+        Response rejection = admission.admit(clientSocket.getInetAddress());
+        if (rejection != null) {
+            // Skip the request without building its body. The connection stays open only if the
+            // client kept it alive before: a one-shot client must not hold it until the idle timeout.
+            reader.skipValue();
+            writeResponse(writer, rejection);
+            return keptAlive;
+        }
+        Subscription subscription = null;
+        try {
+            // Directly deserialize the JSON request from the Reader into a Request object.
+            Request request = readRequest(reader);
+            keptAlive = request.isKeepAlive();
+            compression = ResponseCompressor.negotiate(compression, request.getCompression());
+
+            // Streamed searches have already written their records and leave no response.
+            Response response = admission.admitAction(clientSocket.getInetAddress(), request);
+            if (response == null && subscriptions != null && SubscriptionHub.ACTION.equals(request.getAction())) {
+                try {
+                    subscription = subscriptions.subscribe(request.getBody(), null);
+                    if (subscription == null)
+                        response = SHUTTING_DOWN;
+                } catch (IllegalArgumentException e) {
+                    response = new Response(400, Map.of("error", "Invalid request message for subscribe."));
+                }
+            } else if (response == null) {
+                response = dispatcher.dispatch(request, writer);
+            }
+            if (response != null)
+                writeResponse(writer, response);
+            if (subscription == null)
+                return request.isKeepAlive();
+        } finally {
+            admission.release();
+        }
+        // A subscription lasts as long as the connection: it does not hold an admission permit.
+        push(subscription, writer);
+        return false;
+    }
+
+    /**
+     * Writes the records of a subscription until the client goes away or the server shuts down.
+     */
+    private void push(Subscription subscription, PrintWriter writer) {
+        try {
+            writer.println(SubscriptionHub.SUBSCRIBED_RECORD);
+            String record;
+            // PrintWriter swallows IOExceptions; an error means the client went away.
+            while (!writer.checkError() && (record = subscription.take(SubscriptionHub.HEARTBEAT_MILLIS)) != null)
+                writer.println(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscriptions.unsubscribe(subscription);
+        }
+    }
+
+    private Request readRequest(JsonReader reader) throws IOException {
+        try {
+            return gson.fromJson(reader, Request.class);
+        } catch (JsonSyntaxException e) {
+            // Gson wraps the errors of the stream, such as the request size limit
+            if (e.getCause() instanceof IOException ioException)
+                throw ioException;
+            throw e;
+        }
+    }
+
+    private void writeResponse(PrintWriter writer, Response response) throws IOException {
+        if (compression == null) {
+            // Serialize the response straight to the socket, through the writer's buffer,
+            // without building it as a String first.
+            gson.toJson(response, Response.class, gson.newJsonWriter(writer));
+            writer.println();
         } else {
-            throw new IllegalArgumentException("Invalid type for postId: " + paramObj);
+            writer.flush();
+            output.write(compressor.encode(gson.toJson(response), compression));
+            output.flush();
         }
+    }
+
+    /**
+     * Answers binary frames until the client closes the connection. A frame that cannot be decoded
+     * gets a 400 response; a frame over the size limit ends the connection, since it is not read.
+     */
+    private void handleBinaryRequests(InputStream inputStream) throws IOException {
+        DataInputStream dataInput = new DataInputStream(inputStream);
+        OutputStream bufferedOutput = new BufferedOutputStream(output);
+        int maxFrameBytes = Math.min(config.getMaxRequestBytes(), BinaryCodec.MAX_FRAME_BYTES);
+        while (true) {
+            int length;
+            try {
+                length = dataInput.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            // Rejected from its length prefix, before its payload is read
+            if (length < 0 || length > maxFrameBytes) {
+                writeFrame(bufferedOutput, TOO_LARGE);
+                return;
+            }
+            if (!beginRequest()) {
+                // Received while the server shuts down: answered without being decoded
+                dataInput.skipNBytes(length);
+                writeFrame(bufferedOutput, SHUTTING_DOWN);
+                continue;
+            }
+            input.beginRequest();
+            try {
+                handleBinaryRequest(dataInput, bufferedOutput, length);
+            } finally {
+                input.endRequest();
+                if (!endRequest())
+                    input.drain();
+            }
+        }
+    }
+
+    private void handleBinaryRequest(DataInputStream input, OutputStream output, int length) throws IOException {
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+
+        // A rejected request is not decoded.
+        Response response = admission.admit(clientSocket.getInetAddress());
+        if (response == null) {
+            try {
+                Request request = BinaryCodec.decodeRequest(payload);
+                response = admission.admitAction(clientSocket.getInetAddress(), request);
+                // A binary connection has no writer for streamed answers.
+                if (response == null)
+                    response = dispatcher.dispatch(request, null);
+            } catch (IllegalArgumentException e) {
+                response = new Response(400, Map.of("error", "Malformed request."));
+            } catch (Exception e) {
+                e.printStackTrace();
+                response = new Response(500, Map.of("error", "Internal server error."));
+            } finally {
+                admission.release();
+            }
+        }
+        writeFrame(output, response);
+    }
+
+    /**
+     * Answers a request that could not be read within the limits.
+     */
+    private void writeError(IOException e) {
+        writeError(e instanceof TimedInputStream.RequestTooLargeException ? TOO_LARGE : TIMED_OUT);
+    }
+
+    /**
+     * Answers a connection about to be closed because of an error, in its protocol.
+     */
+    private void writeError(Response response) {
+        if (output == null)
+            return;
+        try {
+            if (binary)
+                writeFrame(output, response);
+            else
+                output.write((gson.toJson(response) + "\n").getBytes(StandardCharsets.UTF_8));
+            output.flush();
+        } catch (IOException e) {
+            // The client is gone
+        }
+    }
 
-        return paramLong;
+    private static void writeFrame(OutputStream output, Response response) throws IOException {
+        output.write(BinaryCodec.encodeResponse(response));
+        output.flush();
     }
 }
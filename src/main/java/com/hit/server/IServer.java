@@ -0,0 +1,28 @@
+package com.hit.server;
+
+/**
+ * A server front end: {@link Server} or {@link NioServer}.
+ * {@link #run()} accepts connections until the server is stopped or shut down.
+ */
+public interface IServer extends Runnable {
+    /**
+     * Returns the port the server listens on, useful when it was configured with port 0.
+     */
+    int getPort();
+
+    /**
+     * Stops accepting connections and closes the open ones at once, kept-alive and idle ones included.
+     * The requests being handled are completed, but their responses are not sent.
+     */
+    void stop();
+
+    /**
+     * Shuts the server down gracefully: stops accepting connections, lets the requests being
+     * handled complete and their responses be written, closes the idle connections, and closes
+     * whatever is left when the timeout expires. Calling it again waits for the first call.
+     *
+     * @param timeoutMillis how long to wait for the requests being handled
+     * @return true if every connection was drained before the timeout
+     */
+    boolean shutdown(long timeoutMillis);
+}
@@ -0,0 +1,94 @@
+package com.hit.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in microseconds, bucketed the way HdrHistogram does: every power of two
+ * is split into 64 linear sub-buckets, so a percentile read from the buckets is off by less than
+ * 1/64 of its value, with a fixed memory of about 14 KB whatever the number of durations.
+ * <p>
+ * Recording is a few atomic additions and never blocks, so it can be done on every request; the
+ * percentiles are computed from a {@link Snapshot}, which may miss the durations being recorded.
+ */
+class LatencyHistogram {
+    // Durations below 2^PRECISION_BITS get a bucket each
+    private static final int PRECISION_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << (PRECISION_BITS - 1);
+    // About 71 minutes, longer durations are counted as this one
+    static final long MAX_MICROS = (1L << 32) - 1;
+    private static final int BUCKETS = bucketOf(MAX_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sumMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    /**
+     * The durations recorded up to a point in time.
+     *
+     * @param count     the number of durations
+     * @param sumMicros their sum
+     * @param maxMicros the longest one
+     * @param counts    the number of durations of every bucket
+     */
+    record Snapshot(long count, long sumMicros, long maxMicros, long[] counts) {
+
+        /**
+         * Returns the duration that the given percentage of the durations do not exceed,
+         * e.g. 99.9 for the 99.9th percentile, or 0 if there are none.
+         */
+        long percentile(double percent) {
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank)
+                    return Math.min(highestValueOf(bucket), maxMicros);
+            }
+            return maxMicros;
+        }
+
+        double meanMicros() {
+            return count > 0 ? (double) sumMicros / count : 0;
+        }
+    }
+
+    void record(long micros) {
+        micros = Math.clamp(micros, 0, MAX_MICROS);
+        counts.incrementAndGet(bucketOf(micros));
+        sumMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            copy[bucket] = counts.get(bucket);
+            count += copy[bucket];
+        }
+        return new Snapshot(count, sumMicros.sum(), maxMicros.get(), copy);
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < 1L << PRECISION_BITS)
+            return (int) micros;
+        // The sub-bucket keeps the PRECISION_BITS - 1 bits after the highest one
+        int shift = Long.SIZE - Long.numberOfLeadingZeros(micros) - PRECISION_BITS;
+        return shift * SUB_BUCKETS + (int) (micros >>> shift);
+    }
+
+    /**
+     * Returns the longest duration counted in a bucket.
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < 1 << PRECISION_BITS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket - (long) shift * SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
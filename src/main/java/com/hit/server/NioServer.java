@@ -0,0 +1,892 @@
+package com.hit.server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.hit.controller.ControllerFactory;
+import com.hit.json.Json;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A server front end built on non-blocking sockets, an alternative to {@link Server} that does not
+ * tie up a thread per connection.
+ * <p>
+ * One thread accepts the connections and spreads them over a few I/O threads, each multiplexing
+ * its connections with a {@link Selector}. The I/O threads read newline-delimited JSON requests
+ * into per-connection buffers and hand every complete request to the worker executor of the
+ * {@link ServerConfig}, where the {@link RequestDispatcher} runs; the response is queued back to
+ * the I/O thread, which writes it when the socket accepts it. An idle connection therefore only
+ * costs its socket and a small buffer. Responses are serialized in chunks, and the worker waits
+ * while a slow client has {@value #MAX_QUEUED_BYTES} bytes left to receive, so a large response
+ * never sits in memory as a whole.
+ * <p>
+ * The connection semantics are those of {@link HandleRequest}: the connection is closed after the
+ * first response unless the request asks for keepAlive, and after the idle timeout. The requests
+ * of a connection are handled one at a time, in order, so a client may pipeline kept-alive requests
+ * without waiting for their responses. A client that closes its output may omit the newline after
+ * its last request.
+ * <p>
+ * A slow client costs no thread but is bounded all the same: a request not received within the read
+ * timeout is answered 408, a request over {@link ServerConfig#getMaxRequestBytes()} is answered 413
+ * as soon as the buffer holding it would exceed the limit, and the connection is closed; a client
+ * that has not read any of its pending response for the write timeout is closed, which also
+ * releases the worker waiting to hand it more of the response.
+ * <p>
+ * A subscribed connection costs no thread either: the publishing thread wakes its I/O thread, which
+ * moves the change records to the output as long as the client keeps up, see {@link SubscriptionHub}.
+ * <p>
+ * Connections starting with {@link BinaryCodec#MAGIC} speak the binary protocol, with the same
+ * ordering; their frames are cut from the input buffer by their length prefix instead of newlines.
+ * <p>
+ * {@link #shutdown(long)} stops the server gracefully: the connections stop reading, complete the
+ * request being handled and are closed once its response is written.
+ */
+public class NioServer implements IServer {
+    // The default of ServerConfig#getMaxRequestBytes(), and the limit of the binary frames
+    public static final int MAX_REQUEST_BYTES = 1 << 20;
+    private static final int INITIAL_BUFFER_BYTES = 1024;
+    private static final int ACCEPT_BACKLOG = 4096;
+    // How often the connections are checked for the idle, read and write timeouts
+    private static final long TIMEOUT_CHECK_MILLIS = 1000;
+    // A response is handed to the I/O thread in chunks of this many characters
+    private static final int WRITE_CHUNK_CHARS = 8192;
+    // A worker writing a response waits while its connection has this many bytes left to send
+    private static final int MAX_QUEUED_BYTES = 64 * 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final RequestDispatcher dispatcher;
+    private final ServerConfig config;
+    private final ExecutorService workers;
+    private final Reactor[] reactors;
+    private final ResponseCompressor compressor;
+    private final AdmissionController admission;
+    private final SubscriptionHub subscriptions;
+    private final Gson gson = Json.GSON;
+    // The registered connections not closed yet, to wait for them on shutdown
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private volatile boolean shutDown;
+
+    /**
+     * Constructs the NIO server with the given settings.
+     *
+     * @param config the port to listen on, the number of I/O threads and the worker executor
+     */
+    public NioServer(ServerConfig config) {
+        this(config, createControllerFactory());
+    }
+
+    /**
+     * Constructs the NIO server with the given settings and controllers.
+     *
+     * @param config            the port to listen on, the number of I/O threads and the worker executor
+     * @param controllerFactory the controllers serving the requests
+     */
+    public NioServer(ServerConfig config, ControllerFactory controllerFactory) {
+        this.config = config;
+        this.dispatcher = new RequestDispatcher(controllerFactory);
+        this.workers = ConnectionExecutors.create(config);
+        this.reactors = new Reactor[config.getIoThreads()];
+        this.compressor = new ResponseCompressor(config.getCompressionThresholdBytes());
+        this.admission = new AdmissionController(config, dispatcher);
+        this.subscriptions = new SubscriptionHub(config, controllerFactory.getChangeFeed());
+        subscriptions.register(dispatcher);
+        AdminRoutes.register(dispatcher, controllerFactory, this, config);
+        ServerMetrics metrics = dispatcher.getMetrics();
+        metrics.addGauge("openConnections", openConnections::get);
+        metrics.addGauge("subscribers", subscriptions::getSubscriberCount);
+        metrics.addGauge("rejectedBusy", admission::getRejectedBusy);
+        metrics.addGauge("rejectedRequests", admission::getRejectedRequests);
+        metrics.addGauge("rejectedExpensive", admission::getRejectedExpensive);
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(config.getPort()), ACCEPT_BACKLOG);
+            for (int i = 0; i < reactors.length; i++)
+                reactors[i] = new Reactor();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Returns the compression counters of the responses, including the bytes saved.
+     */
+    public ResponseCompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * Returns the admission controller, which counts the rejected requests.
+     */
+    public AdmissionController getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Returns the change subscriptions of the clients.
+     */
+    public SubscriptionHub getSubscriptions() {
+        return subscriptions;
+    }
+
+    /**
+     * Returns the metrics of the requests, also reported by the "admin/metrics" action.
+     */
+    public ServerMetrics getMetrics() {
+        return dispatcher.getMetrics();
+    }
+
+    /**
+     * Starts the I/O threads and accepts connections until {@link #stop()} is called.
+     */
+    @Override
+    public void run() {
+        System.out.println("NIO server is running on port " + getPort() + " with " + config);
+        if (config.getMetricsFile() != null)
+            dispatcher.getMetrics().startDump(Path.of(config.getMetricsFile()), config.getMetricsDumpMillis());
+        for (int i = 0; i < reactors.length; i++)
+            Thread.ofPlatform().name("italk-io-" + i).start(reactors[i]);
+
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                reactors[next++ % reactors.length].register(channel);
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones. The requests being dispatched are completed,
+     * but their responses are not sent.
+     */
+    @Override
+    public void stop() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        subscriptions.close();
+        for (Reactor reactor : reactors)
+            reactor.stop();
+        workers.shutdown();
+        dispatcher.getMetrics().stopDump();
+        if (compressor.getCompressedResponses() > 0)
+            System.out.println("Response compression: " + compressor);
+        if (admission.getRejected() > 0)
+            System.out.println("Admission control: " + admission);
+    }
+
+    @Override
+    public synchronized boolean shutdown(long timeoutMillis) {
+        if (shutDown)
+            return openConnections.get() == 0;
+        shutDown = true;
+        System.out.println("Shutting down, draining " + openConnections.get() + " connections");
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // The subscriptions end with their last changes, the other connections with their current request
+        subscriptions.close();
+        for (Reactor reactor : reactors)
+            reactor.execute(reactor::drain);
+        workers.shutdown();
+
+        // The workers complete their requests, then the I/O threads write the last responses
+        boolean drained = false;
+        try {
+            if (workers.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                while (openConnections.get() > 0 && System.nanoTime() < deadline)
+                    Thread.sleep(10);
+                drained = openConnections.get() == 0;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!drained) {
+            System.out.println("Shutdown timeout, closing " + openConnections.get() + " connections");
+            workers.shutdownNow();
+        }
+        stop();
+        System.out.println("NIO server stopped");
+        return drained;
+    }
+
+    /**
+     * An I/O thread: a selector and the connections registered with it.
+     * The connections are only touched by this thread; the other threads submit tasks.
+     */
+    private class Reactor implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+        private long lastTimeoutCheck = System.nanoTime();
+
+        private Reactor() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        private void register(SocketChannel channel) {
+            execute(() -> {
+                if (shutDown) {
+                    // Accepted while the server was shutting down
+                    closeQuietly(channel);
+                    return;
+                }
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, channel, key));
+                    openConnections.incrementAndGet();
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        /**
+         * Runs a task on this I/O thread.
+         */
+        private void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        private void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        /**
+         * Lets every connection complete the request being handled and close; called on this thread.
+         */
+        private void drain() {
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection != null) {
+                    connection.drain();
+                    connection.closeIfDone();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(TIMEOUT_CHECK_MILLIS);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null)
+                        task.run();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable())
+                                connection.onReadable();
+                            if (key.isValid() && key.isWritable())
+                                connection.onWritable();
+                        } catch (IOException e) {
+                            connection.close();
+                        }
+                    }
+                    checkTimeouts();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            for (SelectionKey key : selector.keys())
+                closeQuietly(key.channel());
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void checkTimeouts() {
+            long now = System.nanoTime();
+            if (now - lastTimeoutCheck < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_CHECK_MILLIS))
+                return;
+            lastTimeoutCheck = now;
+            long idleTimeout = TimeUnit.MILLISECONDS.toNanos(config.getIdleTimeoutMillis());
+            long readTimeout = TimeUnit.MILLISECONDS.toNanos(config.getReadTimeoutMillis());
+            long writeTimeout = TimeUnit.MILLISECONDS.toNanos(config.getWriteTimeoutMillis());
+            long heartbeat = TimeUnit.MILLISECONDS.toNanos(SubscriptionHub.HEARTBEAT_MILLIS);
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection == null || connection.closed)
+                    continue;
+                if (!connection.output.isEmpty() && now - connection.lastWrite > writeTimeout) {
+                    connection.close();
+                } else if (connection.requestStart != 0 && now - connection.requestStart > readTimeout) {
+                    connection.reject(408, "Request timed out.");
+                } else if (connection.subscription != null) {
+                    if (now - connection.lastActivity > heartbeat) {
+                        connection.send(encodeRecord(Subscription.HEARTBEAT_RECORD));
+                        connection.lastActivity = now;
+                    }
+                } else if (connection.isIdle() && connection.requestStart == 0
+                        && now - connection.lastActivity > idleTimeout) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * The state of one client connection, owned by its reactor.
+     */
+    private class Connection {
+        private final Reactor reactor;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final InetAddress clientAddress;
+        private ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+        private final Deque<byte[]> requests = new ArrayDeque<>();
+        private final Deque<ByteBuffer> output = new ArrayDeque<>();
+        // The bytes handed to this connection and not written yet, shared with the workers
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private Boolean binary; // Known once the first byte is read
+        private ResponseCompressor.Method compression; // Only used by the worker handling the current request
+        private boolean dispatching;
+        private boolean keptAlive; // True if the last JSON request kept the connection alive
+        private int drainedRequests; // The received requests to answer 503 once the current one is answered
+        private boolean inputClosed;
+        private boolean closing;
+        private volatile boolean closed;
+        private long lastActivity = System.nanoTime();
+        private long requestStart; // When the partial request in the input buffer started, 0 if there is none
+        private long lastWrite; // When the pending output last made progress
+        private Subscription subscription; // Once subscribed, the connection only pushes its records
+
+        private Connection(Reactor reactor, SocketChannel channel, SelectionKey key) {
+            this.reactor = reactor;
+            this.channel = channel;
+            this.key = key;
+            this.clientAddress = channel.socket().getInetAddress();
+        }
+
+        private boolean isIdle() {
+            return !dispatching && output.isEmpty() && subscription == null;
+        }
+
+        private void onReadable() throws IOException {
+            if (closing)
+                return;
+            int read = channel.read(input);
+            long now = System.nanoTime();
+            lastActivity = now;
+            if (read < 0) {
+                inputClosed = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            if (subscription != null) {
+                // A subscribed connection only waits for the client to close it
+                input.clear();
+                if (inputClosed)
+                    close();
+                return;
+            }
+            if (binary == null && input.position() > 0) {
+                binary = input.get(0) == (byte) BinaryCodec.MAGIC;
+                if (binary)
+                    discardInput(1);
+            }
+            boolean framed = frameRequests();
+            if (closing)
+                return;
+
+            if (inputClosed && input.position() > 0) {
+                // The last request of a client that closed its output, without a newline;
+                // a binary client has left a truncated frame, which is dropped.
+                if (!binary)
+                    requests.add(Arrays.copyOf(input.array(), input.position()));
+                input.clear();
+            } else if (!input.hasRemaining()) {
+                if (input.capacity() >= config.getMaxRequestBytes()) {
+                    reject(413, "Request too large.");
+                    return;
+                }
+                int capacity = (int) Math.min((long) input.capacity() * 2, config.getMaxRequestBytes());
+                input = ByteBuffer.allocate(capacity).put(input.flip());
+            }
+            // The read timeout runs from the first bytes of the request left partial
+            if (input.position() == 0)
+                requestStart = 0;
+            else if (requestStart == 0 || framed)
+                requestStart = now;
+            dispatchNext();
+            closeIfDone();
+        }
+
+        /**
+         * Moves the complete requests of the input buffer to the request queue.
+         *
+         * @return true if some request was complete
+         */
+        private boolean frameRequests() {
+            if (binary == null)
+                return false;
+            int consumed = binary ? frameBinaryRequests() : frameLines();
+            if (consumed > 0)
+                discardInput(consumed);
+            return consumed > 0;
+        }
+
+        /**
+         * Queues the complete lines and returns the number of bytes they took.
+         */
+        private int frameLines() {
+            byte[] bytes = input.array();
+            int start = 0;
+            for (int i = 0; i < input.position(); i++) {
+                if (bytes[i] == '\n') {
+                    if (!isBlank(bytes, start, i))
+                        requests.add(Arrays.copyOfRange(bytes, start, i));
+                    start = i + 1;
+                }
+            }
+            return start;
+        }
+
+        /**
+         * Queues the payloads of the complete frames and returns the number of bytes they took.
+         */
+        private int frameBinaryRequests() {
+            int maxFrameBytes = Math.min(config.getMaxRequestBytes(), BinaryCodec.MAX_FRAME_BYTES);
+            int start = 0;
+            while (input.position() - start >= BinaryCodec.FRAME_HEADER_BYTES) {
+                int length = input.getInt(start);
+                // Rejected from its length prefix, before its payload is received
+                if (length < 0 || length > maxFrameBytes) {
+                    reject(413, "Request too large.");
+                    return 0;
+                }
+                int end = start + BinaryCodec.FRAME_HEADER_BYTES + length;
+                if (end > input.position())
+                    break;
+                requests.add(Arrays.copyOfRange(input.array(), start + BinaryCodec.FRAME_HEADER_BYTES, end));
+                start = end;
+            }
+            return start;
+        }
+
+        /**
+         * Drops the first bytes of the input buffer.
+         */
+        private void discardInput(int count) {
+            byte[] bytes = input.array();
+            System.arraycopy(bytes, count, bytes, 0, input.position() - count);
+            input.position(input.position() - count);
+            // Give the memory of a large request back once it has been read
+            if (input.capacity() > INITIAL_BUFFER_BYTES && input.position() <= INITIAL_BUFFER_BYTES)
+                input = ByteBuffer.allocate(INITIAL_BUFFER_BYTES).put(Arrays.copyOf(bytes, input.position()));
+        }
+
+        private void dispatchNext() {
+            while (!dispatching && !closing && !requests.isEmpty()) {
+                byte[] request = requests.poll();
+                // A rejected request is answered here, without parsing it or waking a worker.
+                Response rejection = admission.admit(clientAddress);
+                if (rejection != null) {
+                    send(encode(rejection));
+                    // A one-shot JSON client must not hold the connection until the idle timeout
+                    if (!binary && !keptAlive)
+                        stopReading();
+                    continue;
+                }
+                dispatching = true;
+                try {
+                    workers.execute(() -> {
+                        if (binary)
+                            processBinary(request);
+                        else
+                            process(new String(request, StandardCharsets.UTF_8));
+                    });
+                } catch (RejectedExecutionException e) {
+                    admission.release();
+                    dispatching = false;
+                    reject(503, "Server busy, try again later.");
+                }
+            }
+        }
+
+        /**
+         * Handles one request on a worker thread.
+         */
+        private void process(String line) {
+            boolean keepAlive = false;
+            PrintWriter writer = new PrintWriter(new ConnectionWriter(this), true);
+            try {
+                // Deserialize the JSON request line into a Request object.
+                Request request = gson.fromJson(line, Request.class);
+                if (request == null)
+                    throw new JsonParseException("Empty request");
+                keepAlive = request.isKeepAlive();
+                compression = ResponseCompressor.negotiate(compression, request.getCompression());
+
+                // Streamed searches have already written their records and leave no response.
+                Response response = admission.admitAction(clientAddress, request);
+                if (response == null && SubscriptionHub.ACTION.equals(request.getAction()))
+                    response = subscribe(request.getBody());
+                else if (response == null)
+                    response = dispatcher.dispatch(request, writer);
+                if (response != null && compression == null) {
+                    // Serialize the response through the writer, without building it as a String first.
+                    gson.toJson(response, Response.class, gson.newJsonWriter(writer));
+                    writer.println();
+                } else if (response != null) {
+                    writer.flush();
+                    ByteBuffer bytes = ByteBuffer.wrap(compressor.encode(gson.toJson(response), compression));
+                    reactor.execute(() -> send(bytes));
+                }
+            } catch (JsonParseException e) {
+                writer.println(gson.toJson(new Response(400, Map.of("error", "Malformed request."))));
+            } catch (Exception e) {
+                e.printStackTrace();
+                writer.println(gson.toJson(new Response(500, Map.of("error", "Internal server error."))));
+            } finally {
+                admission.release();
+            }
+            boolean keepConnection = keepAlive;
+            reactor.execute(() -> onRequestDone(keepConnection));
+        }
+
+        /**
+         * Subscribes the connection to the changes; called on a worker thread.
+         *
+         * @return the response if the connection could not subscribe, otherwise null
+         */
+        private Response subscribe(Map<String, Object> body) {
+            Subscription subscription;
+            try {
+                subscription = subscriptions.subscribe(body, () -> reactor.execute(this::push));
+            } catch (IllegalArgumentException e) {
+                return new Response(400, Map.of("error", "Invalid request message for subscribe."));
+            }
+            if (subscription == null)
+                return HandleRequest.SHUTTING_DOWN;
+            reactor.execute(() -> startPush(subscription));
+            return null;
+        }
+
+        /**
+         * Gives the connection over to a subscription; called on the reactor thread.
+         */
+        private void startPush(Subscription subscription) {
+            if (closed) {
+                subscriptions.unsubscribe(subscription);
+                return;
+            }
+            this.subscription = subscription;
+            requests.clear();
+            send(encodeRecord(SubscriptionHub.SUBSCRIBED_RECORD));
+            push();
+        }
+
+        /**
+         * Moves the waiting records of the subscription to the output while the client keeps up,
+         * and ends the connection with the subscription; called on the reactor thread.
+         */
+        private void push() {
+            if (subscription == null || closed)
+                return;
+            String record;
+            while (queuedBytes.get() < MAX_QUEUED_BYTES && (record = subscription.poll()) != null)
+                send(encodeRecord(record));
+            if (subscription.isDone()) {
+                stopReading();
+                closeIfDone();
+            }
+        }
+
+        /**
+         * Handles one binary request on a worker thread. The connection stays open.
+         */
+        private void processBinary(byte[] payload) {
+            Response response;
+            try {
+                Request request = BinaryCodec.decodeRequest(payload);
+                response = admission.admitAction(clientAddress, request);
+                // A binary connection has no writer for streamed answers.
+                if (response == null)
+                    response = dispatcher.dispatch(request, null);
+            } catch (IllegalArgumentException e) {
+                response = new Response(400, Map.of("error", "Malformed request."));
+            } catch (Exception e) {
+                e.printStackTrace();
+                response = new Response(500, Map.of("error", "Internal server error."));
+            } finally {
+                admission.release();
+            }
+            ByteBuffer frame = ByteBuffer.wrap(BinaryCodec.encodeResponse(response));
+            reactor.execute(() -> {
+                send(frame);
+                onRequestDone(true);
+            });
+        }
+
+        private void onRequestDone(boolean keepAlive) {
+            dispatching = false;
+            keptAlive = keepAlive;
+            lastActivity = System.nanoTime();
+            if (!keepAlive && subscription == null)
+                stopReading();
+            answerDrained();
+            dispatchNext();
+            closeIfDone();
+        }
+
+        /**
+         * Queues bytes to write; called on the reactor thread.
+         */
+        private void send(ByteBuffer bytes) {
+            queuedBytes.addAndGet(bytes.remaining());
+            sendCounted(bytes);
+        }
+
+        /**
+         * Queues bytes already counted in {@link #queuedBytes}; called on the reactor thread.
+         */
+        private void sendCounted(ByteBuffer bytes) {
+            if (closed)
+                return;
+            if (output.isEmpty())
+                lastWrite = System.nanoTime();
+            output.add(bytes);
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+
+        private void onWritable() throws IOException {
+            try {
+                while (!output.isEmpty()) {
+                    ByteBuffer bytes = output.peek();
+                    int written = channel.write(bytes);
+                    if (written > 0) {
+                        queuedBytes.addAndGet(-written);
+                        lastWrite = System.nanoTime();
+                    }
+                    if (bytes.hasRemaining())
+                        return;
+                    output.poll();
+                }
+            } finally {
+                signalWriters();
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            lastActivity = System.nanoTime();
+            push();
+            closeIfDone();
+        }
+
+        /**
+         * Answers with an error response and closes the connection once it is written.
+         */
+        private void reject(int status, String error) {
+            stopReading();
+            send(encode(new Response(status, Map.of("error", error))));
+        }
+
+        /**
+         * Encodes a response in the protocol of the connection, uncompressed.
+         */
+        private ByteBuffer encode(Response response) {
+            if (Boolean.TRUE.equals(binary))
+                return ByteBuffer.wrap(BinaryCodec.encodeResponse(response));
+            return ByteBuffer.wrap((gson.toJson(response) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Stops reading for the server shutdown. The requests already received are answered 503,
+         * in order after the request being handled, as the blocking server answers them.
+         */
+        private void drain() {
+            if (subscription == null)
+                drainedRequests = requests.size();
+            stopReading();
+            answerDrained();
+        }
+
+        private void answerDrained() {
+            if (dispatching)
+                return;
+            for (; drainedRequests > 0; drainedRequests--)
+                send(encode(HandleRequest.SHUTTING_DOWN));
+        }
+
+        private void stopReading() {
+            closing = true;
+            requests.clear();
+            input = ByteBuffer.allocate(0);
+            requestStart = 0;
+            if (key.isValid())
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+
+        private void closeIfDone() {
+            if (dispatching || !output.isEmpty())
+                return;
+            if (closing || (inputClosed && requests.isEmpty()))
+                close();
+        }
+
+        /**
+         * Wakes the worker waiting to hand more of a response, if any.
+         */
+        private synchronized void signalWriters() {
+            notifyAll();
+        }
+
+        /**
+         * Waits until the connection has room for more bytes; called by the worker writing a response.
+         */
+        private synchronized void awaitRoom() throws IOException {
+            try {
+                while (queuedBytes.get() >= MAX_QUEUED_BYTES && !closed)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing a response");
+            }
+            if (closed)
+                throw new IOException("Connection closed");
+        }
+
+        private void close() {
+            if (!closed)
+                openConnections.decrementAndGet();
+            closed = true;
+            if (subscription != null)
+                subscriptions.unsubscribe(subscription);
+            signalWriters();
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Collects what a worker writes for a connection and hands it to the connection's I/O thread
+     * on every flush, so streamed responses are sent as they are produced, and in chunks, so large
+     * responses are sent while they are serialized.
+     */
+    private static class ConnectionWriter extends Writer {
+        private final Connection connection;
+        private final StringBuilder buffer = new StringBuilder();
+
+        private ConnectionWriter(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            buffer.append(chars, offset, length);
+            if (buffer.length() >= WRITE_CHUNK_CHARS) {
+                // Keep a trailing high surrogate with the low one that follows
+                int end = Character.isHighSurrogate(buffer.charAt(buffer.length() - 1))
+                        ? buffer.length() - 1 : buffer.length();
+                hand(end);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            hand(buffer.length());
+        }
+
+        /**
+         * Hands the first characters of the buffer to the I/O thread, once the connection has room for them.
+         */
+        private void hand(int end) throws IOException {
+            if (end == 0)
+                return;
+            try {
+                connection.awaitRoom();
+            } catch (IOException e) {
+                // The rest of the response is dropped
+                buffer.setLength(0);
+                throw e;
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.substring(0, end).getBytes(StandardCharsets.UTF_8));
+            buffer.delete(0, end);
+            connection.queuedBytes.addAndGet(bytes.remaining());
+            connection.reactor.execute(() -> connection.sendCounted(bytes));
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static ByteBuffer encodeRecord(String record) {
+        return ByteBuffer.wrap((record + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean isBlank(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (bytes[i] != ' ' && bytes[i] != '\t' && bytes[i] != '\r')
+                return false;
+        return true;
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing to do, the connection is dropped
+        }
+    }
+
+    private static ControllerFactory createControllerFactory() {
+        try {
+            return new ControllerFactory();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
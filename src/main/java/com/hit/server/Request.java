@@ -9,6 +9,8 @@ import java.util.Map;
 public class Request {
     private String action; // e.g., "user/create" or "post/edit"
     private Map<String, Object> body;
+    private boolean keepAlive; // Keep the connection open for the next request
+    private String compression; // e.g., "gzip", "deflate" or "none" for the responses of the connection
 
     public Request(String action, Map<String, Object> body) {
         this.action = action;
@@ -30,4 +32,20 @@ public class Request {
     public void setBody(Map<String, Object> body) {
         this.body = body;
     }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
 }
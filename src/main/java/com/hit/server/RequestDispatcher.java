@@ -0,0 +1,236 @@
+package com.hit.server;
+
+import com.hit.controller.ControllerFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The RequestDispatcher class routes a request to the appropriate controller (using ControllerFactory)
+ * according to its action, and builds the Response to send back to the client.
+ * The actions are looked up in a {@link RouteRegistry} built once, which also tells which actions
+ * change data and what they cost.
+ * Searches sent with {@code "stream": true} are answered with newline-delimited JSON records
+ * instead, see {@link SearchResultStreamer}, and with {@code "compact": true} with a
+ * {@link com.hit.dm.CompactSearchResult}.
+ * <p>
+ * The {@code "batch"} action carries an ordered list of requests in its body and is answered
+ * with the ordered list of their responses, see {@link #dispatchBatch(Map)}.
+ * <p>
+ * Every dispatched request is measured in the {@link ServerMetrics} of the dispatcher.
+ * <p>
+ * A dispatcher holds no per-connection state and is shared by all the connections.
+ */
+public class RequestDispatcher {
+    public static final String BATCH_ACTION = "batch";
+    public static final int MAX_BATCH_SIZE = 50;
+
+    private final RouteRegistry routes;
+    private final ServerMetrics metrics;
+
+    public RequestDispatcher(ControllerFactory controllerFactory) {
+        this.routes = RouteRegistry.forControllers(controllerFactory);
+        this.metrics = new ServerMetrics(controllerFactory.getDaoIoStats());
+        routes.register(new Route(BATCH_ACTION, BATCH_ACTION, false, RouteRegistry.DEFAULT_COST,
+                (body, writer) -> dispatchBatch(body)));
+    }
+
+    /**
+     * Handles one request.
+     *
+     * @param request the request to handle
+     * @param writer  the client connection, used by the requests whose answer is streamed;
+     *                null when the connection cannot carry streamed answers
+     * @return the response to write back, or null if the answer was already written to the writer
+     * @throws IOException if the data files cannot be read or written
+     */
+    public Response dispatch(Request request, PrintWriter writer) throws IOException {
+        // Retrieve action and body from the request.
+        String action = request.getAction(); // e.g., "user/create" or "post/edit"
+        Map<String, Object> body = request.getBody();
+
+        Route route = routes.find(action);
+        if (route == null) {
+            metrics.recordUnknownAction();
+            return unknownAction(action);
+        }
+        if (writer == null && route.readOnly() && isStreamRequested(body))
+            return new Response(400, Map.of("error", "Streamed searches are not available on this connection."));
+
+        ServerMetrics.ActionMetrics actionMetrics = metrics.forAction(route.action());
+        long start = actionMetrics.start();
+        int status = 500; // Unless the handler completes
+        try {
+            Response response = route.handler().handle(body, writer);
+            status = response != null ? response.getStatus() : 200;
+            return response;
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            return new Response(400, Map.of("error", "Invalid request message for " + route.controller() + "."));
+        } finally {
+            actionMetrics.end(start, status);
+        }
+    }
+
+    /**
+     * Adds a route besides those of the controllers, e.g. an admin action of the server.
+     */
+    public void addRoute(Route route) {
+        routes.register(route);
+    }
+
+    /**
+     * Returns the metrics of the dispatched requests.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the route of an action, or null if there is none.
+     */
+    public Route getRoute(String action) {
+        return routes.find(action);
+    }
+
+    /**
+     * Explains why an action has no route, e.g. "Unknown controller: x".
+     */
+    private Response unknownAction(String action) {
+        // We expect the action to be in the format "controllerName/actionName".
+        int slash = action != null ? action.indexOf('/') : -1;
+        if (slash <= 0 || slash == action.length() - 1)
+            return new Response(400, Map.of("error", "Invalid action format."));
+        String controllerName = action.substring(0, slash).toLowerCase();
+        if (!routes.hasController(controllerName))
+            return new Response(400, Map.of("error", "Unknown controller: " + controllerName));
+        return new Response(400, Map.of("error", "Unknown action for " + controllerName + " controller."));
+    }
+
+    /**
+     * <h5> Handles a batch of requests and answers with their responses in one response. </h5>
+     * The body holds the requests, in order, each with its action and body; the result is the list of
+     * their responses in the same order. Each request gets its own response: a failed request does not
+     * stop the batch. Streamed searches and nested batches cannot be batched.
+     * <p>
+     * With {@code "parallel": true}, the requests that do not change any data run in parallel. A request
+     * that changes data waits for the requests before it and is waited for by the requests after it,
+     * so every request sees the changes of the requests before it.
+     *
+     * @param body a map containing the batch:
+     *             <ul>
+     *               <li> "requests": the requests (List of objects with "action" and "body") </li>
+     *               <li> "parallel": optional, run the independent requests in parallel (Boolean) </li>
+     *             </ul>
+     * @return a response whose result is the list of the responses
+     */
+    private Response dispatchBatch(Map<String, Object> body) {
+        List<Request> requests;
+        try {
+            requests = getBatchRequests(body);
+        } catch (IllegalArgumentException e) {
+            return new Response(400, Map.of("error", "Invalid batch: " + e.getMessage()));
+        }
+        boolean parallel = body.get("parallel") instanceof Boolean parallelFlag && parallelFlag;
+
+        Response[] responses = new Response[requests.size()];
+        if (!parallel) {
+            for (int i = 0; i < requests.size(); i++)
+                responses[i] = dispatchBatched(requests.get(i));
+            return new Response(200, Map.of("result", Arrays.asList(responses)));
+        }
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 0; i < requests.size(); i++) {
+                int index = i;
+                if (isReadOnly(requests.get(i))) {
+                    running.add(executor.submit(() -> responses[index] = dispatchBatched(requests.get(index))));
+                } else {
+                    // A request changing data runs alone, after the requests before it
+                    awaitAll(running);
+                    responses[index] = dispatchBatched(requests.get(index));
+                }
+            }
+            awaitAll(running);
+        }
+        return new Response(200, Map.of("result", Arrays.asList(responses)));
+    }
+
+    /**
+     * Handles one request of a batch, turning its failures into error responses.
+     */
+    private Response dispatchBatched(Request request) {
+        try {
+            Route route = routes.find(request.getAction());
+            if (route != null && BATCH_ACTION.equals(route.action()))
+                return new Response(400, Map.of("error", "Batches cannot be nested."));
+            if (isStreamRequested(request.getBody()))
+                return new Response(400, Map.of("error", "Streamed searches cannot be batched."));
+            return dispatch(request, null);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new Response(500, Map.of("error", "Internal server error."));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Request> getBatchRequests(Map<String, Object> body) {
+        Object requestsObj = body != null ? body.get("requests") : null;
+        if (!(requestsObj instanceof List<?> requestList))
+            throw new IllegalArgumentException("missing requests");
+        if (requestList.size() > MAX_BATCH_SIZE)
+            throw new IllegalArgumentException("more than " + MAX_BATCH_SIZE + " requests");
+
+        List<Request> requests = new ArrayList<>();
+        for (Object requestObj : requestList) {
+            if (!(requestObj instanceof Map<?, ?> requestMap))
+                throw new IllegalArgumentException("a request is not an object");
+            Object action = requestMap.get("action");
+            Object requestBody = requestMap.get("body");
+            if (requestBody != null && !(requestBody instanceof Map))
+                throw new IllegalArgumentException("a request body is not an object");
+            requests.add(new Request(action instanceof String ? (String) action : null,
+                    requestBody != null ? (Map<String, Object>) requestBody : new HashMap<>()));
+        }
+        return requests;
+    }
+
+    private boolean isReadOnly(Request request) {
+        // An unknown action or a nested batch is only answered with an error
+        Route route = routes.find(request.getAction());
+        return route == null || route.readOnly() || BATCH_ACTION.equals(route.action());
+    }
+
+    private static void awaitAll(List<Future<?>> running) {
+        for (Future<?> future : running) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // dispatchBatched turns failures into responses, nothing is expected here
+                e.printStackTrace();
+            }
+        }
+        running.clear();
+    }
+
+    static boolean isStreamRequested(Map<String, Object> body) {
+        return body != null && Boolean.TRUE.equals(body.get("stream"));
+    }
+
+    static boolean isCompactRequested(Map<String, Object> body) {
+        return body != null && Boolean.TRUE.equals(body.get("compact"));
+    }
+}
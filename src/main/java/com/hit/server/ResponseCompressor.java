@@ -0,0 +1,217 @@
+package com.hit.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * The ResponseCompressor class compresses the JSON responses of the connections that asked for it.
+ * <p>
+ * A client asks with the {@code "compression"} field of a request, {@code "gzip"} or {@code "deflate"};
+ * the choice holds for the following requests of the connection until another one is made, and
+ * {@code "none"} turns it off. Unknown methods are ignored, the responses are then sent as they are.
+ * Responses shorter than the threshold are never compressed, their compression costs more than it saves.
+ * <p>
+ * A compressed response is a header line, {@code {"compression":"gzip","length":N,"originalLength":M}},
+ * followed by the N compressed bytes of the JSON response (without its newline). The deflate method
+ * uses the zlib format with the preset {@link #DEFLATE_DICTIONARY}, which clients must set when the
+ * {@link Inflater} asks for it. Streamed search records are never compressed.
+ * <p>
+ * The compressor is shared by the connections of a server and counts the bytes it saved.
+ */
+public class ResponseCompressor {
+    public static final int DEFAULT_THRESHOLD_BYTES = 1024;
+
+    /**
+     * The strings most frequent in forum responses, the most frequent last since they are then
+     * the closest to the data, as zlib recommends.
+     */
+    public static final byte[] DEFLATE_DICTIONARY = (
+            "\"plan\":\"FULL_SCAN\",\"plan\":\"SIMD_SCAN\",\"plan\":\"TRIGRAM_PREFILTER\",\"plan\":\"INDEX_LOOKUP\"" +
+            "{\"status\":404,\"body\":{\"error\":\"Not Found\"}}{\"status\":400,\"body\":{\"error\":\"Invalid request" +
+            " the and you for that with this have what was not but are they just like from about first then" +
+            "\"lengths\":[\"indexes\":[\"matches\":[{\"item\":{\"pattern\":\"" +
+            ",\"postId\":,\"role\":\"USER\"\"username\":\"" +
+            "{\"status\":200,\"body\":{\"result\":[{\"id\":" +
+            ",\"timestamp\":,\"isEdited\":false},{\"id\":,\"userName\":\"\",\"title\":\"\",\"content\":\""
+    ).getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The compression methods a client may ask for.
+     */
+    public enum Method {
+        GZIP,
+        DEFLATE;
+
+        /**
+         * Returns the method of a request's {@code "compression"} field, null for "none" or an unknown method.
+         */
+        public static Method fromName(String name) {
+            for (Method method : values())
+                if (method.name().equalsIgnoreCase(name.trim()))
+                    return method;
+            return null;
+        }
+    }
+
+    private final int thresholdBytes;
+    private final LongAdder compressedResponses = new LongAdder();
+    private final LongAdder originalBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+
+    /**
+     * @param thresholdBytes the size from which a response is compressed
+     */
+    public ResponseCompressor(int thresholdBytes) {
+        if (thresholdBytes < 0)
+            throw new IllegalArgumentException("thresholdBytes must not be negative: " + thresholdBytes);
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    /**
+     * Returns the method a connection uses after a request, given the method it used before.
+     *
+     * @param current     the method of the connection, null if none
+     * @param requested   the {@code "compression"} field of the request, null to keep the current method
+     */
+    public static Method negotiate(Method current, String requested) {
+        return requested != null ? Method.fromName(requested) : current;
+    }
+
+    /**
+     * Returns the bytes to write for a JSON response: the line itself, or the compressed response
+     * when a method is chosen and the response reaches the threshold.
+     *
+     * @param json   the JSON response, without newline
+     * @param method the method of the connection, null if none
+     */
+    public byte[] encode(String json, Method method) {
+        byte[] original = json.getBytes(StandardCharsets.UTF_8);
+        if (method == null || original.length < thresholdBytes) {
+            byte[] line = new byte[original.length + 1];
+            System.arraycopy(original, 0, line, 0, original.length);
+            line[original.length] = '\n';
+            return line;
+        }
+
+        byte[] compressed = compress(original, method);
+        String header = "{\"compression\":\"" + method.name().toLowerCase() + "\",\"length\":" + compressed.length
+                + ",\"originalLength\":" + original.length + "}\n";
+        ByteArrayOutputStream output = new ByteArrayOutputStream(header.length() + compressed.length);
+        output.writeBytes(header.getBytes(StandardCharsets.UTF_8));
+        output.writeBytes(compressed);
+
+        compressedResponses.increment();
+        originalBytes.add(original.length);
+        compressedBytes.add(output.size());
+        return output.toByteArray();
+    }
+
+    private static byte[] compress(byte[] original, Method method) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(original.length / 4 + 64);
+        switch (method) {
+            case GZIP -> {
+                try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+                    gzip.write(original);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e); // Not thrown by a ByteArrayOutputStream
+                }
+            }
+            case DEFLATE -> {
+                Deflater deflater = new Deflater();
+                try {
+                    deflater.setDictionary(DEFLATE_DICTIONARY);
+                    deflater.setInput(original);
+                    deflater.finish();
+                    byte[] buffer = new byte[8192];
+                    while (!deflater.finished())
+                        output.write(buffer, 0, deflater.deflate(buffer));
+                } finally {
+                    deflater.end();
+                }
+            }
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Restores a compressed response, as a client does.
+     *
+     * @throws IOException if the bytes are not a valid compressed response
+     */
+    public static String decompress(byte[] compressed, Method method) throws IOException {
+        return switch (method) {
+            case GZIP -> {
+                try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                    yield new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+            case DEFLATE -> {
+                Inflater inflater = new Inflater();
+                try {
+                    inflater.setInput(compressed);
+                    ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.length * 4);
+                    byte[] buffer = new byte[8192];
+                    while (!inflater.finished()) {
+                        int length = inflater.inflate(buffer);
+                        if (length == 0 && inflater.needsDictionary())
+                            inflater.setDictionary(DEFLATE_DICTIONARY);
+                        else if (length == 0 && inflater.needsInput())
+                            throw new IOException("Truncated deflate data");
+                        output.write(buffer, 0, length);
+                    }
+                    yield output.toString(StandardCharsets.UTF_8);
+                } catch (DataFormatException e) {
+                    throw new IOException("Invalid deflate data", e);
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    public int getThresholdBytes() {
+        return thresholdBytes;
+    }
+
+    public long getCompressedResponses() {
+        return compressedResponses.sum();
+    }
+
+    /**
+     * The size of the compressed responses before compression.
+     */
+    public long getOriginalBytes() {
+        return originalBytes.sum();
+    }
+
+    /**
+     * The size of the compressed responses as sent, headers included.
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    public long getBytesSaved() {
+        return getOriginalBytes() - getCompressedBytes();
+    }
+
+    @Override
+    public String toString() {
+        long original = getOriginalBytes();
+        return "Compression{" +
+                "responses=" + getCompressedResponses() +
+                ", originalBytes=" + original +
+                ", compressedBytes=" + getCompressedBytes() +
+                ", saved=" + (original == 0 ? 0 : Math.round(100.0 * getBytesSaved() / original)) + "%" +
+                '}';
+    }
+}
@@ -0,0 +1,34 @@
+package com.hit.server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+/**
+ * A request action bound to its handler, with what the server needs to know about it besides:
+ * the controller reported in error messages, whether it changes data and its cost for the
+ * admission limits.
+ *
+ * @param action     the action, e.g. "post/get"
+ * @param controller the controller name, e.g. "post"
+ * @param readOnly   true if the action does not change any data
+ * @param cost       the relative cost of the action, 1 for a plain read or write
+ * @param handler    handles the body of a request and builds its response
+ */
+public record Route(String action, String controller, boolean readOnly, int cost, Handler handler) {
+
+    /**
+     * Handles a request body.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * @param body   the request body
+         * @param writer the client connection for streamed answers, null if it cannot carry them
+         * @return the response, or null if the answer was already written to the writer
+         * @throws IOException              if the data files cannot be read or written
+         * @throws IllegalArgumentException if the body is invalid
+         */
+        Response handle(Map<String, Object> body, PrintWriter writer) throws IOException;
+    }
+}
@@ -0,0 +1,194 @@
+package com.hit.server;
+
+import com.google.gson.Gson;
+import com.hit.controller.CommentController;
+import com.hit.controller.ControllerFactory;
+import com.hit.controller.PostController;
+import com.hit.controller.SearchController;
+import com.hit.controller.UserController;
+import com.hit.dm.Comment;
+import com.hit.dm.Post;
+import com.hit.json.Json;
+import com.hit.search.IMatchSink;
+import com.hit.search.SearchSummary;
+
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The RouteRegistry class maps every action to its {@link Route}, built once when the server starts,
+ * so dispatching a request is a single lookup of its action.
+ * Actions are matched exactly first, then ignoring case.
+ */
+public class RouteRegistry {
+    public static final int DEFAULT_COST = 1;
+    // A search reads every matching document, when a read or write touches one
+    public static final int SEARCH_COST = 5;
+    // Reads and sends every document, whether it matches or not
+    public static final int SCAN_COST = 10;
+
+    private final Map<String, Route> routes = new HashMap<>();
+    private final Set<String> controllers = new HashSet<>();
+    private final Gson gson = Json.GSON;
+
+    /**
+     * Creates the registry of the actions of the given controllers.
+     */
+    public static RouteRegistry forControllers(ControllerFactory controllerFactory) {
+        RouteRegistry registry = new RouteRegistry();
+        registry.registerUserRoutes((UserController) controllerFactory.getController("user"));
+        registry.registerPostRoutes((PostController) controllerFactory.getController("post"));
+        registry.registerCommentRoutes((CommentController) controllerFactory.getController("comment"));
+        registry.registerSearchRoutes((SearchController) controllerFactory.getController("search"));
+        return registry;
+    }
+
+    /**
+     * Adds a route, replacing the route of the same action if any.
+     */
+    public void register(Route route) {
+        routes.put(route.action(), route);
+        controllers.add(route.controller());
+    }
+
+    /**
+     * Returns the route of an action, or null if there is none.
+     */
+    public Route find(String action) {
+        if (action == null)
+            return null;
+        Route route = routes.get(action);
+        return route != null ? route : routes.get(action.toLowerCase());
+    }
+
+    /**
+     * Returns true if some route belongs to the controller.
+     */
+    public boolean hasController(String controller) {
+        return controllers.contains(controller);
+    }
+
+    public Collection<Route> getRoutes() {
+        return Collections.unmodifiableCollection(routes.values());
+    }
+
+    private void registerUserRoutes(UserController userController) {
+        write("user/create", (body, writer) -> ok(userController.createUser(body)));
+        write("user/edit", (body, writer) -> ok(userController.editUser(body)));
+        write("user/remove", (body, writer) -> ok(userController.removeUser(body)));
+        read("user/authenticate", (body, writer) -> ok(userController.authenticate(body)));
+        read("user/get", (body, writer) -> found(userController.getUser(body), "User Not Found"));
+    }
+
+    private void registerPostRoutes(PostController postController) {
+        write("post/create", (body, writer) -> {
+            postController.createPost(body);
+            return ok("Post created successfully");
+        });
+        write("post/edit", (body, writer) -> ok(postController.editPost(body)));
+        write("post/remove", (body, writer) -> ok(postController.removePost(body)));
+        read("post/get", (body, writer) -> found(postController.getPostById(body), "Post Not Found"));
+        scan("post/get-all", (body, writer) -> ok(postController.getAllPosts()));
+        read("post/sync", (body, writer) -> ok(postController.syncPosts(body)));
+        read("post/get-comments", (body, writer) -> ok(postController.getPostComments(body)));
+        search("post/search-titles", (body, writer) -> {
+            if (RequestDispatcher.isStreamRequested(body))
+                return this.<Post>streamSearch(writer, sink -> postController.streamSearchTitles(body, sink));
+            if (RequestDispatcher.isCompactRequested(body))
+                return ok(postController.compactSearchTitles(body));
+            return ok(postController.applySnippetMode(body, postController.searchTitles(body), Post::getTitle));
+        });
+        search("post/search-contents", (body, writer) -> {
+            if (RequestDispatcher.isStreamRequested(body))
+                return this.<Post>streamSearch(writer, sink -> postController.streamSearchContents(body, sink));
+            if (RequestDispatcher.isCompactRequested(body))
+                return ok(postController.compactSearchContents(body));
+            return ok(postController.applySnippetMode(body, postController.searchContents(body), Post::getContent));
+        });
+        search("post/fuzzy-search-titles", (body, writer) -> ok(
+                postController.applySnippetMode(body, postController.fuzzySearchTitles(body), Post::getTitle)));
+        search("post/fuzzy-search-contents", (body, writer) -> ok(
+                postController.applySnippetMode(body, postController.fuzzySearchContents(body), Post::getContent)));
+        search("post/query", (body, writer) -> ok(postController.querySearch(body)));
+        read("post/search-plans", (body, writer) -> ok(postController.getSearchPlans()));
+    }
+
+    private void registerCommentRoutes(CommentController commentController) {
+        write("comment/create", (body, writer) -> {
+            commentController.createComment(body);
+            return ok("Comment created successfully");
+        });
+        write("comment/edit", (body, writer) -> ok(commentController.editComment(body)));
+        write("comment/remove", (body, writer) -> ok(commentController.removeComment(body)));
+        read("comment/get", (body, writer) -> found(commentController.getCommentById(body), "Comment Not Found"));
+        scan("comment/get-all", (body, writer) -> ok(commentController.getAllComments()));
+        read("comment/sync", (body, writer) -> ok(commentController.syncComments(body)));
+        search("comment/search-contents", (body, writer) -> {
+            if (RequestDispatcher.isStreamRequested(body))
+                return this.<Comment>streamSearch(writer, sink -> commentController.streamSearchContents(body, sink));
+            if (RequestDispatcher.isCompactRequested(body))
+                return ok(commentController.compactSearchContents(body));
+            return ok(commentController.applySnippetMode(body, commentController.searchContents(body),
+                    Comment::getContent));
+        });
+        search("comment/fuzzy-search-contents", (body, writer) -> ok(commentController.applySnippetMode(
+                body, commentController.fuzzySearchContents(body), Comment::getContent)));
+        search("comment/query", (body, writer) -> ok(commentController.querySearch(body)));
+        read("comment/search-plans", (body, writer) -> ok(commentController.getSearchPlans()));
+    }
+
+    private void registerSearchRoutes(SearchController searchController) {
+        search("search/all", (body, writer) -> ok(searchController.searchAll(body)));
+    }
+
+    private void read(String action, Route.Handler handler) {
+        add(action, true, DEFAULT_COST, handler);
+    }
+
+    private void search(String action, Route.Handler handler) {
+        add(action, true, SEARCH_COST, handler);
+    }
+
+    private void scan(String action, Route.Handler handler) {
+        add(action, true, SCAN_COST, handler);
+    }
+
+    private void write(String action, Route.Handler handler) {
+        add(action, false, DEFAULT_COST, handler);
+    }
+
+    private void add(String action, boolean readOnly, int cost, Route.Handler handler) {
+        register(new Route(action, action.substring(0, action.indexOf('/')), readOnly, cost, handler));
+    }
+
+    private static Response ok(Object result) {
+        return new Response(200, Map.of("result", result));
+    }
+
+    private static Response found(Object result, String notFoundError) {
+        return result != null ? ok(result) : new Response(404, Map.of("error", notFoundError));
+    }
+
+    /**
+     * Runs a search whose matches are written to the client as they are found, followed by a
+     * summary record. Invalid requests are reported with a 400 summary record, since match
+     * records may already have been sent.
+     *
+     * @return null, the answer has been written
+     */
+    private <T> Response streamSearch(PrintWriter writer, Function<IMatchSink<T>, SearchSummary> search) {
+        SearchResultStreamer<T> streamer = new SearchResultStreamer<>(writer, gson);
+        try {
+            streamer.finish(search.apply(streamer));
+        } catch (IllegalArgumentException e) {
+            streamer.fail(400, "Invalid search request.");
+        }
+        return null;
+    }
+}
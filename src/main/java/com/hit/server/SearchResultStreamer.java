@@ -0,0 +1,57 @@
+package com.hit.server;
+
+import com.google.gson.Gson;
+import com.hit.dm.MatchResult;
+import com.hit.search.IMatchSink;
+import com.hit.search.SearchSummary;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the matches of a streamed search to the client as newline-delimited JSON, one record
+ * per match as soon as it is found, followed by a terminal summary record:
+ * <pre>
+ * {"type":"match","result":{"item":{...},"indexes":[...]}}
+ * {"type":"summary","status":200,"result":{"pattern":"...","plan":"...","matches":2,"truncated":false}}
+ * </pre>
+ * The search is stopped when the client is no longer reachable.
+ *
+ * @param <T> the matched entity type
+ */
+public class SearchResultStreamer<T> implements IMatchSink<T> {
+    private final PrintWriter writer;
+    private final Gson gson;
+
+    public SearchResultStreamer(PrintWriter writer, Gson gson) {
+        this.writer = writer;
+        this.gson = gson;
+    }
+
+    @Override
+    public boolean accept(T item, int[] indexes) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("type", "match");
+        record.put("result", new MatchResult<>(item, indexes));
+        writer.println(gson.toJson(record));
+        // PrintWriter swallows IOExceptions; an error means the client went away.
+        return !writer.checkError();
+    }
+
+    public void finish(SearchSummary summary) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("type", "summary");
+        record.put("status", 200);
+        record.put("result", summary);
+        writer.println(gson.toJson(record));
+    }
+
+    public void fail(int status, String error) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("type", "summary");
+        record.put("status", status);
+        record.put("error", error);
+        writer.println(gson.toJson(record));
+    }
+}
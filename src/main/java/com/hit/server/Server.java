@@ -1,49 +1,269 @@
 package com.hit.server;
 
 import com.hit.controller.ControllerFactory;
+import com.hit.json.Json;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * The Server class listens on a specified port and spawns a new thread (via HandleRequest)
- * for each incoming client connection.
+ * The Server class listens on a specified port and hands every incoming client connection
+ * (via HandleRequest) to an executor chosen by the {@link ServerConfig}: a bounded pool of
+ * platform threads, virtual threads, or a new platform thread per connection.
+ * <p>
+ * Every connection holds its thread, so the slow clients are bounded: a request must arrive within
+ * the read timeout and the size limit, see {@link HandleRequest}, and a watchdog closes the
+ * connections whose client has not read a response for the write timeout.
+ * <p>
+ * {@link #shutdown(long)} stops the server gracefully; it is also triggered by the "admin/shutdown"
+ * action, see {@link AdminRoutes}.
  */
-public class Server implements Runnable {
+public class Server implements IServer {
+    private static final long WATCHDOG_PERIOD_MILLIS = 1000;
+
     private final ServerSocket serverSocket;
-    private final ControllerFactory controllerFactory;
+    private final RequestDispatcher dispatcher;
+    private final ServerConfig config;
+    private final ExecutorService executor;
+    private final ResponseCompressor compressor;
+    private final AdmissionController admission;
+    private final SubscriptionHub subscriptions;
+    // The connections being handled, to drain them on shutdown
+    private final Set<HandleRequest> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean shutDown;
+    // Closes the connections whose writes are stalled
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("italk-watchdog").daemon().factory());
 
     /**
-     * Constructs the Server with the given port.
+     * Constructs the Server with the given port and the other settings from the system properties.
      *
      * @param port the port to listen on
      */
     public Server(int port) {
+        this(withPort(ServerConfig.fromSystemProperties(), port));
+    }
+
+    /**
+     * Constructs the Server with the given settings.
+     *
+     * @param config the port to listen on and how to handle connections
+     */
+    public Server(ServerConfig config) {
+        this(config, createControllerFactory());
+    }
+
+    /**
+     * Constructs the Server with the given settings and controllers.
+     *
+     * @param config            the port to listen on and how to handle connections
+     * @param controllerFactory the controllers serving the requests
+     */
+    public Server(ServerConfig config, ControllerFactory controllerFactory) {
         try {
-            serverSocket = new ServerSocket(port);
-            controllerFactory = new ControllerFactory();
+            serverSocket = new ServerSocket(config.getPort());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        this.dispatcher = new RequestDispatcher(controllerFactory);
+        this.config = config;
+        this.executor = ConnectionExecutors.create(config);
+        this.compressor = new ResponseCompressor(config.getCompressionThresholdBytes());
+        this.admission = new AdmissionController(config, dispatcher);
+        this.subscriptions = new SubscriptionHub(config, controllerFactory.getChangeFeed());
+        subscriptions.register(dispatcher);
+        AdminRoutes.register(dispatcher, controllerFactory, this, config);
+        ServerMetrics metrics = dispatcher.getMetrics();
+        metrics.addGauge("openConnections", connections::size);
+        metrics.addGauge("subscribers", subscriptions::getSubscriberCount);
+        metrics.addGauge("rejectedBusy", admission::getRejectedBusy);
+        metrics.addGauge("rejectedRequests", admission::getRejectedRequests);
+        metrics.addGauge("rejectedExpensive", admission::getRejectedExpensive);
+    }
+
+    @Override
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the compression counters of the responses, including the bytes saved.
+     */
+    public ResponseCompressor getCompressor() {
+        return compressor;
     }
 
     /**
-     * Starts the server: initializes all components and continuously listens for incoming connections.
+     * Returns the admission controller, which counts the rejected requests.
+     */
+    public AdmissionController getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Returns the change subscriptions of the clients.
+     */
+    public SubscriptionHub getSubscriptions() {
+        return subscriptions;
+    }
+
+    /**
+     * Returns the metrics of the requests, also reported by the "admin/metrics" action.
+     */
+    public ServerMetrics getMetrics() {
+        return dispatcher.getMetrics();
+    }
+
+    /**
+     * Starts the server: initializes all components and continuously listens for incoming connections,
+     * until {@link #stop()} is called.
      */
     @Override
     public void run() {
-        System.out.println("Server is running on port " + serverSocket.getLocalPort());
-        while (true) {
+        System.out.println("Server is running on port " + serverSocket.getLocalPort() + " with " + config);
+        if (config.getMetricsFile() != null)
+            dispatcher.getMetrics().startDump(Path.of(config.getMetricsFile()), config.getMetricsDumpMillis());
+        long period = Math.min(WATCHDOG_PERIOD_MILLIS, config.getWriteTimeoutMillis());
+        watchdog.scheduleAtFixedRate(this::closeStalledConnections, period, period, TimeUnit.MILLISECONDS);
+        while (!serverSocket.isClosed()) {
             try {
                 // Wait for a client to connect.
                 Socket clientSocket = serverSocket.accept();
                 System.out.println("Accepted connection from " + clientSocket.getInetAddress());
-                // Create a new thread to handle the request.
-                new Thread(new HandleRequest(clientSocket, controllerFactory)).start();
+                dispatch(clientSocket);
             } catch (IOException e) {
-                e.printStackTrace();
+                if (!serverSocket.isClosed())
+                    e.printStackTrace();
             }
         }
     }
+
+    /**
+     * Stops accepting connections and closes the open ones. The requests being handled are completed,
+     * but their responses are not sent.
+     */
+    @Override
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        subscriptions.close();
+        for (HandleRequest connection : connections)
+            connection.close();
+        executor.shutdown();
+        watchdog.shutdownNow();
+        dispatcher.getMetrics().stopDump();
+        if (compressor.getCompressedResponses() > 0)
+            System.out.println("Response compression: " + compressor);
+        if (admission.getRejected() > 0)
+            System.out.println("Admission control: " + admission);
+    }
+
+    @Override
+    public synchronized boolean shutdown(long timeoutMillis) {
+        if (shutDown)
+            return connections.isEmpty();
+        shutDown = true;
+        System.out.println("Shutting down, draining " + connections.size() + " connections");
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // The subscriptions end with their last changes, the other connections with their current request.
+        // The connections waiting in the executor queue are drained as soon as they start.
+        subscriptions.close();
+        for (HandleRequest connection : connections)
+            connection.drain();
+        executor.shutdown();
+
+        boolean drained;
+        try {
+            drained = executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        if (!drained) {
+            System.out.println("Shutdown timeout, closing " + connections.size() + " connections");
+            executor.shutdownNow();
+            for (HandleRequest connection : connections)
+                connection.close();
+        }
+        stop();
+        System.out.println("Server stopped");
+        return drained;
+    }
+
+    private void closeStalledConnections() {
+        long now = System.nanoTime();
+        for (HandleRequest connection : connections)
+            connection.closeIfStalled(now);
+    }
+
+    private void dispatch(Socket clientSocket) {
+        HandleRequest handleRequest = new HandleRequest(clientSocket, dispatcher, config, compressor, admission,
+                subscriptions);
+        connections.add(handleRequest);
+        if (shutDown)
+            handleRequest.drain(); // Accepted while the server was shutting down
+        Runnable task = () -> {
+            try {
+                handleRequest.run();
+            } finally {
+                connections.remove(handleRequest);
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (config.getRejectionPolicy() == ServerConfig.RejectionPolicy.CALLER_RUNS && !executor.isShutdown()) {
+                task.run();
+            } else {
+                connections.remove(handleRequest);
+                reject(clientSocket);
+            }
+        }
+    }
+
+    /**
+     * Answers a connection that cannot be handled now with a 503 response.
+     */
+    private void reject(Socket clientSocket) {
+        try (clientSocket;
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream()), true)) {
+            Response response = new Response(503, Map.of("error", "Server busy, try again later."));
+            writer.println(Json.GSON.toJson(response));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static ServerConfig withPort(ServerConfig config, int port) {
+        config.setPort(port);
+        return config;
+    }
+
+    private static ControllerFactory createControllerFactory() {
+        try {
+            return new ControllerFactory();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -0,0 +1,390 @@
+package com.hit.server;
+
+/**
+ * The settings of the {@link Server}.
+ * The defaults can be overridden with system properties, for example
+ * {@code -Ditalk.server.executor=virtual -Ditalk.server.poolSize=32}.
+ */
+public class ServerConfig {
+    public static final String PROPERTY_PREFIX = "italk.server.";
+
+    /**
+     * Which server front end accepts the connections.
+     */
+    public enum ServerType {
+        /**
+         * {@link Server}: blocking sockets, every connection is served by one thread of the executor.
+         */
+        BLOCKING,
+        /**
+         * {@link NioServer}: non-blocking sockets multiplexed by a few I/O threads, only the
+         * dispatch of complete requests runs on the executor.
+         */
+        NIO
+    }
+
+    /**
+     * How accepted connections (or, for the NIO server, complete requests) are handled.
+     */
+    public enum ExecutorType {
+        /**
+         * A fixed pool of platform threads with a bounded queue of waiting connections.
+         */
+        PLATFORM_POOL,
+        /**
+         * A new virtual thread for every connection.
+         */
+        VIRTUAL,
+        /**
+         * A new platform thread for every connection, without any limit.
+         */
+        THREAD_PER_CONNECTION
+    }
+
+    /**
+     * What happens to a connection accepted while the pool and its queue are full.
+     */
+    public enum RejectionPolicy {
+        /**
+         * The connection is answered with a 503 response and closed.
+         */
+        REJECT,
+        /**
+         * The connection is handled by the accepting thread, which stops accepting in the meantime.
+         * The NIO server never blocks its I/O threads and always rejects.
+         */
+        CALLER_RUNS
+    }
+
+    private int port = 34567;
+    private ServerType serverType = ServerType.BLOCKING;
+    private int ioThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private ExecutorType executorType = ExecutorType.PLATFORM_POOL;
+    private int poolSize = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+    private int queueCapacity = 256;
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.REJECT;
+    private int idleTimeoutMillis = HandleRequest.DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private int readTimeoutMillis = 10_000;
+    private int writeTimeoutMillis = 10_000;
+    private int maxRequestBytes = NioServer.MAX_REQUEST_BYTES;
+    private int compressionThresholdBytes = ResponseCompressor.DEFAULT_THRESHOLD_BYTES;
+    private int maxInFlightRequests = 1024;
+    private int clientRequestsPerSecond = 200;
+    private int clientExpensiveCostPerSecond = 50;
+    private int shutdownTimeoutMillis = 10_000;
+    private int subscriberQueueCapacity = 256;
+    private String metricsFile;
+    private int metricsDumpMillis = 10_000;
+
+    /**
+     * Returns the default settings, overridden by the {@code italk.server.*} system properties:
+     * port, type (blocking or nio), ioThreads, executor (platform-pool, virtual or thread-per-connection),
+     * poolSize, queueCapacity, rejectionPolicy (reject or caller-runs), idleTimeoutMillis,
+     * readTimeoutMillis, writeTimeoutMillis, maxRequestBytes, compressionThresholdBytes, maxInFlightRequests, clientRequestsPerSecond,
+     * clientExpensiveCostPerSecond, shutdownTimeoutMillis, subscriberQueueCapacity, metricsFile and
+     * metricsDumpMillis.
+     *
+     * @throws IllegalArgumentException if a property has an invalid value
+     */
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        config.setPort(Integer.getInteger(PROPERTY_PREFIX + "port", config.getPort()));
+        String serverType = System.getProperty(PROPERTY_PREFIX + "type");
+        if (serverType != null)
+            config.setServerType(ServerType.valueOf(toConstantName(serverType)));
+        config.setIoThreads(Integer.getInteger(PROPERTY_PREFIX + "ioThreads", config.getIoThreads()));
+        String executor = System.getProperty(PROPERTY_PREFIX + "executor");
+        if (executor != null)
+            config.setExecutorType(ExecutorType.valueOf(toConstantName(executor)));
+        config.setPoolSize(Integer.getInteger(PROPERTY_PREFIX + "poolSize", config.getPoolSize()));
+        config.setQueueCapacity(Integer.getInteger(PROPERTY_PREFIX + "queueCapacity", config.getQueueCapacity()));
+        String rejectionPolicy = System.getProperty(PROPERTY_PREFIX + "rejectionPolicy");
+        if (rejectionPolicy != null)
+            config.setRejectionPolicy(RejectionPolicy.valueOf(toConstantName(rejectionPolicy)));
+        config.setIdleTimeoutMillis(Integer.getInteger(PROPERTY_PREFIX + "idleTimeoutMillis",
+                config.getIdleTimeoutMillis()));
+        config.setReadTimeoutMillis(Integer.getInteger(PROPERTY_PREFIX + "readTimeoutMillis",
+                config.getReadTimeoutMillis()));
+        config.setWriteTimeoutMillis(Integer.getInteger(PROPERTY_PREFIX + "writeTimeoutMillis",
+                config.getWriteTimeoutMillis()));
+        config.setMaxRequestBytes(Integer.getInteger(PROPERTY_PREFIX + "maxRequestBytes",
+                config.getMaxRequestBytes()));
+        config.setCompressionThresholdBytes(Integer.getInteger(PROPERTY_PREFIX + "compressionThresholdBytes",
+                config.getCompressionThresholdBytes()));
+        config.setMaxInFlightRequests(Integer.getInteger(PROPERTY_PREFIX + "maxInFlightRequests",
+                config.getMaxInFlightRequests()));
+        config.setClientRequestsPerSecond(Integer.getInteger(PROPERTY_PREFIX + "clientRequestsPerSecond",
+                config.getClientRequestsPerSecond()));
+        config.setClientExpensiveCostPerSecond(Integer.getInteger(PROPERTY_PREFIX + "clientExpensiveCostPerSecond",
+                config.getClientExpensiveCostPerSecond()));
+        config.setShutdownTimeoutMillis(Integer.getInteger(PROPERTY_PREFIX + "shutdownTimeoutMillis",
+                config.getShutdownTimeoutMillis()));
+        config.setSubscriberQueueCapacity(Integer.getInteger(PROPERTY_PREFIX + "subscriberQueueCapacity",
+                config.getSubscriberQueueCapacity()));
+        config.setMetricsFile(System.getProperty(PROPERTY_PREFIX + "metricsFile", config.getMetricsFile()));
+        config.setMetricsDumpMillis(Integer.getInteger(PROPERTY_PREFIX + "metricsDumpMillis",
+                config.getMetricsDumpMillis()));
+        return config;
+    }
+
+    private static String toConstantName(String value) {
+        return value.trim().toUpperCase().replace('-', '_');
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        if (port < 0 || port > 65535)
+            throw new IllegalArgumentException("Invalid port: " + port);
+        this.port = port;
+    }
+
+    public ServerType getServerType() {
+        return serverType;
+    }
+
+    public void setServerType(ServerType serverType) {
+        this.serverType = serverType;
+    }
+
+    /**
+     * The number of selector threads of the NIO server.
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        if (ioThreads < 1)
+            throw new IllegalArgumentException("ioThreads must be positive: " + ioThreads);
+        this.ioThreads = ioThreads;
+    }
+
+    public ExecutorType getExecutorType() {
+        return executorType;
+    }
+
+    public void setExecutorType(ExecutorType executorType) {
+        this.executorType = executorType;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        if (poolSize < 1)
+            throw new IllegalArgumentException("poolSize must be positive: " + poolSize);
+        this.poolSize = poolSize;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1)
+            throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+        this.queueCapacity = queueCapacity;
+    }
+
+    public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    /**
+     * How long a connection may wait for its next request, see {@link HandleRequest}.
+     * While it waits, a kept-alive connection holds its thread.
+     */
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(int idleTimeoutMillis) {
+        if (idleTimeoutMillis < 1)
+            throw new IllegalArgumentException("idleTimeoutMillis must be positive: " + idleTimeoutMillis);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * How long a client may take to send a whole request once it has started it, beyond which it is
+     * answered 408 and the connection is closed, so a client trickling its request does not hold a
+     * connection for ever.
+     */
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        if (readTimeoutMillis < 1)
+            throw new IllegalArgumentException("readTimeoutMillis must be positive: " + readTimeoutMillis);
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * How long a response may wait for a client that does not read it, beyond which the connection
+     * is closed and the thread writing the response is released.
+     */
+    public int getWriteTimeoutMillis() {
+        return writeTimeoutMillis;
+    }
+
+    public void setWriteTimeoutMillis(int writeTimeoutMillis) {
+        if (writeTimeoutMillis < 1)
+            throw new IllegalArgumentException("writeTimeoutMillis must be positive: " + writeTimeoutMillis);
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    /**
+     * The size of the largest request, beyond which it is answered 413 without being read further
+     * and the connection is closed. Binary frames are also limited by {@link BinaryCodec#MAX_FRAME_BYTES}.
+     */
+    public int getMaxRequestBytes() {
+        return maxRequestBytes;
+    }
+
+    public void setMaxRequestBytes(int maxRequestBytes) {
+        if (maxRequestBytes < 1)
+            throw new IllegalArgumentException("maxRequestBytes must be positive: " + maxRequestBytes);
+        this.maxRequestBytes = maxRequestBytes;
+    }
+
+    /**
+     * The size from which the responses of a connection that asked for compression are compressed,
+     * see {@link ResponseCompressor}.
+     */
+    public int getCompressionThresholdBytes() {
+        return compressionThresholdBytes;
+    }
+
+    public void setCompressionThresholdBytes(int compressionThresholdBytes) {
+        if (compressionThresholdBytes < 0)
+            throw new IllegalArgumentException("compressionThresholdBytes must not be negative: "
+                    + compressionThresholdBytes);
+        this.compressionThresholdBytes = compressionThresholdBytes;
+    }
+
+    /**
+     * The most requests handled at a time, beyond which requests are answered 503; 0 for no limit.
+     * See {@link AdmissionController}.
+     */
+    public int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        if (maxInFlightRequests < 0)
+            throw new IllegalArgumentException("maxInFlightRequests must not be negative: " + maxInFlightRequests);
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    /**
+     * The requests per second a client address may send, beyond which they are answered 429;
+     * 0 for no limit. See {@link AdmissionController}.
+     */
+    public int getClientRequestsPerSecond() {
+        return clientRequestsPerSecond;
+    }
+
+    public void setClientRequestsPerSecond(int clientRequestsPerSecond) {
+        if (clientRequestsPerSecond < 0)
+            throw new IllegalArgumentException("clientRequestsPerSecond must not be negative: "
+                    + clientRequestsPerSecond);
+        this.clientRequestsPerSecond = clientRequestsPerSecond;
+    }
+
+    /**
+     * The {@link Route#cost()} per second of the expensive requests a client address may send, such
+     * as searches, beyond which they are answered 429; 0 for no limit. See {@link AdmissionController}.
+     */
+    public int getClientExpensiveCostPerSecond() {
+        return clientExpensiveCostPerSecond;
+    }
+
+    public void setClientExpensiveCostPerSecond(int clientExpensiveCostPerSecond) {
+        if (clientExpensiveCostPerSecond < 0)
+            throw new IllegalArgumentException("clientExpensiveCostPerSecond must not be negative: "
+                    + clientExpensiveCostPerSecond);
+        this.clientExpensiveCostPerSecond = clientExpensiveCostPerSecond;
+    }
+
+    /**
+     * How long a graceful shutdown waits for the requests being handled, see {@link IServer#shutdown(long)}.
+     */
+    public int getShutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    public void setShutdownTimeoutMillis(int shutdownTimeoutMillis) {
+        if (shutdownTimeoutMillis < 0)
+            throw new IllegalArgumentException("shutdownTimeoutMillis must not be negative: " + shutdownTimeoutMillis);
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    /**
+     * The most change records waiting for a subscribed client, beyond which its overflow policy
+     * applies, see {@link SubscriptionHub}.
+     */
+    public int getSubscriberQueueCapacity() {
+        return subscriberQueueCapacity;
+    }
+
+    public void setSubscriberQueueCapacity(int subscriberQueueCapacity) {
+        if (subscriberQueueCapacity < 1)
+            throw new IllegalArgumentException("subscriberQueueCapacity must be positive: " + subscriberQueueCapacity);
+        this.subscriberQueueCapacity = subscriberQueueCapacity;
+    }
+
+    /**
+     * The file where the {@link ServerMetrics} are written in the Prometheus text format every
+     * {@link #getMetricsDumpMillis()}, or null for none.
+     */
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    public void setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile != null && !metricsFile.isBlank() ? metricsFile : null;
+    }
+
+    public int getMetricsDumpMillis() {
+        return metricsDumpMillis;
+    }
+
+    public void setMetricsDumpMillis(int metricsDumpMillis) {
+        if (metricsDumpMillis < 1)
+            throw new IllegalArgumentException("metricsDumpMillis must be positive: " + metricsDumpMillis);
+        this.metricsDumpMillis = metricsDumpMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerConfig{" +
+                "port=" + port +
+                ", serverType=" + serverType +
+                ", ioThreads=" + ioThreads +
+                ", executorType=" + executorType +
+                ", poolSize=" + poolSize +
+                ", queueCapacity=" + queueCapacity +
+                ", rejectionPolicy=" + rejectionPolicy +
+                ", idleTimeoutMillis=" + idleTimeoutMillis +
+                ", readTimeoutMillis=" + readTimeoutMillis +
+                ", writeTimeoutMillis=" + writeTimeoutMillis +
+                ", maxRequestBytes=" + maxRequestBytes +
+                ", compressionThresholdBytes=" + compressionThresholdBytes +
+                ", maxInFlightRequests=" + maxInFlightRequests +
+                ", clientRequestsPerSecond=" + clientRequestsPerSecond +
+                ", clientExpensiveCostPerSecond=" + clientExpensiveCostPerSecond +
+                ", shutdownTimeoutMillis=" + shutdownTimeoutMillis +
+                ", subscriberQueueCapacity=" + subscriberQueueCapacity +
+                ", metricsFile=" + metricsFile +
+                ", metricsDumpMillis=" + metricsDumpMillis +
+                '}';
+    }
+}
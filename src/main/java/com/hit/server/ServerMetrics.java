@@ -0,0 +1,374 @@
+package com.hit.server;
+
+import com.hit.dao.FileIoStats;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The ServerMetrics class measures what the server does, for the "admin/metrics" action
+ * (see {@link AdminRoutes}) and an optional file in the Prometheus text format:
+ * <ul>
+ *   <li> by action: the requests, their client (4xx) and server (5xx) errors, the requests in flight,
+ *        and a {@link LatencyHistogram} of the time to handle them, from which the 50th, 90th, 95th,
+ *        99th and 99.9th percentiles are reported. The time to read the request and to write the
+ *        response is not included, since it depends on the client. </li>
+ *   <li> the requests and errors per second over the last minute </li>
+ *   <li> the reads and writes of the data files, see {@link FileIoStats} </li>
+ *   <li> the gauges registered by the server, e.g. its open connections </li>
+ * </ul>
+ * The {@link RequestDispatcher} measures every request it dispatches, including the requests of a
+ * batch. Measuring a request takes two {@link System#nanoTime()} calls and a few atomic additions,
+ * and the metrics of an action are only allocated once it is requested.
+ */
+public class ServerMetrics {
+    public static final double[] PERCENTILES = {50, 90, 95, 99, 99.9};
+    private static final String PROMETHEUS_PREFIX = "italk_";
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, ActionMetrics> actions = new ConcurrentHashMap<>();
+    private final LongAdder unknownActions = new LongAdder();
+    private final RecentRate recentRequests = new RecentRate();
+    private final RecentRate recentErrors = new RecentRate();
+    private final Map<String, FileIoStats> daoIoStats;
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private ScheduledExecutorService dumper;
+    private Path dumpFile;
+
+    /**
+     * The metrics of one action.
+     */
+    final class ActionMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder inFlight = new LongAdder();
+        private final LongAdder clientErrors = new LongAdder();
+        private final LongAdder serverErrors = new LongAdder();
+
+        private ActionMetrics() {
+        }
+
+        /**
+         * Starts a request of the action.
+         *
+         * @return the start time, for {@link #end(long, int)}
+         */
+        long start() {
+            inFlight.increment();
+            return System.nanoTime();
+        }
+
+        /**
+         * Ends a request of the action started at the given time.
+         *
+         * @param status the status of its response, 200 for an answer streamed to the client
+         */
+        void end(long start, int status) {
+            long now = System.nanoTime();
+            inFlight.decrement();
+            latency.record(TimeUnit.NANOSECONDS.toMicros(now - start));
+            long second = TimeUnit.NANOSECONDS.toSeconds(now - startNanos);
+            recentRequests.increment(second);
+            if (status >= 400) {
+                (status >= 500 ? serverErrors : clientErrors).increment();
+                recentErrors.increment(second);
+            }
+        }
+    }
+
+    /**
+     * Counts events by second over the last minute. Counts of a second may be lost while its slot
+     * is being reused, which makes the rates approximate.
+     */
+    private static class RecentRate {
+        private static final int SECONDS = 60;
+        private final AtomicLongArray counts = new AtomicLongArray(SECONDS);
+        private final AtomicLongArray seconds = new AtomicLongArray(SECONDS);
+
+        void increment(long second) {
+            int slot = (int) (second % SECONDS);
+            long slotSecond = seconds.get(slot);
+            if (slotSecond != second && seconds.compareAndSet(slot, slotSecond, second))
+                counts.set(slot, 0);
+            counts.incrementAndGet(slot);
+        }
+
+        /**
+         * Returns the events per second over the last minute, not counting the current second.
+         */
+        double perSecond(long now) {
+            long total = 0;
+            for (int slot = 0; slot < SECONDS; slot++) {
+                long slotSecond = seconds.get(slot);
+                if (slotSecond < now && slotSecond >= now - SECONDS)
+                    total += counts.get(slot);
+            }
+            return now > 0 ? (double) total / Math.min(now, SECONDS) : 0;
+        }
+    }
+
+    /**
+     * @param daoIoStats the read and write counters of the data files, by entity
+     */
+    public ServerMetrics(Map<String, FileIoStats> daoIoStats) {
+        this.daoIoStats = daoIoStats;
+    }
+
+    /**
+     * Returns the metrics of an action, created when it is first requested.
+     */
+    ActionMetrics forAction(String action) {
+        ActionMetrics metrics = actions.get(action);
+        return metrics != null ? metrics : actions.computeIfAbsent(action, _ -> new ActionMetrics());
+    }
+
+    /**
+     * Counts a request whose action has no route.
+     */
+    void recordUnknownAction() {
+        unknownActions.increment();
+        recentErrors.increment(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Adds a value reported with the metrics, e.g. "openConnections"; a gauge of the same name is replaced.
+     */
+    public void addGauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Returns the metrics at this point in time, for the "admin/metrics" action.
+     */
+    public Map<String, Object> snapshot() {
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
+        long requests = 0;
+        long clientErrors = 0;
+        long serverErrors = 0;
+        long inFlight = 0;
+        Map<String, Object> actionSnapshots = new TreeMap<>();
+        for (Map.Entry<String, ActionMetrics> entry : actions.entrySet()) {
+            ActionMetrics metrics = entry.getValue();
+            LatencyHistogram.Snapshot latency = metrics.latency.snapshot();
+            Map<String, Object> action = new LinkedHashMap<>();
+            action.put("requests", latency.count());
+            action.put("clientErrors", metrics.clientErrors.sum());
+            action.put("serverErrors", metrics.serverErrors.sum());
+            action.put("inFlight", metrics.inFlight.sum());
+            action.put("meanMicros", Math.round(latency.meanMicros()));
+            for (double percentile : PERCENTILES)
+                action.put("p" + formatPercentile(percentile) + "Micros", latency.percentile(percentile));
+            action.put("maxMicros", latency.maxMicros());
+            actionSnapshots.put(entry.getKey(), action);
+
+            requests += latency.count();
+            clientErrors += metrics.clientErrors.sum();
+            serverErrors += metrics.serverErrors.sum();
+            inFlight += metrics.inFlight.sum();
+        }
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("uptimeSeconds", second);
+        snapshot.put("requests", requests);
+        snapshot.put("clientErrors", clientErrors);
+        snapshot.put("serverErrors", serverErrors);
+        snapshot.put("unknownActions", unknownActions.sum());
+        snapshot.put("inFlight", inFlight);
+        snapshot.put("requestsPerSecond", recentRequests.perSecond(second));
+        snapshot.put("errorsPerSecond", recentErrors.perSecond(second));
+        snapshot.put("actions", actionSnapshots);
+        Map<String, Object> dao = new TreeMap<>();
+        daoIoStats.forEach((entity, stats) -> {
+            Map<String, Object> io = new LinkedHashMap<>();
+            io.put("reads", stats.getReads());
+            io.put("readMicros", TimeUnit.NANOSECONDS.toMicros(stats.getReadNanos()));
+            io.put("readBytes", stats.getReadBytes());
+            io.put("writes", stats.getWrites());
+            io.put("writeMicros", TimeUnit.NANOSECONDS.toMicros(stats.getWriteNanos()));
+            io.put("writeBytes", stats.getWriteBytes());
+            dao.put(entity, io);
+        });
+        snapshot.put("dao", dao);
+        Map<String, Object> gaugeValues = new TreeMap<>();
+        gauges.forEach((name, value) -> gaugeValues.put(name, value.getAsLong()));
+        snapshot.put("gauges", gaugeValues);
+        return snapshot;
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format.
+     */
+    public void writePrometheus(Writer writer) throws IOException {
+        StringBuilder text = new StringBuilder();
+        Map<String, ActionMetrics> sortedActions = new TreeMap<>(actions);
+
+        header(text, "requests_total", "counter", "Requests handled, by action.");
+        Map<String, LatencyHistogram.Snapshot> latencies = new TreeMap<>();
+        sortedActions.forEach((action, metrics) -> {
+            LatencyHistogram.Snapshot latency = metrics.latency.snapshot();
+            latencies.put(action, latency);
+            sample(text, "requests_total", "action", action, latency.count());
+        });
+        header(text, "request_errors_total", "counter", "Requests answered with an error, by action and kind.");
+        sortedActions.forEach((action, metrics) -> {
+            sample(text, "request_errors_total", "action", action, "kind", "client", metrics.clientErrors.sum());
+            sample(text, "request_errors_total", "action", action, "kind", "server", metrics.serverErrors.sum());
+        });
+        header(text, "unknown_actions_total", "counter", "Requests of an action without a route.");
+        sample(text, "unknown_actions_total", unknownActions.sum());
+        header(text, "requests_in_flight", "gauge", "Requests being handled, by action.");
+        sortedActions.forEach((action, metrics) ->
+                sample(text, "requests_in_flight", "action", action, metrics.inFlight.sum()));
+        header(text, "request_duration_seconds", "summary", "Time to handle a request, by action.");
+        latencies.forEach((action, latency) -> {
+            for (double percentile : PERCENTILES)
+                sample(text, "request_duration_seconds", "action", action, "quantile",
+                        formatQuantile(percentile), latency.percentile(percentile) / 1e6);
+            sample(text, "request_duration_seconds_sum", "action", action, latency.sumMicros() / 1e6);
+            sample(text, "request_duration_seconds_count", "action", action, latency.count());
+        });
+
+        Map<String, FileIoStats> sortedDao = new TreeMap<>(daoIoStats);
+        header(text, "dao_reads_total", "counter", "Reads of a data file, by entity.");
+        sortedDao.forEach((entity, stats) -> sample(text, "dao_reads_total", "entity", entity, stats.getReads()));
+        header(text, "dao_read_seconds_total", "counter", "Time spent reading a data file, by entity.");
+        sortedDao.forEach((entity, stats) ->
+                sample(text, "dao_read_seconds_total", "entity", entity, stats.getReadNanos() / 1e9));
+        header(text, "dao_read_bytes_total", "counter", "Bytes read from a data file, by entity.");
+        sortedDao.forEach((entity, stats) ->
+                sample(text, "dao_read_bytes_total", "entity", entity, stats.getReadBytes()));
+        header(text, "dao_writes_total", "counter", "Writes of a data file, by entity.");
+        sortedDao.forEach((entity, stats) -> sample(text, "dao_writes_total", "entity", entity, stats.getWrites()));
+        header(text, "dao_write_seconds_total", "counter", "Time spent writing a data file, by entity.");
+        sortedDao.forEach((entity, stats) ->
+                sample(text, "dao_write_seconds_total", "entity", entity, stats.getWriteNanos() / 1e9));
+        header(text, "dao_write_bytes_total", "counter", "Bytes written to a data file, by entity.");
+        sortedDao.forEach((entity, stats) ->
+                sample(text, "dao_write_bytes_total", "entity", entity, stats.getWriteBytes()));
+
+        new TreeMap<>(gauges).forEach((name, value) -> {
+            String metric = toMetricName(name);
+            header(text, metric, "gauge", "The " + name + " gauge of the server.");
+            sample(text, metric, value.getAsLong());
+        });
+        header(text, "uptime_seconds", "gauge", "Time since the server started.");
+        sample(text, "uptime_seconds", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos));
+        writer.write(text.toString());
+    }
+
+    /**
+     * Starts writing the metrics to a file in the Prometheus text format at a fixed period, e.g. for
+     * the textfile collector of the node exporter. The file is replaced in one step, so it is never
+     * read half-written.
+     */
+    public synchronized void startDump(Path file, long periodMillis) {
+        if (dumper != null)
+            return;
+        dumpFile = file;
+        dumper = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("italk-metrics").daemon().factory());
+        dumper.scheduleAtFixedRate(() -> {
+            try {
+                dump(file);
+            } catch (IOException | UncheckedIOException e) {
+                e.printStackTrace();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops writing the metrics file, after a last dump.
+     */
+    public synchronized void stopDump() {
+        if (dumper == null)
+            return;
+        dumper.shutdownNow();
+        dumper = null;
+        try {
+            dump(dumpFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void dump(Path file) throws IOException {
+        Path target = file.toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writePrometheus(writer);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void header(StringBuilder text, String metric, String type, String help) {
+        text.append("# HELP ").append(PROMETHEUS_PREFIX).append(metric).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(PROMETHEUS_PREFIX).append(metric).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String metric, Object value) {
+        text.append(PROMETHEUS_PREFIX).append(metric).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String metric, String label, String labelValue, Object value) {
+        text.append(PROMETHEUS_PREFIX).append(metric)
+                .append('{').append(label).append("=\"").append(escape(labelValue)).append("\"} ")
+                .append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String metric, String label, String labelValue,
+                               String label2, String labelValue2, Object value) {
+        text.append(PROMETHEUS_PREFIX).append(metric)
+                .append('{').append(label).append("=\"").append(escape(labelValue))
+                .append("\",").append(label2).append("=\"").append(escape(labelValue2)).append("\"} ")
+                .append(value).append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * "openConnections" becomes "open_connections".
+     */
+    private static String toMetricName(String name) {
+        return name.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toLowerCase();
+    }
+
+    /**
+     * 99.9 becomes "99.9", 50.0 becomes "50".
+     */
+    private static String formatPercentile(double percentile) {
+        return BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * The percentile 99.9 becomes the quantile "0.999".
+     */
+    private static String formatQuantile(double percentile) {
+        return BigDecimal.valueOf(percentile).movePointLeft(2).stripTrailingZeros().toPlainString();
+    }
+}
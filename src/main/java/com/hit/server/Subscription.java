@@ -0,0 +1,140 @@
+package com.hit.server;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * The change records waiting to be pushed to one subscribed client, see {@link SubscriptionHub}.
+ * <p>
+ * The queue is bounded, so the thread publishing a change never waits for a slow client. When it is
+ * full, the {@link OverflowPolicy} decides: the new changes are dropped and the client is told how
+ * many it missed, or all the queued changes are dropped and the client is told to resync.
+ */
+class Subscription {
+    static final String HEARTBEAT_RECORD = "{\"type\":\"heartbeat\"}";
+    static final String RESYNC_RECORD = "{\"type\":\"resync\"}";
+
+    /**
+     * What happens to the changes of a subscriber that does not keep up.
+     */
+    enum OverflowPolicy {
+        /**
+         * The changes that do not fit are dropped; a "dropped" record with their count takes their place.
+         */
+        DROP,
+        /**
+         * The queued changes are dropped for a "resync" record: the client fetches the posts or
+         * comments again, which includes the dropped changes.
+         */
+        RESYNC
+    }
+
+    private final Long postId;
+    private final OverflowPolicy overflowPolicy;
+    private final int capacity;
+    private final Runnable onAvailable;
+    private final Queue<String> queue = new ArrayDeque<>();
+    private int dropped; // The changes dropped since the last queued one, for the DROP policy
+    private boolean finished;
+
+    /**
+     * @param postId         the post whose changes are pushed, null for all the posts
+     * @param overflowPolicy what happens to the changes that do not fit in the queue
+     * @param capacity       the most records queued
+     * @param onAvailable    run by the publishing thread when the queue stops being empty, null if
+     *                       the records are taken with {@link #take(long)}
+     */
+    Subscription(Long postId, OverflowPolicy overflowPolicy, int capacity, Runnable onAvailable) {
+        this.postId = postId;
+        this.overflowPolicy = overflowPolicy;
+        this.capacity = capacity;
+        this.onAvailable = onAvailable;
+    }
+
+    Long getPostId() {
+        return postId;
+    }
+
+    /**
+     * Queues a record, or applies the overflow policy if the queue is full. Never waits.
+     */
+    void offer(String record) {
+        boolean wasEmpty;
+        synchronized (this) {
+            if (finished)
+                return;
+            wasEmpty = queue.isEmpty();
+            if (dropped > 0 && queue.size() < capacity)
+                queue.add(takeDropped());
+            if (queue.size() < capacity) {
+                queue.add(record);
+            } else if (overflowPolicy == OverflowPolicy.DROP) {
+                dropped++;
+            } else {
+                queue.clear();
+                queue.add(RESYNC_RECORD);
+            }
+            notifyAll();
+        }
+        if (wasEmpty && onAvailable != null)
+            onAvailable.run();
+    }
+
+    /**
+     * Ends the subscription: the records already queued, then the final one if any, are still taken.
+     */
+    void finish(String finalRecord) {
+        synchronized (this) {
+            if (finished)
+                return;
+            if (dropped > 0)
+                queue.add(takeDropped());
+            if (finalRecord != null)
+                queue.add(finalRecord);
+            finished = true;
+            notifyAll();
+        }
+        if (onAvailable != null)
+            onAvailable.run();
+    }
+
+    /**
+     * Returns the next record, or null if there is none.
+     */
+    synchronized String poll() {
+        return !queue.isEmpty() || dropped == 0 ? queue.poll() : takeDropped();
+    }
+
+    // The record telling the client how many changes it missed
+    private String takeDropped() {
+        String record = "{\"type\":\"dropped\",\"result\":{\"count\":" + dropped + "}}";
+        dropped = 0;
+        return record;
+    }
+
+    /**
+     * Waits for the next record.
+     *
+     * @return the next record, {@link #HEARTBEAT_RECORD} if none came within the timeout, or null
+     * once the subscription is finished and all its records taken
+     */
+    synchronized String take(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (queue.isEmpty() && dropped == 0 && !finished && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        String record = poll();
+        if (record != null)
+            return record;
+        return finished ? null : HEARTBEAT_RECORD;
+    }
+
+    /**
+     * Returns true once the subscription is finished and all its records taken.
+     */
+    synchronized boolean isDone() {
+        return finished && queue.isEmpty() && dropped == 0;
+    }
+}
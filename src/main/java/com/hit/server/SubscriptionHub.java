@@ -0,0 +1,158 @@
+package com.hit.server;
+
+import com.google.gson.Gson;
+import com.hit.controller.RequestParams;
+import com.hit.dm.Change;
+import com.hit.json.Json;
+import com.hit.service.ChangeFeed;
+import com.hit.service.IChangeListener;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The SubscriptionHub class pushes the changes of the posts and comments to the clients that
+ * subscribed to them, so they need not poll "post/get-all" and "post/get-comments".
+ * <p>
+ * A client subscribes on a JSON connection with the {@value #ACTION} action, whose body may hold:
+ * <ul>
+ *   <li> "postId": only the changes of this post and of its comments (Long) </li>
+ *   <li> "onOverflow": "resync" (default) or "drop", see {@link Subscription.OverflowPolicy} </li>
+ * </ul>
+ * The connection is then given over to the subscription: it is answered with newline-delimited
+ * JSON records, like a streamed search, until the client closes it or the server shuts down.
+ * <pre>
+ * {"type":"subscribed","status":200}
+ * {"type":"change","result":{"entity":"comment","kind":"CREATED","postId":7,"item":{...}}}
+ * {"type":"heartbeat"}
+ * {"type":"dropped","result":{"count":3}}
+ * {"type":"resync"}
+ * {"type":"end","status":503,"error":"Server is shutting down."}
+ * </pre>
+ * A heartbeat is sent after {@value #HEARTBEAT_MILLIS} ms without changes, so a client that went
+ * away is noticed. A change is serialized once for all its subscribers, which are indexed by post.
+ * Every subscriber has its own bounded queue of {@link ServerConfig#getSubscriberQueueCapacity()}
+ * records: the thread making a change never waits for a subscriber.
+ */
+public class SubscriptionHub implements IChangeListener {
+    public static final String ACTION = "subscribe";
+    public static final long HEARTBEAT_MILLIS = 15_000;
+    static final String SUBSCRIBED_RECORD = "{\"type\":\"subscribed\",\"status\":200}";
+    private static final String END_RECORD = "{\"type\":\"end\",\"status\":503,\"error\":\"Server is shutting down.\"}";
+
+    private final int queueCapacity;
+    private final Gson gson = Json.GSON;
+    // The subscriptions to every post, and those to one post by its ID
+    private final Set<Subscription> allPosts = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Set<Subscription>> byPost = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * @param config the size of the subscriber queues
+     * @param feed   the changes to push
+     */
+    public SubscriptionHub(ServerConfig config, ChangeFeed feed) {
+        this.queueCapacity = config.getSubscriberQueueCapacity();
+        feed.addListener(this);
+    }
+
+    /**
+     * Registers the {@value #ACTION} route, reached by the requests that cannot subscribe:
+     * batched requests and requests of binary connections.
+     */
+    public void register(RequestDispatcher dispatcher) {
+        dispatcher.addRoute(new Route(ACTION, ACTION, true, RouteRegistry.DEFAULT_COST,
+                (body, writer) -> new Response(400,
+                        Map.of("error", "Subscriptions need a kept-open JSON connection."))));
+    }
+
+    /**
+     * Subscribes a client to the changes.
+     *
+     * @param body        the subscribe request body
+     * @param onAvailable run when records are waiting, null if they are taken with {@link Subscription#take(long)}
+     * @return the subscription, or null if the server is shutting down
+     * @throws IllegalArgumentException if the body is invalid
+     */
+    Subscription subscribe(Map<String, Object> body, Runnable onAvailable) {
+        if (body == null)
+            body = Map.of();
+        Long postId = RequestParams.getOptionalLong(body, "postId");
+        Subscription.OverflowPolicy overflowPolicy = body.get("onOverflow") instanceof String policy
+                ? Subscription.OverflowPolicy.valueOf(policy.trim().toUpperCase())
+                : Subscription.OverflowPolicy.RESYNC;
+        if (closed)
+            return null;
+
+        Subscription subscription = new Subscription(postId, overflowPolicy, queueCapacity, onAvailable);
+        if (postId == null) {
+            allPosts.add(subscription);
+        } else {
+            // Added within the compute, so a concurrent unsubscribe cannot drop the set meanwhile
+            byPost.compute(postId, (_, subscriptions) -> {
+                subscriptions = subscriptions != null ? subscriptions : ConcurrentHashMap.newKeySet();
+                subscriptions.add(subscription);
+                return subscriptions;
+            });
+        }
+        if (closed) // Closed meanwhile
+            subscription.finish(END_RECORD);
+        return subscription;
+    }
+
+    /**
+     * Ends a subscription whose client went away.
+     */
+    void unsubscribe(Subscription subscription) {
+        subscription.finish(null);
+        if (subscription.getPostId() == null) {
+            allPosts.remove(subscription);
+        } else {
+            byPost.computeIfPresent(subscription.getPostId(), (_, subscriptions) -> {
+                subscriptions.remove(subscription);
+                return subscriptions.isEmpty() ? null : subscriptions;
+            });
+        }
+    }
+
+    @Override
+    public void onChange(Change change) {
+        Set<Subscription> postSubscriptions = byPost.get(change.postId());
+        if (allPosts.isEmpty() && postSubscriptions == null)
+            return;
+
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("type", "change");
+        record.put("result", change);
+        String json = gson.toJson(record);
+        for (Subscription subscription : allPosts)
+            subscription.offer(json);
+        if (postSubscriptions != null)
+            for (Subscription subscription : postSubscriptions)
+                subscription.offer(json);
+    }
+
+    /**
+     * Ends all the subscriptions with an "end" record, when the server shuts down.
+     */
+    public void close() {
+        closed = true;
+        for (Subscription subscription : allPosts)
+            subscription.finish(END_RECORD);
+        for (Set<Subscription> subscriptions : byPost.values())
+            for (Subscription subscription : subscriptions)
+                subscription.finish(END_RECORD);
+    }
+
+    /**
+     * The number of subscribed clients.
+     */
+    public int getSubscriberCount() {
+        int count = allPosts.size();
+        for (Set<Subscription> subscriptions : byPost.values())
+            count += subscriptions.size();
+        return count;
+    }
+}
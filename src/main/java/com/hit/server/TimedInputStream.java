@@ -0,0 +1,134 @@
+package com.hit.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The input of a blocking connection, bounding how long a client may take to send a request and
+ * how large the request may be.
+ * <p>
+ * Between requests, a read waits for the idle timeout. Once {@link #beginRequest()} is called, the
+ * reads of the request share the read timeout, so a client trickling a byte now and then cannot
+ * hold the connection, and its bytes are counted, so an oversized request is rejected as soon as
+ * it exceeds the limit, before it is parsed or buffered as a whole. The readers above this stream
+ * buffer ahead, so the limit is only exact to their buffer.
+ */
+class TimedInputStream extends FilterInputStream {
+    // Once draining, how long a read between requests waits for bytes already sent by the client
+    private static final int DRAIN_WAIT_MILLIS = 10;
+
+    private final Socket socket;
+    private int idleTimeoutMillis;
+    private final long readTimeoutNanos;
+    private final long maxRequestBytes;
+    private boolean inRequest;
+    private long requestStart;
+    private long requestBytes;
+    private int soTimeout = -1; // The timeout set on the socket, to set it only when it changes
+
+    /**
+     * Thrown when a request exceeds the size limit.
+     */
+    static class RequestTooLargeException extends IOException {
+        RequestTooLargeException() {
+            super("Request too large");
+        }
+    }
+
+    /**
+     * Thrown when a request is not received within the read timeout; unlike the idle timeout
+     * between requests, it is answered before the connection is closed.
+     */
+    static class RequestTimeoutException extends IOException {
+        RequestTimeoutException() {
+            super("Request timed out");
+        }
+    }
+
+    TimedInputStream(Socket socket, ServerConfig config) throws IOException {
+        super(socket.getInputStream());
+        this.socket = socket;
+        this.idleTimeoutMillis = config.getIdleTimeoutMillis();
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getReadTimeoutMillis());
+        this.maxRequestBytes = config.getMaxRequestBytes();
+    }
+
+    /**
+     * Starts the read timeout and the byte count of a request, once its first bytes have arrived.
+     */
+    void beginRequest() {
+        inRequest = true;
+        requestStart = System.nanoTime();
+        requestBytes = 0;
+    }
+
+    /**
+     * Ends a request: the next read waits for the idle timeout.
+     */
+    void endRequest() {
+        inRequest = false;
+    }
+
+    /**
+     * Stops waiting for new requests: from now on, a read between requests only gets the bytes
+     * already received, and otherwise times out.
+     */
+    void drain() {
+        idleTimeoutMillis = DRAIN_WAIT_MILLIS;
+    }
+
+    @Override
+    public int read() throws IOException {
+        setTimeout();
+        int b;
+        try {
+            b = super.read();
+        } catch (SocketTimeoutException e) {
+            throw timeout(e);
+        }
+        if (b >= 0)
+            count(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        setTimeout();
+        int read;
+        try {
+            read = super.read(bytes, offset, length);
+        } catch (SocketTimeoutException e) {
+            throw timeout(e);
+        }
+        if (read > 0)
+            count(read);
+        return read;
+    }
+
+    private void setTimeout() throws IOException {
+        int timeout = idleTimeoutMillis;
+        if (inRequest) {
+            long remaining = readTimeoutNanos - (System.nanoTime() - requestStart);
+            if (remaining <= 0)
+                throw new RequestTimeoutException();
+            timeout = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+        }
+        if (timeout != soTimeout) {
+            socket.setSoTimeout(timeout);
+            soTimeout = timeout;
+        }
+    }
+
+    private IOException timeout(SocketTimeoutException e) {
+        return inRequest ? new RequestTimeoutException() : e;
+    }
+
+    private void count(int read) throws RequestTooLargeException {
+        if (inRequest && (requestBytes += read) > maxRequestBytes)
+            throw new RequestTooLargeException();
+    }
+}
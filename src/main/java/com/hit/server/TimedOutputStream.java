@@ -0,0 +1,62 @@
+package com.hit.server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The output of a blocking connection, telling how long its current write has been blocked.
+ * A blocking socket write has no timeout of its own: the {@link Server} checks the connections
+ * periodically and closes those whose client stopped reading its responses, which makes the
+ * blocked write fail and releases its thread.
+ */
+class TimedOutputStream extends FilterOutputStream {
+    private volatile boolean writing;
+    private volatile long writeStart;
+
+    TimedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Returns true if a write has been blocked for longer than the timeout.
+     */
+    boolean isStalled(long now, long timeoutNanos) {
+        return writing && now - writeStart > timeoutNanos;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        beginWrite();
+        try {
+            out.write(b);
+        } finally {
+            writing = false;
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        beginWrite();
+        try {
+            out.write(bytes, offset, length);
+        } finally {
+            writing = false;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        beginWrite();
+        try {
+            out.flush();
+        } finally {
+            writing = false;
+        }
+    }
+
+    private void beginWrite() {
+        writeStart = System.nanoTime();
+        writing = true;
+    }
+}
@@ -0,0 +1,58 @@
+package com.hit.server;
+
+/**
+ * A token bucket: it holds up to a capacity of tokens, refilled at a steady rate, and a request
+ * is admitted when the tokens it costs can be taken. The capacity is the burst allowed after an
+ * idle period.
+ * <p>
+ * A cost larger than the capacity is admitted when the bucket is full, leaving the bucket in debt,
+ * so that no request is refused forever.
+ */
+class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param tokensPerSecond the refill rate
+     * @param capacity        the most tokens the bucket holds
+     * @param now             the current {@link System#nanoTime()}
+     */
+    TokenBucket(double tokensPerSecond, double capacity, long now) {
+        this.tokensPerNano = tokensPerSecond / 1e9;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Takes the tokens of a request if there are enough.
+     *
+     * @return 0 if they were taken, otherwise the nanoseconds until there are enough
+     */
+    synchronized long tryTake(double cost, long now) {
+        refill(now);
+        double needed = Math.min(cost, capacity);
+        if (tokens >= needed) {
+            tokens -= cost;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((needed - tokens) / tokensPerNano));
+    }
+
+    /**
+     * Returns true if the bucket has refilled completely, it is then the same as a new bucket.
+     */
+    synchronized boolean isFull(long now) {
+        refill(now);
+        return tokens >= capacity;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
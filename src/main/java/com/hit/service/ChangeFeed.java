@@ -0,0 +1,58 @@
+package com.hit.service;
+
+import com.hit.dao.CommentDaoImpl;
+import com.hit.dao.IDaoListener;
+import com.hit.dao.PostDaoImpl;
+import com.hit.dm.Change;
+import com.hit.dm.Comment;
+import com.hit.dm.Post;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The ChangeFeed class turns the saves and deletes of the post and comment DAOs into {@link Change}s
+ * for its listeners, e.g. the subscriptions of the server. The changes are published once they are
+ * written, in the order of the writes of each DAO.
+ */
+public class ChangeFeed {
+    private final List<IChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    public ChangeFeed(PostDaoImpl postDao, CommentDaoImpl commentDao) {
+        postDao.addListener(new IDaoListener<>() {
+            @Override
+            public void onSaved(Post post, boolean created) {
+                publish(Change.ofPost(created ? Change.Kind.CREATED : Change.Kind.EDITED, post));
+            }
+
+            @Override
+            public void onDeleted(Post post) {
+                publish(Change.ofPost(Change.Kind.REMOVED, post));
+            }
+        });
+        commentDao.addListener(new IDaoListener<>() {
+            @Override
+            public void onSaved(Comment comment, boolean created) {
+                publish(Change.ofComment(created ? Change.Kind.CREATED : Change.Kind.EDITED, comment));
+            }
+
+            @Override
+            public void onDeleted(Comment comment) {
+                publish(Change.ofComment(Change.Kind.REMOVED, comment));
+            }
+        });
+    }
+
+    public void addListener(IChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(IChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void publish(Change change) {
+        for (IChangeListener listener : listeners)
+            listener.onChange(change);
+    }
+}
@@ -0,0 +1,105 @@
+package com.hit.service;
+
+import com.hit.dao.IDaoListener;
+import com.hit.dm.SyncResult;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.SequencedMap;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * The ChangeLog class gives the changes of a store a monotonically increasing version and retains
+ * the latest of them, so a client can ask for what changed since the version it last saw instead of
+ * downloading everything again.
+ * <p>
+ * The versions of a run start from the time the store was loaded, times 1000, so a version seen
+ * before a restart is older than the retained history and the client gets a full resync. They stay
+ * below 2^53 and survive being sent as JSON numbers.
+ *
+ * @param <T> the entity type handled by the DAO
+ */
+public class ChangeLog<T> implements IDaoListener<T> {
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private final ToLongFunction<T> idFunction;
+    private final int maxEntries;
+    private final Deque<Entry<T>> entries = new ArrayDeque<>();
+    private long version;
+    private long oldestVersion; // A sync from this version or a later one is answered from the entries
+
+    private record Entry<T>(long version, long id, T entity, boolean removed) {
+    }
+
+    /**
+     * @param idFunction the ID of an entity
+     * @param maxEntries the number of changes retained
+     */
+    public ChangeLog(ToLongFunction<T> idFunction, int maxEntries) {
+        this.idFunction = idFunction;
+        this.maxEntries = maxEntries;
+        this.version = System.currentTimeMillis() * 1000;
+        this.oldestVersion = version;
+    }
+
+    @Override
+    public void onSaved(T entity, boolean created) {
+        append(entity, false);
+    }
+
+    @Override
+    public void onDeleted(T entity) {
+        append(entity, true);
+    }
+
+    private synchronized void append(T entity, boolean removed) {
+        entries.addLast(new Entry<>(++version, idFunction.applyAsLong(entity), entity, removed));
+        if (entries.size() > maxEntries)
+            oldestVersion = entries.removeFirst().version();
+    }
+
+    /**
+     * Returns the version of the latest change.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the changes made after a version: the current state of every entity created or
+     * edited, and the IDs of those removed. An entity changed several times appears once.
+     *
+     * @param sinceVersion the version the client last saw
+     * @param filter       the entities the client follows
+     * @return the changes, or null if they are not retained any more, or the version is unknown
+     */
+    public synchronized SyncResult<T> since(long sinceVersion, Predicate<T> filter) {
+        if (sinceVersion < oldestVersion || sinceVersion > version)
+            return null;
+
+        // The latest change of every entity, newest first
+        SequencedMap<Long, Entry<T>> latest = new LinkedHashMap<>();
+        for (Iterator<Entry<T>> it = entries.descendingIterator(); it.hasNext(); ) {
+            Entry<T> entry = it.next();
+            if (entry.version() <= sinceVersion)
+                break;
+            if (filter.test(entry.entity()))
+                latest.putIfAbsent(entry.id(), entry);
+        }
+
+        List<T> items = new ArrayList<>();
+        List<Long> removed = new ArrayList<>();
+        for (Entry<T> entry : latest.sequencedValues().reversed()) {
+            if (entry.removed())
+                removed.add(entry.id());
+            else
+                items.add(entry.entity());
+        }
+        return new SyncResult<>(version, false, items, removed);
+    }
+}
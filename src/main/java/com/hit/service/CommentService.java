@@ -5,21 +5,38 @@ import com.hit.algorithm.KMPStringMatchingImpl;
 import com.hit.dao.CommentDaoImpl;
 import com.hit.dao.UserDaoImpl;
 import com.hit.dm.Comment;
+import com.hit.dm.CompactSearchResult;
+import com.hit.dm.QueryResult;
 import com.hit.dm.SearchResult;
+import com.hit.dm.SyncResult;
 import com.hit.dm.User;
+import com.hit.search.IMatchSink;
+import com.hit.search.SearchFilter;
+import com.hit.search.SearchIndex;
+import com.hit.search.SearchPlanLog;
+import com.hit.search.SearchSummary;
 
 import java.io.IOException;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 public class CommentService {
     private static long commentNextId = 1; // Auto-increment ID simulation
     IAlgoStringMatching stringMatching;
     UserDaoImpl userDao;
     CommentDaoImpl commentDao;
+    SearchIndex<Comment> commentIndex;
+    ChangeLog<Comment> commentChanges = new ChangeLog<>(Comment::getId, ChangeLog.DEFAULT_MAX_ENTRIES);
 
     public CommentService(CommentDaoImpl commentDao, UserDaoImpl userDao) throws IOException {
-        this.stringMatching = new KMPStringMatchingImpl();
+        this(commentDao, userDao, new KMPStringMatchingImpl());
+    }
+
+    public CommentService(CommentDaoImpl commentDao, UserDaoImpl userDao,
+            IAlgoStringMatching stringMatching) throws IOException {
+        this.stringMatching = stringMatching;
         this.userDao = userDao;
         this.commentDao = commentDao;
 
@@ -29,6 +46,12 @@ public class CommentService {
                 commentNextId = comment.getId() + 1;
             }
         }
+
+        this.commentIndex = new SearchIndex<>(Comment::getId, Comment::getUserName, Comment::getTimestamp,
+                Map.of("content", Comment::getContent));
+        commentIndex.rebuild(comments);
+        commentDao.addListener(commentIndex);
+        commentDao.addListener(commentChanges);
     }
 
     public void createComment(Long postId, String userName, String content) throws IOException {
@@ -74,15 +97,65 @@ public class CommentService {
         return commentDao.getAll();
     }
 
-    public SearchResult<Comment> stringMatchingSearchContents(String searchPattern) throws IOException {
+    /**
+     * Returns the comments changed since a version, or all of them if the version is too old.
+     *
+     * @param sinceVersion the version of the last sync, null for all the comments
+     * @param postId       only the comments of this post, null for all the comments
+     */
+    public SyncResult<Comment> syncComments(Long sinceVersion, Long postId) throws IOException {
+        Predicate<Comment> filter = postId != null ? comment -> comment.getPostId() == postId : _ -> true;
+        SyncResult<Comment> changes = sinceVersion != null ? commentChanges.since(sinceVersion, filter) : null;
+        if (changes != null)
+            return changes;
+        // Read after the version: a change in between is sent again by the next sync
+        long version = commentChanges.getVersion();
         List<Comment> comments = commentDao.getAll();
-        SearchResult<Comment> contentSearchResult = new SearchResult<>(searchPattern);
-        for (Comment comment : comments) {
-            int[] contentIndexes = stringMatching.search(comment.getContent().toLowerCase(), searchPattern.toLowerCase());
-            if (contentIndexes.length > 0) {
-                contentSearchResult.addMatch(comment, contentIndexes);
-            }
-        }
-        return contentSearchResult;
+        comments.removeIf(filter.negate());
+        return new SyncResult<>(version, true, comments, List.of());
+    }
+
+    public SearchResult<Comment> stringMatchingSearchContents(String searchPattern) {
+        return stringMatchingSearchContents(searchPattern, SearchFilter.NONE);
+    }
+
+    public SearchResult<Comment> stringMatchingSearchContents(String searchPattern, SearchFilter filter) {
+        return commentIndex.search("content", searchPattern, stringMatching, filter);
+    }
+
+    public SearchSummary streamSearchContents(String searchPattern, SearchFilter filter, int maxResults,
+            IMatchSink<Comment> sink) {
+        return commentIndex.streamSearch("content", searchPattern, stringMatching, filter, maxResults, sink);
+    }
+
+    public CompactSearchResult compactSearchContents(String searchPattern, SearchFilter filter) {
+        CompactSearchResult searchResult = new CompactSearchResult(searchPattern);
+        SearchSummary summary = commentIndex.streamSearch("content", searchPattern, stringMatching, filter,
+                Integer.MAX_VALUE, (comment, indexes) -> {
+                    searchResult.addMatch(comment.getId(), indexes);
+                    return true;
+                });
+        searchResult.setPlan(summary.plan());
+        return searchResult;
+    }
+
+    public QueryResult<Comment> querySearch(String query, SearchFilter filter) {
+        return commentIndex.query(query, List.of("content"), filter);
+    }
+
+    public SearchIndex<Comment> getSearchIndex() {
+        return commentIndex;
+    }
+
+    public SearchPlanLog getSearchPlanLog() {
+        return commentIndex.getPlanLog();
+    }
+
+    public SearchResult<Comment> fuzzySearchContents(String searchPattern, int maxDistance) {
+        return fuzzySearchContents(searchPattern, maxDistance, SearchFilter.NONE);
+    }
+
+    public SearchResult<Comment> fuzzySearchContents(String searchPattern, int maxDistance, SearchFilter filter) {
+        return commentIndex.fuzzySearch("content", searchPattern, maxDistance, filter);
     }
 }
@@ -0,0 +1,11 @@
+package com.hit.service;
+
+import com.hit.dm.Change;
+
+/**
+ * Callback interface for components following the changes of the posts and comments, see {@link ChangeFeed}.
+ * Listeners are invoked synchronously by the thread making the change, so they must not block.
+ */
+public interface IChangeListener {
+    void onChange(Change change);
+}
@@ -6,14 +6,23 @@ import com.hit.dao.CommentDaoImpl;
 import com.hit.dao.PostDaoImpl;
 import com.hit.dao.UserDaoImpl;
 import com.hit.dm.Comment;
+import com.hit.dm.CompactSearchResult;
 import com.hit.dm.Post;
+import com.hit.dm.QueryResult;
 import com.hit.dm.SearchResult;
+import com.hit.dm.SyncResult;
 import com.hit.dm.User;
+import com.hit.search.IMatchSink;
+import com.hit.search.SearchFilter;
+import com.hit.search.SearchIndex;
+import com.hit.search.SearchPlanLog;
+import com.hit.search.SearchSummary;
 
 import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class PostService {
     private static long postNextId = 1; // Auto-increment ID simulation
@@ -21,9 +30,16 @@ public class PostService {
     PostDaoImpl postDao;
     CommentDaoImpl commentDao;
     UserDaoImpl userDao;
+    SearchIndex<Post> postIndex;
+    ChangeLog<Post> postChanges = new ChangeLog<>(Post::getId, ChangeLog.DEFAULT_MAX_ENTRIES);
 
     public PostService(PostDaoImpl postDao, CommentDaoImpl commentDao, UserDaoImpl userDao) throws IOException {
-        this.stringMatching = new KMPStringMatchingImpl();
+        this(postDao, commentDao, userDao, new KMPStringMatchingImpl());
+    }
+
+    public PostService(PostDaoImpl postDao, CommentDaoImpl commentDao, UserDaoImpl userDao,
+            IAlgoStringMatching stringMatching) throws IOException {
+        this.stringMatching = stringMatching;
         this.postDao = postDao;
         this.commentDao = commentDao;
         this.userDao = userDao;
@@ -34,6 +50,12 @@ public class PostService {
                 postNextId = post.getId() + 1;
             }
         }
+
+        this.postIndex = new SearchIndex<>(Post::getId, Post::getUserName, Post::getTimestamp,
+                Map.of("title", Post::getTitle, "content", Post::getContent));
+        postIndex.rebuild(posts);
+        postDao.addListener(postIndex);
+        postDao.addListener(postChanges);
     }
 
     public void createPost(String title, String userName, String content) throws IOException {
@@ -93,6 +115,20 @@ public class PostService {
         return postDao.getAll();
     }
 
+    /**
+     * Returns the posts changed since a version, or all of them if the version is too old.
+     *
+     * @param sinceVersion the version of the last sync, null for all the posts
+     */
+    public SyncResult<Post> syncPosts(Long sinceVersion) throws IOException {
+        SyncResult<Post> changes = sinceVersion != null ? postChanges.since(sinceVersion, _ -> true) : null;
+        if (changes != null)
+            return changes;
+        // Read after the version: a change in between is sent again by the next sync
+        long version = postChanges.getVersion();
+        return new SyncResult<>(version, true, postDao.getAll(), List.of());
+    }
+
     public List<Comment> getPostComments(Long postId) throws IOException {
         ArrayList<Comment> postComments = new ArrayList<>();
         for (Comment comment : commentDao.getAll()) {
@@ -104,27 +140,76 @@ public class PostService {
         return postComments;
     }
 
-    public SearchResult<Post> stringMatchingSearchTitles(String searchPattern) throws IOException {
-        List<Post> posts = postDao.getAll();
-        SearchResult<Post> titleSearchResult = new SearchResult<>(searchPattern);
-        for (Post post : posts) {
-            int[] titleIndexes = stringMatching.search(post.getTitle().toLowerCase(), searchPattern.toLowerCase());
-            if (titleIndexes.length > 0) {
-                titleSearchResult.addMatch(post, titleIndexes);
-            }
-        }
-        return titleSearchResult;
+    public SearchResult<Post> stringMatchingSearchTitles(String searchPattern) {
+        return stringMatchingSearchTitles(searchPattern, SearchFilter.NONE);
     }
 
-    public SearchResult<Post> stringMatchingSearchContents(String searchPattern) throws IOException {
-        List<Post> posts = postDao.getAll();
-        SearchResult<Post> contentSearchResult = new SearchResult<>(searchPattern);
-        for (Post post : posts) {
-            int[] contentIndexes = stringMatching.search(post.getContent().toLowerCase(), searchPattern.toLowerCase());
-            if (contentIndexes.length > 0) {
-                contentSearchResult.addMatch(post, contentIndexes);
-            }
-        }
-        return contentSearchResult;
+    public SearchResult<Post> stringMatchingSearchTitles(String searchPattern, SearchFilter filter) {
+        return postIndex.search("title", searchPattern, stringMatching, filter);
+    }
+
+    public SearchResult<Post> stringMatchingSearchContents(String searchPattern) {
+        return stringMatchingSearchContents(searchPattern, SearchFilter.NONE);
+    }
+
+    public SearchResult<Post> stringMatchingSearchContents(String searchPattern, SearchFilter filter) {
+        return postIndex.search("content", searchPattern, stringMatching, filter);
+    }
+
+    public SearchIndex<Post> getSearchIndex() {
+        return postIndex;
+    }
+
+    public SearchPlanLog getSearchPlanLog() {
+        return postIndex.getPlanLog();
+    }
+
+    public SearchSummary streamSearchTitles(String searchPattern, SearchFilter filter, int maxResults,
+            IMatchSink<Post> sink) {
+        return postIndex.streamSearch("title", searchPattern, stringMatching, filter, maxResults, sink);
+    }
+
+    public SearchSummary streamSearchContents(String searchPattern, SearchFilter filter, int maxResults,
+            IMatchSink<Post> sink) {
+        return postIndex.streamSearch("content", searchPattern, stringMatching, filter, maxResults, sink);
+    }
+
+    public CompactSearchResult compactSearchTitles(String searchPattern, SearchFilter filter) {
+        return compactSearch("title", searchPattern, filter);
+    }
+
+    public CompactSearchResult compactSearchContents(String searchPattern, SearchFilter filter) {
+        return compactSearch("content", searchPattern, filter);
+    }
+
+    private CompactSearchResult compactSearch(String field, String searchPattern, SearchFilter filter) {
+        CompactSearchResult searchResult = new CompactSearchResult(searchPattern);
+        SearchSummary summary = postIndex.streamSearch(field, searchPattern, stringMatching, filter, Integer.MAX_VALUE,
+                (post, indexes) -> {
+                    searchResult.addMatch(post.getId(), indexes);
+                    return true;
+                });
+        searchResult.setPlan(summary.plan());
+        return searchResult;
+    }
+
+    public QueryResult<Post> querySearch(String query, SearchFilter filter) {
+        return postIndex.query(query, List.of("title", "content"), filter);
+    }
+
+    public SearchResult<Post> fuzzySearchTitles(String searchPattern, int maxDistance) {
+        return fuzzySearchTitles(searchPattern, maxDistance, SearchFilter.NONE);
+    }
+
+    public SearchResult<Post> fuzzySearchTitles(String searchPattern, int maxDistance, SearchFilter filter) {
+        return postIndex.fuzzySearch("title", searchPattern, maxDistance, filter);
+    }
+
+    public SearchResult<Post> fuzzySearchContents(String searchPattern, int maxDistance) {
+        return fuzzySearchContents(searchPattern, maxDistance, SearchFilter.NONE);
+    }
+
+    public SearchResult<Post> fuzzySearchContents(String searchPattern, int maxDistance, SearchFilter filter) {
+        return postIndex.fuzzySearch("content", searchPattern, maxDistance, filter);
     }
 }
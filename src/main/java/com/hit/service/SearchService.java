@@ -0,0 +1,75 @@
+package com.hit.service;
+
+import com.hit.algorithm.IAlgoStringMatching;
+import com.hit.algorithm.KMPStringMatchingImpl;
+import com.hit.dm.Comment;
+import com.hit.dm.MatchResult;
+import com.hit.dm.Post;
+import com.hit.dm.PostSearchGroup;
+import com.hit.dm.SearchResult;
+import com.hit.dm.UnifiedSearchResult;
+import com.hit.search.SearchFilter;
+import com.hit.search.SearchIndex;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class SearchService {
+    IAlgoStringMatching stringMatching;
+    SearchIndex<Post> postIndex;
+    SearchIndex<Comment> commentIndex;
+
+    public SearchService(PostService postService, CommentService commentService) {
+        this(postService.getSearchIndex(), commentService.getSearchIndex(), new KMPStringMatchingImpl());
+    }
+
+    public SearchService(SearchIndex<Post> postIndex, SearchIndex<Comment> commentIndex,
+            IAlgoStringMatching stringMatching) {
+        this.stringMatching = stringMatching;
+        this.postIndex = postIndex;
+        this.commentIndex = commentIndex;
+    }
+
+    public UnifiedSearchResult searchAll(String searchPattern) {
+        return searchAll(searchPattern, SearchFilter.NONE);
+    }
+
+    /**
+     * Searches post titles, post contents and comments in one pass and groups the hits by post.
+     * The filter applies to the author and creation time of each post and comment.
+     * Comments whose post no longer exists are left out.
+     */
+    public UnifiedSearchResult searchAll(String searchPattern, SearchFilter filter) {
+        Map<String, SearchResult<Post>> postResults = postIndex.searchFields(List.of("title", "content"),
+                searchPattern, stringMatching, filter);
+        SearchResult<Comment> commentResult = commentIndex.search("content", searchPattern, stringMatching, filter);
+
+        TreeMap<Long, PostSearchGroup> groups = new TreeMap<>();
+        for (MatchResult<Post> match : postResults.get("title").getMatches()) {
+            groups.computeIfAbsent(match.getItem().getId(), _ -> new PostSearchGroup(match.getItem()))
+                    .setTitleIndexes(match.getIndexes());
+        }
+        for (MatchResult<Post> match : postResults.get("content").getMatches()) {
+            groups.computeIfAbsent(match.getItem().getId(), _ -> new PostSearchGroup(match.getItem()))
+                    .setContentIndexes(match.getIndexes());
+        }
+        for (MatchResult<Comment> match : commentResult.getMatches()) {
+            long postId = match.getItem().getPostId();
+            PostSearchGroup group = groups.get(postId);
+            if (group == null) {
+                Post post = postIndex.getDocument(postId);
+                if (post == null)
+                    continue;
+                group = new PostSearchGroup(post);
+                groups.put(postId, group);
+            }
+            group.addComment(match.getItem(), match.getIndexes());
+        }
+
+        UnifiedSearchResult unifiedResult = new UnifiedSearchResult(searchPattern);
+        for (PostSearchGroup group : groups.values())
+            unifiedResult.addGroup(group);
+        return unifiedResult;
+    }
+}
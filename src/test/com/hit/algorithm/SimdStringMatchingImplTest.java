@@ -0,0 +1,121 @@
+package com.hit.algorithm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares both paths of SimdStringMatchingImpl, the vectorized blocks with their scalar tail and
+ * the scalar scan alone, with KMPStringMatchingImpl.
+ */
+public class SimdStringMatchingImplTest {
+    private final IAlgoStringMatching kmp = new KMPStringMatchingImpl();
+    private final SimdStringMatchingImpl vectorized = new SimdStringMatchingImpl(true);
+    private final SimdStringMatchingImpl scalar = new SimdStringMatchingImpl(false);
+    // The number of positions compared at once; the scalar path has no blocks
+    private final int blockLength = vectorized.isVectorized() ? VectorScanKernel.blockLength() : 8;
+
+    private void assertSameMatches(String text, String pattern) {
+        int[] expected = kmp.search(text, pattern);
+        assertArrayEquals(expected, vectorized.search(text, pattern),
+                "vectorized, pattern '" + pattern + "' in '" + text + "'");
+        assertArrayEquals(expected, scalar.search(text, pattern),
+                "scalar, pattern '" + pattern + "' in '" + text + "'");
+    }
+
+    @Test
+    void testVectorizedWhenAvailable() {
+        assertEquals(SimdStringMatchingImpl.isVectorApiAvailable(), vectorized.isVectorized());
+        assertFalse(scalar.isVectorized());
+    }
+
+    @Test
+    void testRandomInputs() {
+        Random random = new Random(42);
+        // Small alphabets give many partial and overlapping matches
+        for (String alphabet : new String[]{"ab", "abc", "milk cereal"}) {
+            for (int run = 0; run < 300; run++) {
+                String text = randomString(random, alphabet, random.nextInt(4 * blockLength + 10));
+                String pattern = randomString(random, alphabet, 1 + random.nextInt(blockLength + 3));
+                assertSameMatches(text, pattern);
+                // A pattern taken from the text matches at least once
+                if (text.length() > 2) {
+                    int start = random.nextInt(text.length() - 1);
+                    assertSameMatches(text, text.substring(start, start + 1 + random.nextInt(text.length() - start)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testShortPatterns() {
+        String text = "abracadabra, a cadabra".repeat(3);
+        assertSameMatches(text, "a");
+        assertSameMatches(text, "c");
+        assertSameMatches(text, "z");
+        assertSameMatches(text, "ab");
+        assertSameMatches(text, "a ");
+        assertSameMatches(text, "aa");
+    }
+
+    @Test
+    void testOverlappingMatches() {
+        String text = "a".repeat(3 * blockLength + 5);
+        assertSameMatches(text, "a");
+        assertSameMatches(text, "aa");
+        assertSameMatches(text, "aaa");
+        assertEquals(text.length() - 2, vectorized.search(text, "aaa").length);
+        assertSameMatches("abababababababababababababababab", "abab");
+        assertArrayEquals(new int[]{0, 2, 4}, scalar.search("abababab", "abab"));
+    }
+
+    @Test
+    void testMatchesAtBlockBoundaries() {
+        String pattern = "milk";
+        for (int position : new int[]{0, blockLength - 1, blockLength, 2 * blockLength - 2, 2 * blockLength - 1}) {
+            // A match starting at the position, crossing the boundary when it is just before one
+            String text = ".".repeat(position) + pattern + ".".repeat(2 * blockLength);
+            assertSameMatches(text, pattern);
+            assertArrayEquals(new int[]{position}, vectorized.search(text, pattern), "at " + position);
+        }
+    }
+
+    @Test
+    void testMatchesInTail() {
+        // The positions after the last whole block are left to the scalar tail
+        for (int length = blockLength; length < 3 * blockLength + 4; length++) {
+            String text = ".".repeat(length) + "cereal";
+            assertArrayEquals(new int[]{length}, vectorized.search(text, "cereal"), "text length " + text.length());
+            assertSameMatches(text, "cereal");
+            assertSameMatches(text + "l", "l");
+        }
+    }
+
+    @Test
+    void testPatternEqualsText() {
+        for (int length = 1; length <= 2 * blockLength + 1; length++) {
+            String text = "ab".repeat(length).substring(0, length);
+            assertArrayEquals(new int[]{0}, vectorized.search(text, text));
+            assertArrayEquals(new int[]{0}, scalar.search(text, text));
+        }
+    }
+
+    @Test
+    void testNoPossibleMatch() {
+        assertArrayEquals(new int[0], vectorized.search("milk", ""));
+        assertArrayEquals(new int[0], vectorized.search("milk", "milky"));
+        assertArrayEquals(new int[0], vectorized.search("", "m"));
+        assertArrayEquals(new int[0], scalar.search(null, "m"));
+        assertArrayEquals(new int[0], scalar.search("milk", null));
+        assertSameMatches("milk first", "cereal");
+    }
+
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return builder.toString();
+    }
+}
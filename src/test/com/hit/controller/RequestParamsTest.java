@@ -0,0 +1,68 @@
+package com.hit.controller;
+
+import com.hit.search.SearchFilter;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that RequestParams reads every accepted representation of a parameter and reports a
+ * parameter of the wrong type with an IllegalArgumentException, which the client receives as a 400.
+ */
+public class RequestParamsTest {
+
+    private static Map<String, Object> bodyOf(Object... entries) {
+        Map<String, Object> body = new HashMap<>();
+        for (int i = 0; i < entries.length; i += 2)
+            body.put((String) entries[i], entries[i + 1]);
+        return body;
+    }
+
+    @Test
+    void testSearchFilter() {
+        SearchFilter filter = RequestParams.getSearchFilter(bodyOf("userName", "joe", "fromTimestamp", 10.0, "toTimestamp", "20"));
+        assertEquals(new SearchFilter("joe", 10L, 20L), filter);
+        assertTrue(RequestParams.getSearchFilter(bodyOf()).isEmpty());
+        assertTrue(RequestParams.getSearchFilter(bodyOf("userName", null)).isEmpty());
+    }
+
+    @Test
+    void testSearchFilterRejectsWrongTypes() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> RequestParams.getSearchFilter(bodyOf("userName", 5.0)));
+        assertEquals("Invalid type for userName: 5.0", e.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> RequestParams.getSearchFilter(bodyOf("userName", Map.of("name", "joe"))));
+        assertThrows(IllegalArgumentException.class,
+                () -> RequestParams.getSearchFilter(bodyOf("fromTimestamp", true)));
+        assertThrows(IllegalArgumentException.class,
+                () -> RequestParams.getSearchFilter(bodyOf("toTimestamp", "yesterday")));
+    }
+
+    @Test
+    void testNumbers() {
+        assertEquals(7L, RequestParams.getLong(bodyOf("postId", 7.0), "postId"));
+        assertEquals(7L, RequestParams.getLong(bodyOf("postId", 7L), "postId"));
+        assertEquals(7L, RequestParams.getLong(bodyOf("postId", "7"), "postId"));
+        assertNull(RequestParams.getOptionalLong(bodyOf(), "postId"));
+        assertEquals(3, RequestParams.getInt(bodyOf(), "maxResults", 3));
+        assertEquals(5, RequestParams.getInt(bodyOf("maxResults", 5.0), "maxResults", 3));
+        assertThrows(IllegalArgumentException.class, () -> RequestParams.getLong(bodyOf(), "postId"));
+        assertThrows(IllegalArgumentException.class, () -> RequestParams.getLong(bodyOf("postId", true), "postId"));
+        assertThrows(IllegalArgumentException.class, () -> RequestParams.getInt(bodyOf("maxResults", "many"), "maxResults", 3));
+    }
+
+    @Test
+    void testFlagsAndDistance() {
+        assertFalse(RequestParams.getBoolean(bodyOf(), "parallel"));
+        assertTrue(RequestParams.getBoolean(bodyOf("parallel", true), "parallel"));
+        assertTrue(RequestParams.getBoolean(bodyOf("parallel", "true"), "parallel"));
+        assertThrows(IllegalArgumentException.class, () -> RequestParams.getBoolean(bodyOf("parallel", 1.0), "parallel"));
+        assertEquals(1, RequestParams.getMaxDistance(bodyOf()));
+        assertEquals(2, RequestParams.getMaxDistance(bodyOf("maxDistance", 2.0)));
+        assertThrows(IllegalArgumentException.class, () -> RequestParams.getMaxDistance(bodyOf("maxDistance", 3.0)));
+    }
+}
@@ -0,0 +1,244 @@
+package com.hit.server;
+
+import com.hit.dm.Comment;
+import com.hit.dm.MatchResult;
+import com.hit.dm.Post;
+import com.hit.dm.SearchResult;
+import com.hit.dm.User;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Round-trips requests and responses through BinaryCodec and checks that truncated or malformed
+ * payloads are rejected with an IllegalArgumentException.
+ */
+public class BinaryCodecTest {
+
+    private static byte[] payloadOf(byte[] frame) {
+        int length = ((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16) | ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+        assertEquals(frame.length - BinaryCodec.FRAME_HEADER_BYTES, length, "frame length");
+        return Arrays.copyOfRange(frame, BinaryCodec.FRAME_HEADER_BYTES, frame.length);
+    }
+
+    private static byte[] responsePayload(Object result) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("result", result);
+        return payloadOf(BinaryCodec.encodeResponse(new Response(200, body)));
+    }
+
+    private static Object roundTrip(Object result) {
+        Response response = BinaryCodec.decodeResponse(responsePayload(result));
+        assertEquals(200, response.getStatus());
+        return response.getBody().get("result");
+    }
+
+    @Test
+    void testRequestRoundTrip() {
+        Map<String, Object> body = new HashMap<>();
+        body.put("postId", 42L);
+        body.put("pattern", "cereal");
+        Request request = BinaryCodec.decodeRequest(payloadOf(BinaryCodec.encodeRequest(new Request("post/search-contents", body))));
+        assertEquals("post/search-contents", request.getAction());
+        assertEquals(body, request.getBody());
+        assertTrue(request.isKeepAlive());
+
+        // Every action keeps its code, an empty body comes back empty
+        for (String action : BinaryCodec.ACTIONS) {
+            Request decoded = BinaryCodec.decodeRequest(payloadOf(BinaryCodec.encodeRequest(new Request(action, null))));
+            assertEquals(action, decoded.getAction());
+            assertTrue(decoded.getBody().isEmpty());
+        }
+    }
+
+    @Test
+    void testRejectsUnknownAction() {
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryCodec.encodeRequest(new Request("post/unknown", new HashMap<>())));
+    }
+
+    @Test
+    void testScalarRoundTrip() {
+        for (Object value : new Object[]{null, true, false, 0L, -1L, 300L, Long.MIN_VALUE, Long.MAX_VALUE,
+                1.5, -0.0, Double.NaN, "", "milk", "חלב and 🥛"})
+            assertEquals(value, roundTrip(value));
+        // Other integers come back as longs, floats as doubles and enums as their names
+        assertEquals(7L, roundTrip(7));
+        assertEquals(2.5, roundTrip(2.5f));
+        assertEquals("ADMIN", roundTrip(User.Role.ADMIN));
+        assertArrayEquals(new int[]{3, 1, 400, -5}, (int[]) roundTrip(new int[]{3, 1, 400, -5}));
+    }
+
+    @Test
+    void testPostRoundTrip() {
+        Post post = new Post(12L, "Cereal first", "joe", "Milk goes after the cereal", 1_700_000_000_000L);
+        post.setEdited(true);
+        Post decoded = (Post) roundTrip(post);
+        assertEquals(12L, decoded.getId());
+        assertEquals("Cereal first", decoded.getTitle());
+        assertEquals("joe", decoded.getUserName());
+        assertEquals("Milk goes after the cereal", decoded.getContent());
+        assertEquals(1_700_000_000_000L, decoded.getTimestamp());
+        assertEquals(true, decoded.getEdited());
+
+        Post empty = (Post) roundTrip(new Post());
+        assertNull(empty.getTitle());
+        assertNull(empty.getContent());
+        assertNull(empty.getEdited());
+    }
+
+    @Test
+    void testCommentRoundTrip() {
+        Comment comment = new Comment(7L, 12L, "ann", "Cereal is the best", 1_700_000_000_001L);
+        comment.setEdited(false);
+        Comment decoded = (Comment) roundTrip(comment);
+        assertEquals(7L, decoded.getId());
+        assertEquals(12L, decoded.getPostId());
+        assertEquals("ann", decoded.getUserName());
+        assertEquals("Cereal is the best", decoded.getContent());
+        assertEquals(1_700_000_000_001L, decoded.getTimestamp());
+        assertEquals(false, decoded.getEdited());
+    }
+
+    @Test
+    void testUserRoundTripWithoutHash() {
+        String hash = "$2a$10$abcdefghijklmnopqrstuvABCDEFGHIJKLMNOPQRSTUVWXYZ012345";
+        User decoded = (User) roundTrip(User.withPasswordHash("joe", hash, User.Role.MODERATOR));
+        assertEquals("joe", decoded.getUsername());
+        assertEquals(User.Role.MODERATOR, decoded.getRole());
+        assertNull(decoded.getPassword());
+        // The hash is not even in the bytes
+        assertFalse(new String(responsePayload(User.withPasswordHash("joe", hash, User.Role.USER)),
+                StandardCharsets.ISO_8859_1).contains(hash));
+
+        User noRole = (User) roundTrip(User.withPasswordHash("ann", hash, null));
+        assertNull(noRole.getRole());
+    }
+
+    @Test
+    void testSearchResultWithoutLengths() {
+        SearchResult<Post> searchResult = new SearchResult<>("cereal");
+        searchResult.setPlan("INDEX_LOOKUP");
+        searchResult.addMatch(new Post(1L, "Cereal", "joe", "cereal and cereal", 1L), new int[]{0, 11});
+        searchResult.addMatch(new Post(2L, "Milk", "ann", "more cereal", 2L), new int[]{5});
+
+        SearchResult<?> decoded = (SearchResult<?>) roundTrip(searchResult);
+        assertEquals("cereal", decoded.getPattern());
+        assertEquals("INDEX_LOOKUP", decoded.getPlan());
+        assertEquals(2L, decoded.getMatches().size());
+        MatchResult<?> first = decoded.getMatches().get(0);
+        assertEquals(1L, ((Post) first.getItem()).getId());
+        assertArrayEquals(new int[]{0, 11}, first.getIndexes());
+        assertNull(first.getLengths());
+        MatchResult<?> second = decoded.getMatches().get(1);
+        assertEquals("more cereal", ((Post) second.getItem()).getContent());
+        assertArrayEquals(new int[]{5}, second.getIndexes());
+        assertNull(second.getLengths());
+
+        SearchResult<?> none = (SearchResult<?>) roundTrip(new SearchResult<Post>("milk"));
+        assertEquals("milk", none.getPattern());
+        assertNull(none.getPlan());
+        assertFalse(none.hasMatches());
+    }
+
+    @Test
+    void testSearchResultWithLengths() {
+        SearchResult<Comment> searchResult = new SearchResult<>("cereal");
+        searchResult.setPlan("FULL_SCAN");
+        searchResult.addMatch(new Comment(3L, 1L, "joe", "serial cereals", 1L), new int[]{0, 7}, new int[]{6, 7});
+
+        SearchResult<?> decoded = (SearchResult<?>) roundTrip(searchResult);
+        assertEquals("FULL_SCAN", decoded.getPlan());
+        MatchResult<?> match = decoded.getMatches().get(0);
+        assertEquals(3L, ((Comment) match.getItem()).getId());
+        assertArrayEquals(new int[]{0, 7}, match.getIndexes());
+        assertArrayEquals(new int[]{6, 7}, match.getLengths());
+    }
+
+    @Test
+    void testNestedMapsAndLists() {
+        Map<String, Object> inner = new LinkedHashMap<>();
+        inner.put("count", 3L);
+        inner.put("names", List.of("joe", "ann"));
+        inner.put("empty", new HashMap<>());
+        inner.put("missing", null);
+        List<Object> list = new ArrayList<>();
+        list.add(1L);
+        list.add("two");
+        list.add(inner);
+        list.add(List.of(List.of(), List.of(true, 4.5)));
+        list.add(null);
+        Map<String, Object> outer = new LinkedHashMap<>();
+        outer.put("list", list);
+        outer.put("inner", inner);
+
+        assertEquals(outer, roundTrip(outer));
+        assertEquals(list, roundTrip(list));
+
+        // A nested response, as in the results of a batch
+        List<?> responses = (List<?>) roundTrip(List.of(new Response(404, Map.of("error", "Not found"))));
+        Response nested = (Response) responses.get(0);
+        assertEquals(404, nested.getStatus());
+        assertEquals(Map.of("error", "Not found"), nested.getBody());
+    }
+
+    @Test
+    void testRejectsTruncatedPayloads() {
+        SearchResult<Post> searchResult = new SearchResult<>("cereal");
+        searchResult.addMatch(new Post(1L, "Cereal", "joe", "cereal", 1L), new int[]{0}, new int[]{6});
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("search", searchResult);
+        result.put("user", new User("joe", "secret"));
+        result.put("list", List.of(1L, 2.5, "three", Map.of("four", 4L)));
+        byte[] payload = responsePayload(result);
+        BinaryCodec.decodeResponse(payload);
+        // Every value delimits itself, so no strict prefix of a payload decodes
+        for (int length = 0; length < payload.length; length++) {
+            byte[] truncated = Arrays.copyOf(payload, length);
+            assertThrows(IllegalArgumentException.class, () -> BinaryCodec.decodeResponse(truncated), "length " + length);
+        }
+
+        byte[] request = payloadOf(BinaryCodec.encodeRequest(new Request("post/get", Map.of("postId", 1L))));
+        for (int length = 0; length < request.length; length++) {
+            byte[] truncated = Arrays.copyOf(request, length);
+            assertThrows(IllegalArgumentException.class, () -> BinaryCodec.decodeRequest(truncated), "length " + length);
+        }
+    }
+
+    @Test
+    void testRejectsMalformedPayloads() {
+        // Status 0, then a map of one entry "a" whose value has an unknown tag
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryCodec.decodeResponse(new byte[]{0, 2, 2, 'a', 99}), "unknown tag");
+        // A user with a role past the last one, followed by a second entry "b"
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryCodec.decodeResponse(new byte[]{0, 3, 2, 'a', 11, 1, 4, 2, 'b', 0}), "unknown role");
+        // A post whose edited flag is neither null, false nor true
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryCodec.decodeResponse(new byte[]{0, 2, 2, 'a', 9, 2, 0, 0, 0, 2, 7}), "invalid boolean");
+        // A list claiming more elements than there are bytes
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryCodec.decodeResponse(new byte[]{0, 2, 2, 'a', 6, (byte) 0xFF, (byte) 0xFF, 0x7F}), "invalid count");
+        // A varint that never ends
+        byte[] varint = new byte[12];
+        Arrays.fill(varint, (byte) 0xFF);
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.decodeResponse(varint), "malformed varint");
+        // Bytes after the body
+        byte[] payload = responsePayload("milk");
+        byte[] trailing = Arrays.copyOf(payload, payload.length + 1);
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.decodeResponse(trailing), "trailing bytes");
+
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryCodec.decodeRequest(new byte[]{(byte) BinaryCodec.ACTIONS.size(), 0}), "unknown action code");
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryCodec.decodeRequest(new byte[]{1, 0, 0}), "trailing bytes after a request");
+    }
+}
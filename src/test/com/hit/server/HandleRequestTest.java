@@ -0,0 +1,189 @@
+package com.hit.server;
+
+import com.hit.controller.ControllerFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs a HandleRequest over a loopback connection and checks how it answers and ends the connections
+ * of clients that stall, send too much or stop reading.
+ */
+public class HandleRequestTest {
+    @TempDir
+    Path tempDir;
+
+    private final ServerConfig config = new ServerConfig();
+    private RequestDispatcher dispatcher;
+    private Socket client;
+    private Socket server;
+    private HandleRequest handleRequest;
+    private Thread thread;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dispatcher = new RequestDispatcher(new ControllerFactory(tempDir.toString()));
+        config.setIdleTimeoutMillis(5000);
+        config.setReadTimeoutMillis(300);
+        config.setWriteTimeoutMillis(500);
+        config.setMaxRequestBytes(1024);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (client != null)
+            client.close();
+        if (server != null)
+            server.close();
+    }
+
+    /**
+     * Connects a client and starts handling its connection.
+     *
+     * @param receiveBufferBytes the receive buffer of the client, 0 for the default
+     */
+    private void connect(int receiveBufferBytes) throws IOException {
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            client = new Socket();
+            if (receiveBufferBytes > 0)
+                client.setReceiveBufferSize(receiveBufferBytes);
+            client.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), listener.getLocalPort()));
+            server = listener.accept();
+        }
+        client.setSoTimeout(5000);
+        handleRequest = new HandleRequest(server, dispatcher, config,
+                new ResponseCompressor(ResponseCompressor.DEFAULT_THRESHOLD_BYTES), null, null);
+        thread = Thread.ofPlatform().daemon().start(handleRequest);
+    }
+
+    private BufferedReader reader() throws IOException {
+        return new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private void send(String text) throws IOException {
+        OutputStream output = client.getOutputStream();
+        output.write(text.getBytes(StandardCharsets.UTF_8));
+        output.flush();
+    }
+
+    /**
+     * Reads a line, returning null when the connection was closed or reset.
+     */
+    private static String readLineOrNull(BufferedReader reader) throws IOException {
+        try {
+            return reader.readLine();
+        } catch (SocketException e) {
+            return null;
+        }
+    }
+
+    private void assertConnectionEnded(BufferedReader reader) throws Exception {
+        assertNull(readLineOrNull(reader), "The connection should be closed.");
+        thread.join(5000);
+        assertFalse(thread.isAlive(), "The connection thread should end.");
+        assertTrue(server.isClosed());
+    }
+
+    @Test
+    void testOversizedRequestAnswered413() throws Exception {
+        connect(0);
+        BufferedReader reader = reader();
+        // Well over the limit, since the readers above the input buffer ahead of the request
+        send("{\"action\":\"post/create\",\"body\":{\"content\":\"" + "x".repeat(40_000) + "\"},\"keepAlive\":true}\n");
+        assertEquals("{\"status\":413,\"body\":{\"error\":\"Request too large.\"}}", reader.readLine());
+        assertConnectionEnded(reader);
+    }
+
+    @Test
+    void testRequestBelowLimitAccepted() throws Exception {
+        connect(0);
+        BufferedReader reader = reader();
+        send("{\"action\":\"post/create\",\"body\":{\"title\":\"t\",\"userName\":\"joe\",\"content\":\""
+                + "x".repeat(800) + "\"},\"keepAlive\":true}\n");
+        assertTrue(reader.readLine().startsWith("{\"status\":200"));
+        send("{\"action\":\"post/get-all\"}\n");
+        assertTrue(reader.readLine().startsWith("{\"status\":200"));
+        assertConnectionEnded(reader);
+    }
+
+    @Test
+    void testStalledRequestAnswered408() throws Exception {
+        connect(0);
+        BufferedReader reader = reader();
+        long start = System.nanoTime();
+        send("{\"action\":\"post/get-all\",");
+        assertEquals("{\"status\":408,\"body\":{\"error\":\"Request timed out.\"}}", reader.readLine());
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 250 && elapsed < 3000, "answered after " + elapsed + " ms");
+        assertConnectionEnded(reader);
+    }
+
+    @Test
+    void testIdleConnectionClosedWithoutAnswer() throws Exception {
+        config.setIdleTimeoutMillis(200);
+        connect(0);
+        BufferedReader reader = reader();
+        send("{\"action\":\"post/get-all\",\"keepAlive\":true}\n");
+        assertTrue(reader.readLine().startsWith("{\"status\":200"));
+        // No next request: the connection is closed after the idle timeout, unlike a stalled request
+        long start = System.nanoTime();
+        assertConnectionEnded(reader);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 150 && elapsed < 3000, "closed after " + elapsed + " ms");
+    }
+
+    @Test
+    void testOversizedBinaryFrameAnswered413() throws Exception {
+        connect(0);
+        DataOutputStream output = new DataOutputStream(client.getOutputStream());
+        output.write(BinaryCodec.MAGIC);
+        output.writeInt(config.getMaxRequestBytes() + 1);
+        output.flush();
+
+        DataInputStream input = new DataInputStream(client.getInputStream());
+        byte[] payload = new byte[input.readInt()];
+        input.readFully(payload);
+        assertEquals(413, BinaryCodec.decodeResponse(payload).getStatus());
+        assertEquals(-1, input.read());
+        thread.join(5000);
+        assertFalse(thread.isAlive(), "The connection thread should end.");
+    }
+
+    @Test
+    void testClosedIfStalled() throws Exception {
+        // Responses of about 1 MB each, which a client that does not read cannot take for long
+        for (int i = 0; i < 50; i++)
+            dispatcher.dispatch(new Request("post/create", Map.of("title", "Post " + i, "userName", "joe",
+                    "content", "milk and cereal ".repeat(1300))), null);
+        connect(16 * 1024);
+        send("{\"action\":\"post/get-all\",\"keepAlive\":true}\n".repeat(30));
+
+        // Not stalled while the responses are written, or before the write timeout
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (thread.isAlive() && System.nanoTime() < deadline) {
+            handleRequest.closeIfStalled(System.nanoTime());
+            Thread.sleep(50);
+        }
+        assertFalse(thread.isAlive(), "The stalled connection should be closed.");
+        assertTrue(server.isClosed());
+    }
+}
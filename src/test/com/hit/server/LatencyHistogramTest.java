@@ -0,0 +1,94 @@
+package com.hit.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the buckets of LatencyHistogram and that its percentiles are within 1/64 of the exact ones.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    void testBucketBoundaries() {
+        // Below 128 microseconds every duration has its own bucket
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(127, LatencyHistogram.bucketOf(127));
+        assertEquals(127, LatencyHistogram.highestValueOf(127));
+        // From 128 to 255 the buckets are 2 microseconds wide
+        assertEquals(128, LatencyHistogram.bucketOf(128));
+        assertEquals(128, LatencyHistogram.bucketOf(129));
+        assertEquals(129, LatencyHistogram.highestValueOf(128));
+        assertEquals(191, LatencyHistogram.bucketOf(255));
+        assertEquals(255, LatencyHistogram.highestValueOf(191));
+        // From 256 to 511 they are 4 microseconds wide
+        assertEquals(192, LatencyHistogram.bucketOf(256));
+        assertEquals(192, LatencyHistogram.bucketOf(259));
+        assertEquals(193, LatencyHistogram.bucketOf(260));
+        assertEquals(259, LatencyHistogram.highestValueOf(192));
+    }
+
+    @Test
+    void testHighestValueIsLastOfBucket() {
+        int last = LatencyHistogram.bucketOf(LatencyHistogram.MAX_MICROS);
+        assertEquals(LatencyHistogram.MAX_MICROS, LatencyHistogram.highestValueOf(last));
+        for (int bucket = 0; bucket < last; bucket++) {
+            long highest = LatencyHistogram.highestValueOf(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(highest), "highest value of bucket " + bucket);
+            assertEquals(bucket + 1, LatencyHistogram.bucketOf(highest + 1), "value after bucket " + bucket);
+            // Every bucket is at most 1/64 of its values wide
+            long lowest = bucket == 0 ? 0 : LatencyHistogram.highestValueOf(bucket - 1) + 1;
+            assertTrue(highest - lowest <= lowest / 64, "width of bucket " + bucket);
+        }
+    }
+
+    @Test
+    void testPercentilesWithinPrecision() {
+        Random random = new Random(42);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] durations = new long[20_000];
+        for (int i = 0; i < durations.length; i++) {
+            // Spread over several orders of magnitude, from microseconds to seconds
+            durations[i] = (long) Math.exp(random.nextDouble() * Math.log(5_000_000));
+            histogram.record(durations[i]);
+        }
+        Arrays.sort(durations);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(durations.length, snapshot.count());
+        assertEquals(durations[durations.length - 1], snapshot.maxMicros());
+        assertEquals(Arrays.stream(durations).average().orElseThrow(), snapshot.meanMicros(), 1e-6, "mean");
+        for (double percent : new double[]{0.1, 1, 10, 25, 50, 75, 90, 99, 99.9, 99.99, 100}) {
+            long exact = durations[(int) Math.max(1, Math.ceil(percent / 100 * durations.length)) - 1];
+            long percentile = snapshot.percentile(percent);
+            // The highest value of the bucket of the exact one, never below it
+            assertTrue(percentile >= exact, percent + "th percentile " + percentile + " below " + exact);
+            assertTrue(percentile - exact <= exact / 64, percent + "th percentile " + percentile + " too far from " + exact);
+        }
+        assertEquals(snapshot.maxMicros(), snapshot.percentile(100));
+    }
+
+    @Test
+    void testClampsOutOfRangeDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.count());
+        assertEquals(LatencyHistogram.MAX_MICROS, snapshot.maxMicros());
+        assertEquals(LatencyHistogram.MAX_MICROS, snapshot.sumMicros());
+        assertEquals(0, snapshot.percentile(50));
+        assertEquals(LatencyHistogram.MAX_MICROS, snapshot.percentile(99));
+    }
+
+    @Test
+    void testEmptySnapshot() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.count());
+        assertEquals(0, snapshot.percentile(99));
+        assertEquals(0.0, snapshot.meanMicros(), 0, "mean");
+    }
+}
@@ -0,0 +1,280 @@
+package com.hit.server;
+
+import com.hit.controller.ControllerFactory;
+import com.hit.controller.PostController;
+import com.hit.dao.CommentDaoImpl;
+import com.hit.dao.PostDaoImpl;
+import com.hit.dao.UserDaoImpl;
+import com.hit.dm.Post;
+import com.hit.json.Json;
+import com.hit.service.PostService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Talks to a NioServer over sockets, with its data files in a temporary directory.
+ * <p>
+ * A "post/get" request with {@code "hold": true} waits in its worker until the test releases it,
+ * which keeps the requests pipelined after it queued in the connection.
+ */
+public class NioServerTest {
+    @TempDir
+    Path tempDir;
+
+    private final ServerConfig config = new ServerConfig();
+    private final CountDownLatch held = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private NioServer server;
+    private Thread thread;
+
+    /**
+     * The controllers of the data directory, whose "post/get" action can be held.
+     */
+    private class HoldingControllerFactory extends ControllerFactory {
+        private final PostController postController;
+
+        private HoldingControllerFactory(String dataDirectory) throws IOException {
+            super(dataDirectory);
+            PostService postService = new PostService(new PostDaoImpl(dataDirectory + "/post.json"),
+                    new CommentDaoImpl(dataDirectory + "/comment.json"), new UserDaoImpl(dataDirectory + "/user.json"));
+            postController = new PostController(postService) {
+                @Override
+                public Post getPostById(Map<String, Object> requestBody) throws IOException {
+                    if (Boolean.TRUE.equals(requestBody.get("hold"))) {
+                        held.countDown();
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return super.getPostById(requestBody);
+                }
+            };
+        }
+
+        @Override
+        public Object getController(String controllerName) {
+            return controllerName.equals("post") ? postController : super.getController(controllerName);
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        config.setPort(0);
+        config.setMaxRequestBytes(1024);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        release.countDown();
+        if (server != null) {
+            server.stop();
+            thread.join(5000);
+        }
+    }
+
+    private void start() throws IOException {
+        server = new NioServer(config, new HoldingControllerFactory(tempDir.toString()));
+        thread = Thread.ofPlatform().daemon().start(server);
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", server.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static BufferedReader readerOf(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static PrintWriter writerOf(Socket socket) throws IOException {
+        return new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+    }
+
+    private static int statusOf(String line) {
+        assertNotNull(line, "A response was expected.");
+        return ((Number) Json.GSON.fromJson(line, Map.class).get("status")).intValue();
+    }
+
+    /**
+     * Reads a line, returning null when the connection was closed or reset.
+     */
+    private static String readLineOrNull(BufferedReader reader) throws IOException {
+        try {
+            return reader.readLine();
+        } catch (SocketException e) {
+            return null;
+        }
+    }
+
+    @Test
+    void testPipelinedRequestsAnsweredInOrder() throws IOException {
+        start();
+        try (Socket socket = connect()) {
+            // Sent together, before any response is read
+            OutputStream output = socket.getOutputStream();
+            output.write(("{\"action\":\"post/create\",\"body\":{\"title\":\"First\",\"userName\":\"joe\",\"content\":\"milk\"},\"keepAlive\":true}\n"
+                    + "{\"action\":\"post/get-all\",\"keepAlive\":true}\n"
+                    + "{\"action\":\"post/get\",\"body\":{\"postId\":99},\"keepAlive\":true}\n").getBytes(StandardCharsets.UTF_8));
+            output.flush();
+
+            BufferedReader reader = readerOf(socket);
+            assertEquals("{\"status\":200,\"body\":{\"result\":\"Post created successfully\"}}", reader.readLine());
+            String all = reader.readLine();
+            assertEquals(200, statusOf(all));
+            assertTrue(all.contains("\"title\":\"First\""), "The second request should see the first: " + all);
+            assertEquals(404, statusOf(reader.readLine()));
+
+            // The connection is still open for the next request
+            writerOf(socket).println("{\"action\":\"post/get-all\"}");
+            assertEquals(200, statusOf(reader.readLine()));
+            assertNull(readLineOrNull(reader));
+        }
+    }
+
+    @Test
+    void testOneShotRequestClosesConnection() throws IOException {
+        start();
+        try (Socket socket = connect()) {
+            writerOf(socket).println("{\"action\":\"post/get-all\"}");
+            BufferedReader reader = readerOf(socket);
+            assertEquals(200, statusOf(reader.readLine()));
+            assertNull(readLineOrNull(reader), "The connection should be closed after the response.");
+        }
+    }
+
+    @Test
+    void testBinaryProtocol() throws IOException {
+        start();
+        try (Socket socket = connect()) {
+            OutputStream output = socket.getOutputStream();
+            output.write(BinaryCodec.MAGIC);
+            output.write(BinaryCodec.encodeRequest(new Request("post/get-all", Map.of())));
+            output.write(BinaryCodec.encodeRequest(new Request("post/get", Map.of("postId", 99L))));
+            output.flush();
+
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+            for (int status : new int[]{200, 404}) {
+                byte[] payload = new byte[input.readInt()];
+                input.readFully(payload);
+                assertEquals(status, BinaryCodec.decodeResponse(payload).getStatus());
+            }
+        }
+    }
+
+    @Test
+    void testOversizedRequestAnswered413() throws IOException {
+        start();
+        try (Socket socket = connect()) {
+            writerOf(socket).println("{\"action\":\"post/create\",\"body\":{\"content\":\"" + "x".repeat(4000)
+                    + "\"},\"keepAlive\":true}");
+            BufferedReader reader = readerOf(socket);
+            assertEquals("{\"status\":413,\"body\":{\"error\":\"Request too large.\"}}", reader.readLine());
+            assertNull(readLineOrNull(reader), "The connection should be closed.");
+        }
+    }
+
+    @Test
+    void testRateLimitedRequestsAnswered429() throws IOException {
+        // A burst of two requests
+        config.setClientRequestsPerSecond(1);
+        start();
+        try (Socket socket = connect()) {
+            PrintWriter writer = writerOf(socket);
+            BufferedReader reader = readerOf(socket);
+            for (int i = 0; i < 2; i++) {
+                writer.println("{\"action\":\"post/get-all\",\"keepAlive\":true}");
+                assertEquals(200, statusOf(reader.readLine()));
+            }
+            // Rejected, but the connection was kept alive by the previous request
+            writer.println("{\"action\":\"post/get-all\",\"keepAlive\":true}");
+            String rejected = reader.readLine();
+            assertEquals(429, statusOf(rejected));
+            assertTrue(rejected.contains("retryAfterMillis"), rejected);
+            writer.println("{\"action\":\"post/get-all\",\"keepAlive\":true}");
+            assertEquals(429, statusOf(reader.readLine()));
+        }
+        // A rejected one-shot request closes its connection
+        try (Socket socket = connect()) {
+            writerOf(socket).println("{\"action\":\"post/get-all\",\"keepAlive\":true}");
+            BufferedReader reader = readerOf(socket);
+            assertEquals(429, statusOf(reader.readLine()));
+            assertNull(readLineOrNull(reader), "The connection should be closed.");
+        }
+    }
+
+    @Test
+    void testBusyServerAnswers503() throws Exception {
+        config.setMaxInFlightRequests(1);
+        start();
+        try (Socket holder = connect(); Socket other = connect()) {
+            writerOf(holder).println("{\"action\":\"post/get\",\"body\":{\"postId\":1,\"hold\":true}}");
+            assertTrue(held.await(5, TimeUnit.SECONDS));
+
+            // The only request in flight is held
+            writerOf(other).println("{\"action\":\"post/get-all\"}");
+            BufferedReader otherReader = readerOf(other);
+            assertEquals(503, statusOf(otherReader.readLine()));
+            assertNull(readLineOrNull(otherReader));
+
+            release.countDown();
+            assertEquals(404, statusOf(readerOf(holder).readLine()));
+        }
+    }
+
+    @Test
+    void testShutdownAnswersQueuedRequests503() throws Exception {
+        start();
+        try (Socket socket = connect()) {
+            PrintWriter writer = writerOf(socket);
+            writer.println("{\"action\":\"post/get\",\"body\":{\"postId\":1,\"hold\":true},\"keepAlive\":true}");
+            writer.println("{\"action\":\"post/get-all\",\"keepAlive\":true}");
+            writer.println("{\"action\":\"post/get-all\",\"keepAlive\":true}");
+            assertTrue(held.await(5, TimeUnit.SECONDS));
+            // Give the queued requests time to arrive before the shutdown
+            Thread.sleep(200);
+
+            CompletableFuture<Boolean> drained = CompletableFuture.supplyAsync(() -> server.shutdown(5000));
+            Thread.sleep(200);
+            assertFalse(drained.isDone(), "The shutdown should wait for the request being handled.");
+            release.countDown();
+
+            BufferedReader reader = readerOf(socket);
+            // The held request completes, the queued ones are refused
+            assertEquals(404, statusOf(reader.readLine()));
+            assertEquals(List.of(503, 503), List.of(statusOf(reader.readLine()), statusOf(reader.readLine())));
+            assertNull(readLineOrNull(reader), "The connection should be closed.");
+            assertTrue(drained.get(5, TimeUnit.SECONDS));
+        }
+        // No new connection is accepted
+        assertThrows(IOException.class, () -> {
+            try (Socket socket = connect()) {
+                writerOf(socket).println("{\"action\":\"post/get-all\"}");
+                if (readerOf(socket).readLine() == null)
+                    throw new IOException("Closed");
+            }
+        });
+    }
+}
@@ -0,0 +1,207 @@
+package com.hit.server;
+
+import com.hit.controller.ControllerFactory;
+import com.hit.dm.Post;
+import com.hit.dm.SearchResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Dispatches single requests and batches, sequential and parallel, with the data files in a
+ * temporary directory.
+ */
+public class RequestDispatcherTest {
+    @TempDir
+    Path tempDir;
+
+    private RequestDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dispatcher = newDispatcher("data");
+    }
+
+    /**
+     * Returns a dispatcher over empty data files, in a directory of its own.
+     */
+    private RequestDispatcher newDispatcher(String directory) throws IOException {
+        return new RequestDispatcher(new ControllerFactory(Files.createDirectories(tempDir.resolve(directory)).toString()));
+    }
+
+    private static Map<String, Object> item(String action, Map<String, Object> body) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("action", action);
+        item.put("body", body);
+        return item;
+    }
+
+    private static Map<String, Object> createPost(String title) {
+        return item("post/create", Map.of("title", title, "userName", "joe", "content", title + " with milk"));
+    }
+
+    private Response dispatchBatch(List<Map<String, Object>> items, boolean parallel) throws IOException {
+        return dispatcher.dispatch(new Request(RequestDispatcher.BATCH_ACTION,
+                new HashMap<>(Map.of("requests", items, "parallel", parallel))), null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Response> resultsOf(Response response) {
+        assertEquals(200, response.getStatus());
+        return (List<Response>) response.getBody().get("result");
+    }
+
+    private static Object resultOf(Response response) {
+        assertEquals(200, response.getStatus(), "status of " + response.getBody());
+        return response.getBody().get("result");
+    }
+
+    @Test
+    void testParallelBatchSeesEarlierWrites() throws IOException {
+        for (boolean parallel : new boolean[]{false, true}) {
+            dispatcher = newDispatcher("parallel-" + parallel);
+            List<Response> responses = resultsOf(dispatchBatch(List.of(
+                    createPost("Cereal first"),
+                    item("post/get-all", Map.of()),
+                    item("post/search-titles", Map.of("searchPattern", "cereal")),
+                    createPost("More cereal"),
+                    item("post/get-all", Map.of()),
+                    item("post/search-titles", Map.of("searchPattern", "cereal"))), parallel));
+
+            assertEquals(6, responses.size());
+            assertEquals("Post created successfully", resultOf(responses.get(0)));
+            assertEquals(1, ((List<?>) resultOf(responses.get(1))).size(), "parallel " + parallel);
+            assertEquals(1, ((SearchResult<?>) resultOf(responses.get(2))).getMatches().size(), "parallel " + parallel);
+            assertEquals("Post created successfully", resultOf(responses.get(3)));
+            List<?> posts = (List<?>) resultOf(responses.get(4));
+            assertEquals(2, posts.size(), "parallel " + parallel);
+            assertEquals("More cereal", ((Post) posts.get(1)).getTitle());
+            assertEquals(2, ((SearchResult<?>) resultOf(responses.get(5))).getMatches().size(), "parallel " + parallel);
+        }
+    }
+
+    @Test
+    void testParallelWritesWaitForEarlierReads() throws IOException {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch bothReading = new CountDownLatch(2);
+        dispatcher.addRoute(new Route("test/read", "test", true, 1, (body, writer) -> {
+            events.add("read " + body.get("n"));
+            bothReading.countDown();
+            try {
+                // Only returns early if the other read runs at the same time
+                boolean together = bothReading.await(5, TimeUnit.SECONDS);
+                Thread.sleep(100);
+                events.add("read " + body.get("n") + " done" + (together ? "" : " alone"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new Response(200, Map.of("result", "read"));
+        }));
+        dispatcher.addRoute(new Route("test/write", "test", false, 1, (body, writer) -> {
+            events.add("write");
+            return new Response(200, Map.of("result", "written"));
+        }));
+        dispatcher.addRoute(new Route("test/after", "test", true, 1, (body, writer) -> {
+            events.add("after");
+            return new Response(200, Map.of("result", "after"));
+        }));
+
+        List<Response> responses = resultsOf(dispatchBatch(List.of(
+                item("test/read", Map.of("n", 1)),
+                item("test/read", Map.of("n", 2)),
+                item("test/write", Map.of()),
+                item("test/after", Map.of())), true));
+
+        assertEquals(List.of("read", "read", "written", "after"), responses.stream().map(RequestDispatcherTest::resultOf).toList());
+        assertEquals(6, events.size(), events.toString());
+        // The reads ran together, the write after both of them and the last read after the write
+        assertEquals(List.of("read 1", "read 2"), events.subList(0, 2).stream().sorted().toList());
+        assertEquals(List.of("read 1 done", "read 2 done"), events.subList(2, 4).stream().sorted().toList());
+        assertEquals(List.of("write", "after"), events.subList(4, 6));
+    }
+
+    @Test
+    void testFailuresBecomeItemResponses() throws IOException {
+        for (boolean parallel : new boolean[]{false, true}) {
+            dispatcher = newDispatcher("parallel-" + parallel);
+            dispatcher.addRoute(new Route("test/fail", "test", true, 1, (body, writer) -> {
+                throw new IllegalStateException("Failure expected by the test");
+            }));
+            List<Response> responses = resultsOf(dispatchBatch(List.of(
+                    item("post/unknown", Map.of()),
+                    item("post/get", Map.of("postId", "not a number")),
+                    item("test/fail", Map.of()),
+                    item("post/get", Map.of("postId", 1)),
+                    createPost("Still created"),
+                    item("post/get-all", Map.of())), parallel));
+
+            assertEquals("Unknown action for post controller.", responses.get(0).getBody().get("error"));
+            assertEquals(400, responses.get(1).getStatus());
+            assertEquals(500, responses.get(2).getStatus());
+            assertEquals(404, responses.get(3).getStatus());
+            assertEquals(200, responses.get(4).getStatus());
+            assertEquals(1, ((List<?>) resultOf(responses.get(5))).size(), "parallel " + parallel);
+        }
+    }
+
+    @Test
+    void testNestedBatchesAndStreamsRejected() throws IOException {
+        for (boolean parallel : new boolean[]{false, true}) {
+            List<Response> responses = resultsOf(dispatchBatch(List.of(
+                    item("batch", Map.of("requests", List.of(item("post/get-all", Map.of())))),
+                    item("post/search-contents", Map.of("searchPattern", "milk", "stream", true)),
+                    item("post/get-all", Map.of())), parallel));
+
+            assertEquals("Batches cannot be nested.", responses.get(0).getBody().get("error"));
+            assertEquals(400, responses.get(0).getStatus());
+            assertEquals("Streamed searches cannot be batched.", responses.get(1).getBody().get("error"));
+            assertEquals(400, responses.get(1).getStatus());
+            assertEquals(200, responses.get(2).getStatus());
+        }
+        // Nor sent on a connection that cannot carry them
+        Response streamed = dispatcher.dispatch(new Request("post/search-contents",
+                new HashMap<>(Map.of("searchPattern", "milk", "stream", true))), null);
+        assertEquals(400, streamed.getStatus());
+    }
+
+    @Test
+    void testBatchSizeLimit() throws IOException {
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (int i = 0; i < RequestDispatcher.MAX_BATCH_SIZE; i++)
+            items.add(item("post/get-all", Map.of()));
+        assertEquals(RequestDispatcher.MAX_BATCH_SIZE, resultsOf(dispatchBatch(items, true)).size());
+
+        items.add(item("post/get-all", Map.of()));
+        Response response = dispatchBatch(items, true);
+        assertEquals(400, response.getStatus());
+        assertEquals("Invalid batch: more than 50 requests", response.getBody().get("error"));
+    }
+
+    @Test
+    void testInvalidBatches() throws IOException {
+        Response missing = dispatcher.dispatch(new Request(RequestDispatcher.BATCH_ACTION, new HashMap<>()), null);
+        assertEquals(400, missing.getStatus());
+        assertEquals("Invalid batch: missing requests", missing.getBody().get("error"));
+
+        Response notObject = dispatcher.dispatch(new Request(RequestDispatcher.BATCH_ACTION,
+                new HashMap<>(Map.of("requests", List.of("post/get-all")))), null);
+        assertEquals(400, notObject.getStatus());
+
+        Response badBody = dispatcher.dispatch(new Request(RequestDispatcher.BATCH_ACTION,
+                new HashMap<>(Map.of("requests", List.of(Map.of("action", "post/get", "body", 5))))), null);
+        assertEquals(400, badBody.getStatus());
+    }
+}
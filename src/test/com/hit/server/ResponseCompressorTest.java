@@ -0,0 +1,132 @@
+package com.hit.server;
+
+import com.hit.json.Json;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Encodes responses with ResponseCompressor and restores them as a client does, on both sides of
+ * the threshold.
+ */
+public class ResponseCompressorTest {
+    private static final int THRESHOLD = 256;
+
+    private final ResponseCompressor compressor = new ResponseCompressor(THRESHOLD);
+
+    /**
+     * Returns a search response of exactly the given size in bytes.
+     */
+    private static String jsonOfLength(int length) {
+        String prefix = "{\"status\":200,\"body\":{\"result\":{\"pattern\":\"cereal\",\"plan\":\"INDEX_LOOKUP\",\"content\":\"";
+        String suffix = "\"}}}";
+        return prefix + "milk cereal ".repeat(length).substring(0, length - prefix.length() - suffix.length()) + suffix;
+    }
+
+    /**
+     * Splits an encoded response into its header and its compressed bytes, checking the header.
+     */
+    private static byte[] compressedPart(byte[] encoded, String method, String json) {
+        int newline = 0;
+        while (encoded[newline] != '\n')
+            newline++;
+        Map<?, ?> header = Json.GSON.fromJson(new String(encoded, 0, newline, StandardCharsets.UTF_8), Map.class);
+        assertEquals(method, header.get("compression"));
+        byte[] compressed = Arrays.copyOfRange(encoded, newline + 1, encoded.length);
+        assertEquals(compressed.length, ((Number) header.get("length")).longValue(), "length");
+        assertEquals(json.getBytes(StandardCharsets.UTF_8).length, ((Number) header.get("originalLength")).longValue(), "originalLength");
+        return compressed;
+    }
+
+    @Test
+    void testGzipRoundTrip() throws IOException {
+        String json = jsonOfLength(4 * THRESHOLD);
+        byte[] encoded = compressor.encode(json, ResponseCompressor.Method.GZIP);
+        byte[] compressed = compressedPart(encoded, "gzip", json);
+        assertEquals(json, ResponseCompressor.decompress(compressed, ResponseCompressor.Method.GZIP));
+        assertTrue(encoded.length < json.length(), "compressed to " + encoded.length);
+    }
+
+    @Test
+    void testDeflateRoundTripWithDictionary() throws Exception {
+        String json = jsonOfLength(4 * THRESHOLD);
+        byte[] compressed = compressedPart(compressor.encode(json, ResponseCompressor.Method.DEFLATE), "deflate", json);
+        assertEquals(json, ResponseCompressor.decompress(compressed, ResponseCompressor.Method.DEFLATE));
+
+        // The inflater asks for the preset dictionary before any data
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            assertEquals(0, inflater.inflate(new byte[64]));
+            assertTrue(inflater.needsDictionary());
+            Adler32 dictionaryChecksum = new Adler32();
+            dictionaryChecksum.update(ResponseCompressor.DEFLATE_DICTIONARY);
+            assertEquals(dictionaryChecksum.getValue(), inflater.getAdler());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Test
+    void testThresholdBoundary() throws IOException {
+        for (ResponseCompressor.Method method : ResponseCompressor.Method.values()) {
+            ResponseCompressor compressor = new ResponseCompressor(THRESHOLD);
+            // One byte short of the threshold, the line is sent as it is
+            String below = jsonOfLength(THRESHOLD - 1);
+            assertEquals(below + "\n", new String(compressor.encode(below, method), StandardCharsets.UTF_8));
+            assertEquals(0, compressor.getCompressedResponses());
+
+            // At the threshold and above, it is compressed
+            for (int length : new int[]{THRESHOLD, THRESHOLD + 1}) {
+                String json = jsonOfLength(length);
+                byte[] compressed = compressedPart(compressor.encode(json, method), method.name().toLowerCase(), json);
+                assertEquals(json, ResponseCompressor.decompress(compressed, method));
+            }
+            assertEquals(2, compressor.getCompressedResponses());
+            assertEquals(2L * THRESHOLD + 1, compressor.getOriginalBytes());
+        }
+    }
+
+    @Test
+    void testThresholdCountsBytes() {
+        // Fewer characters than the threshold, but more UTF-8 bytes
+        String json = "{\"result\":\"" + "é".repeat(THRESHOLD / 2) + "\"}";
+        assertTrue(json.length() < THRESHOLD);
+        byte[] encoded = compressor.encode(json, ResponseCompressor.Method.GZIP);
+        assertNotEquals((int) '\n', (int) encoded[encoded.length - 1], "compressed");
+        assertEquals(1, compressor.getCompressedResponses());
+    }
+
+    @Test
+    void testNoMethod() {
+        String json = jsonOfLength(4 * THRESHOLD);
+        assertEquals(json + "\n", new String(compressor.encode(json, null), StandardCharsets.UTF_8));
+        assertEquals(0, compressor.getCompressedResponses());
+    }
+
+    @Test
+    void testNegotiate() {
+        assertEquals(ResponseCompressor.Method.GZIP, ResponseCompressor.negotiate(null, "gzip"));
+        assertEquals(ResponseCompressor.Method.DEFLATE, ResponseCompressor.negotiate(ResponseCompressor.Method.GZIP, " Deflate "));
+        assertEquals(ResponseCompressor.Method.GZIP, ResponseCompressor.negotiate(ResponseCompressor.Method.GZIP, null));
+        assertNull(ResponseCompressor.negotiate(ResponseCompressor.Method.GZIP, "none"));
+        assertNull(ResponseCompressor.negotiate(ResponseCompressor.Method.GZIP, "brotli"));
+    }
+
+    @Test
+    void testRejectsTruncatedData() {
+        String json = jsonOfLength(4 * THRESHOLD);
+        for (ResponseCompressor.Method method : ResponseCompressor.Method.values()) {
+            byte[] compressed = compressedPart(compressor.encode(json, method), method.name().toLowerCase(), json);
+            byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+            assertThrows(IOException.class, () -> ResponseCompressor.decompress(truncated, method), method.name());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.hit.server;
+
+import com.hit.controller.ControllerFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Talks to a blocking Server over sockets, with its data files in a temporary directory.
+ */
+public class ServerTest {
+    @TempDir
+    Path tempDir;
+
+    private Server server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setPort(0);
+        config.setIdleTimeoutMillis(60_000);
+        server = new Server(config, new ControllerFactory(tempDir.toString()));
+        Thread.ofPlatform().daemon().start(server);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    void testStopClosesKeptAliveConnections() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(5000);
+            PrintWriter writer = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            writer.println("{\"action\":\"post/get-all\",\"keepAlive\":true}");
+            assertTrue(reader.readLine().startsWith("{\"status\":200"));
+
+            // The connection waits for its next request, far from the idle timeout
+            server.stop();
+            assertNull(readLineOrNull(reader), "The connection should be closed by stop().");
+        }
+    }
+
+    /**
+     * Reads a line, returning null when the connection was closed or reset.
+     */
+    private static String readLineOrNull(BufferedReader reader) throws IOException {
+        try {
+            return reader.readLine();
+        } catch (SocketException e) {
+            return null;
+        }
+    }
+}
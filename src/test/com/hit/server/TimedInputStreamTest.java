@@ -0,0 +1,135 @@
+package com.hit.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives TimedInputStream over a loopback connection whose client stalls, trickles or sends too much.
+ */
+public class TimedInputStreamTest {
+    private static final int IDLE_TIMEOUT_MILLIS = 200;
+    private static final int READ_TIMEOUT_MILLIS = 300;
+    private static final int MAX_REQUEST_BYTES = 100;
+
+    private Socket client;
+    private Socket server;
+    private OutputStream clientOutput;
+    private TimedInputStream input;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            client = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+            server = listener.accept();
+        }
+        clientOutput = client.getOutputStream();
+        ServerConfig config = new ServerConfig();
+        config.setIdleTimeoutMillis(IDLE_TIMEOUT_MILLIS);
+        config.setReadTimeoutMillis(READ_TIMEOUT_MILLIS);
+        config.setMaxRequestBytes(MAX_REQUEST_BYTES);
+        input = new TimedInputStream(server, config);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    void testIdleTimeoutBetweenRequests() {
+        long start = System.nanoTime();
+        // Not a RequestTimeoutException: an idle connection is closed without an answer
+        IOException e = assertThrows(IOException.class, () -> input.read());
+        assertEquals(SocketTimeoutException.class, e.getClass());
+        assertTrue(millisSince(start) >= IDLE_TIMEOUT_MILLIS - 20, "timed out after " + millisSince(start) + " ms");
+    }
+
+    @Test
+    void testStalledRequest() throws IOException {
+        clientOutput.write("{\"action\":".getBytes());
+        clientOutput.flush();
+        assertEquals('{', input.read());
+        input.beginRequest();
+        byte[] buffer = new byte[64];
+        assertEquals(9, input.read(buffer, 0, buffer.length));
+
+        // The client sends nothing more
+        long start = System.nanoTime();
+        assertThrows(TimedInputStream.RequestTimeoutException.class, () -> input.read(buffer, 0, buffer.length));
+        assertTrue(millisSince(start) >= READ_TIMEOUT_MILLIS - 50, "timed out after " + millisSince(start) + " ms");
+    }
+
+    @Test
+    void testTricklingRequest() throws IOException {
+        input.beginRequest();
+        long start = System.nanoTime();
+        // Every byte arrives well within the idle timeout, but the request as a whole takes too long
+        assertThrows(TimedInputStream.RequestTimeoutException.class, () -> {
+            while (true) {
+                clientOutput.write('x');
+                clientOutput.flush();
+                assertEquals('x', input.read());
+                Thread.sleep(50);
+            }
+        });
+        long elapsed = millisSince(start);
+        assertTrue(elapsed >= READ_TIMEOUT_MILLIS && elapsed < READ_TIMEOUT_MILLIS + IDLE_TIMEOUT_MILLIS,
+                "timed out after " + elapsed + " ms");
+    }
+
+    @Test
+    void testOversizedRequest() throws IOException {
+        clientOutput.write(new byte[MAX_REQUEST_BYTES + 1]);
+        clientOutput.flush();
+        input.beginRequest();
+        byte[] buffer = new byte[MAX_REQUEST_BYTES + 1];
+        assertThrows(TimedInputStream.RequestTooLargeException.class, () -> {
+            int total = 0;
+            while (total <= MAX_REQUEST_BYTES)
+                total += input.read(buffer, total, buffer.length - total);
+        });
+    }
+
+    @Test
+    void testLimitCountsEveryRequest() throws IOException {
+        byte[] buffer = new byte[MAX_REQUEST_BYTES];
+        for (int request = 0; request < 3; request++) {
+            // A request of exactly the limit is accepted, and the next one starts from zero
+            clientOutput.write(buffer);
+            clientOutput.flush();
+            input.beginRequest();
+            int total = 0;
+            while (total < MAX_REQUEST_BYTES)
+                total += input.read(buffer, total, buffer.length - total);
+            input.endRequest();
+        }
+        // Outside of a request, nothing is counted or timed
+        clientOutput.write(new byte[2 * MAX_REQUEST_BYTES]);
+        clientOutput.flush();
+        assertEquals(2 * MAX_REQUEST_BYTES, input.readNBytes(2 * MAX_REQUEST_BYTES).length);
+    }
+
+    @Test
+    void testDrainStopsWaiting() {
+        input.drain();
+        long start = System.nanoTime();
+        assertThrows(SocketTimeoutException.class, () -> input.read());
+        assertTrue(millisSince(start) < IDLE_TIMEOUT_MILLIS, "waited " + millisSince(start) + " ms");
+    }
+}
@@ -0,0 +1,69 @@
+package com.hit.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives TokenBucket with a made-up clock, refilling 10 tokens a second, one every 100 ms.
+ */
+public class TokenBucketTest {
+    private static final long START = 5_000_000_000L;
+    private static final long MILLIS = 1_000_000L;
+
+    private final TokenBucket bucket = new TokenBucket(10, 5, START);
+
+    @Test
+    void testStartsFull() {
+        assertTrue(bucket.isFull(START));
+        // The whole capacity can be taken at once, as a burst
+        for (int i = 0; i < 5; i++)
+            assertEquals(0, bucket.tryTake(1, START), "request " + i);
+        assertFalse(bucket.isFull(START));
+    }
+
+    @Test
+    void testRejectsWhenEmpty() {
+        assertEquals(0, bucket.tryTake(5, START));
+        // One token comes back in 100 ms, three in 300 ms
+        assertEquals(100 * MILLIS, bucket.tryTake(1, START), 1, "wait for one token");
+        assertEquals(300 * MILLIS, bucket.tryTake(3, START), 1, "wait for three tokens");
+        // A rejection takes nothing
+        assertEquals(40 * MILLIS, bucket.tryTake(1, START + 60 * MILLIS), 1, "wait after 60 ms");
+    }
+
+    @Test
+    void testRefillsOverTime() {
+        assertEquals(0, bucket.tryTake(5, START));
+        assertTrue(bucket.tryTake(1, START + 99 * MILLIS) > 0);
+        assertEquals(0, bucket.tryTake(1, START + 100 * MILLIS));
+        // 200 ms later two tokens are back, not three
+        long later = START + 300 * MILLIS;
+        assertEquals(0, bucket.tryTake(2, later));
+        assertTrue(bucket.tryTake(1, later) > 0);
+        assertFalse(bucket.isFull(later + 499 * MILLIS));
+        assertTrue(bucket.isFull(later + 500 * MILLIS));
+    }
+
+    @Test
+    void testRefillStopsAtCapacity() {
+        assertEquals(0, bucket.tryTake(5, START));
+        // A long idle period gives back the capacity, no more
+        long later = START + 60_000 * MILLIS;
+        assertTrue(bucket.isFull(later));
+        assertEquals(0, bucket.tryTake(5, later));
+        assertEquals(100 * MILLIS, bucket.tryTake(1, later), 1, "wait for one token");
+    }
+
+    @Test
+    void testCostAboveCapacityLeavesDebt() {
+        // Admitted by a full bucket only
+        assertEquals(0, bucket.tryTake(1, START));
+        assertEquals(100 * MILLIS, bucket.tryTake(8, START), 1, "wait until full");
+        assertEquals(0, bucket.tryTake(8, START + 100 * MILLIS));
+        // The bucket now owes 3 tokens, so the next token is 400 ms away
+        assertEquals(400 * MILLIS, bucket.tryTake(1, START + 100 * MILLIS), 1, "wait after the debt");
+        assertFalse(bucket.isFull(START + 799 * MILLIS));
+        assertTrue(bucket.isFull(START + 900 * MILLIS));
+    }
+}
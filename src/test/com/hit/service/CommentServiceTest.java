@@ -189,4 +189,46 @@ public class CommentServiceTest {
                     "Match positions should be identical for comment ID: " + commentId);
         }
     }
+
+    @Test
+    void testFuzzySearchContents() throws IOException {
+        // Create comments with a misspelled and a correctly spelled word
+        commentService.createComment(1L, "user1", "Great answer, thanks");
+        commentService.createComment(1L, "user2", "Greet answr");
+        commentService.createComment(1L, "user3", "Nothing related");
+
+        // Every word of the pattern has to match, each within one edit
+        SearchResult<Comment> searchResult = commentService.fuzzySearchContents("great answer", 1);
+        assertEquals(2, searchResult.getMatches().size(), "Two comments should match.");
+        assertEquals(4, searchResult.countMatches(), "There should be 4 matched words.");
+
+        // Removed comments are no longer found
+        Comment removed = searchResult.getMatches().getFirst().getItem();
+        assertTrue(commentService.removeComment(removed.getId(), removed.getUserName()), "Owner should remove the comment.");
+        assertEquals(1, commentService.fuzzySearchContents("great answer", 1).getMatches().size(),
+                "Only one comment should match after the removal.");
+    }
+
+    @Test
+    void testSyncComments() throws IOException {
+        commentService.createComment(1L, "user1", "First comment");
+        long version = commentService.syncComments(null, null).getVersion();
+
+        commentService.createComment(1L, "user1", "Second comment");
+        commentService.createComment(2L, "user2", "Comment of another post");
+        Comment first = commentService.getAllComments().stream()
+                .filter(c -> c.getContent().equals("First comment")).findFirst().orElseThrow();
+        assertTrue(commentService.removeComment(first.getId(), "user1"), "Owner should remove the comment.");
+
+        // Only the changes of the post followed by the client
+        SyncResult<Comment> delta = commentService.syncComments(version, 1L);
+        assertFalse(delta.isFull(), "A sync from a known version should be a delta.");
+        assertEquals(List.of("Second comment"), delta.getItems().stream().map(Comment::getContent).toList());
+        assertEquals(List.of(first.getId()), delta.getRemoved());
+
+        // A full sync of one post holds its comments only
+        SyncResult<Comment> full = commentService.syncComments(null, 2L);
+        assertTrue(full.isFull(), "A sync without a version should be full.");
+        assertEquals(List.of("Comment of another post"), full.getItems().stream().map(Comment::getContent).toList());
+    }
 }
@@ -1,9 +1,15 @@
 package com.hit.service;
 
+import com.google.gson.Gson;
 import com.hit.dao.CommentDaoImpl;
 import com.hit.dao.PostDaoImpl;
 import com.hit.dao.UserDaoImpl;
 import com.hit.dm.*;
+import com.hit.search.SearchFilter;
+import com.hit.search.SearchIndex;
+import com.hit.search.SearchPlanLog;
+import com.hit.search.SearchSummary;
+import com.hit.search.SnippetExtractor;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -170,6 +176,39 @@ public class PostServiceTest {
         assertEquals(3, allPosts.size(), "There should be three posts in total.");
     }
 
+    @Test
+    void testSyncPosts() throws IOException {
+        postService.createPost("Post One", "user1", "Content One");
+        postService.createPost("Post Two", "user1", "Content Two");
+
+        // A first sync gets everything
+        SyncResult<Post> full = postService.syncPosts(null);
+        assertTrue(full.isFull(), "A sync without a version should be full.");
+        assertEquals(2, full.getItems().size(), "The full sync should hold both posts.");
+
+        // Only the changes since that version come next, each entity once, removals as tombstones
+        Post first = postService.getAllPosts().stream().filter(p -> p.getTitle().equals("Post One")).findFirst().orElseThrow();
+        Post second = postService.getAllPosts().stream().filter(p -> p.getTitle().equals("Post Two")).findFirst().orElseThrow();
+        assertTrue(postService.editPost(first.getId(), "Post One, edited", "user1", "Content One"));
+        assertTrue(postService.editPost(first.getId(), "Post One, edited again", "user1", "Content One"));
+        assertTrue(postService.removePost(second.getId(), "user1"));
+        postService.createPost("Post Three", "user1", "Content Three");
+
+        SyncResult<Post> delta = postService.syncPosts(full.getVersion());
+        assertFalse(delta.isFull(), "A sync from a known version should be a delta.");
+        assertEquals(List.of("Post One, edited again", "Post Three"), delta.getItems().stream().map(Post::getTitle).toList());
+        assertEquals(List.of(second.getId()), delta.getRemoved());
+        assertTrue(delta.getVersion() > full.getVersion(), "The version should increase with the changes.");
+
+        // Nothing changed since the last sync
+        SyncResult<Post> empty = postService.syncPosts(delta.getVersion());
+        assertTrue(empty.getItems().isEmpty() && empty.getRemoved().isEmpty(), "Nothing should have changed.");
+        assertEquals(delta.getVersion(), empty.getVersion());
+
+        // A version older than the history, e.g. from before a restart, gets everything again
+        assertTrue(postService.syncPosts(1L).isFull(), "An unknown version should get a full sync.");
+    }
+
     @Test
     void testGetPostComments() throws IOException {
         // Create a post
@@ -288,4 +327,276 @@ public class PostServiceTest {
                     "Match positions should be identical for post ID: " + postId);
         }
     }
+
+    @Test
+    void testFuzzySearchContents() throws IOException {
+        // Create posts that contain the searched word, a close variant of it, or nothing similar
+        postService.createPost("Title A", "user1", "I love cereal with milk");
+        postService.createPost("Title B", "user2", "Nothing to see here");
+        postService.createPost("Title C", "user3", "Cereals and more cereal");
+
+        // "cerial" is one edit away from "cereal" and two edits away from "cereals"
+        SearchResult<Post> oneEditResult = postService.fuzzySearchContents("cerial", 1);
+        Map<Long, int[]> actualMatches = new HashMap<>();
+        for (MatchResult<Post> matchResult : oneEditResult.getMatches()) {
+            actualMatches.put(matchResult.getItem().getId(), matchResult.getIndexes());
+            for (int length : matchResult.getLengths())
+                assertEquals(6, length, "Matched span should cover the word \"cereal\".");
+        }
+        assertEquals(2, actualMatches.size(), "Two posts should match with one edit.");
+        for (Post post : postService.getAllPosts()) {
+            if (post.getUserName().equals("user1")) {
+                assertArrayEquals(new int[]{7}, actualMatches.get(post.getId()), "Match positions should be identical.");
+            } else if (post.getUserName().equals("user3")) {
+                assertArrayEquals(new int[]{17}, actualMatches.get(post.getId()), "Match positions should be identical.");
+            }
+        }
+
+        // With two edits "Cereals" matches as well
+        SearchResult<Post> twoEditsResult = postService.fuzzySearchContents("cerial", 2);
+        assertEquals(3, twoEditsResult.countMatches(), "There should be 3 matches found with two edits.");
+
+        // The index follows edits made through the service
+        Post post = null;
+        for (Post p : postService.getAllPosts()) {
+            if (p.getUserName().equals("user2"))
+                post = p;
+        }
+        assertNotNull(post, "The post of user2 should exist.");
+        postService.editPost(post.getId(), "Title B", "user2", "Now about cereal too");
+        assertEquals(3, postService.fuzzySearchContents("cerial", 1).getMatches().size(),
+                "The edited post should now match.");
+    }
+
+    @Test
+    void testSearchPlanIsRecorded() throws IOException {
+        postService.createPost("Title A", "user1", "Breakfast: cereal with milk");
+        postService.createPost("Title B", "user2", "Milk first, then cereal");
+        postService.createPost("Title C", "user3", "Nothing to see here");
+
+        // A part of a word, a pattern spanning two words and a missing pattern
+        String[] patterns = {"erea", "with milk", "pancakes"};
+        int[] expectedMatchingPosts = {2, 1, 0};
+        for (int i = 0; i < patterns.length; i++) {
+            SearchResult<Post> searchResult = postService.stringMatchingSearchContents(patterns[i]);
+            assertNotNull(searchResult.getPlan(), "The executed plan should be reported.");
+            assertEquals(expectedMatchingPosts[i], searchResult.getMatches().size(),
+                    "Wrong number of matching posts for: " + patterns[i]);
+        }
+
+        // Every search is recorded with the plan that ran
+        List<SearchPlanLog.Entry> recent = postService.getSearchPlanLog().getRecent();
+        assertEquals(patterns.length, recent.size(), "Every search should be recorded.");
+        for (SearchPlanLog.Entry entry : recent) {
+            assertEquals("content", entry.field(), "The searched field should be recorded.");
+            assertTrue(entry.elapsedNanos() >= 0, "The measured latency should be recorded.");
+        }
+    }
+
+    @Test
+    void testSearchAfterEdit() throws IOException {
+        postService.createPost("Title", "user1", "Cereal with milk");
+        Post post = postDao.getAll().getFirst();
+        assertEquals(1, postService.stringMatchingSearchContents("with milk").getMatches().size(),
+                "The original content should match.");
+
+        // The indexes of the post are rebuilt with the new content
+        assertTrue(postService.editPost(post.getId(), "Title", "user1", "Cereal with cocoa"));
+        assertEquals(0, postService.stringMatchingSearchContents("with milk").getMatches().size(),
+                "The old content should no longer match.");
+        assertEquals(1, postService.stringMatchingSearchContents("with cocoa").getMatches().size(),
+                "The new content should match.");
+    }
+
+    @Test
+    void testSearchWithBloomFilters() throws IOException {
+        System.setProperty(SearchIndex.BLOOM_BITS_PROPERTY, "10");
+        try {
+            // A service whose text fields are indexed with Bloom filters instead of trigram postings
+            postService = new PostService(new PostDaoImpl(tempDir.resolve("bloom-posts.json").toString()),
+                    commentDao, userDao);
+        } finally {
+            System.clearProperty(SearchIndex.BLOOM_BITS_PROPERTY);
+        }
+        String filler = "Cereal with milk and a few words about breakfast. ".repeat(5);
+        for (int i = 0; i < 20; i++)
+            postService.createPost("Post " + i, "user1", filler + (i % 5 == 0 ? "Toast with strawberry jam." : ""));
+
+        // A long pattern leaves few documents to verify after the filters
+        SearchResult<Post> longPattern = postService.stringMatchingSearchContents("strawberry jam");
+        assertEquals("BLOOM_PREFILTER", longPattern.getPlan());
+        assertEquals(4, longPattern.getMatches().size(), "Every post with the pattern should pass its filter.");
+        // A pattern without trigrams cannot use them
+        SearchResult<Post> shortPattern = postService.stringMatchingSearchContents("ja");
+        assertFalse(shortPattern.getPlan().equals("BLOOM_PREFILTER"), "planned " + shortPattern.getPlan());
+        assertEquals(4, shortPattern.getMatches().size());
+
+        // The filter of an edited post is rebuilt
+        Post post = postService.stringMatchingSearchContents("strawberry jam").getMatches().getFirst().getItem();
+        postService.editPost(post.getId(), post.getTitle(), "user1", filler);
+        assertEquals(3, postService.stringMatchingSearchContents("strawberry jam").getMatches().size());
+    }
+
+    @Test
+    void testSearchContentSnippets() throws IOException {
+        // A long post with hits at its beginning, in its middle and at its end
+        String filler = "x".repeat(5000);
+        String content = "milk " + filler + " milk and milk " + filler + " milk";
+        postService.createPost("Long Post", "user1", content);
+
+        SearchResult<Post> searchResult = postService.stringMatchingSearchContents("milk");
+        SnippetExtractor<Post> extractor = new SnippetExtractor<>(Post::getId, _ -> null, Post::getTitle);
+        SnippetSearchResult snippetResult = extractor.extract(searchResult, Post::getContent, 10, 3, 10);
+
+        assertEquals(1, snippetResult.getMatches().size(), "One post should match.");
+        SnippetMatch match = snippetResult.getMatches().getFirst();
+        assertEquals("Long Post", match.getTitle(), "Title should match.");
+        assertEquals(4, match.getHitCount(), "All the hits should be counted.");
+
+        // The first three hits get windows: the two middle hits share one
+        assertEquals(2, match.getSnippets().size(), "There should be two windows.");
+        for (Snippet snippet : match.getSnippets()) {
+            assertTrue(snippet.getText().length() <= 10 + "milk".length() + 10,
+                    "Windows should not be larger than the context around a hit.");
+            for (int offset : snippet.getHighlightOffsets()) {
+                assertEquals("milk", snippet.getText().substring(offset, offset + 4),
+                        "Highlights should be relative to the window.");
+            }
+        }
+        assertArrayEquals(new int[]{0}, match.getSnippets().get(0).getHighlightOffsets(), "First window highlight.");
+        assertArrayEquals(new int[]{10, 19}, match.getSnippets().get(1).getHighlightOffsets(), "Second window highlights.");
+    }
+
+    @Test
+    void testFilteredSearchContents() throws IOException {
+        long day = 24L * 60 * 60 * 1000;
+        long now = Instant.now().toEpochMilli();
+        // Posts saved directly through the DAO, with chosen authors and creation times
+        postDao.save(new Post(101L, "Old", "user1", "Talking about milk", now - 30 * day));
+        postDao.save(new Post(102L, "Recent", "user1", "More milk talk", now - day));
+        postDao.save(new Post(103L, "Recent", "user2", "Milk again", now - day));
+        postDao.save(new Post(104L, "Recent", "user1", "Nothing related", now - day));
+
+        SearchResult<Post> byUser = postService.stringMatchingSearchContents("milk",
+                new SearchFilter("user1", null, null));
+        assertEquals(2, byUser.getMatches().size(), "Two posts of user1 mention milk.");
+
+        SearchResult<Post> lastWeek = postService.stringMatchingSearchContents("milk",
+                new SearchFilter(null, now - 7 * day, null));
+        assertEquals(2, lastWeek.getMatches().size(), "Two posts of the last week mention milk.");
+
+        SearchResult<Post> byUserLastWeek = postService.stringMatchingSearchContents("milk",
+                new SearchFilter("user1", now - 7 * day, now));
+        assertEquals(1, byUserLastWeek.getMatches().size(), "One post of user1 of the last week mentions milk.");
+        assertEquals(102L, byUserLastWeek.getMatches().getFirst().getItem().getId(), "The recent post of user1 should match.");
+
+        SearchResult<Post> fuzzyByUser = postService.fuzzySearchContents("mlk", 1,
+                new SearchFilter("user2", null, null));
+        assertEquals(1, fuzzyByUser.getMatches().size(), "The filter also applies to fuzzy searches.");
+
+        // The indexes follow removals
+        assertTrue(postService.removePost(102L, "user1"), "Owner should be able to remove their post.");
+        assertEquals(0, postService.stringMatchingSearchContents("milk",
+                new SearchFilter("user1", now - 7 * day, now)).getMatches().size(), "Removed posts should not match.");
+    }
+
+    @Test
+    void testStreamSearchContents() throws IOException {
+        for (long id = 201; id <= 205; id++) {
+            postDao.save(new Post(id, "Stream " + id, "user1", "Streaming milk number " + id, Instant.now().toEpochMilli()));
+        }
+
+        List<Long> streamed = new ArrayList<>();
+        SearchSummary summary = postService.streamSearchContents("milk", SearchFilter.NONE, 3, (post, indexes) -> {
+            assertTrue(indexes.length > 0, "Streamed matches should carry their indexes.");
+            streamed.add(post.getId());
+            return true;
+        });
+        assertEquals(3, streamed.size(), "The stream should stop after maxResults matches.");
+        assertEquals(3, summary.matches(), "The summary should count the streamed matches.");
+        assertTrue(summary.truncated(), "The summary should report the truncation.");
+
+        streamed.clear();
+        summary = postService.streamSearchContents("milk", SearchFilter.NONE, Integer.MAX_VALUE, (post, _) -> {
+            streamed.add(post.getId());
+            return streamed.size() < 2;
+        });
+        assertEquals(2, streamed.size(), "A sink returning false should stop the search.");
+        assertTrue(summary.truncated(), "A stopped search is truncated.");
+
+        for (int maxResults : new int[]{0, -1}) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> postService.streamSearchContents("milk", SearchFilter.NONE, maxResults, (_, _) -> true),
+                    "maxResults " + maxResults + " should be rejected.");
+        }
+    }
+
+    @Test
+    void testCompactSearchContents() throws IOException {
+        for (int i = 0; i < 20; i++)
+            postService.createPost("Title " + i, "user1", "milk ".repeat(i % 4) + "and cereal");
+
+        SearchResult<Post> searchResult = postService.stringMatchingSearchContents("milk");
+        CompactSearchResult compactResult = postService.compactSearchContents("milk", SearchFilter.NONE);
+        assertEquals(searchResult.getMatches().size(), compactResult.getEntityCount(),
+                "Both results should have the same matching posts.");
+        assertEquals(searchResult.countMatches(), compactResult.countMatches(),
+                "Both results should have the same matches.");
+        for (int i = 0; i < compactResult.getEntityCount(); i++) {
+            MatchResult<Post> match = searchResult.getMatches().get(i);
+            assertEquals(match.getItem().getId(), compactResult.getId(i), "The ids should be in the same order.");
+            assertArrayEquals(match.getIndexes(), compactResult.getIndexes(i), "The offsets should be the same.");
+        }
+
+        // The delta-encoded wire form reads back to the same result and is much smaller
+        Gson gson = new Gson();
+        String json = gson.toJson(compactResult);
+        CompactSearchResult readBack = gson.fromJson(json, CompactSearchResult.class);
+        assertEquals(compactResult.getPlan(), readBack.getPlan(), "The plan should be kept.");
+        for (int i = 0; i < compactResult.getEntityCount(); i++) {
+            assertEquals(compactResult.getId(i), readBack.getId(i), "The ids should be decoded.");
+            assertArrayEquals(compactResult.getIndexes(i), readBack.getIndexes(i), "The offsets should be decoded.");
+        }
+        assertTrue(json.length() < gson.toJson(searchResult).length() / 4,
+                "The compact form should be much smaller than the full result.");
+    }
+
+    @Test
+    void testQuerySearch() throws IOException {
+        long now = Instant.now().toEpochMilli();
+        postDao.save(new Post(301L, "Fresh milk", "user1", "Where to buy fresh milk?", now));
+        postDao.save(new Post(302L, "Breakfast", "user2", "Milk, then fresh bread", now));
+        postDao.save(new Post(303L, "Cereal", "user1", "Cereal with milk or yogurt", now));
+        postDao.save(new Post(304L, "Yogurt", "user2", "Homemade yogurt recipe", now));
+
+        assertEquals(List.of(301L, 302L, 303L), ids(postService.querySearch("milk", SearchFilter.NONE)),
+                "A word is looked for in titles and contents.");
+        assertEquals(List.of(301L), ids(postService.querySearch("\"fresh milk\"", SearchFilter.NONE)),
+                "A phrase needs its words one right after the other.");
+        assertEquals(List.of(301L), ids(postService.querySearch("title:milk", SearchFilter.NONE)),
+                "A field prefix restricts the field.");
+        assertEquals(List.of(302L, 303L), ids(postService.querySearch("milk AND NOT title:fresh", SearchFilter.NONE)),
+                "NOT excludes documents.");
+        assertEquals(List.of(303L, 304L), ids(postService.querySearch("yogurt OR (bread user:user1)", SearchFilter.NONE)),
+                "OR unites and adjacent clauses are AND-ed.");
+        assertEquals(List.of(302L, 304L), ids(postService.querySearch("NOT user:user1", SearchFilter.NONE)),
+                "A negative query matches every other document.");
+        assertEquals(List.of(301L, 303L), ids(postService.querySearch("milk", new SearchFilter("user1", null, null))),
+                "The filter applies to queries.");
+
+        QueryMatch<Post> match = postService.querySearch("\"fresh milk\" OR bread", SearchFilter.NONE)
+                .getMatches().getFirst();
+        assertArrayEquals(new int[]{0}, match.getIndexes().get("title"), "The phrase is highlighted in the title.");
+        assertArrayEquals(new int[]{10}, match.getLengths().get("title"), "The highlight spans the whole phrase.");
+        assertArrayEquals(new int[]{13}, match.getIndexes().get("content"), "The phrase is highlighted in the content.");
+
+        assertThrows(IllegalArgumentException.class, () -> postService.querySearch("milk AND", SearchFilter.NONE),
+                "A malformed query is rejected.");
+        assertThrows(IllegalArgumentException.class, () -> postService.querySearch("(milk", SearchFilter.NONE),
+                "Unbalanced parentheses are rejected.");
+    }
+
+    private static List<Long> ids(QueryResult<Post> queryResult) {
+        return queryResult.getMatches().stream().map(match -> match.getItem().getId()).toList();
+    }
 }
@@ -0,0 +1,73 @@
+package com.hit.service;
+
+import com.hit.dao.CommentDaoImpl;
+import com.hit.dao.PostDaoImpl;
+import com.hit.dao.UserDaoImpl;
+import com.hit.dm.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchServiceTest {
+    @TempDir
+    Path tempDir;  // Temporary directory for file-based tests
+
+    private PostDaoImpl postDao;
+    private CommentDaoImpl commentDao;
+    private SearchService searchService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // Build file paths in the temporary directory for each DAO
+        String postFilePath = tempDir.resolve("posts.json").toString();
+        String commentFilePath = tempDir.resolve("comments.json").toString();
+        String userFilePath = tempDir.resolve("users.json").toString();
+
+        // Instantiate concrete DAO implementations that persist to file
+        postDao = new PostDaoImpl(postFilePath);
+        commentDao = new CommentDaoImpl(commentFilePath);
+        UserDaoImpl userDao = new UserDaoImpl(userFilePath);
+
+        // The search service works on the indexes of the post and comment services
+        PostService postService = new PostService(postDao, commentDao, userDao);
+        CommentService commentService = new CommentService(commentDao, userDao);
+        searchService = new SearchService(postService, commentService);
+    }
+
+    @Test
+    void testSearchAllGroupsByPost() throws IOException {
+        long now = Instant.now().toEpochMilli();
+        postDao.save(new Post(1L, "Cereal first", "user1", "Milk goes after the cereal", now));
+        postDao.save(new Post(2L, "Breakfast", "user2", "Toast and jam", now));
+        postDao.save(new Post(3L, "Dinner", "user3", "Soup", now));
+        commentDao.save(new Comment(1L, 2L, "user1", "I prefer cereal", now));
+        commentDao.save(new Comment(2L, 2L, "user3", "Cereal is the best", now));
+        commentDao.save(new Comment(3L, 3L, "user1", "Nothing to add", now));
+        // A comment whose post does not exist
+        commentDao.save(new Comment(4L, 99L, "user1", "Orphan cereal", now));
+
+        UnifiedSearchResult searchResult = searchService.searchAll("cereal");
+
+        assertTrue(searchResult.hasMatches(), "There should be at least one match found.");
+        assertEquals(2, searchResult.getGroups().size(), "Two posts should be in the result.");
+
+        PostSearchGroup first = searchResult.getGroups().get(0);
+        assertEquals(1L, first.getPost().getId(), "Groups should be ordered by post id.");
+        assertArrayEquals(new int[]{0}, first.getTitleIndexes(), "Title match positions should be identical.");
+        assertArrayEquals(new int[]{20}, first.getContentIndexes(), "Content match positions should be identical.");
+        assertTrue(first.getComments().isEmpty(), "The first post has no matching comments.");
+
+        PostSearchGroup second = searchResult.getGroups().get(1);
+        assertEquals(2L, second.getPost().getId(), "The second group should be post 2.");
+        assertEquals(0, second.getTitleIndexes().length, "Post 2 does not match by title.");
+        assertEquals(2, second.getComments().size(), "Both comments of post 2 match.");
+
+        assertEquals(4, searchResult.countMatches(), "There should be 4 matches found.");
+    }
+}